@@ -0,0 +1,140 @@
+package org.wikidata.analyzer.Fetcher;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.analyzer.Pipeline.DumpStreams;
+import org.wikidata.wdtk.dumpfiles.DumpContentType;
+import org.wikidata.wdtk.dumpfiles.MwDumpFile;
+import org.wikidata.wdtk.dumpfiles.wmf.WmfDumpFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class to download JSON dumps with a RangedDownloader from the fastest of a list of mirrors, such as
+ * dumps.wikimedia.org and archive.org, moving on to the others when it slows down or fails
+ *
+ * When streaming, preparing the dump only starts the download, and the dump is read as it comes in, so that it is
+ * processed in about the time of the slower of downloading and processing rather than in both times together.
+ *
+ * @author Addshore
+ */
+class DownloadedJsonDumpFile extends WmfDumpFile implements MwDumpFile {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(DownloadedJsonDumpFile.class);
+
+    private final List<String> urls;
+    private final RangedDownloader downloader;
+    private final File dumpfileDirectory;
+    private final int threads;
+    private final boolean streaming;
+
+    private boolean isPrepared;
+
+    /**
+     * The download while streaming, or null
+     */
+    private RangedDownloader.Download download;
+
+    /**
+     * Constructor. Currently only "wikidatawiki" is supported as a project.
+     *
+     * @param dateStamp
+     *            dump date in format YYYYMMDD
+     * @param projectName
+     *            project name string (e.g. "wikidatawiki")
+     * @param urls
+     *            the URLs the dump might be at
+     * @param downloader
+     *            the downloader to download the dump with
+     * @param dumpfileDirectory
+     *            the directory where dumps should be downloaded to
+     * @param threads
+     *            number of threads to decompress bzip2 dumps with
+     * @param streaming
+     *            whether to read the dump while it is downloading
+     */
+    DownloadedJsonDumpFile(String dateStamp, String projectName, List<String> urls,
+                           RangedDownloader downloader, File dumpfileDirectory,
+                           int threads, boolean streaming) {
+        super(dateStamp, projectName);
+        this.urls = urls;
+        this.downloader = downloader;
+        this.dumpfileDirectory = dumpfileDirectory;
+        this.threads = threads;
+        this.streaming = streaming;
+    }
+
+    @Override
+    public DumpContentType getDumpContentType() {
+        return DumpContentType.JSON;
+    }
+
+    @Override
+    protected boolean fetchIsDone() {
+        return true;
+    }
+
+    @Override
+    public InputStream getDumpFileStream() throws IOException {
+        prepareDumpFile();
+
+        File file = this.getFile();
+        if (this.download != null) {
+            return DumpStreams.open(this.download.openStream(), file.getName(), this.threads);
+        }
+        return DumpStreams.open(file, this.threads);
+    }
+
+    @Override
+    public void prepareDumpFile() throws IOException {
+        if (this.isPrepared) {
+            return;
+        }
+
+        File file = this.getFile();
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Failed to create " + file.getParent());
+        }
+
+        List<MirrorSelector.Mirror> mirrors = new MirrorSelector().rank(this.urls);
+        if (mirrors.isEmpty()) {
+            throw new IOException(
+                    "Dump file not available (yet). Aborting dump retrieval."
+            );
+        }
+        List<String> urls = new ArrayList<>();
+        for (MirrorSelector.Mirror mirror : mirrors) {
+            logger.info("Mirror " + mirror);
+            urls.add(mirror.getUrl());
+        }
+
+        logger.info("Downloading JSON dump file " + file.getName() + " from "
+                + urls.get(0) + " ...");
+        if (this.streaming) {
+            this.download = this.downloader.start(urls, file);
+            this.isPrepared = true;
+            logger.info("... reading JSON dump file " + file.getName() + " while it is downloading");
+            return;
+        }
+        this.downloader.download(urls, file);
+
+        this.isPrepared = true;
+
+        logger.info("... completed download of JSON dump file " + file.getName());
+    }
+
+    /**
+     * @return the file the dump is downloaded to, like json-20161031/20161031.json.gz
+     */
+    private File getFile() {
+        return new File(
+                new File(this.dumpfileDirectory, WmfDumpFile.getDumpFileDirectoryName(DumpContentType.JSON, this.dateStamp)),
+                WmfDumpFile.getDumpFileName(DumpContentType.JSON, this.projectName, this.dateStamp)
+        );
+    }
+}
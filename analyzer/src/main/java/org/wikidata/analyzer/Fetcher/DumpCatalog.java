@@ -0,0 +1,254 @@
+package org.wikidata.analyzer.Fetcher;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * What is known about dumps, kept in dumpcatalog.json of the data directory, so that runs do not have to look for
+ * them again:
+ *
+ * - "local": the local dump files found before by date, with their "path", "size", "modified" time and "fingerprint".
+ *   A catalogued file is only checked with a single look at its size and modification time, rather than by looking
+ *   for it under all the names in all the directories dumps can be in.
+ * - "listing": the dates of the dumps online, with the "etag" and "lastModified" headers of the listing page to
+ *   fetch it again with a conditional request, and when it was "fetched" last.
+ *
+ * The fingerprint is the SHA-1 of the size and the first and last megabyte of a file, rather than of the whole file,
+ * which would take a read of over 100GB. It tells whether a file whose modification time changed, for example by
+ * copying it, is still the same file.
+ */
+public class DumpCatalog {
+
+    private static final String FILE_NAME = "dumpcatalog.json";
+    private static final int FINGERPRINT_SAMPLE = 1024 * 1024;
+
+    private final File file;
+    private final JSONObject catalog;
+    private boolean changed = false;
+
+    private DumpCatalog(File file, JSONObject catalog) {
+        this.file = file;
+        this.catalog = catalog;
+    }
+
+    /**
+     * @return the catalog of the data directory, which is empty if there is none yet or it can not be read
+     */
+    public static DumpCatalog load(File dataDirectory) {
+        File file = new File(dataDirectory, FILE_NAME);
+        JSONObject catalog = new JSONObject();
+        if (file.exists()) {
+            try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                catalog = (JSONObject) new JSONParser().parse(reader);
+            } catch (IOException | ParseException | ClassCastException e) {
+                System.out.println("Ignoring unreadable dump catalog " + file + ": " + e.getMessage());
+            }
+        }
+        return new DumpCatalog(file, catalog);
+    }
+
+    /**
+     * Writes the catalog, replacing the earlier one at once
+     */
+    public void save() throws IOException {
+        File temporary = new File(this.file.getPath() + ".new");
+        try (Writer writer = Files.newBufferedWriter(temporary.toPath(), StandardCharsets.UTF_8)) {
+            this.catalog.writeJSONString(writer);
+        }
+        Files.move(temporary.toPath(), this.file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        this.changed = false;
+    }
+
+    /**
+     * @return whether the catalog changed since it was loaded or saved, such as by looking up a dump
+     */
+    public boolean hasChanges() {
+        return this.changed;
+    }
+
+    /**
+     * Looks the dump of the date up, dropping catalogued files that are gone or changed
+     *
+     * @param extensions the extensions of the files to use, in order of preference
+     * @return the catalogued dump file, or null if there is none
+     */
+    public File getLocalDump(String date, List<String> extensions) {
+        JSONArray entries = (JSONArray) this.section("local").get(date);
+        if (entries == null) {
+            return null;
+        }
+        for (Iterator<?> iterator = entries.iterator(); iterator.hasNext(); ) {
+            if (!this.isUnchanged((JSONObject) iterator.next())) {
+                iterator.remove();
+                this.changed = true;
+            }
+        }
+        for (String extension : extensions) {
+            for (Object entry : entries) {
+                String path = (String) ((JSONObject) entry).get("path");
+                if (path.endsWith(extension)) {
+                    return new File(path);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a local dump file of the date, replacing what was known about it
+     */
+    @SuppressWarnings("unchecked")
+    public void addLocalDump(String date, File dump) throws IOException {
+        JSONArray entries = (JSONArray) this.section("local").get(date);
+        if (entries == null) {
+            entries = new JSONArray();
+            this.section("local").put(date, entries);
+        }
+        String path = dump.getAbsolutePath();
+        entries.removeIf(entry -> path.equals(((JSONObject) entry).get("path")));
+        JSONObject entry = new JSONObject();
+        entry.put("path", path);
+        entry.put("size", dump.length());
+        entry.put("modified", dump.lastModified());
+        entry.put("fingerprint", fingerprint(dump));
+        entries.add(entry);
+        this.changed = true;
+    }
+
+    /**
+     * @return the dates of the dumps online, in ascending order, or an empty list if they were never fetched
+     */
+    public List<String> getOnlineDates() {
+        List<String> dates = new ArrayList<>();
+        JSONArray listed = (JSONArray) this.section("listing").get("dates");
+        if (listed != null) {
+            for (Object date : listed) {
+                dates.add((String) date);
+            }
+        }
+        return dates;
+    }
+
+    /**
+     * @return when the listing was fetched or found unchanged last, in milliseconds since the epoch, or 0 if never
+     */
+    public long getListingFetched() {
+        Object fetched = this.section("listing").get("fetched");
+        return fetched == null ? 0 : (Long) fetched;
+    }
+
+    /**
+     * @return the ETag header of the listing as fetched last, or null
+     */
+    public String getListingEtag() {
+        return (String) this.section("listing").get("etag");
+    }
+
+    /**
+     * @return the Last-Modified header of the listing as fetched last, or null
+     */
+    public String getListingLastModified() {
+        return (String) this.section("listing").get("lastModified");
+    }
+
+    /**
+     * @param dates the dates of the dumps online, in ascending order
+     * @param etag the ETag header of the listing, or null
+     * @param lastModified the Last-Modified header of the listing, or null
+     */
+    @SuppressWarnings("unchecked")
+    public void setListing(List<String> dates, String etag, String lastModified) {
+        JSONObject listing = this.section("listing");
+        JSONArray listed = new JSONArray();
+        listed.addAll(dates);
+        listing.put("dates", listed);
+        listing.put("etag", etag);
+        listing.put("lastModified", lastModified);
+        this.setListingFetched(System.currentTimeMillis());
+    }
+
+    /**
+     * @param fetched when the listing was found unchanged, in milliseconds since the epoch
+     */
+    @SuppressWarnings("unchecked")
+    public void setListingFetched(long fetched) {
+        this.section("listing").put("fetched", fetched);
+        this.changed = true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private JSONObject section(String name) {
+        JSONObject section = (JSONObject) this.catalog.get(name);
+        if (section == null) {
+            section = new JSONObject();
+            this.catalog.put(name, section);
+        }
+        return section;
+    }
+
+    /**
+     * Compares a file to its entry, updating the modification time of files that were only touched
+     */
+    @SuppressWarnings("unchecked")
+    private boolean isUnchanged(JSONObject entry) {
+        File file = new File((String) entry.get("path"));
+        long size = file.length();
+        if (size == 0 || size != (Long) entry.get("size")) {
+            return false;
+        }
+        if (file.lastModified() == (Long) entry.get("modified")) {
+            return true;
+        }
+        try {
+            if (fingerprint(file).equals(entry.get("fingerprint"))) {
+                entry.put("modified", file.lastModified());
+                this.changed = true;
+                return true;
+            }
+        } catch (IOException e) {
+            // Not readable
+        }
+        return false;
+    }
+
+    private static String fingerprint(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long size = in.length();
+            digest.update(Long.toString(size).getBytes(StandardCharsets.UTF_8));
+            byte[] sample = new byte[(int) Math.min(FINGERPRINT_SAMPLE, size)];
+            in.readFully(sample);
+            digest.update(sample);
+            in.seek(size - sample.length);
+            in.readFully(sample);
+            digest.update(sample);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+}
@@ -3,46 +3,120 @@ package org.wikidata.analyzer.Fetcher;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.wikidata.wdtk.util.WebResourceFetcher;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
+ * Finds the date of the latest online dump from the listing of dumps.wikimedia.org, which is kept in the DumpCatalog.
+ * A listing fetched within the last hour is used without asking again, and an older one is only fetched again if it
+ * changed since, according to its ETag and Last-Modified headers.
+ *
  * @author Addshore
  */
 public class DumpDateFetcher {
 
+    private static final String LISTING_URL = "https://dumps.wikimedia.org/other/wikidata/";
+    private static final long LISTING_MAX_AGE = 60 * 60 * 1000;
+
+    private static final Pattern DUMP_FILE_NAME = Pattern.compile("([0-9]{8})\\.json\\.gz");
+
+    private final File dataDirectory;
+    private final String listingUrl;
+    private final long listingMaxAge;
+
+    /**
+     * @param dataDirectory the directory the DumpCatalog is kept in
+     */
+    public DumpDateFetcher(File dataDirectory) {
+        this(dataDirectory, LISTING_URL, LISTING_MAX_AGE);
+    }
+
+    DumpDateFetcher(File dataDirectory, String listingUrl, long listingMaxAge) {
+        this.dataDirectory = dataDirectory;
+        this.listingUrl = listingUrl;
+        this.listingMaxAge = listingMaxAge;
+    }
+
     /**
-     * This presumes that the newest dump is at the bottom of the list (ordered by name)
-     *
      * @return String in format yyyymmdd eg. 20150525
-     * @throws IOException
+     * @throws IOException if there is no listing
      */
     public String getLatestOnlineDumpDate() throws IOException {
-        String html = this.getJsonDumpsPageHtml();
-        Document doc = Jsoup.parse(html);
-        Element finalLink = doc.select("a").last();
-        String fileName = finalLink.html();
-        return fileName.substring(0, fileName.length() - 8);// remove 8 chars
+        DumpCatalog catalog = DumpCatalog.load(this.dataDirectory);
+        List<String> dates = catalog.getOnlineDates();
+        if (dates.isEmpty() || System.currentTimeMillis() - catalog.getListingFetched() >= this.listingMaxAge) {
+            try {
+                this.fetchListing(catalog);
+                catalog.save();
+            } catch (IOException e) {
+                if (dates.isEmpty()) {
+                    throw e;
+                }
+                System.out.println("WARNING: Using the dump listing of the catalog, fetching it failed: " + e.getMessage());
+            }
+            dates = catalog.getOnlineDates();
+        }
+        if (dates.isEmpty()) {
+            throw new IOException("No dumps listed at " + this.listingUrl);
+        }
+        return dates.get(dates.size() - 1);
+    }
+
+    /**
+     * Fetches the listing into the catalog, unless it did not change since it was fetched last
+     */
+    private void fetchListing(DumpCatalog catalog) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        if (!catalog.getOnlineDates().isEmpty()) {
+            if (catalog.getListingEtag() != null) {
+                headers.put("If-None-Match", catalog.getListingEtag());
+            }
+            if (catalog.getListingLastModified() != null) {
+                headers.put("If-Modified-Since", catalog.getListingLastModified());
+            }
+        }
+        HttpURLConnection connection = RangedDownloader.open(new URL(this.listingUrl), headers);
+        try {
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                catalog.setListingFetched(System.currentTimeMillis());
+                return;
+            }
+            try (InputStream in = connection.getInputStream()) {
+                catalog.setListing(
+                        getDumpDates(Jsoup.parse(in, "UTF-8", this.listingUrl)),
+                        connection.getHeaderField("ETag"),
+                        connection.getHeaderField("Last-Modified")
+                );
+            }
+        } finally {
+            connection.disconnect();
+        }
     }
 
     /**
-     * @return String html of the json dumps page for wikidata
-     * @throws IOException
+     * @return the dates of the dumps linked to from the listing, in ascending order
      */
-    private String getJsonDumpsPageHtml() throws IOException {
-        WebResourceFetcher fetcher = new RedirectFollowingWebResourceFetcherImpl();
-        Reader r = new InputStreamReader(fetcher.getInputStreamForUrl("http://dumps.wikimedia.org/other/wikidata/"));
-        StringBuilder buf = new StringBuilder();
-        while (true) {
-            int ch = r.read();
-            if (ch < 0)
-                break;
-            buf.append((char) ch);
+    private static List<String> getDumpDates(Document listing) {
+        List<String> dates = new ArrayList<>();
+        for (Element link : listing.select("a")) {
+            Matcher matcher = DUMP_FILE_NAME.matcher(link.attr("href"));
+            if (matcher.matches()) {
+                dates.add(matcher.group(1));
+            }
         }
-        return buf.toString();
+        Collections.sort(dates);
+        return dates;
     }
 
 }
@@ -1,35 +1,79 @@
 package org.wikidata.analyzer.Fetcher;
 
 import org.wikidata.wdtk.dumpfiles.MwDumpFile;
-import org.wikidata.wdtk.dumpfiles.MwLocalDumpFile;
-import org.wikidata.wdtk.dumpfiles.wmf.JsonOnlineDumpFile;
-import org.wikidata.wdtk.util.DirectoryManager;
-import org.wikidata.wdtk.util.DirectoryManagerImpl;
-import org.wikidata.wdtk.util.WebResourceFetcher;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author Addshore
  */
 public class DumpFetcher {
 
+    public static final List<String> DEFAULT_MIRRORS = Arrays.asList(
+            // Like https://dumps.wikimedia.org/other/wikidata/20161031.json.gz
+            "https://dumps.wikimedia.org/other/wikidata/{date}.json.gz",
+            // Like http://archive.org/download/wikidata-json-20160104/wikidata-20160104-all.json.gz
+            "http://archive.org/download/wikidata-json-{date}/wikidata-{date}-all.json.gz",
+            // Like https://archive.org/download/wikidata-json-20141020/20141020.json.gz
+            "http://archive.org/download/wikidata-json-{date}/{date}.json.gz"
+    );
+
     private File dataDirectory;
 
+    /**
+     * Number of threads to decompress bzip2 dumps with
+     */
+    private int threads;
+
+    /**
+     * Whether online dumps are processed while they are downloading
+     */
+    private boolean streaming = false;
+
+    /**
+     * The URLs of the online dump, with {date} for the date of the dump
+     */
+    private List<String> mirrors = DEFAULT_MIRRORS;
+
     public DumpFetcher(File dataDirectory) {
+        this(dataDirectory, 1);
+    }
+
+    /**
+     * @param dataDirectory the target storage directory
+     * @param threads number of threads the dump will be processed with, when more than 1 bzip2 dumps are
+     *                preferred as they can be decompressed in parallel
+     */
+    public DumpFetcher(File dataDirectory, int threads) {
         this.dataDirectory = dataDirectory;
+        this.threads = threads;
+    }
+
+    /**
+     * @param streaming whether to return online dumps as soon as they start downloading, the stream of such a dump
+     *                  follows the download, which still leaves the local copy for later runs
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * @param mirrors the URLs to download online dumps from, with {date} for the date of the dump, the fastest of
+     *                which is chosen
+     */
+    public void setMirrors(List<String> mirrors) {
+        this.mirrors = mirrors;
     }
 
     /**
      * Look for the most recent dump date online and try to retrieve as dump object with fallback:
-     * 1 - Look for local dump copies (in a collection of locations)
+     * 1 - Look for local dump copies (in the DumpCatalog, or else in a collection of locations)
      * 2 - Look online & download dumps
      *
      * @return MwDumpFile
@@ -38,6 +82,32 @@ public class DumpFetcher {
     public MwDumpFile getDump( String dumpDate ) throws IOException {
         System.out.println("Getting dump with date " + dumpDate);
 
+        MwDumpFile localDump = this.getLocalDump(dumpDate);
+        if (localDump != null) {
+            return localDump;
+        }
+        return this.getOnlineDump(dumpDate);
+    }
+
+    /**
+     * Look for the dump in the catalog, or else in a list of possible local locations
+     *
+     * @return the local dump, or null if there is none
+     */
+    private MwDumpFile getLocalDump( String dumpDate ) throws IOException {
+        DumpCatalog catalog = DumpCatalog.load(this.dataDirectory);
+        File cataloguedDump = catalog.getLocalDump(dumpDate, this.getExtensions());
+        // Keep what the look up found out about files that were gone, changed or only touched
+        if (catalog.hasChanges()) {
+            catalog.save();
+        }
+        if (cataloguedDump != null) {
+            System.out.println("Using dump file from the catalog: " + cataloguedDump);
+            LocalJsonDumpFile localDumpFile = new LocalJsonDumpFile( cataloguedDump.getPath(), dumpDate, this.threads );
+            localDumpFile.prepareDumpFile();
+            return localDumpFile;
+        }
+
         // Look for the dump in a list of possible local locations
         List<String> directoryList = new ArrayList<>();
         //Local data dir location
@@ -52,58 +122,79 @@ public class DumpFetcher {
 
             // Try and few different file names
             List<String> fileList = new ArrayList<>();
-            fileList.add(dumpDirectory + dumpDate + ".json.gz");
-            fileList.add(dumpDirectory + dumpDate + "-all.json.gz");
-            fileList.add(dumpDirectory + "wikidata-" + dumpDate + ".json.gz");
-            fileList.add(dumpDirectory + "wikidata-" + dumpDate + "-all.json.gz");
+            for (String extension : this.getExtensions()) {
+                fileList.add(dumpDirectory + dumpDate + extension);
+                fileList.add(dumpDirectory + dumpDate + "-all" + extension);
+                fileList.add(dumpDirectory + "wikidata-" + dumpDate + extension);
+                fileList.add(dumpDirectory + "wikidata-" + dumpDate + "-all" + extension);
+            }
 
+            // Catalog all of them, so that the preferred one can be picked from the catalog in later runs
+            LocalJsonDumpFile foundDumpFile = null;
             for (String dumpLocation: fileList) {
                 if (Files.exists(Paths.get(dumpLocation)) && Files.isReadable(Paths.get(dumpLocation))) {
-                    MwLocalDumpFile localDumpFile = new MwLocalDumpFile( dumpLocation );
+                    LocalJsonDumpFile localDumpFile = new LocalJsonDumpFile( dumpLocation, dumpDate, this.threads );
                     if( localDumpFile.isAvailable() ) {
-                        System.out.println("Using dump file from: " + dumpLocation);
-                        localDumpFile.prepareDumpFile();
-                        return localDumpFile;
+                        catalog.addLocalDump(dumpDate, new File(dumpLocation));
+                        if (foundDumpFile == null) {
+                            foundDumpFile = localDumpFile;
+                        }
                     }
                 }
             }
+            if (foundDumpFile != null) {
+                catalog.save();
+                System.out.println("Using dump file from: " + foundDumpFile.getPath());
+                foundDumpFile.prepareDumpFile();
+                return foundDumpFile;
+            }
 
         }
 
+        return null;
+    }
+
+    /**
+     * Look for the dump online and download it
+     *
+     * @return the downloaded dump
+     * @throws IOException if no online dump could be downloaded
+     */
+    private MwDumpFile getOnlineDump( String dumpDate ) throws IOException {
         // Get ready to try online dumps
-        DirectoryManager localDirectoryManager = new DirectoryManagerImpl(
-                Paths.get(this.dataDirectory.getAbsolutePath() + File.separator + "dumpfiles"),
-                false
-        );
-        WebResourceFetcher fetcher = new RedirectFollowingWebResourceFetcherImpl();
-
-        // List the online dumps
-        Map<String, MwDumpFile> onlineDumpMap = new HashMap<String, MwDumpFile>();
-        // dumps.wikimedia.org
-        onlineDumpMap.put(
-                "dumps.wikimedia.org",
-                new JsonOnlineDumpFile(dumpDate, "wikidatawiki", fetcher, localDirectoryManager)
-        );
-        onlineDumpMap.put(
-                "archive.org",
-                new ArchiveOrgJsonOnlineDumpFile(dumpDate, "wikidatawiki", fetcher, localDirectoryManager)
-        );
+        File dumpfileDirectory = new File(this.dataDirectory, "dumpfiles");
+        RangedDownloader downloader = new RangedDownloader(RangedDownloader.DEFAULT_SEGMENTS);
 
-        // Try the online dumps
-        for ( Map.Entry<String, MwDumpFile> entry : onlineDumpMap.entrySet() ) {
-            String dumpLocation = entry.getKey();
-            MwDumpFile onlineDump = entry.getValue();
-            try{
-                System.out.println("Looking for & downloading online dump from: " + dumpLocation);
-                onlineDump.prepareDumpFile();
-                System.out.println("Using dump from: " + dumpLocation);
-                return onlineDump;
-            } catch ( IOException exception ) {
-                // Ignore the exception so we can try the next online dump
-            }
+        List<String> urls = new ArrayList<>();
+        for (String mirror : this.mirrors) {
+            urls.add(mirror.replace("{date}", dumpDate));
         }
+        MwDumpFile onlineDump = new DownloadedJsonDumpFile(
+                dumpDate, "wikidatawiki", urls, downloader, dumpfileDirectory, this.threads, this.streaming
+        );
+        try {
+            System.out.println("Looking for & downloading online dump from " + urls.size() + " mirrors");
+            onlineDump.prepareDumpFile();
+        } catch ( IOException exception ) {
+            // Everything failed! :(
+            throw new IOException("Failed to get dump from any sources", exception);
+        }
+        if (this.streaming) {
+            return onlineDump;
+        }
+        // Prefer reading the downloaded copy ourselves, which allows for faster decompression
+        MwDumpFile downloadedDump = this.getLocalDump(dumpDate);
+        return downloadedDump != null ? downloadedDump : onlineDump;
+    }
 
-        // Everything failed! :(
-        throw new IOException("Failed to get dump from any sources");
+    /**
+     * @return the dump file extensions to look for, in order of preference
+     */
+    private List<String> getExtensions() {
+        List<String> extensions = new ArrayList<>();
+        extensions.add(".json.gz");
+        // bzip2 can be decompressed in parallel, gzip can not
+        extensions.add(this.threads > 1 ? 0 : 1, ".json.bz2");
+        return extensions;
     }
 }
@@ -0,0 +1,56 @@
+package org.wikidata.analyzer.Fetcher;
+
+import org.wikidata.analyzer.Pipeline.CountingInputStream;
+import org.wikidata.analyzer.Pipeline.DumpStreams;
+import org.wikidata.wdtk.dumpfiles.DumpContentType;
+import org.wikidata.wdtk.dumpfiles.MwLocalDumpFile;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A local JSON dump, which unlike MwLocalDumpFile may also be bzip2 compressed
+ * and is decompressed using DumpStreams.
+ */
+public class LocalJsonDumpFile extends MwLocalDumpFile {
+
+    private final int threads;
+
+    /**
+     * The compressed dump file as it is being read, or null before it is opened
+     */
+    private volatile CountingInputStream fileStream;
+
+    /**
+     * @param filePath path of the .json.gz or .json.bz2 dump
+     * @param dateStamp dump date in format YYYYMMDD
+     * @param threads number of threads to decompress bzip2 dumps with
+     */
+    public LocalJsonDumpFile(String filePath, String dateStamp, int threads) {
+        super(filePath, DumpContentType.JSON, dateStamp, "wikidatawiki");
+        this.threads = threads;
+    }
+
+    @Override
+    public InputStream getDumpFileStream() throws IOException {
+        if (!this.isAvailable()) {
+            throw new IOException("Local dump file \"" + this.getPath() + "\" is not available for reading.");
+        }
+        this.fileStream = new CountingInputStream(new FileInputStream(this.getPath().toFile()));
+        return DumpStreams.open(this.fileStream, this.getPath().getFileName().toString(), this.threads);
+    }
+
+    /**
+     * @return the part of the compressed dump file that has been read, from 0 to 1
+     */
+    public double getProgress() {
+        CountingInputStream fileStream = this.fileStream;
+        long size = this.getPath().toFile().length();
+        if (fileStream == null || size == 0) {
+            return 0;
+        }
+        return Math.min(1, (double) fileStream.getCount() / size);
+    }
+
+}
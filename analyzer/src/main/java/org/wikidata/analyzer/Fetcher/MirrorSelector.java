@@ -0,0 +1,150 @@
+package org.wikidata.analyzer.Fetcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Ranks the mirrors of a file by how fast they are, by probing all of them at the same time: whether they have the
+ * file, the time until the first byte of it comes in, and the throughput of downloading a sample from its start.
+ *
+ * Mirrors that do not have the file, or that do not answer within the time limit, are left out, as are mirrors whose
+ * file is not of the same length as that of the fastest mirror, as they can not be copies of the same file.
+ */
+class MirrorSelector {
+
+    private static final int SAMPLE_SIZE = 1024 * 1024;
+    private static final long DEFAULT_TIME_LIMIT = 15 * 1000;
+
+    private final long timeLimit;
+
+    MirrorSelector() {
+        this(DEFAULT_TIME_LIMIT);
+    }
+
+    /**
+     * @param timeLimit milliseconds to probe the mirrors for
+     */
+    MirrorSelector(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * @return the mirrors that have the file, the fastest first
+     */
+    List<Mirror> rank(List<String> urls) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, urls.size()));
+        List<Mirror> mirrors = new ArrayList<>();
+        try {
+            List<Future<Mirror>> probes = new ArrayList<>();
+            for (String url : urls) {
+                probes.add(executor.submit(() -> this.probe(url)));
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeLimit);
+            for (int i = 0; i < urls.size(); i++) {
+                try {
+                    mirrors.add(probes.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                } catch (ExecutionException e) {
+                    System.out.println("Mirror " + urls.get(i) + " left out: " + e.getCause().getMessage());
+                } catch (TimeoutException e) {
+                    System.out.println("Mirror " + urls.get(i) + " left out: No answer within " + this.timeLimit / 1000 + "s");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        mirrors.sort(Comparator.comparingDouble(Mirror::getThroughput).reversed());
+        if (!mirrors.isEmpty()) {
+            long length = mirrors.get(0).getLength();
+            mirrors.removeIf(mirror -> mirror.getLength() != length);
+        }
+        return mirrors;
+    }
+
+    private Mirror probe(String url) throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection connection = RangedDownloader.open(new URL(url), 0, SAMPLE_SIZE - 1);
+        try {
+            long length = connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL
+                    ? RangedDownloader.getTotalLength(connection)
+                    : connection.getContentLengthLong();
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[64 * 1024];
+                int read = in.read(buffer);
+                long firstByte = System.nanoTime();
+                if (read == -1) {
+                    throw new IOException("Empty file");
+                }
+                long sampled = read;
+                long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.timeLimit);
+                while (sampled < SAMPLE_SIZE && System.nanoTime() < deadline && (read = in.read(buffer)) != -1) {
+                    sampled += read;
+                }
+                // At least a millisecond, for small files that come in at once
+                long elapsed = Math.max(TimeUnit.MILLISECONDS.toNanos(1), System.nanoTime() - firstByte);
+                return new Mirror(url, length, firstByte - start, sampled * 1e9 / elapsed);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    static class Mirror {
+
+        private final String url;
+        private final long length;
+        private final long latency;
+        private final double throughput;
+
+        Mirror(String url, long length, long latency, double throughput) {
+            this.url = url;
+            this.length = length;
+            this.latency = latency;
+            this.throughput = throughput;
+        }
+
+        String getUrl() {
+            return this.url;
+        }
+
+        /**
+         * @return the length of the file, or -1 if the mirror does not tell
+         */
+        long getLength() {
+            return this.length;
+        }
+
+        /**
+         * @return nanoseconds until the first bytes of the file came in
+         */
+        long getLatency() {
+            return this.latency;
+        }
+
+        /**
+         * @return bytes per second after the first bytes came in
+         */
+        double getThroughput() {
+            return this.throughput;
+        }
+
+        @Override
+        public String toString() {
+            return this.url + " (" + this.latency / 1000000 + "ms to first byte, " + (long) (this.throughput / 1024) + "KB/s)";
+        }
+    }
+
+}
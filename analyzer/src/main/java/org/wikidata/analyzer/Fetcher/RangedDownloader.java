@@ -0,0 +1,602 @@
+package org.wikidata.analyzer.Fetcher;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Downloads a file over HTTP in segments that are fetched at the same time with Range requests, as a single
+ * connection to a dump mirror is slow, and a dump of over 100GB is unlikely to come through in one go.
+ *
+ * The segments are written into TARGET.part, and how far every segment got is kept in TARGET.part.progress, so that
+ * a download that is interrupted continues where it stopped when started again. A segment whose connection fails is
+ * retried from where it stopped, waiting longer after every attempt. Once all segments are complete the file is
+ * renamed to the target at once, so the target is never a partial file.
+ *
+ * Servers that do not answer Range requests are downloaded from in a single connection, from the start every time.
+ *
+ * The file can be downloaded from several mirrors of it, such as ranked by MirrorSelector. All segments start at the
+ * first mirror, and a segment moves on to the next mirror when its connection fails, or when its throughput collapses
+ * to less than an eighth of the best it had.
+ */
+public class RangedDownloader {
+
+    public static final int DEFAULT_SEGMENTS = 4;
+    private static final long DEFAULT_MIN_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final long DEFAULT_RETRY_DELAY = 1000;
+    private static final long DEFAULT_THROUGHPUT_WINDOW = 30 * 1000;
+    private static final int THROUGHPUT_COLLAPSE = 8;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int MAX_REDIRECTS = 5;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Bytes a segment downloads between updates of the progress file
+     */
+    private static final long PROGRESS_INTERVAL = 8L * 1024 * 1024;
+
+    private final int segments;
+    private final long minSegmentSize;
+    private final long retryDelay;
+    private long throughputWindow = DEFAULT_THROUGHPUT_WINDOW;
+
+    public RangedDownloader(int segments) {
+        this(segments, DEFAULT_MIN_SEGMENT_SIZE, DEFAULT_RETRY_DELAY);
+    }
+
+    /**
+     * @param minSegmentSize smallest number of bytes to give a segment of its own
+     * @param retryDelay milliseconds to wait before the first retry of a segment, doubled for every later one
+     */
+    RangedDownloader(int segments, long minSegmentSize, long retryDelay) {
+        this.segments = segments;
+        this.minSegmentSize = minSegmentSize;
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * @param throughputWindow milliseconds over which the throughput of a segment is measured
+     */
+    void setThroughputWindow(long throughputWindow) {
+        this.throughputWindow = throughputWindow;
+    }
+
+    /**
+     * Downloads the URL to the target file, continuing an earlier download of it if there is one
+     *
+     * @throws IOException if the download failed, what was downloaded is kept to continue from
+     */
+    public void download(String urlString, File target) throws IOException {
+        this.start(Collections.singletonList(urlString), target).await();
+    }
+
+    /**
+     * Downloads the file from the mirrors to the target file, continuing an earlier download of it if there is one
+     *
+     * @param urlStrings mirrors of the same file, the preferred one first
+     * @throws IOException if the download failed, what was downloaded is kept to continue from
+     */
+    public void download(List<String> urlStrings, File target) throws IOException {
+        this.start(urlStrings, target).await();
+    }
+
+    /**
+     * Starts downloading the file from the mirrors to the target file on a thread of its own, continuing an earlier
+     * download of it if there is one
+     *
+     * @param urlStrings mirrors of the same file, the preferred one first
+     * @throws IOException if the first mirror can not be downloaded from
+     */
+    public Download start(List<String> urlStrings, File target) throws IOException {
+        File part = new File(target.getPath() + ".part");
+        File progress = new File(target.getPath() + ".part.progress");
+
+        HttpURLConnection probe = open(new URL(urlStrings.get(0)), 0, 0);
+        List<URL> urls = new ArrayList<>();
+        urls.add(probe.getURL());
+        boolean ranged = probe.getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+        long[] starts;
+        AtomicLongArray positions;
+        try {
+            if (ranged) {
+                for (String urlString : urlStrings.subList(1, urlStrings.size())) {
+                    urls.add(new URL(urlString));
+                }
+                long length = getTotalLength(probe);
+                int count = (int) Math.max(1, Math.min(this.segments, (length + this.minSegmentSize - 1) / this.minSegmentSize));
+                starts = new long[count + 1];
+                for (int i = 0; i <= count; i++) {
+                    starts[i] = length * i / count;
+                }
+                positions = readProgress(progress, part, length, count);
+                if (positions == null) {
+                    positions = new AtomicLongArray(count);
+                    for (int i = 0; i < count; i++) {
+                        positions.set(i, starts[i]);
+                    }
+                } else {
+                    System.out.println("Continuing the download of " + target.getName());
+                }
+            } else {
+                // A single segment of a length that is only known at its end
+                starts = new long[]{0, Long.MAX_VALUE};
+                positions = new AtomicLongArray(1);
+            }
+        } finally {
+            probe.disconnect();
+        }
+
+        RandomAccessFile file = new RandomAccessFile(part, "rw");
+        file.setLength(ranged ? starts[starts.length - 1] : 0);
+        Download download = new Download(urls, target, part, file, new Progress(progress, file.getChannel(), positions), starts, ranged);
+        Thread thread = new Thread(download::run, "Downloading " + target.getName());
+        thread.setDaemon(true);
+        thread.start();
+        return download;
+    }
+
+    private void downloadSegments(Download download) throws IOException {
+        int count = download.starts.length - 1;
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int segment = i;
+                results.add(executor.submit(() -> {
+                    this.downloadSegment(download, segment);
+                    return null;
+                }));
+            }
+            IOException failure = null;
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause()
+                                : new IOException("Failed to download " + download.getUrl(), e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                download.progress.save();
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            download.progress.save();
+            throw new IOException("Interrupted while downloading " + download.getUrl(), e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Downloads a segment, or the whole file from servers that do not answer Range requests, from where it stopped.
+     * Every failure moves the segment on to the next mirror, and it gives up after failing a number of times in a row
+     * without getting any further.
+     */
+    private void downloadSegment(Download download, int segment) throws IOException {
+        long end = download.starts[segment + 1];
+        AtomicLongArray positions = download.progress.positions;
+        IOException failure = null;
+        int failures = 0;
+        int mirror = 0;
+        while (true) {
+            if (failure != null) {
+                if (failures == MAX_ATTEMPTS) {
+                    throw failure;
+                }
+                mirror = (mirror + 1) % download.urls.size();
+                System.out.println("Retrying segment " + segment + " from " + download.urls.get(mirror) + " after: " + failure.getMessage());
+                try {
+                    Thread.sleep(this.retryDelay << (failures - 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while downloading " + download.getUrl(), e);
+                }
+            }
+            if (!download.ranged) {
+                // Without ranges every attempt starts over
+                positions.set(segment, 0);
+            }
+            long start = positions.get(segment);
+            if (start == end) {
+                return;
+            }
+            try {
+                this.downloadRange(download, segment, download.urls.get(mirror), start, end);
+                return;
+            } catch (IOException e) {
+                failure = e;
+                failures = download.ranged && positions.get(segment) > start ? 1 : failures + 1;
+            }
+        }
+    }
+
+    private void downloadRange(Download download, int segment, URL url, long position, long end) throws IOException {
+        AtomicLongArray positions = download.progress.positions;
+        HttpURLConnection connection = download.ranged ? open(url, position, end - 1) : open(url, -1, -1);
+        try {
+            if (download.ranged) {
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("Got " + connection.getResponseCode() + " instead of a range of " + url);
+                }
+                if (getTotalLength(connection) != download.starts[download.starts.length - 1]) {
+                    throw new IOException("The file at " + url + " is not of the same length");
+                }
+            }
+            long saved = position;
+            long windowStart = System.nanoTime();
+            long windowBytes = 0;
+            double bestRate = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = connection.getInputStream()) {
+                int read;
+                while (position < end && (read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position))) != -1) {
+                    ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                    while (data.hasRemaining()) {
+                        position += download.channel.write(data, position);
+                    }
+                    positions.set(segment, position);
+                    download.advanced();
+                    if (!download.ranged) {
+                        continue;
+                    }
+                    if (position - saved >= PROGRESS_INTERVAL) {
+                        download.progress.save();
+                        saved = position;
+                    }
+                    windowBytes += read;
+                    long elapsed = System.nanoTime() - windowStart;
+                    if (elapsed >= this.throughputWindow * 1000000) {
+                        double rate = windowBytes * 1e9 / elapsed;
+                        if (rate < bestRate / THROUGHPUT_COLLAPSE) {
+                            throw new IOException("Throughput fell to " + (long) (rate / 1024) + "KB/s from " + (long) (bestRate / 1024) + "KB/s");
+                        }
+                        bestRate = Math.max(bestRate, rate);
+                        windowStart = System.nanoTime();
+                        windowBytes = 0;
+                    }
+                }
+            }
+            if (!download.ranged) {
+                long expected = connection.getContentLengthLong();
+                if (expected >= 0 && position != expected) {
+                    throw new IOException("Got " + position + " of " + expected + " bytes of " + url);
+                }
+                download.channel.truncate(position);
+            } else if (position < end) {
+                throw new IOException("Connection closed at byte " + position + " of segment " + segment);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Opens a connection, following redirects also between http and https
+     *
+     * @param first first byte to get, or -1 to get everything
+     * @param last last byte to get
+     */
+    static HttpURLConnection open(URL url, long first, long last) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        if (first >= 0) {
+            headers.put("Range", "bytes=" + first + "-" + last);
+        }
+        return open(url, headers);
+    }
+
+    /**
+     * Opens a connection with the request headers, following redirects also between http and https
+     *
+     * @throws IOException if the connection fails or the server answers with an error
+     */
+    static HttpURLConnection open(URL url, Map<String, String> headers) throws IOException {
+        for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout(30 * 1000);
+            connection.setReadTimeout(60 * 1000);
+            connection.setRequestProperty("User-Agent", "wikidata-analyzer");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_MOVED_TEMP
+                    && status != HttpURLConnection.HTTP_MOVED_PERM
+                    && status != HttpURLConnection.HTTP_SEE_OTHER
+                    && status != 307 && status != 308) {
+                if (status >= 400) {
+                    connection.disconnect();
+                    throw new IOException("Got " + status + " for " + url);
+                }
+                return connection;
+            }
+            String location = connection.getHeaderField("Location");
+            connection.disconnect();
+            if (location == null) {
+                throw new IOException("Redirect without location for " + url);
+            }
+            url = new URL(url, location);
+        }
+        throw new IOException("Too many redirects for " + url);
+    }
+
+    /**
+     * @return the length of the whole file, from a Content-Range like "bytes 0-0/1234"
+     */
+    static long getTotalLength(HttpURLConnection connection) throws IOException {
+        String range = connection.getHeaderField("Content-Range");
+        int slash = range == null ? -1 : range.lastIndexOf('/');
+        try {
+            if (slash >= 0) {
+                return Long.parseLong(range.substring(slash + 1).trim());
+            }
+        } catch (NumberFormatException e) {
+            // Length not known, such as "bytes 0-0/*"
+        }
+        throw new IOException("No length in Content-Range " + range + " of " + connection.getURL());
+    }
+
+    /**
+     * @return the positions of the segments of an earlier download of the same file, or null if there is none
+     */
+    private static AtomicLongArray readProgress(File progress, File part, long length, int count) {
+        if (!progress.exists() || !part.exists() || part.length() != length) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(progress))) {
+            if (in.readLong() != length || in.readInt() != count) {
+                return null;
+            }
+            AtomicLongArray positions = new AtomicLongArray(count);
+            for (int i = 0; i < count; i++) {
+                positions.set(i, in.readLong());
+            }
+            return positions;
+        } catch (IOException e) {
+            // Not written completely, start over
+            return null;
+        }
+    }
+
+    /**
+     * A download in progress, whose bytes can be read in order while the rest is still coming in
+     */
+    public class Download {
+
+        private final List<URL> urls;
+        private final File target;
+        private final File part;
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final Progress progress;
+        private final long[] starts;
+        private final boolean ranged;
+
+        private volatile boolean finished;
+        private volatile IOException failure;
+
+        Download(List<URL> urls, File target, File part, RandomAccessFile file, Progress progress, long[] starts, boolean ranged) {
+            this.urls = urls;
+            this.target = target;
+            this.part = part;
+            this.file = file;
+            this.channel = file.getChannel();
+            this.progress = progress;
+            this.starts = starts;
+            this.ranged = ranged;
+        }
+
+        /**
+         * Waits for the download to finish
+         *
+         * @throws IOException if the download failed, what was downloaded is kept to continue from
+         */
+        public synchronized void await() throws IOException {
+            try {
+                while (!this.finished) {
+                    this.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the download of " + this.getUrl(), e);
+            }
+            if (this.failure != null) {
+                throw this.failure;
+            }
+        }
+
+        /**
+         * Opens the file as it is being downloaded. Reads wait for the bytes to come in, and throw the failure of the
+         * download if it fails. The file is read back from disk, where it mostly still is in the page cache, so
+         * segments that come in ahead of the reader do not have to be kept in memory.
+         */
+        public synchronized InputStream openStream() throws IOException {
+            // Once finished the part file is renamed, which a channel opened before does not notice
+            File file = this.finished && this.failure == null ? this.target : this.part;
+            return new DownloadInputStream(this, FileChannel.open(file.toPath(), StandardOpenOption.READ));
+        }
+
+        /**
+         * @return the number of bytes from the start of the file that have been downloaded without gaps
+         */
+        long available() {
+            for (int i = 0; i < this.starts.length - 1; i++) {
+                long position = this.progress.positions.get(i);
+                if (position < this.starts[i + 1]) {
+                    return position;
+                }
+            }
+            return this.starts[this.starts.length - 1];
+        }
+
+        /**
+         * @return the URL of the preferred mirror
+         */
+        URL getUrl() {
+            return this.urls.get(0);
+        }
+
+        boolean isFinished() {
+            return this.finished;
+        }
+
+        IOException getFailure() {
+            return this.failure;
+        }
+
+        synchronized void advanced() {
+            this.notifyAll();
+        }
+
+        private void run() {
+            IOException failure = null;
+            try {
+                if (this.ranged) {
+                    RangedDownloader.this.downloadSegments(this);
+                } else {
+                    RangedDownloader.this.downloadSegment(this, 0);
+                }
+                this.channel.force(true);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                try {
+                    this.file.close();
+                } catch (IOException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            synchronized (this) {
+                try {
+                    if (failure == null) {
+                        Files.move(this.part.toPath(), this.target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                        Files.deleteIfExists(this.progress.file.toPath());
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+                this.failure = failure;
+                this.finished = true;
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Reads a download in order, waiting for bytes that did not come in yet
+     */
+    private static class DownloadInputStream extends InputStream {
+
+        private final Download download;
+        private final FileChannel channel;
+        private long position;
+
+        DownloadInputStream(Download download, FileChannel channel) {
+            this.download = download;
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            synchronized (this.download) {
+                try {
+                    while (this.position >= this.download.available() && !this.download.isFinished()) {
+                        this.download.wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the download", e);
+                }
+            }
+            if (this.download.getFailure() != null) {
+                throw new IOException("The download failed", this.download.getFailure());
+            }
+            long available = this.download.available();
+            if (this.position >= available) {
+                return -1;
+            }
+            int read = this.channel.read(
+                    ByteBuffer.wrap(buffer, offset, (int) Math.min(length, available - this.position)),
+                    this.position
+            );
+            this.position += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * The positions the segments got to, which are saved to the progress file after what they downloaded is written
+     * to disk, so that a saved position is never ahead of the data in the file
+     */
+    private static class Progress {
+
+        final File file;
+        private final FileChannel channel;
+        final AtomicLongArray positions;
+
+        Progress(File file, FileChannel channel, AtomicLongArray positions) {
+            this.file = file;
+            this.channel = channel;
+            this.positions = positions;
+        }
+
+        synchronized void save() throws IOException {
+            long[] saved = new long[this.positions.length()];
+            for (int i = 0; i < saved.length; i++) {
+                saved[i] = this.positions.get(i);
+            }
+            this.channel.force(false);
+            File temporary = new File(this.file.getPath() + ".new");
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temporary))) {
+                out.writeLong(this.channel.size());
+                out.writeInt(saved.length);
+                for (long position : saved) {
+                    out.writeLong(position);
+                }
+            }
+            Files.move(temporary.toPath(), this.file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package org.wikidata.analyzer.Fetcher;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.wikidata.analyzer.Ids.IdSet;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -32,6 +33,13 @@ public class RefPropFetcher extends WikiDataFetcher {
         return getPropertiesFromWikidata();
     }
 
+    /**
+     * @return the codes (see EntityIds) of the properties intended for use in references
+     */
+    public IdSet getReferencePropertyIds() {
+        return IdSet.of(this.getReferenceProperties());
+    }
+
     private List<String> readPropertiesFromCacheFile(File cacheFile) {
         List<String> line = new ArrayList<>();
         try (Scanner scanner = new Scanner(cacheFile)) {
@@ -0,0 +1,94 @@
+package org.wikidata.analyzer.Fetcher;
+
+import org.wikidata.analyzer.Ids.IdMap;
+import org.wikidata.analyzer.Ids.IdSet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Data from Wikidata that processors need to process the dump, such as the properties intended for use in references,
+ * which is fetched with a SPARQL query (or read from its cache) on a thread of its own.
+ *
+ * Processors declare the data they need once they know the directory it is cached in, so that all of it is fetched
+ * at the same time while the dump is looked for or downloaded, and get it when they are set up to process the dump,
+ * which only waits for data that did not come in yet. Data declared by several processors for the same data directory is fetched once,
+ * unless fetching it failed, in which case it is fetched again when it is declared again.
+ *
+ * @param <T> the type of the data
+ */
+public class ReferenceData<T> {
+
+    private static final Map<String, ReferenceData<?>> DECLARED = new ConcurrentHashMap<>();
+
+    private final CompletableFuture<T> value;
+
+    private ReferenceData(CompletableFuture<T> value) {
+        this.value = value;
+    }
+
+    /**
+     * @return the codes (see EntityIds) of the properties intended for use in references
+     */
+    public static ReferenceData<IdSet> referenceProperties(File dataDirectory) {
+        return declare("reference properties", dataDirectory, () -> new RefPropFetcher(dataDirectory).getReferencePropertyIds());
+    }
+
+    /**
+     * @return the database names of the Wikimedia projects, by the code (see EntityIds) of their item
+     */
+    public static ReferenceData<IdMap<String>> wikimediaDatabaseNames(File dataDirectory) {
+        return declare("Wikimedia database names", dataDirectory, () -> new WikimediasFetcher(dataDirectory).getDatabaseNames());
+    }
+
+    /**
+     * @return data that is there already, such as given to processors in tests
+     */
+    public static <T> ReferenceData<T> of(T value) {
+        return new ReferenceData<>(CompletableFuture.completedFuture(value));
+    }
+
+    /**
+     * Waits for the data if it did not come in yet
+     *
+     * @throws IllegalStateException if fetching the data failed
+     */
+    public T get() {
+        try {
+            return this.value.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for reference data", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to fetch reference data", e.getCause());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> ReferenceData<T> declare(String name, File dataDirectory, Supplier<T> fetch) {
+        String key = name + " in " + dataDirectory.getAbsolutePath();
+        CompletableFuture<T> value = new CompletableFuture<>();
+        ReferenceData<T> data = new ReferenceData<>(value);
+        ReferenceData<T> declared = (ReferenceData<T>) DECLARED.putIfAbsent(key, data);
+        if (declared != null) {
+            return declared;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                value.complete(fetch.get());
+            } catch (RuntimeException e) {
+                // Before the failure is seen, so that declaring the data again fetches it again
+                DECLARED.remove(key, data);
+                value.completeExceptionally(e);
+            }
+        }, "Fetching " + name);
+        thread.setDaemon(true);
+        thread.start();
+        return data;
+    }
+
+}
@@ -5,6 +5,8 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
+import org.wikidata.analyzer.Ids.EntityIds;
+import org.wikidata.analyzer.Ids.IdMap;
 
 import java.io.File;
 import java.io.FileReader;
@@ -35,6 +37,17 @@ public class WikimediasFetcher extends WikiDataFetcher {
         return getWikimediasFromWikidata();
     }
 
+    /**
+     * @return the database names of the Wikimedia projects, by the code (see EntityIds) of their item
+     */
+    public IdMap<String> getDatabaseNames() {
+        IdMap<String> databaseNames = new IdMap<>();
+        for (Map<String, String> mediawiki : this.getMediawikis()) {
+            databaseNames.put(EntityIds.encode(mediawiki.get(ENTITYID_KEY)), mediawiki.get(DBNAME_KEY));
+        }
+        return databaseNames;
+    }
+
     private List<HashMap<String, String>> readWikimediasFromCacheFile(String cacheLocation) {
         JSONParser parser = new JSONParser();
         try {
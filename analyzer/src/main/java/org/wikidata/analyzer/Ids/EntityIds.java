@@ -0,0 +1,70 @@
+package org.wikidata.analyzer.Ids;
+
+/**
+ * Encodes entity ids such as Q42 and P31 as a single long, so that they can be kept in primitive arrays
+ * instead of as Strings. The number of the id is kept in the upper bits and its letter in the lowest 7 bits,
+ * so codes of the same type sort by number and no valid id has the code 0.
+ */
+public final class EntityIds {
+
+    private static final int TYPE_BITS = 7;
+    private static final long TYPE_MASK = (1L << TYPE_BITS) - 1;
+
+    private EntityIds() {
+    }
+
+    /**
+     * @param entityId such as Q42
+     * @return the code of the id
+     * @throws IllegalArgumentException if it is not a letter followed by a number
+     */
+    public static long encode(String entityId) {
+        int length = entityId.length();
+        if (length < 2 || length > 19) {
+            throw new IllegalArgumentException("Not an entity id: " + entityId);
+        }
+        long number = 0;
+        for (int i = 1; i < length; i++) {
+            char digit = entityId.charAt(i);
+            if (digit < '0' || digit > '9') {
+                throw new IllegalArgumentException("Not an entity id: " + entityId);
+            }
+            number = number * 10 + digit - '0';
+        }
+        return encode(entityId.charAt(0), number);
+    }
+
+    /**
+     * @param type letter of the id, such as 'Q'
+     * @param number number of the id, such as 42
+     * @return the code of the id
+     */
+    public static long encode(char type, long number) {
+        if (type < 'A' || type > 'Z') {
+            throw new IllegalArgumentException("Not an entity type: " + type);
+        }
+        return number << TYPE_BITS | type;
+    }
+
+    /**
+     * @return the id, such as Q42, of the given code
+     */
+    public static String decode(long code) {
+        return getType(code) + Long.toString(getNumber(code));
+    }
+
+    /**
+     * @return the letter of the id of the given code, such as 'Q' for items
+     */
+    public static char getType(long code) {
+        return (char) (code & TYPE_MASK);
+    }
+
+    /**
+     * @return the number of the id of the given code, such as 42 for Q42
+     */
+    public static long getNumber(long code) {
+        return code >>> TYPE_BITS;
+    }
+
+}
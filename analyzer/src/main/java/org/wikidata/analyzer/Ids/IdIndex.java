@@ -0,0 +1,72 @@
+package org.wikidata.analyzer.Ids;
+
+import java.io.Serializable;
+
+/**
+ * Fixed set of entity id codes (see EntityIds), each with a dense index from 0 to the size less one,
+ * so that values for them can be kept in plain arrays.
+ */
+public class IdIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long[] codes;
+    private final long[] table;
+    private final int[] indexes;
+
+    /**
+     * @param codes the codes to index, each getting its position in the array as index
+     */
+    public IdIndex(long[] codes) {
+        this.codes = codes.clone();
+        int length = 16;
+        while (length < codes.length * 2) {
+            length *= 2;
+        }
+        this.table = new long[length];
+        this.indexes = new int[length];
+        for (int index = 0; index < codes.length; index++) {
+            if (codes[index] == IdMap.FREE) {
+                throw new IllegalArgumentException("Not an entity id code: " + codes[index]);
+            }
+            int slot = IdMap.find(this.table, codes[index]);
+            if (this.table[slot] == codes[index]) {
+                throw new IllegalArgumentException("Code is indexed twice: " + EntityIds.decode(codes[index]));
+            }
+            this.table[slot] = codes[index];
+            this.indexes[slot] = index;
+        }
+    }
+
+    /**
+     * @return the index of the code, or -1 if it is not indexed
+     */
+    public int indexOf(long code) {
+        int slot = IdMap.find(this.table, code);
+        return this.table[slot] == code && code != IdMap.FREE ? this.indexes[slot] : -1;
+    }
+
+    /**
+     * @param entityId such as Q42, which does not have to be a valid id
+     * @return the index of the id, or -1 if it is not indexed
+     */
+    public int indexOf(String entityId) {
+        try {
+            return this.indexOf(EntityIds.encode(entityId));
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the code with the given index
+     */
+    public long getCode(int index) {
+        return this.codes[index];
+    }
+
+    public int size() {
+        return this.codes.length;
+    }
+
+}
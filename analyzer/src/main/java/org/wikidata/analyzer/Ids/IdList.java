@@ -0,0 +1,42 @@
+package org.wikidata.analyzer.Ids;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Growable list of entity id codes (see EntityIds), or of other longs, in a single long array.
+ */
+public class IdList implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long[] codes = new long[16];
+    private int size;
+
+    public void add(long code) {
+        if (this.size == this.codes.length) {
+            this.codes = Arrays.copyOf(this.codes, this.size * 2);
+        }
+        this.codes[this.size++] = code;
+    }
+
+    public void addAll(IdList list) {
+        if (this.size + list.size > this.codes.length) {
+            this.codes = Arrays.copyOf(this.codes, Math.max(this.size + list.size, this.size * 2));
+        }
+        System.arraycopy(list.codes, 0, this.codes, this.size, list.size);
+        this.size += list.size;
+    }
+
+    public long get(int index) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException(index + " of " + this.size);
+        }
+        return this.codes[index];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+}
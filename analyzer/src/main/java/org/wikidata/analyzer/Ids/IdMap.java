@@ -0,0 +1,120 @@
+package org.wikidata.analyzer.Ids;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Map from entity id codes (see EntityIds) to objects, kept in two arrays using open addressing,
+ * so there are no entry objects and no boxed keys.
+ *
+ * @param <V> type of the values
+ */
+public class IdMap<V> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Code of the free slots, which no valid id has
+     */
+    static final long FREE = 0;
+
+    private long[] codes = new long[16];
+    private Object[] values = new Object[16];
+    private int size;
+
+    /**
+     * @param values values by entity id, such as Q42
+     */
+    public static <V> IdMap<V> of(Map<String, V> values) {
+        IdMap<V> map = new IdMap<>();
+        for (Map.Entry<String, V> entry : values.entrySet()) {
+            map.put(EntityIds.encode(entry.getKey()), entry.getValue());
+        }
+        return map;
+    }
+
+    /**
+     * @return the value of the code, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long code) {
+        int slot = find(this.codes, code);
+        return this.codes[slot] == code ? (V) this.values[slot] : null;
+    }
+
+    /**
+     * @param entityId such as Q42, which does not have to be a valid id
+     * @return the value of the id, or null if there is none
+     */
+    public V get(String entityId) {
+        try {
+            return this.get(EntityIds.encode(entityId));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public boolean containsKey(long code) {
+        return this.codes[find(this.codes, code)] == code;
+    }
+
+    public void put(long code, V value) {
+        if (code == FREE) {
+            throw new IllegalArgumentException("Not an entity id code: " + code);
+        }
+        int slot = find(this.codes, code);
+        this.values[slot] = value;
+        if (this.codes[slot] != code) {
+            this.codes[slot] = code;
+            if (++this.size * 2 > this.codes.length) {
+                this.grow();
+            }
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the codes in the map, in no particular order
+     */
+    public long[] keys() {
+        long[] result = new long[this.size];
+        int index = 0;
+        for (long code : this.codes) {
+            if (code != FREE) {
+                result[index++] = code;
+            }
+        }
+        return result;
+    }
+
+    private void grow() {
+        long[] oldCodes = this.codes;
+        Object[] oldValues = this.values;
+        this.codes = new long[oldCodes.length * 2];
+        this.values = new Object[oldCodes.length * 2];
+        for (int i = 0; i < oldCodes.length; i++) {
+            if (oldCodes[i] != FREE) {
+                int slot = find(this.codes, oldCodes[i]);
+                this.codes[slot] = oldCodes[i];
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * @param codes table with a power of two length that is never full
+     * @return the slot of the code in the table, or the free slot where it belongs
+     */
+    static int find(long[] codes, long code) {
+        int mask = codes.length - 1;
+        int slot = (int) ((code * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (codes[slot] != code && codes[slot] != FREE) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+}
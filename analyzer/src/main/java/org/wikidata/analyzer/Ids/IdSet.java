@@ -0,0 +1,86 @@
+package org.wikidata.analyzer.Ids;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Set of entity id codes (see EntityIds), kept in a single long array using open addressing.
+ */
+public class IdSet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long[] codes = new long[16];
+    private int size;
+
+    public static IdSet of(Iterable<String> entityIds) {
+        IdSet set = new IdSet();
+        for (String entityId : entityIds) {
+            set.add(EntityIds.encode(entityId));
+        }
+        return set;
+    }
+
+    /**
+     * @return whether the code was not in the set yet
+     */
+    public boolean add(long code) {
+        if (code == IdMap.FREE) {
+            throw new IllegalArgumentException("Not an entity id code: " + code);
+        }
+        int slot = IdMap.find(this.codes, code);
+        if (this.codes[slot] == code) {
+            return false;
+        }
+        this.codes[slot] = code;
+        if (++this.size * 2 > this.codes.length) {
+            this.grow();
+        }
+        return true;
+    }
+
+    public boolean contains(long code) {
+        return this.codes[IdMap.find(this.codes, code)] == code;
+    }
+
+    /**
+     * @param entityId such as P31, which does not have to be a valid id
+     */
+    public boolean contains(String entityId) {
+        try {
+            return this.contains(EntityIds.encode(entityId));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the codes in the set, in ascending order
+     */
+    public long[] toArray() {
+        long[] result = new long[this.size];
+        int index = 0;
+        for (long code : this.codes) {
+            if (code != IdMap.FREE) {
+                result[index++] = code;
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void grow() {
+        long[] oldCodes = this.codes;
+        this.codes = new long[oldCodes.length * 2];
+        for (long code : oldCodes) {
+            if (code != IdMap.FREE) {
+                this.codes[IdMap.find(this.codes, code)] = code;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package org.wikidata.analyzer.Pipeline;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer of bits that are not necessarily byte aligned, written most significant bit first.
+ */
+class BitBuffer {
+
+    private byte[] data;
+    private long bitLength;
+
+    BitBuffer(int initialBytes) {
+        this.data = new byte[Math.max(initialBytes, 16)];
+    }
+
+    long getBitLength() {
+        return this.bitLength;
+    }
+
+    void writeBit(int bit) {
+        this.ensureCapacity(1);
+        if (bit != 0) {
+            this.data[(int) (this.bitLength >>> 3)] |= 0x80 >>> (this.bitLength & 7);
+        }
+        this.bitLength++;
+    }
+
+    /**
+     * Writes the lowest count bits of value, count being at most 64
+     */
+    void writeBits(long value, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            this.writeBit((int) (value >>> i) & 1);
+        }
+    }
+
+    void writeByte(int value) {
+        this.ensureCapacity(8);
+        int index = (int) (this.bitLength >>> 3);
+        int offset = (int) (this.bitLength & 7);
+        if (offset == 0) {
+            this.data[index] = (byte) value;
+        } else {
+            this.data[index] |= (value & 0xFF) >>> offset;
+            this.data[index + 1] = (byte) (value << (8 - offset));
+        }
+        this.bitLength += 8;
+    }
+
+    void append(BitBuffer other) {
+        long fullBytes = other.bitLength >>> 3;
+        for (int i = 0; i < fullBytes; i++) {
+            this.writeByte(other.data[i]);
+        }
+        for (long bit = fullBytes * 8; bit < other.bitLength; bit++) {
+            this.writeBit(other.getBit(bit));
+        }
+    }
+
+    int getBit(long position) {
+        return (this.data[(int) (position >>> 3)] >>> (7 - (position & 7))) & 1;
+    }
+
+    /**
+     * Reads count bits starting at position, count being at most 64
+     */
+    long getBits(long position, int count) {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            value = (value << 1) | this.getBit(position + i);
+        }
+        return value;
+    }
+
+    /**
+     * Drops all bits after the given length
+     */
+    void truncate(long length) {
+        if (length >= this.bitLength) {
+            return;
+        }
+        int lastByte = (int) ((this.bitLength - 1) >>> 3);
+        int firstCleared = (int) ((length + 7) >>> 3);
+        Arrays.fill(this.data, firstCleared, lastByte + 1, (byte) 0);
+        if ((length & 7) != 0) {
+            this.data[(int) (length >>> 3)] &= 0xFF << (8 - (length & 7));
+        }
+        this.bitLength = length;
+    }
+
+    /**
+     * @return the bits padded with zeros to a whole number of bytes
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(this.data, (int) ((this.bitLength + 7) >>> 3));
+    }
+
+    private void ensureCapacity(int bits) {
+        long neededBytes = ((this.bitLength + bits) >>> 3) + 1;
+        if (neededBytes > this.data.length) {
+            this.data = Arrays.copyOf(this.data, (int) Math.max(neededBytes, this.data.length * 2L));
+        }
+    }
+
+}
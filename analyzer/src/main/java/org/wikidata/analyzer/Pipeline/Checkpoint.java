@@ -0,0 +1,81 @@
+package org.wikidata.analyzer.Pipeline;
+
+import org.wikidata.analyzer.Processor.WikidataAnalyzerProcessor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The position in the (uncompressed) dump up to which all entities have been processed,
+ * together with the state of every processor at that point.
+ */
+public class Checkpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long offset;
+    private final Map<String, Serializable> states;
+
+    Checkpoint(long offset, Map<String, Serializable> states) {
+        this.offset = offset;
+        this.states = new HashMap<>(states);
+    }
+
+    /**
+     * @param offset position in the dump up to which the processors have seen all entities
+     * @param processors the processors, with all their shards merged
+     */
+    static Checkpoint capture(long offset, List<WikidataAnalyzerProcessor> processors) throws IOException {
+        Map<String, Serializable> states = new HashMap<>();
+        for (WikidataAnalyzerProcessor processor : processors) {
+            states.put(processor.getClass().getName(), processor.getCheckpointState());
+        }
+        return new Checkpoint(offset, states);
+    }
+
+    /**
+     * @return number of bytes of the uncompressed dump that have been processed
+     */
+    public long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * @return the checkpoint states of the processors, by processor class name
+     */
+    public Map<String, Serializable> getStates() {
+        return this.states;
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file first, so an earlier checkpoint is only replaced by a complete one
+     */
+    void write(File file) throws IOException {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+            out.writeObject(this);
+        }
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static Checkpoint read(File file) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (Checkpoint) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unreadable checkpoint " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+}
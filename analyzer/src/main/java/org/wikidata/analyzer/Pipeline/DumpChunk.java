@@ -0,0 +1,27 @@
+package org.wikidata.analyzer.Pipeline;
+
+/**
+ * A batch of complete lines read from a JSON dump.
+ *
+ * The data always starts at the beginning of a line and ends just after a line break
+ * (or at the end of the dump), so workers can split it into lines without looking at
+ * neighbouring chunks.
+ */
+class DumpChunk {
+
+    /**
+     * Chunk marking the end of the dump
+     */
+    static final DumpChunk END = new DumpChunk(-1, new byte[0], 0);
+
+    final long sequence;
+    final byte[] data;
+    final int length;
+
+    DumpChunk(long sequence, byte[] data, int length) {
+        this.sequence = sequence;
+        this.data = data;
+        this.length = length;
+    }
+
+}
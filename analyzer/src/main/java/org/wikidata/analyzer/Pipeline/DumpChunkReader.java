@@ -0,0 +1,100 @@
+package org.wikidata.analyzer.Pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a (decompressed) dump stream into chunks of whole lines.
+ *
+ * No per line work is done here, the reader only looks for the last line break in each
+ * buffer and carries the remainder over to the next chunk.
+ */
+class DumpChunkReader {
+
+    private final InputStream inputStream;
+    private final int chunkSize;
+
+    private byte[] carry = new byte[0];
+    private int carryLength = 0;
+    private long sequence = 0;
+    private long offset;
+    private boolean finished = false;
+
+    /**
+     * @param inputStream the dump, positioned at the start of a line
+     * @param chunkSize size of the chunks to read
+     * @param offset position of the input stream in the dump
+     */
+    DumpChunkReader(InputStream inputStream, int chunkSize, long offset) {
+        this.inputStream = inputStream;
+        this.chunkSize = chunkSize;
+        this.offset = offset;
+    }
+
+    /**
+     * @return the position in the dump just after the last chunk returned
+     */
+    long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * @return the next chunk, or null once the stream is exhausted
+     * @throws IOException
+     */
+    DumpChunk next() throws IOException {
+        if (this.finished) {
+            return null;
+        }
+
+        byte[] buffer = new byte[Math.max(this.chunkSize, this.carryLength * 2)];
+        System.arraycopy(this.carry, 0, buffer, 0, this.carryLength);
+        int length = this.carryLength;
+        int searchFrom = this.carryLength;
+
+        while (true) {
+            if (length == buffer.length) {
+                // A single line is longer than the buffer, so grow it
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = this.inputStream.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                this.finished = true;
+                this.carryLength = 0;
+                if (length == 0) {
+                    return null;
+                }
+                this.offset += length;
+                return new DumpChunk(this.sequence++, buffer, length);
+            }
+            length += read;
+            if (length < buffer.length) {
+                continue;
+            }
+
+            int lastLineBreak = lastIndexOf(buffer, (byte) '\n', searchFrom, length);
+            searchFrom = length;
+            if (lastLineBreak >= 0) {
+                int chunkLength = lastLineBreak + 1;
+                this.carryLength = length - chunkLength;
+                if (this.carry.length < this.carryLength) {
+                    this.carry = new byte[Math.max(this.carryLength, this.chunkSize / 4)];
+                }
+                System.arraycopy(buffer, chunkLength, this.carry, 0, this.carryLength);
+                this.offset += chunkLength;
+                return new DumpChunk(this.sequence++, buffer, chunkLength);
+            }
+        }
+    }
+
+    private static int lastIndexOf(byte[] buffer, byte value, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
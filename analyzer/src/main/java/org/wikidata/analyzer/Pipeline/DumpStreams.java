@@ -0,0 +1,56 @@
+package org.wikidata.analyzer.Pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens (compressed) dump files with the fastest decompression available for their format:
+ *  - .bz2 files are decompressed block by block on several threads
+ *  - .gz files can only be decompressed sequentially, which is done on a thread of its own with large buffers
+ */
+public class DumpStreams {
+
+    private static final int FILE_BUFFER_SIZE = 1024 * 1024;
+    private static final int GZIP_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * @param file the dump file, compressed according to its extension
+     * @param threads number of threads to decompress bzip2 files with
+     * @return stream of the uncompressed dump
+     */
+    public static InputStream open(File file, int threads) throws IOException {
+        return open(new FileInputStream(file), file.getName(), threads);
+    }
+
+    /**
+     * @param fileStream stream of the dump file, compressed according to the extension of its name
+     * @param name name of the dump file
+     * @param threads number of threads to decompress bzip2 files with
+     * @return stream of the uncompressed dump
+     */
+    public static InputStream open(InputStream fileStream, String name, int threads) throws IOException {
+        fileStream = new BufferedInputStream(fileStream, FILE_BUFFER_SIZE);
+        if (name.endsWith(".bz2")) {
+            return new ParallelBzip2InputStream(fileStream, threads);
+        }
+        if (name.endsWith(".gz")) {
+            return readAhead(new GZIPInputStream(fileStream, GZIP_BUFFER_SIZE));
+        }
+        return fileStream;
+    }
+
+    /**
+     * @return a stream that reads and decompresses the given stream on a thread of its own
+     */
+    public static InputStream readAhead(InputStream inputStream) {
+        if (inputStream instanceof ReadAheadInputStream || inputStream instanceof ParallelBzip2InputStream) {
+            return inputStream;
+        }
+        return new ReadAheadInputStream(inputStream, "dump-decompressor");
+    }
+
+}
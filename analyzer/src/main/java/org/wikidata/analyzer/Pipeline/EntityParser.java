@@ -0,0 +1,66 @@
+package org.wikidata.analyzer.Pipeline;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.wikidata.analyzer.Processor.EntitySections;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
+import org.wikidata.wdtk.datamodel.json.jackson.JacksonItemDocument;
+import org.wikidata.wdtk.datamodel.json.jackson.JacksonPropertyDocument;
+import org.wikidata.wdtk.datamodel.json.jackson.JacksonTermedStatementDocument;
+
+import java.io.IOException;
+
+/**
+ * Parses the JSON of single entities the same way WDTK's JsonDumpFileProcessor does,
+ * skipping the sections of the entity that are not needed.
+ */
+class EntityParser {
+
+    private static final ObjectReader DOCUMENT_READER = new ObjectMapper()
+            .reader(JacksonTermedStatementDocument.class)
+            .with(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
+
+    private final EntitySections sections;
+
+    EntityParser(EntitySections sections) {
+        this.sections = sections;
+    }
+
+    /**
+     * @return the document, or null if the JSON is not a valid entity
+     */
+    JacksonTermedStatementDocument parse(byte[] data, int start, int end) {
+        try {
+            JacksonTermedStatementDocument document;
+            if (this.sections.isAll()) {
+                document = DOCUMENT_READER.readValue(data, start, end - start);
+            } else {
+                JsonParser parser = DOCUMENT_READER.getFactory().createParser(data, start, end - start);
+                document = DOCUMENT_READER.readValue(new SectionSkippingParser(parser, this.sections));
+            }
+            document.setSiteIri(Datamodel.SITE_WIKIDATA);
+            return document;
+        } catch (JsonProcessingException e) {
+            System.out.println("Error when reading JSON for entity: " + e.getMessage());
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read JSON input: " + e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Passes a parsed document on to the matching method of the processor
+     */
+    static void dispatch(JacksonTermedStatementDocument document, EntityDocumentProcessor processor) {
+        if (document instanceof JacksonItemDocument) {
+            processor.processItemDocument((JacksonItemDocument) document);
+        } else if (document instanceof JacksonPropertyDocument) {
+            processor.processPropertyDocument((JacksonPropertyDocument) document);
+        }
+    }
+
+}
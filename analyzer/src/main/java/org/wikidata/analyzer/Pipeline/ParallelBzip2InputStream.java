@@ -0,0 +1,316 @@
+package org.wikidata.analyzer.Pipeline;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decompresses bzip2 data (including concatenated streams as written by pbzip2) using several threads.
+ *
+ * The blocks of a bzip2 stream are compressed independently and start with a 48 bit magic number,
+ * though not at byte boundaries. A scanner thread looks for these magic numbers and cuts the input
+ * into blocks, each of which is wrapped into a bzip2 stream of its own and decompressed on a pool of
+ * decoder threads. The output is returned in the original order.
+ *
+ * The magic number can also appear by chance within the compressed data of a block. The pieces of such a block
+ * fail their CRC check, in which case they are joined with the following piece and decompressed again.
+ */
+public class ParallelBzip2InputStream extends InputStream {
+
+    static final long BLOCK_MAGIC = 0x314159265359L;
+    static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = 0xFFFFFFFFFFFFL;
+
+    private static final Segment END = new Segment(false, 9);
+    private static final byte[] EMPTY = new byte[0];
+
+    private final InputStream in;
+    private final ExecutorService decoders;
+    private final BlockingQueue<Segment> segments;
+    private final Thread scanner;
+    private final AtomicReference<IOException> scanFailure = new AtomicReference<>();
+
+    private byte[] block = EMPTY;
+    private int position;
+    private boolean finished;
+
+    /**
+     * @param in the compressed input
+     * @param threads number of threads to decompress blocks with
+     */
+    public ParallelBzip2InputStream(InputStream in, int threads) {
+        this.in = in;
+        AtomicInteger decoderCount = new AtomicInteger();
+        this.decoders = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "bzip2-decoder-" + decoderCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Bounds the number of blocks (of at most 900k each) that are held in memory
+        this.segments = new ArrayBlockingQueue<>(threads * 2);
+        this.scanner = new Thread(this::scan, "bzip2-scanner");
+        this.scanner.setDaemon(true);
+        this.scanner.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!this.fill()) {
+            return -1;
+        }
+        return this.block[this.position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!this.fill()) {
+            return -1;
+        }
+        int count = Math.min(length, this.block.length - this.position);
+        System.arraycopy(this.block, this.position, buffer, offset, count);
+        this.position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.finished = true;
+        this.scanner.interrupt();
+        this.decoders.shutdownNow();
+        this.in.close();
+    }
+
+    /**
+     * Makes sure there is decompressed data to read
+     *
+     * @return false at the end of the data
+     */
+    private boolean fill() throws IOException {
+        while (this.position == this.block.length) {
+            if (this.finished) {
+                return false;
+            }
+            Segment segment = this.take();
+            if (segment == END) {
+                this.finished = true;
+                this.decoders.shutdown();
+                return false;
+            }
+            this.block = this.result(segment);
+            this.position = 0;
+        }
+        return true;
+    }
+
+    private Segment take() throws IOException {
+        try {
+            Segment segment = this.segments.take();
+            if (segment == END && this.scanFailure.get() != null) {
+                throw this.scanFailure.get();
+            }
+            return segment;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for bzip2 blocks", e);
+        }
+    }
+
+    private byte[] result(Segment segment) throws IOException {
+        try {
+            return segment.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decompressing bzip2 blocks", e);
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof IOException)) {
+                throw new IOException("Failed to decompress bzip2 block: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        // In case the level of the stream was misread, at the largest block size
+        try {
+            return decode(segment.bits, 9);
+        } catch (IOException e) {
+            // Not the problem
+        }
+
+        // The block was cut at a false magic number, join it with the following pieces until it decompresses
+        BitBuffer joined = new BitBuffer((int) (segment.bits.getBitLength() >>> 2));
+        joined.append(segment.bits);
+        while (true) {
+            Segment next = this.take();
+            if (next == END) {
+                throw new IOException("Corrupt bzip2 data, a block could not be decompressed");
+            }
+            next.result.cancel(true);
+            joined.append(next.bits);
+            try {
+                return decode(joined, segment.level);
+            } catch (IOException e) {
+                // Not complete yet, try with the next piece
+            }
+        }
+    }
+
+    /**
+     * Scanner thread: cuts the input into segments at the magic numbers and queues them for decompression
+     */
+    private void scan() {
+        try {
+            this.scanSegments();
+        } catch (IOException e) {
+            this.scanFailure.set(e);
+        } catch (InterruptedException e) {
+            // Closed while scanning
+            return;
+        }
+        try {
+            this.segments.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scanSegments() throws IOException, InterruptedException {
+        byte[] buffer = new byte[64 * 1024];
+        long window = 0;
+        long bytesRead = 0;
+        Segment current = null;
+        // Block size of the current stream, in 100k
+        int level = 9;
+
+        int count;
+        while ((count = this.in.read(buffer)) != -1) {
+            for (int i = 0; i < count; i++) {
+                int value = buffer[i] & 0xFF;
+                if (bytesRead < 3 && value != "BZh".charAt((int) bytesRead)) {
+                    throw new IOException("Not in bzip2 format");
+                }
+                bytesRead++;
+                window = (window << 8) | value;
+
+                // The header of a stream, which is at a byte boundary at the start or after the end of a stream
+                if ((current == null || !current.isBlock) && (window & 0xFFFFFF00L) == 0x425A6800L
+                        && value >= '1' && value <= '9') {
+                    level = value - '0';
+                }
+
+                if (!containsMagic(window)) {
+                    if (current != null) {
+                        current.bits.writeByte(value);
+                    }
+                    continue;
+                }
+
+                // Go bit by bit through the byte, so segments are cut exactly at the magic number
+                for (int shift = 7; shift >= 0; shift--) {
+                    if (current != null) {
+                        current.bits.writeBit((value >>> shift) & 1);
+                    }
+                    long candidate = (window >>> shift) & MAGIC_MASK;
+                    if (candidate == BLOCK_MAGIC || candidate == END_OF_STREAM_MAGIC) {
+                        if (current != null) {
+                            current.bits.truncate(Math.max(0, current.bits.getBitLength() - 48));
+                            this.submit(current);
+                        }
+                        current = new Segment(candidate == BLOCK_MAGIC, level);
+                        current.bits.writeBits(candidate, 48);
+                    }
+                }
+            }
+        }
+        if (bytesRead < 3) {
+            throw new IOException("Not in bzip2 format");
+        }
+        if (current != null) {
+            this.submit(current);
+        }
+    }
+
+    private static boolean containsMagic(long window) {
+        for (int shift = 0; shift < 8; shift++) {
+            long candidate = (window >>> shift) & MAGIC_MASK;
+            if (candidate == BLOCK_MAGIC || candidate == END_OF_STREAM_MAGIC) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void submit(Segment segment) throws InterruptedException {
+        if (segment.isBlock) {
+            segment.result = this.decoders.submit(() -> decode(segment.bits, segment.level));
+        } else {
+            // The end of a stream (and possibly the header of the next one), which holds no data
+            segment.result = CompletableFuture.completedFuture(EMPTY);
+        }
+        this.segments.put(segment);
+    }
+
+    /**
+     * Decompresses a single block by wrapping it into a bzip2 stream of its own
+     *
+     * @param bits the block, starting with its magic number
+     * @param level the block size of the stream the block is from, in 100k
+     */
+    static byte[] decode(BitBuffer bits, int level) throws IOException {
+        if (bits.getBitLength() < 80) {
+            throw new IOException("Truncated bzip2 block");
+        }
+        BitBuffer stream = new BitBuffer((int) (bits.getBitLength() >>> 3) + 16);
+        // The decoder allocates its tables according to the level, so this keeps them as small as possible
+        stream.writeByte('B');
+        stream.writeByte('Z');
+        stream.writeByte('h');
+        stream.writeByte('0' + level);
+        stream.append(bits);
+        stream.writeBits(END_OF_STREAM_MAGIC, 48);
+        // With only one block, the combined CRC of the stream is the CRC of that block
+        stream.writeBits(bits.getBits(48, 32), 32);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
+        try (InputStream decoder = new BZip2CompressorInputStream(new ByteArrayInputStream(stream.toByteArray()), false)) {
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = decoder.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        } catch (RuntimeException e) {
+            // Garbage input can make the decoder fail in other ways than with an IOException
+            throw new IOException("Corrupt bzip2 block: " + e.getMessage(), e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A piece of the compressed input between two magic numbers
+     */
+    private static class Segment {
+
+        final boolean isBlock;
+        final int level;
+        final BitBuffer bits = new BitBuffer(64 * 1024);
+        Future<byte[]> result;
+
+        Segment(boolean isBlock, int level) {
+            this.isBlock = isBlock;
+            this.level = level;
+        }
+    }
+
+}
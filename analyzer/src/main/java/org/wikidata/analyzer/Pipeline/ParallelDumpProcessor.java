@@ -0,0 +1,434 @@
+package org.wikidata.analyzer.Pipeline;
+
+import org.wikidata.analyzer.Processor.EntitySections;
+import org.wikidata.analyzer.Processor.LineFilter;
+import org.wikidata.analyzer.Processor.ProcessorBroker;
+import org.wikidata.analyzer.Processor.WikidataAnalyzerProcessor;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
+import org.wikidata.wdtk.datamodel.json.jackson.JacksonTermedStatementDocument;
+import org.wikidata.wdtk.dumpfiles.MwDumpFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Multi threaded replacement for DumpProcessingController.processDump for JSON dumps.
+ *
+ * The dump is processed in three stages connected by bounded queues:
+ *  - the calling thread reads the decompressed dump and splits it into chunks of whole lines
+ *  - a pool of worker threads parses the lines of each chunk into entity documents
+ *    and hands them to each worker's own shard of every shardable processor
+ *  - a single dispatcher thread hands the documents to all other processors in dump order
+ *
+ * Shards are merged back into their processors once the whole dump has been processed.
+ * Lines that none of the registered processors has an interest in according to their LineFilter are not parsed,
+ * and sections of entities that none of them reads according to their EntitySections are skipped while parsing.
+ * The number of chunks in flight is limited so memory use does not depend on the dump size.
+ *
+ * When checkpoints are enabled, the pipeline is drained every so often at a chunk boundary, shards are merged
+ * and the state of all processors is written to a Checkpoint, from which a later run can be resumed.
+ */
+public class ParallelDumpProcessor {
+
+    static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Output a progress line every this many entities
+     */
+    private static final long PROGRESS_INTERVAL = 250000;
+
+    private final int threads;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+
+    private final ProcessorBroker broker = new ProcessorBroker();
+
+    private final List<WikidataAnalyzerProcessor> processors = new ArrayList<>();
+    private final List<WikidataAnalyzerProcessor> shardedProcessors = new ArrayList<>();
+    private final List<List<WikidataAnalyzerProcessor>> workerShards = new ArrayList<>();
+    private final List<ProcessorBroker> workerBrokers = new ArrayList<>();
+    private final List<LineFilter> lineFilters = new ArrayList<>();
+    private LineFilter lineFilter = LineFilter.all();
+    private LineFilter restriction = LineFilter.all();
+    private EntitySections entitySections = EntitySections.none();
+    private EntityParser entityParser;
+
+    private File checkpointFile;
+    private long checkpointInterval;
+    private long startOffset;
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final List<Thread> pipelineThreads = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param threads number of parsing worker threads
+     */
+    public ParallelDumpProcessor(int threads) {
+        this(threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    ParallelDumpProcessor(int threads, int chunkSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is needed");
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = threads * 4;
+        for (int i = 0; i < threads; i++) {
+            this.workerShards.add(new ArrayList<>());
+            this.workerBrokers.add(new ProcessorBroker());
+        }
+    }
+
+    /**
+     * Registers a processor that is called from the dispatcher thread in dump order.
+     * Processors other than WikidataAnalyzerProcessors are assumed to need every entity.
+     */
+    public void registerEntityDocumentProcessor(EntityDocumentProcessor processor) {
+        this.broker.registerEntityDocumentProcessor(processor);
+        if (processor instanceof WikidataAnalyzerProcessor) {
+            this.lineFilters.add(((WikidataAnalyzerProcessor) processor).getLineFilter());
+            this.entitySections = this.entitySections.union(((WikidataAnalyzerProcessor) processor).getEntitySections());
+        } else {
+            this.lineFilters.add(LineFilter.all());
+            this.entitySections = EntitySections.all();
+        }
+    }
+
+    /**
+     * Registers a processor, which is sharded across the worker threads if it supports that.
+     */
+    public void registerProcessor(WikidataAnalyzerProcessor processor) {
+        this.processors.add(processor);
+        List<WikidataAnalyzerProcessor> shards = new ArrayList<>();
+        for (int i = 0; i < this.threads; i++) {
+            WikidataAnalyzerProcessor shard = processor.createShard();
+            if (shard == null) {
+                this.registerEntityDocumentProcessor(processor);
+                return;
+            }
+            shards.add(shard);
+        }
+        this.shardedProcessors.add(processor);
+        this.lineFilters.add(processor.getLineFilter());
+        this.entitySections = this.entitySections.union(processor.getEntitySections());
+        for (int i = 0; i < this.threads; i++) {
+            this.workerShards.get(i).add(shards.get(i));
+            this.workerBrokers.get(i).registerEntityDocumentProcessor(shards.get(i));
+        }
+    }
+
+    /**
+     * Writes a checkpoint of all processors registered with registerProcessor every so often.
+     *
+     * @param checkpointFile file to write the checkpoints to, replacing the previous one
+     * @param intervalMillis time between checkpoints
+     */
+    public void enableCheckpoints(File checkpointFile, long intervalMillis) {
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = intervalMillis;
+    }
+
+    /**
+     * Skips the part of the dump that was processed before the checkpoint was made.
+     * The processors must have been resumed from the same checkpoint.
+     */
+    public void resumeFrom(Checkpoint checkpoint) {
+        this.startOffset = checkpoint.getOffset();
+    }
+
+    /**
+     * Only processes the lines accepted by the filter, whatever the processors need, such as those of a DumpShard.
+     */
+    public void restrictTo(LineFilter restriction) {
+        this.restriction = restriction;
+    }
+
+    public void processDump(MwDumpFile dump) throws IOException {
+        // Decompress on another thread, if the dump does not do so already
+        try (InputStream inputStream = DumpStreams.readAhead(dump.getDumpFileStream())) {
+            this.processStream(inputStream);
+        }
+    }
+
+    public void processStream(InputStream inputStream) throws IOException {
+        BlockingQueue<DumpChunk> chunkQueue = new ArrayBlockingQueue<>(this.threads * 2);
+        BlockingQueue<ParsedChunk> parsedQueue = new ArrayBlockingQueue<>(this.threads * 2);
+        Semaphore chunksInFlight = new Semaphore(this.maxChunksInFlight);
+        Thread readerThread = Thread.currentThread();
+        this.pipelineThreads.clear();
+        this.lineFilter = this.restriction.and(LineFilter.anyOf(this.lineFilters));
+        this.entityParser = new EntityParser(this.entitySections);
+
+        skipFully(inputStream, this.startOffset);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < this.threads; i++) {
+            int worker = i;
+            workers.add(this.startThread("dump-parser-" + i, readerThread, () -> this.parse(chunkQueue, parsedQueue, worker)));
+        }
+        Thread dispatcher = this.startThread("dump-dispatcher", readerThread, () -> this.dispatch(parsedQueue, chunksInFlight));
+
+        DumpChunkReader reader = new DumpChunkReader(inputStream, this.chunkSize, this.startOffset);
+        long lastCheckpoint = System.currentTimeMillis();
+        try {
+            DumpChunk chunk;
+            while ((chunk = reader.next()) != null) {
+                chunksInFlight.acquire();
+                chunkQueue.put(chunk);
+
+                if (this.checkpointFile != null && System.currentTimeMillis() - lastCheckpoint >= this.checkpointInterval) {
+                    // Once all permits are back, every chunk read so far has been fully processed
+                    chunksInFlight.acquire(this.maxChunksInFlight);
+                    this.writeCheckpoint(reader.getOffset());
+                    chunksInFlight.release(this.maxChunksInFlight);
+                    lastCheckpoint = System.currentTimeMillis();
+                }
+            }
+            chunkQueue.put(DumpChunk.END);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            parsedQueue.put(ParsedChunk.END);
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            // Another stage failed, the failure is reported below
+        } catch (IOException | RuntimeException e) {
+            this.fail(e, readerThread);
+        }
+
+        if (this.failure.get() != null) {
+            // Clear our own interrupt flag so we can wait for the other stages to stop
+            Thread.interrupted();
+            this.joinAll();
+            Throwable cause = this.failure.get();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new RuntimeException("Parallel dump processing failed: " + cause.getMessage(), cause);
+        }
+
+        this.mergeShards();
+    }
+
+    private static void skipFully(InputStream inputStream, long bytes) throws IOException {
+        long remaining = bytes;
+        byte[] buffer = new byte[64 * 1024];
+        while (remaining > 0) {
+            int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Dump ended before the position to resume from");
+            }
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Called from the reader thread while the pipeline is drained
+     */
+    private void writeCheckpoint(long offset) throws IOException {
+        this.mergeShards();
+        this.replaceShards();
+
+        Checkpoint.capture(offset, this.processors).write(this.checkpointFile);
+        System.out.println("Checkpoint written at " + offset / 1024 / 1024 + "MB of the dump");
+    }
+
+    /**
+     * Gives every worker new, empty shards after the old ones have been merged
+     */
+    private void replaceShards() {
+        for (int i = 0; i < this.threads; i++) {
+            this.workerShards.get(i).clear();
+            this.workerBrokers.set(i, new ProcessorBroker());
+        }
+        for (WikidataAnalyzerProcessor processor : this.shardedProcessors) {
+            for (int i = 0; i < this.threads; i++) {
+                WikidataAnalyzerProcessor shard = processor.createShard();
+                this.workerShards.get(i).add(shard);
+                this.workerBrokers.get(i).registerEntityDocumentProcessor(shard);
+            }
+        }
+    }
+
+    private void mergeShards() {
+        for (int i = 0; i < this.shardedProcessors.size(); i++) {
+            for (List<WikidataAnalyzerProcessor> shards : this.workerShards) {
+                this.shardedProcessors.get(i).mergeShard(shards.get(i));
+            }
+        }
+    }
+
+    private Thread startThread(String name, Thread readerThread, Runnable stage) {
+        Thread thread = new Thread(() -> {
+            try {
+                stage.run();
+            } catch (Throwable t) {
+                this.fail(t, readerThread);
+            }
+        }, name);
+        thread.setDaemon(true);
+        this.pipelineThreads.add(thread);
+        thread.start();
+        return thread;
+    }
+
+    private void fail(Throwable cause, Thread readerThread) {
+        if (this.failure.compareAndSet(null, cause)) {
+            for (Thread thread : this.pipelineThreads) {
+                thread.interrupt();
+            }
+            readerThread.interrupt();
+        }
+    }
+
+    private void joinAll() {
+        for (Thread thread : this.pipelineThreads) {
+            try {
+                thread.join();
+            } catch (InterruptedException ignored) {
+                // We are shutting down anyway
+            }
+        }
+    }
+
+    /**
+     * Worker stage: turns chunks of lines into entity documents and feeds them to the worker's shards
+     */
+    private void parse(
+            BlockingQueue<DumpChunk> chunkQueue,
+            BlockingQueue<ParsedChunk> parsedQueue,
+            int worker
+    ) {
+        try {
+            while (true) {
+                DumpChunk chunk = chunkQueue.take();
+                if (chunk == DumpChunk.END) {
+                    // Let the other workers see the end marker too
+                    chunkQueue.put(chunk);
+                    return;
+                }
+                ParsedChunk parsed = this.parseChunk(chunk);
+                // Shards may have been replaced at a checkpoint while this worker was waiting for the chunk
+                ProcessorBroker shardBroker = this.workerBrokers.get(worker);
+                for (JacksonTermedStatementDocument document : parsed.documents) {
+                    EntityParser.dispatch(document, shardBroker);
+                }
+                parsedQueue.put(parsed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ParsedChunk parseChunk(DumpChunk chunk) {
+        ParsedChunk parsed = new ParsedChunk(chunk.sequence, new ArrayList<>());
+        int lineStart = 0;
+        for (int i = 0; i <= chunk.length; i++) {
+            if (i == chunk.length || chunk.data[i] == '\n') {
+                JacksonTermedStatementDocument document = this.parseLine(chunk.data, lineStart, i, parsed);
+                if (document != null) {
+                    parsed.documents.add(document);
+                }
+                lineStart = i + 1;
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses a single line of the dump, which is one element of the big JSON array.
+     *
+     * @return the document, or null if the line holds no (valid or wanted) entity
+     */
+    private JacksonTermedStatementDocument parseLine(byte[] data, int start, int end, ParsedChunk parsed) {
+        while (start < end && isWhitespace(data[start])) {
+            start++;
+        }
+        while (end > start && (isWhitespace(data[end - 1]) || data[end - 1] == ',')) {
+            end--;
+        }
+        if (end == start || (end - start == 1 && (data[start] == '[' || data[start] == ']'))) {
+            return null;
+        }
+        parsed.entities++;
+        if (!this.lineFilter.matches(data, start, end)) {
+            return null;
+        }
+
+        return this.entityParser.parse(data, start, end);
+    }
+
+    private static boolean isWhitespace(byte value) {
+        return value == ' ' || value == '\t' || value == '\r' || value == '\n';
+    }
+
+    /**
+     * Dispatcher stage: hands documents to the processors in the order they appear in the dump
+     */
+    private void dispatch(BlockingQueue<ParsedChunk> parsedQueue, Semaphore chunksInFlight) {
+        Map<Long, ParsedChunk> pending = new HashMap<>();
+        long expected = 0;
+        long entities = 0;
+        long parsedEntities = 0;
+        try {
+            while (true) {
+                ParsedChunk parsed = parsedQueue.take();
+                if (parsed == ParsedChunk.END) {
+                    if (!pending.isEmpty()) {
+                        throw new IllegalStateException("Dump chunks missing before chunk " + expected);
+                    }
+                    return;
+                }
+                pending.put(parsed.sequence, parsed);
+                while (pending.containsKey(expected)) {
+                    ParsedChunk next = pending.remove(expected);
+                    for (JacksonTermedStatementDocument document : next.documents) {
+                        EntityParser.dispatch(document, this.broker);
+                    }
+                    chunksInFlight.release();
+
+                    if ((entities + next.entities) / PROGRESS_INTERVAL > entities / PROGRESS_INTERVAL) {
+                        System.out.println("Scanned " + (entities + next.entities) + " entities, parsed "
+                                + (parsedEntities + next.documents.size()) + " "
+                                + Runtime.getRuntime().totalMemory() / 1024 / 1024 + "MB mem used");
+                    }
+                    entities += next.entities;
+                    parsedEntities += next.documents.size();
+                    expected++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class ParsedChunk {
+
+        static final ParsedChunk END = new ParsedChunk(-1, new ArrayList<>());
+
+        final long sequence;
+        final List<JacksonTermedStatementDocument> documents;
+
+        /**
+         * Number of entity lines in the chunk, including the ones that were filtered out
+         */
+        int entities;
+
+        ParsedChunk(long sequence, List<JacksonTermedStatementDocument> documents) {
+            this.sequence = sequence;
+            this.documents = documents;
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.wikidata.analyzer.Pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads (and so decompresses) an input stream on a thread of its own, ahead of the reader.
+ * This takes for example gzip decompression off the thread that splits the dump into chunks.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int BUFFERS = 8;
+
+    private static final Buffer END = new Buffer(new byte[0], 0);
+
+    private final InputStream in;
+    private final BlockingQueue<Buffer> buffers = new ArrayBlockingQueue<>(BUFFERS);
+    private final Thread reader;
+    private volatile IOException failure;
+
+    private Buffer current = new Buffer(new byte[0], 0);
+    private int position;
+    private boolean finished;
+
+    public ReadAheadInputStream(InputStream in, String name) {
+        this.in = in;
+        this.reader = new Thread(this::readAhead, name);
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!this.fill()) {
+            return -1;
+        }
+        return this.current.data[this.position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!this.fill()) {
+            return -1;
+        }
+        int count = Math.min(length, this.current.length - this.position);
+        System.arraycopy(this.current.data, this.position, buffer, offset, count);
+        this.position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.finished = true;
+        this.reader.interrupt();
+        this.in.close();
+    }
+
+    private boolean fill() throws IOException {
+        while (this.position == this.current.length) {
+            if (this.finished) {
+                return false;
+            }
+            try {
+                this.current = this.buffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for input", e);
+            }
+            this.position = 0;
+            if (this.current == END) {
+                this.finished = true;
+                if (this.failure != null) {
+                    throw this.failure;
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void readAhead() {
+        try {
+            while (true) {
+                byte[] data = new byte[BUFFER_SIZE];
+                int length = 0;
+                int count = 0;
+                // Fill the whole buffer, decompressing streams tend to return small pieces
+                while (length < data.length && (count = this.in.read(data, length, data.length - length)) != -1) {
+                    length += count;
+                }
+                if (length > 0) {
+                    this.buffers.put(new Buffer(data, length));
+                }
+                if (count == -1) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            this.failure = e;
+        } catch (InterruptedException e) {
+            // Closed while reading
+            return;
+        }
+        try {
+            this.buffers.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Buffer {
+
+        final byte[] data;
+        final int length;
+
+        Buffer(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+}
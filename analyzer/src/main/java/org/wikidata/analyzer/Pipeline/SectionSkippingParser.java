@@ -0,0 +1,62 @@
+package org.wikidata.analyzer.Pipeline;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+import org.wikidata.analyzer.Processor.EntitySections;
+
+import java.io.IOException;
+
+/**
+ * Parser for the JSON of a single entity that hides the top level sections (and keys within sections)
+ * that are not selected, so they are skipped over by the streaming parser instead of being bound to objects.
+ */
+class SectionSkippingParser extends JsonParserDelegate {
+
+    private final EntitySections sections;
+
+    SectionSkippingParser(JsonParser parser, EntitySections sections) {
+        super(parser);
+        this.sections = sections;
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        JsonToken token = this.delegate.nextToken();
+        while (token == JsonToken.FIELD_NAME && this.isSkipped()) {
+            this.delegate.nextToken();
+            this.delegate.skipChildren();
+            token = this.delegate.nextToken();
+        }
+        return token;
+    }
+
+    @Override
+    public JsonToken nextValue() throws IOException {
+        JsonToken token = this.nextToken();
+        if (token == JsonToken.FIELD_NAME) {
+            token = this.nextToken();
+        }
+        return token;
+    }
+
+    /**
+     * @return true if the field name the parser is at belongs to a section or key that is not selected
+     */
+    private boolean isSkipped() throws IOException {
+        JsonStreamContext object = this.delegate.getParsingContext();
+        JsonStreamContext parent = object.getParent();
+        if (parent == null) {
+            return false;
+        }
+        if (parent.inRoot()) {
+            return !this.sections.includesSection(this.delegate.getCurrentName());
+        }
+        if (parent.getParent() != null && parent.getParent().inRoot()) {
+            return !this.sections.includesKey(parent.getCurrentName(), this.delegate.getCurrentName());
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,183 @@
+package org.wikidata.analyzer.Pipeline;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Writes (and so for example compresses) to an output stream on a thread of its own, behind the writer.
+ * This takes file writes off the threads that process entities, which only copy what they write into a buffer.
+ *
+ * A fixed ring of buffers goes round between the writer and the thread, so writers wait when the thread falls behind
+ * rather than filling memory. Flushing waits until everything written so far is written to the stream and the stream
+ * is flushed, and failures of the thread are thrown by the next write, flush or close.
+ */
+public class WriteBehindOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int BUFFERS = 4;
+
+    private static final Buffer FLUSH = new Buffer(new byte[0], 0);
+    private static final Buffer END = new Buffer(new byte[0], 0);
+
+    private final OutputStream out;
+    private final BlockingQueue<Buffer> written = new ArrayBlockingQueue<>(BUFFERS + 1);
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(BUFFERS);
+    private final Semaphore flushed = new Semaphore(0);
+    private final Thread writer;
+    private volatile IOException failure;
+
+    private byte[] current = new byte[BUFFER_SIZE];
+    private int length;
+    private boolean closed;
+
+    public WriteBehindOutputStream(OutputStream out, String name) {
+        this.out = out;
+        for (int i = 1; i < BUFFERS; i++) {
+            this.free.add(new byte[BUFFER_SIZE]);
+        }
+        this.writer = new Thread(this::writeBehind, name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (this.length == this.current.length) {
+            this.handOver();
+        }
+        this.current[this.length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (this.length == this.current.length) {
+                this.handOver();
+            }
+            int count = Math.min(length, this.current.length - this.length);
+            System.arraycopy(buffer, offset, this.current, this.length, count);
+            this.length += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (this.length > 0) {
+            this.handOver();
+        }
+        this.put(FLUSH);
+        try {
+            this.flushed.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for output to be written", e);
+        }
+        this.checkFailure();
+    }
+
+    /**
+     * Writes what is left, and closes the stream underneath, which is closed and the thread ended even after a failure
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        try {
+            if (this.length > 0 && this.failure == null) {
+                this.handOver();
+            }
+        } finally {
+            this.closed = true;
+            try {
+                this.written.put(END);
+                this.writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for output to be written", e);
+            }
+        }
+        this.checkFailure();
+    }
+
+    private void handOver() throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        this.put(new Buffer(this.current, this.length));
+        try {
+            this.current = this.free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for output to be written", e);
+        }
+        this.length = 0;
+    }
+
+    private void put(Buffer buffer) throws IOException {
+        this.checkFailure();
+        try {
+            this.written.put(buffer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for output to be written", e);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    private void writeBehind() {
+        try {
+            while (true) {
+                Buffer buffer = this.written.take();
+                try {
+                    // After a failure buffers are only handed back, so that writers do not wait forever
+                    if (buffer == END) {
+                        this.out.close();
+                    } else if (buffer == FLUSH) {
+                        if (this.failure == null) {
+                            this.out.flush();
+                        }
+                    } else if (this.failure == null) {
+                        this.out.write(buffer.data, 0, buffer.length);
+                    }
+                } catch (IOException e) {
+                    // The first failure, which may well have caused the later ones
+                    if (this.failure == null) {
+                        this.failure = e;
+                    }
+                }
+                if (buffer == END) {
+                    return;
+                } else if (buffer == FLUSH) {
+                    this.flushed.release();
+                } else {
+                    this.free.put(buffer.data);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Abandoned while writing
+        }
+    }
+
+    private static class Buffer {
+
+        final byte[] data;
+        final int length;
+
+        Buffer(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+}
@@ -10,11 +10,20 @@ import java.util.*;
  *
  * @author Addshore
  */
-public class BadDateProcessor extends WikidataAnalyzerProcessor {
+public class BadDateProcessor extends WikidataAnalyzerProcessor implements SnakSubscriber {
+
+    private static final String[] FORMATS = {"txt", "txt.gz"};
+
+    /**
+     * Format of the lists, txt or txt.gz to compress them with gzip
+     */
+    private String listFormat = "txt";
 
     private Writer writer1;
     private Writer writer2;
 
+    private final SnakTraversal traversal = SnakTraversal.of(this);
+
     public BadDateProcessor() {
         super();
     }
@@ -24,13 +33,21 @@ public class BadDateProcessor extends WikidataAnalyzerProcessor {
         this.writer2 = writer2;
     }
 
-    public void setUp() {
-        File list1 = new File(outputDir.getAbsolutePath() + File.separator + "date_list1.txt");
-        File list2 = new File(outputDir.getAbsolutePath() + File.separator + "date_list2.txt");
+    /**
+     * Writes date_list1.txt.gz and date_list2.txt.gz instead
+     */
+    @Override
+    public void setCompressLists(boolean compress) {
+        this.listFormat = compress ? "txt.gz" : "txt";
+    }
 
+    /**
+     * The lists are written on threads of their own, see OutputSink
+     */
+    public void setUp() {
         try {
-            writer1 = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(list1)));
-            writer2 = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(list2)));
+            writer1 = OutputSink.create(this.getList1File());
+            writer2 = OutputSink.create(this.getList2File());
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
@@ -38,6 +55,70 @@ public class BadDateProcessor extends WikidataAnalyzerProcessor {
 
     }
 
+    private File getList1File() {
+        return new File(outputDir.getAbsolutePath() + File.separator + "date_list1." + this.listFormat);
+    }
+
+    private File getList2File() {
+        return new File(outputDir.getAbsolutePath() + File.separator + "date_list2." + this.listFormat);
+    }
+
+    /**
+     * @return the lengths of both lists as written so far
+     */
+    @Override
+    public Serializable getCheckpointState() throws IOException {
+        writer1.flush();
+        writer2.flush();
+        return new long[]{this.getList1File().length(), this.getList2File().length()};
+    }
+
+    /**
+     * Drops whatever was written to the lists after the checkpoint and continues writing at its end
+     */
+    @Override
+    public void resumeFromCheckpoint(Serializable state) throws IOException {
+        long[] lengths = (long[]) state;
+        writer1 = OutputSink.resume(this.getList1File(), lengths[0]);
+        writer2 = OutputSink.resume(this.getList2File(), lengths[1]);
+    }
+
+    @Override
+    public boolean canMergeOutput() {
+        return true;
+    }
+
+    /**
+     * Appends the lists of the shard, in whichever format they were written, without their headers
+     */
+    @Override
+    public void mergeOutput(File shardOutputDir) throws IOException {
+        appendList(findList(shardOutputDir, "date_list1"), writer1);
+        appendList(findList(shardOutputDir, "date_list2"), writer2);
+    }
+
+    private static File findList(File shardOutputDir, String name) throws IOException {
+        for (String format : FORMATS) {
+            File list = new File(shardOutputDir, name + "." + format);
+            if (list.exists()) {
+                return list;
+            }
+        }
+        throw new IOException("No " + name + " found in " + shardOutputDir);
+    }
+
+    private static void appendList(File list, Writer writer) throws IOException {
+        try (BufferedReader reader = OutputSink.read(list)) {
+            // Skip the title and the line under it
+            reader.readLine();
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(line + "\n");
+            }
+        }
+    }
+
     public void doPreProcessing() {
         try {
             writer1.write("Dates marked as Julian that are more precise than year\n----\n");
@@ -61,37 +142,47 @@ public class BadDateProcessor extends WikidataAnalyzerProcessor {
         return true;
     }
 
+    @Override
+    public LineFilter getLineFilter() {
+        return LineFilter.ofEntityType("item").and(LineFilter.withValueType("time"));
+    }
+
+    @Override
+    public EntitySections getEntitySections() {
+        return EntitySections.none().withClaims();
+    }
+
+    @Override
+    public SnakSubscription getSnakSubscription() {
+        return SnakSubscription.snaksWithValue(TimeValue.class, SnakPosition.MAIN).onlyItems();
+    }
+
     @Override
     public void processItemDocument(ItemDocument item) {
-        for (Iterator<Statement> statements = item.getAllStatements(); statements.hasNext(); ) {
-            Statement statement = statements.next();
-            Snak snak = statement.getClaim().getMainSnak();
-            if (snak instanceof ValueSnak) {
-                Value value = snak.getValue();
-                if (value instanceof TimeValue) {
-                    TimeValue timeValue = (TimeValue) value;
-
-                    //List1 - marked as Julian and are more precise than year
-                    if (timeValue.getPreferredCalendarModel().equals(TimeValue.CM_JULIAN_PRO)
-                            && timeValue.getPrecision() > 9) {
-                        try {
-                            this.writer1.write(statement.getStatementId() + "\n");
-                        } catch (IOException e) {
-                            System.out.println("Failed to write line to writer1");
-                        }
-                    }
-
-                    //List2 - marked as gregorian, before 1584
-                    if (timeValue.getPreferredCalendarModel().equals(TimeValue.CM_GREGORIAN_PRO)
-                            && timeValue.getYear() < 1584) {
-                        try {
-                            this.writer2.write(statement.getStatementId() + "\n");
-                        } catch (IOException e) {
-                            System.out.println("Failed to write line to writer2");
-                        }
-                    }
-
-                }
+        this.traversal.traverse(item);
+    }
+
+    @Override
+    public void processSnak(Snak snak, SnakPosition position, Statement statement) {
+        TimeValue timeValue = (TimeValue) ((ValueSnak) snak).getValue();
+
+        //List1 - marked as Julian and are more precise than year
+        if (timeValue.getPreferredCalendarModel().equals(TimeValue.CM_JULIAN_PRO)
+                && timeValue.getPrecision() > 9) {
+            try {
+                this.writer1.write(statement.getStatementId() + "\n");
+            } catch (IOException e) {
+                System.out.println("Failed to write line to writer1");
+            }
+        }
+
+        //List2 - marked as gregorian, before 1584
+        if (timeValue.getPreferredCalendarModel().equals(TimeValue.CM_GREGORIAN_PRO)
+                && timeValue.getYear() < 1584) {
+            try {
+                this.writer2.write(statement.getStatementId() + "\n");
+            } catch (IOException e) {
+                System.out.println("Failed to write line to writer2");
             }
         }
     }
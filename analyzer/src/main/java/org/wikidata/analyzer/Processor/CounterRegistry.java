@@ -0,0 +1,365 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.analyzer.Ids.EntityIds;
+import org.wikidata.analyzer.Ids.IdIndex;
+import org.wikidata.analyzer.Ids.IdMap;
+import org.wikidata.analyzer.Ids.IdSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counters of a processor, kept in primitive arrays so that counting does not allocate.
+ *
+ * Counters are registered up front, which returns a handle to increment them with. Besides single named counters
+ * there are families of counters with one counter per property, named by a prefix followed by the property id,
+ * which are kept in an array indexed by the number of the property.
+ *
+ * A registry and its shards share the names of their counters, so handles can be used with all of them,
+ * while each keeps its own values. Shards start out empty and only grow their arrays as far as they count.
+ *
+ * Named counters that were counted are kept even when they are zero, such as a count of qualifiers that were
+ * added up to zero, as the processors always wrote them. Counters per property or per entity are only kept
+ * when they are not zero.
+ */
+public class CounterRegistry {
+
+    /**
+     * Handle of a named counter
+     */
+    public static final class Counter {
+        private final int index;
+
+        private Counter(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Handle of a family of counters, one for each property
+     */
+    public static final class PropertyCounters {
+        private final int index;
+        private final BitSet properties;
+
+        private PropertyCounters(int index, BitSet properties) {
+            this.index = index;
+            this.properties = properties;
+        }
+    }
+
+    /**
+     * Handle of named counters for a fixed set of entities, such as one for each Wikimedia project by its item
+     */
+    public static final class EntityCounters {
+        private final IdIndex entities;
+        private final Counter[] counters;
+
+        private EntityCounters(IdIndex entities, Counter[] counters) {
+            this.entities = entities;
+            this.counters = counters;
+        }
+    }
+
+    private static final long[] EMPTY = new long[0];
+
+    private final Names names;
+    private long[] values = EMPTY;
+    private long[][] propertyValues = new long[0][];
+
+    /**
+     * The named counters that were counted, by index
+     */
+    private final BitSet counted = new BitSet();
+
+    public CounterRegistry() {
+        this.names = new Names();
+    }
+
+    private CounterRegistry(Names names) {
+        this.names = names;
+    }
+
+    /**
+     * @return an empty registry with the same counters
+     */
+    public CounterRegistry createShard() {
+        return new CounterRegistry(this.names);
+    }
+
+    /**
+     * @return handle of the counter with the given name, which is registered if needed
+     */
+    public Counter counter(String name) {
+        return new Counter(this.names.counter(name));
+    }
+
+    /**
+     * @param prefix prefix of the counter names, such as "propertyCounters.noUnit."
+     * @return handle of the family of counters named by the prefix and a property id, which is registered if needed
+     */
+    public PropertyCounters propertyCounters(String prefix) {
+        return this.propertyCounters(prefix, null);
+    }
+
+    /**
+     * Registers a family of counters that only counts the given properties, others are ignored when incremented.
+     * The properties are kept for the family, so they also apply to handles got later on without them.
+     *
+     * @param prefix prefix of the counter names, such as "references.snaks.prop."
+     * @param properties the properties to count, or null to count all of them
+     * @return handle of the family of counters named by the prefix and a property id
+     */
+    public PropertyCounters propertyCounters(String prefix, IdSet properties) {
+        int index = this.names.family(prefix, properties == null ? null : propertyNumbers(properties));
+        return new PropertyCounters(index, this.names.properties(index));
+    }
+
+    /**
+     * @param prefix prefix of the counter names, such as "references.snaks.wm."
+     * @param names names of the counters following the prefix, by the code of their entity
+     * @return handle of the counters, which are registered if needed
+     */
+    public EntityCounters entityCounters(String prefix, IdMap<String> names) {
+        IdIndex entities = new IdIndex(names.keys());
+        Counter[] counters = new Counter[entities.size()];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new Counter(this.names.entityCounter(prefix + names.get(entities.getCode(i))));
+        }
+        return new EntityCounters(entities, counters);
+    }
+
+    public void increment(Counter counter) {
+        this.increment(counter, 1);
+    }
+
+    public void increment(Counter counter, long quantity) {
+        if (counter.index >= this.values.length) {
+            this.values = Arrays.copyOf(this.values, Math.max(counter.index + 1, this.names.counters()));
+        }
+        this.values[counter.index] += quantity;
+        this.counted.set(counter.index);
+    }
+
+    /**
+     * @param propertyId such as P31
+     */
+    public void increment(PropertyCounters counters, String propertyId) {
+        int number = propertyNumber(propertyId);
+        if (counters.properties != null && (number < 0 || !counters.properties.get(number))) {
+            return;
+        }
+        if (number < 0) {
+            this.add(this.names.prefix(counters.index) + propertyId, 1);
+        } else {
+            this.propertyValues(counters.index, number)[number]++;
+        }
+    }
+
+    /**
+     * @param entityId such as Q328
+     * @return whether the entity has a counter, which was incremented
+     */
+    public boolean increment(EntityCounters counters, String entityId) {
+        int index = counters.entities.indexOf(entityId);
+        if (index < 0) {
+            return false;
+        }
+        this.increment(counters.counters[index]);
+        return true;
+    }
+
+    public long get(Counter counter) {
+        return counter.index < this.values.length ? this.values[counter.index] : 0;
+    }
+
+    /**
+     * Adds to a counter given by its full name, rounding the quantity to a whole number
+     */
+    public void add(String name, double quantity) {
+        long value = Math.round(quantity);
+        for (int i = 0; i < this.names.families(); i++) {
+            String prefix = this.names.prefix(i);
+            if (name.startsWith(prefix)) {
+                int number = propertyNumber(name.substring(prefix.length()));
+                if (number >= 0) {
+                    this.propertyValues(i, number)[number] += value;
+                    return;
+                }
+            }
+        }
+        this.increment(this.counter(name), value);
+    }
+
+    /**
+     * Adds the counters of a shard of this registry
+     */
+    public void addAll(CounterRegistry shard) {
+        for (int i = 0; i < shard.values.length; i++) {
+            if (shard.values[i] != 0 || shard.counted.get(i)) {
+                this.increment(new Counter(i), shard.values[i]);
+            }
+        }
+        for (int i = 0; i < shard.propertyValues.length; i++) {
+            long[] shardValues = shard.propertyValues[i];
+            if (shardValues.length > 0) {
+                long[] values = this.propertyValues(i, shardValues.length - 1);
+                for (int number = 0; number < shardValues.length; number++) {
+                    values[number] += shardValues[number];
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets all counters back to zero, keeping the arrays as far as they were grown
+     */
+    public void clear() {
+        Arrays.fill(this.values, 0);
+        for (long[] values : this.propertyValues) {
+            Arrays.fill(values, 0);
+        }
+        this.counted.clear();
+    }
+
+    /**
+     * @return the named counters that were counted and the other counters that are not zero, by name
+     */
+    public Map<String, Double> toMap() {
+        Map<String, Double> counters = new HashMap<>();
+        for (int i = 0; i < this.values.length; i++) {
+            if (this.values[i] != 0 || (this.counted.get(i) && !this.names.isEntityCounter(i))) {
+                counters.put(this.names.name(i), (double) this.values[i]);
+            }
+        }
+        for (int i = 0; i < this.propertyValues.length; i++) {
+            long[] values = this.propertyValues[i];
+            for (int number = 0; number < values.length; number++) {
+                if (values[number] != 0) {
+                    counters.put(this.names.prefix(i) + "P" + number, (double) values[number]);
+                }
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * @return the values of a family of counters, grown to hold the given property number if needed
+     */
+    private long[] propertyValues(int family, int number) {
+        if (family >= this.propertyValues.length) {
+            int length = this.propertyValues.length;
+            this.propertyValues = Arrays.copyOf(this.propertyValues, Math.max(family + 1, this.names.families()));
+            Arrays.fill(this.propertyValues, length, this.propertyValues.length, EMPTY);
+        }
+        long[] values = this.propertyValues[family];
+        if (number >= values.length) {
+            values = Arrays.copyOf(values, Math.max(number + 1, values.length * 2));
+            this.propertyValues[family] = values;
+        }
+        return values;
+    }
+
+    /**
+     * @param propertyId such as P31
+     * @return the number of the property, such as 31, or -1 if the id is not a plain property id
+     */
+    static int propertyNumber(String propertyId) {
+        int length = propertyId.length();
+        if (length < 2 || length > 10 || propertyId.charAt(0) != 'P' || propertyId.charAt(1) == '0') {
+            return -1;
+        }
+        int number = 0;
+        for (int i = 1; i < length; i++) {
+            char digit = propertyId.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            number = number * 10 + digit - '0';
+        }
+        return number;
+    }
+
+    /**
+     * @return the numbers of the properties in the set, leaving out the codes of other entities
+     */
+    private static BitSet propertyNumbers(IdSet properties) {
+        BitSet numbers = new BitSet();
+        for (long code : properties.toArray()) {
+            if (EntityIds.getType(code) == 'P' && EntityIds.getNumber(code) <= Integer.MAX_VALUE) {
+                numbers.set((int) EntityIds.getNumber(code));
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * Names of the counters of a registry and its shards, which may be registered from several threads
+     */
+    private static class Names {
+
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> prefixes = new ArrayList<>();
+        private final List<BitSet> properties = new ArrayList<>();
+        private final BitSet entityCounters = new BitSet();
+
+        synchronized int counter(String name) {
+            Integer index = this.indexes.get(name);
+            if (index == null) {
+                index = this.names.size();
+                this.names.add(name);
+                this.indexes.put(name, index);
+            }
+            return index;
+        }
+
+        synchronized int entityCounter(String name) {
+            int index = this.counter(name);
+            this.entityCounters.set(index);
+            return index;
+        }
+
+        synchronized boolean isEntityCounter(int index) {
+            return this.entityCounters.get(index);
+        }
+
+        synchronized int family(String prefix, BitSet properties) {
+            int index = this.prefixes.indexOf(prefix);
+            if (index < 0) {
+                index = this.prefixes.size();
+                this.prefixes.add(prefix);
+                this.properties.add(properties);
+            } else if (properties != null) {
+                this.properties.set(index, properties);
+            }
+            return index;
+        }
+
+        synchronized BitSet properties(int index) {
+            return this.properties.get(index);
+        }
+
+        synchronized String name(int index) {
+            return this.names.get(index);
+        }
+
+        synchronized String prefix(int index) {
+            return this.prefixes.get(index);
+        }
+
+        synchronized int counters() {
+            return this.names.size();
+        }
+
+        synchronized int families() {
+            return this.prefixes.size();
+        }
+
+    }
+
+}
@@ -0,0 +1,225 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.analyzer.Ids.IdIndex;
+import org.wikidata.analyzer.Ids.IdMap;
+import org.wikidata.analyzer.Ids.IdSet;
+import org.wikidata.analyzer.Processor.MapProcessor.Relation;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The relations of MapProcessor as a binary file, graph.csr, which can be memory mapped and walked without parsing.
+ *
+ * All numbers are big endian, and every section starts at a multiple of 8 bytes:
+ *
+ * - header: the magic number 0x57444752 ("WDGR"), the version (1), the number of nodes N and the number
+ *   of relations R, as 4 byte ints
+ * - dictionary: the N entity id codes of the nodes (see EntityIds, such as 64 << 7 | 'Q' for Q64) in ascending
+ *   order as 8 byte longs, so node n is the entity with the n-th code
+ * - R relations, each as: the code of its property (such as P17) and its number of edges E as 8 byte longs,
+ *   N + 1 offsets as 4 byte ints, and E target nodes as 4 byte ints, followed by 4 bytes of padding if N + E is even.
+ *   The targets of node n are those from offset n up to offset n + 1, in the order of the statements.
+ *
+ * Unlike graph.json, items that have a relation without any item as value are left out.
+ * Files are mapped at once, so they can be up to 2GB.
+ */
+public class CsrGraph {
+
+    static final int MAGIC = 0x57444752;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final int nodeCount;
+
+    /**
+     * Positions of the relations in the file
+     */
+    private final int[] relations;
+
+    private CsrGraph(ByteBuffer buffer, File file) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a version " + VERSION + " graph");
+        }
+        this.nodeCount = buffer.getInt(8);
+        this.relations = new int[buffer.getInt(12)];
+        int position = HEADER_SIZE + 8 * this.nodeCount;
+        for (int i = 0; i < this.relations.length; i++) {
+            this.relations[i] = position;
+            int edges = (int) buffer.getLong(position + 8);
+            position += 16 + 4 * (this.nodeCount + 1 + edges);
+            if ((this.nodeCount + edges) % 2 == 0) {
+                position += 4;
+            }
+        }
+    }
+
+    /**
+     * Maps the file into memory
+     */
+    public static CsrGraph map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new CsrGraph(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file);
+        }
+    }
+
+    public int getNodeCount() {
+        return this.nodeCount;
+    }
+
+    /**
+     * @return the entity id code of the node
+     */
+    public long getNodeCode(int node) {
+        return this.buffer.getLong(HEADER_SIZE + 8 * node);
+    }
+
+    /**
+     * @return the node of the entity id code, or -1 if it is not in the graph
+     */
+    public int getNode(long code) {
+        int low = 0;
+        int high = this.nodeCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleCode = this.getNodeCode(middle);
+            if (middleCode < code) {
+                low = middle + 1;
+            } else if (middleCode > code) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    public int getRelationCount() {
+        return this.relations.length;
+    }
+
+    /**
+     * @return the entity id code of the property of the relation
+     */
+    public long getProperty(int relation) {
+        return this.buffer.getLong(this.relations[relation]);
+    }
+
+    /**
+     * @return the nodes the relation links the node to
+     */
+    public int[] getTargets(int relation, int node) {
+        int start = this.getEdgeStart(relation, node);
+        int[] result = new int[this.getEdgeStart(relation, node + 1) - start];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = this.getEdgeTarget(relation, start + i);
+        }
+        return result;
+    }
+
+    public long getEdgeCount(int relation) {
+        return this.buffer.getLong(this.relations[relation] + 8);
+    }
+
+    /**
+     * @return the first edge of the node in the relation, its edges end where those of node + 1 start
+     */
+    public int getEdgeStart(int relation, int node) {
+        return this.buffer.getInt(this.relations[relation] + 16 + 4 * node);
+    }
+
+    /**
+     * @return the node the edge links to
+     */
+    public int getEdgeTarget(int relation, int edge) {
+        return this.buffer.getInt(this.relations[relation] + 16 + 4 * (this.nodeCount + 1 + edge));
+    }
+
+    /**
+     * @param graph relations by property
+     * @return the graph as written to a file, in memory
+     */
+    static CsrGraph of(IdMap<Relation> graph) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            write(out, graph);
+        }
+        return new CsrGraph(ByteBuffer.wrap(bytes.toByteArray()), null);
+    }
+
+    /**
+     * @param graph relations by property
+     */
+    static void write(File file, IdMap<Relation> graph) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+            write(out, graph);
+        }
+    }
+
+    private static void write(DataOutputStream out, IdMap<Relation> graph) throws IOException {
+        long[] properties = graph.keys();
+        Arrays.sort(properties);
+        IdSet nodeSet = new IdSet();
+        for (long property : properties) {
+            Relation relation = graph.get(property);
+            for (int i = 0; i < relation.size(); i++) {
+                for (int target = relation.getStart(i); target < relation.getEnd(i); target++) {
+                    nodeSet.add(relation.getItem(i));
+                    nodeSet.add(relation.getTarget(target));
+                }
+            }
+        }
+        long[] nodes = nodeSet.toArray();
+        IdIndex index = new IdIndex(nodes);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(nodes.length);
+        out.writeInt(properties.length);
+        for (long node : nodes) {
+            out.writeLong(node);
+        }
+        for (long property : properties) {
+            Relation relation = graph.get(property);
+            // Count the targets of every node first, an item may be listed more than once after merging
+            int[] offsets = new int[nodes.length + 1];
+            for (int i = 0; i < relation.size(); i++) {
+                offsets[index.indexOf(relation.getItem(i)) + 1] += relation.getEnd(i) - relation.getStart(i);
+            }
+            for (int node = 0; node < nodes.length; node++) {
+                offsets[node + 1] += offsets[node];
+            }
+            int[] targets = new int[offsets[nodes.length]];
+            int[] next = Arrays.copyOf(offsets, nodes.length);
+            for (int i = 0; i < relation.size(); i++) {
+                int node = index.indexOf(relation.getItem(i));
+                for (int target = relation.getStart(i); target < relation.getEnd(i); target++) {
+                    targets[next[node]++] = index.indexOf(relation.getTarget(target));
+                }
+            }
+
+            out.writeLong(property);
+            out.writeLong(targets.length);
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            for (int target : targets) {
+                out.writeInt(target);
+            }
+            if ((nodes.length + targets.length) % 2 == 0) {
+                out.writeInt(0);
+            }
+        }
+    }
+
+}
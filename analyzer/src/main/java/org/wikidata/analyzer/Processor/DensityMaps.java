@@ -0,0 +1,229 @@
+package org.wikidata.analyzer.Processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Maps of where the items with coordinates are, in the sizes and colours geo2png.py rendered from wdlabel.json,
+ * but counted by MapProcessor while it processes the dump, and optionally as tiles (see TilePyramid).
+ *
+ * Every size keeps the number of items on each of its pixels in a byte, stopping at 255 as no colour gets any
+ * brighter after that many, so the gigantic size takes 512MB. Locations are added in batches, which every shard
+ * fills on its own and adds to the maps under a lock when full.
+ */
+public class DensityMaps {
+
+    private static final String[] NAMES = {"icon", "tiny", "small", "normal", "big", "huge", "enormous", "gigantic"};
+
+    /**
+     * By size: the width and height, and how much brighter the red, green and blue of a pixel get for every item
+     */
+    private static final int[][] SETTINGS = {
+            {80, 80, 80, 5, 1},
+            {500, 250, 100, 10, 2},
+            {1000, 500, 100, 25, 8},
+            {2000, 1000, 150, 40, 10},
+            {4000, 2000, 150, 50, 10},
+            {8000, 4000, 150, 70, 20},
+            {16000, 8000, 150, 70, 20},
+            {32000, 16000, 150, 70, 20},
+    };
+
+    private static final int BATCH_SIZE = 4096;
+
+    private final List<Raster> rasters = new ArrayList<>();
+    private TilePyramid tiles;
+    private long count = 0;
+    private long badCount = 0;
+
+    /**
+     * Adds maps of the given sizes, rendered to geo2png/map_SIZE.png
+     *
+     * @param sizes "all", or the names of sizes separated by commas, such as icon,tiny,small
+     * @throws IllegalArgumentException if a size is not known
+     */
+    public void addSizes(String sizes) {
+        List<String> names = sizes.equals("all") ? Arrays.asList(NAMES) : Arrays.asList(sizes.split(","));
+        for (String name : names) {
+            int size = Arrays.asList(NAMES).indexOf(name);
+            if (size < 0) {
+                throw new IllegalArgumentException(
+                        "Unknown map size " + name + ", must be all or some of " + String.join(",", NAMES)
+                );
+            }
+            this.rasters.add(new Raster(name, SETTINGS[size]));
+        }
+    }
+
+    /**
+     * Adds tiles of zoom levels 0 up to maxZoom, rendered to tiles/ZOOM/X/Y.png, see TilePyramid.
+     *
+     * Every zoom level gets the colour of the smallest size at least as wide as the whole map at that zoom,
+     * so zoom 0 of 256 pixels gets that of tiny and zoom 6 and up that of gigantic.
+     *
+     * @throws IllegalArgumentException if the zoom is not from 0 to 22
+     */
+    public void addTiles(int maxZoom) {
+        int[][] colours = new int[Math.max(maxZoom + 1, 0)][];
+        for (int zoom = 0; zoom < colours.length; zoom++) {
+            int[] settings = SETTINGS[SETTINGS.length - 1];
+            for (int size = SETTINGS.length - 1; size >= 0 && (long) SETTINGS[size][0] >= 256L << zoom; size--) {
+                settings = SETTINGS[size];
+            }
+            colours[zoom] = Arrays.copyOfRange(settings, 2, 5);
+        }
+        this.tiles = new TilePyramid(maxZoom, colours);
+    }
+
+    /**
+     * @return an empty batch to add locations to the maps with
+     */
+    Batch newBatch() {
+        return new Batch();
+    }
+
+    /**
+     * @return the number of locations on the maps, and the number left out as they are not on earth
+     */
+    synchronized long[] getCounts() {
+        return new long[]{this.count, this.badCount};
+    }
+
+    private synchronized void add(double[] latitudes, double[] longitudes, int length) {
+        for (int i = 0; i < length; i++) {
+            // The same checks as geo2png.py, which also leaves out coordinates that are not numbers
+            if (!(longitudes[i] >= -180 && longitudes[i] <= 180 && latitudes[i] >= -90 && latitudes[i] <= 90)) {
+                this.badCount++;
+                continue;
+            }
+            for (Raster raster : this.rasters) {
+                raster.add(latitudes[i], longitudes[i]);
+            }
+            if (this.tiles != null) {
+                this.tiles.add(latitudes[i], longitudes[i]);
+            }
+            this.count++;
+        }
+    }
+
+    /**
+     * Writes the maps to geo2png and the tiles to tiles in the output directory
+     */
+    void render(File outputDir) throws IOException {
+        if (!this.rasters.isEmpty()) {
+            this.renderSizes(new File(outputDir, "geo2png"));
+        }
+        if (this.tiles != null) {
+            this.tiles.render(new File(outputDir, "tiles"));
+        }
+    }
+
+    /**
+     * Writes map_SIZE.png to the directory for every size, rendering the sizes in parallel
+     *
+     * @param directory the directory, which is created if needed
+     */
+    private void renderSizes(File directory) throws IOException {
+        Files.createDirectories(directory.toPath());
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(this.rasters.size(), Runtime.getRuntime().availableProcessors())
+        );
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            // The largest first, as they take longest
+            for (int i = this.rasters.size() - 1; i >= 0; i--) {
+                Raster raster = this.rasters.get(i);
+                results.add(executor.submit(() -> {
+                    raster.writePng(new File(directory, "map_" + raster.name + ".png"));
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering maps", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to render maps: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Locations waiting to be added to the maps, used by a single thread
+     */
+    class Batch {
+
+        private final double[] latitudes = new double[BATCH_SIZE];
+        private final double[] longitudes = new double[BATCH_SIZE];
+        private int length = 0;
+
+        void add(double latitude, double longitude) {
+            this.latitudes[this.length] = latitude;
+            this.longitudes[this.length] = longitude;
+            this.length++;
+            if (this.length == BATCH_SIZE) {
+                this.flush();
+            }
+        }
+
+        /**
+         * Adds the locations of the batch to the maps
+         */
+        void flush() {
+            DensityMaps.this.add(this.latitudes, this.longitudes, this.length);
+            this.length = 0;
+        }
+    }
+
+    private static class Raster {
+
+        private final String name;
+        private final int width;
+        private final int height;
+        private final int[] colour;
+
+        /**
+         * Number of items on every pixel, row by row, up to 255
+         */
+        private final byte[] counts;
+
+        Raster(String name, int[] settings) {
+            this.name = name;
+            this.width = settings[0];
+            this.height = settings[1];
+            this.colour = Arrays.copyOfRange(settings, 2, 5);
+            this.counts = new byte[this.width * this.height];
+        }
+
+        /**
+         * Counts the item on its pixel, as geo2png.py did
+         */
+        void add(double latitude, double longitude) {
+            int x = (int) ((longitude + 180.0) / 361.0 * this.width);
+            int y = Math.abs((int) ((latitude - 90.0) / 181.0 * this.height));
+            int pixel = y * this.width + x;
+            if (this.counts[pixel] != (byte) 255) {
+                this.counts[pixel]++;
+            }
+        }
+
+        void writePng(File file) throws IOException {
+            PngWriter.write(file, this.width, this.height, this.counts, this.colour);
+        }
+    }
+
+}
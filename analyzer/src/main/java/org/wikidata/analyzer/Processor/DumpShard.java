@@ -0,0 +1,116 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.analyzer.Ids.EntityIds;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+
+/**
+ * One of several shards a dump is split into, so that it can be processed on several hosts.
+ *
+ * Entities are assigned to shards by a hash of their id, which is the same for every dump and every host.
+ * The outputs of all shards can be combined with the merge command of WikidataAnalyzer.
+ */
+public class DumpShard {
+
+    private final int index;
+    private final int count;
+
+    /**
+     * @param index number of this shard, from 1 to count
+     * @param count number of shards the dump is split into
+     */
+    public DumpShard(int index, int count) {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("Shard " + index + "/" + count + " does not exist");
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * @param shard such as "2/4" for the second of four shards
+     */
+    public static DumpShard parse(String shard) {
+        String[] parts = shard.split("/");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Shard must be given as i/N");
+        }
+        try {
+            return new DumpShard(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Shard must be given as i/N", e);
+        }
+    }
+
+    public int getIndex() {
+        return this.index;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    /**
+     * @param entityId such as Q42
+     */
+    public boolean contains(String entityId) {
+        return this.containsKey(EntityIds.encode(entityId));
+    }
+
+    private boolean containsKey(long key) {
+        // The upper bits of the hash pick the shard, as they depend on all bits of the key, unlike the lowest ones
+        return (int) (((mix(key) >>> 32) * this.count) >>> 32) == this.index - 1;
+    }
+
+    /**
+     * Spreads the sequential keys over all 64 bits the same way on every JVM, with the finaliser of MurmurHash3,
+     * independently of the hash the SamplingProcessor uses
+     */
+    private static long mix(long key) {
+        key = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+        key = (key ^ (key >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return key ^ (key >>> 33);
+    }
+
+    /**
+     * Accepts the lines of the entities in this shard. Lines without a readable id all belong to the first shard,
+     * so that every line is processed by exactly one shard.
+     */
+    public LineFilter getLineFilter() {
+        return new LineFilter() {
+            @Override
+            public boolean matches(byte[] data, int start, int end) {
+                long key = EntityStore.keyOfLine(data, start, end);
+                return key < 0 ? index == 1 : containsKey(key);
+            }
+        };
+    }
+
+    /**
+     * @return a processor that passes the entities in this shard on to the given processor
+     */
+    public EntityDocumentProcessor filter(EntityDocumentProcessor processor) {
+        return new EntityDocumentProcessor() {
+            @Override
+            public void processItemDocument(ItemDocument item) {
+                if (contains(item.getItemId().getId())) {
+                    processor.processItemDocument(item);
+                }
+            }
+
+            @Override
+            public void processPropertyDocument(PropertyDocument property) {
+                if (contains(property.getPropertyId().getId())) {
+                    processor.processPropertyDocument(property);
+                }
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return this.index + "/" + this.count;
+    }
+
+}
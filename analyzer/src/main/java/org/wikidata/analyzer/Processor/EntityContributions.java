@@ -0,0 +1,54 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Works out what single entities contribute to counter style processors (see WikidataAnalyzerProcessor.getCounters),
+ * by handing each entity to shards of the processors and taking their counters.
+ *
+ * The shards, and the broker handing entities to them, are created once and their counters reset between entities.
+ * Shards are not thread safe, so every thread needs contributions of its own.
+ */
+class EntityContributions {
+
+    private final ProcessorBroker broker = new ProcessorBroker();
+    private final List<WikidataAnalyzerProcessor> shards = new ArrayList<>();
+
+    /**
+     * @param processors counter processors, which must have been set up
+     */
+    EntityContributions(List<WikidataAnalyzerProcessor> processors) {
+        for (WikidataAnalyzerProcessor processor : processors) {
+            WikidataAnalyzerProcessor shard = processor.createShard();
+            this.shards.add(shard);
+            this.broker.registerEntityDocumentProcessor(shard);
+        }
+    }
+
+    /**
+     * @return the counters the entity contributes to each processor
+     */
+    List<Map<String, Double>> of(EntityDocument document) {
+        for (WikidataAnalyzerProcessor shard : this.shards) {
+            shard.resetCounters();
+        }
+        if (document instanceof ItemDocument) {
+            this.broker.processItemDocument((ItemDocument) document);
+        } else if (document instanceof PropertyDocument) {
+            this.broker.processPropertyDocument((PropertyDocument) document);
+        }
+
+        List<Map<String, Double>> counters = new ArrayList<>();
+        for (WikidataAnalyzerProcessor shard : this.shards) {
+            counters.add(shard.getCounters());
+        }
+        return counters;
+    }
+
+}
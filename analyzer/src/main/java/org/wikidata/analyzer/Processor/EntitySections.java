@@ -0,0 +1,151 @@
+package org.wikidata.analyzer.Processor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The top level sections of an entity's JSON (labels, descriptions, aliases, claims and sitelinks)
+ * that a processor reads, optionally limited to some keys such as the languages of the labels.
+ * Sections that are not included may be left empty when the entity is parsed.
+ *
+ * Instances are immutable, the with methods return a new selection.
+ */
+public final class EntitySections {
+
+    public static final String LABELS = "labels";
+    public static final String DESCRIPTIONS = "descriptions";
+    public static final String ALIASES = "aliases";
+    public static final String CLAIMS = "claims";
+    public static final String SITELINKS = "sitelinks";
+
+    private static final Set<String> SECTIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            LABELS, DESCRIPTIONS, ALIASES, CLAIMS, SITELINKS
+    )));
+
+    private static final EntitySections ALL = new EntitySections(true, new HashMap<>());
+    private static final EntitySections NONE = new EntitySections(false, new HashMap<>());
+
+    private final boolean all;
+
+    /**
+     * Included sections, mapped to the keys to keep or null if all keys are kept
+     */
+    private final Map<String, Set<String>> sections;
+
+    private EntitySections(boolean all, Map<String, Set<String>> sections) {
+        this.all = all;
+        this.sections = sections;
+    }
+
+    /**
+     * Every section of the entity, which is what processors read unless they say otherwise
+     */
+    public static EntitySections all() {
+        return ALL;
+    }
+
+    /**
+     * No sections at all, only the type and id of the entity
+     */
+    public static EntitySections none() {
+        return NONE;
+    }
+
+    public EntitySections withClaims() {
+        return this.with(CLAIMS, null);
+    }
+
+    /**
+     * @param languages the languages to keep, or none to keep all of them
+     */
+    public EntitySections withLabels(String... languages) {
+        return this.with(LABELS, languages.length == 0 ? null : new HashSet<>(Arrays.asList(languages)));
+    }
+
+    /**
+     * @param languages the languages to keep, or none to keep all of them
+     */
+    public EntitySections withDescriptions(String... languages) {
+        return this.with(DESCRIPTIONS, languages.length == 0 ? null : new HashSet<>(Arrays.asList(languages)));
+    }
+
+    /**
+     * @param languages the languages to keep, or none to keep all of them
+     */
+    public EntitySections withAliases(String... languages) {
+        return this.with(ALIASES, languages.length == 0 ? null : new HashSet<>(Arrays.asList(languages)));
+    }
+
+    /**
+     * @param sites the site keys to keep (such as enwiki), or none to keep all of them
+     */
+    public EntitySections withSitelinks(String... sites) {
+        return this.with(SITELINKS, sites.length == 0 ? null : new HashSet<>(Arrays.asList(sites)));
+    }
+
+    private EntitySections with(String section, Set<String> keys) {
+        if (this.all) {
+            return this;
+        }
+        Map<String, Set<String>> sections = new HashMap<>(this.sections);
+        sections.put(section, union(this.sections, section, keys));
+        return new EntitySections(false, sections);
+    }
+
+    /**
+     * @return the sections read by either this or the other selection
+     */
+    public EntitySections union(EntitySections other) {
+        if (this.all || other.all) {
+            return ALL;
+        }
+        Map<String, Set<String>> sections = new HashMap<>(this.sections);
+        for (Map.Entry<String, Set<String>> entry : other.sections.entrySet()) {
+            sections.put(entry.getKey(), union(this.sections, entry.getKey(), entry.getValue()));
+        }
+        return new EntitySections(false, sections);
+    }
+
+    private static Set<String> union(Map<String, Set<String>> sections, String section, Set<String> keys) {
+        if (!sections.containsKey(section)) {
+            return keys;
+        }
+        Set<String> existing = sections.get(section);
+        if (existing == null || keys == null) {
+            return null;
+        }
+        Set<String> union = new HashSet<>(existing);
+        union.addAll(keys);
+        return union;
+    }
+
+    public boolean isAll() {
+        return this.all;
+    }
+
+    /**
+     * @param name the name of a top level field of the entity JSON
+     * @return true if the field should be read
+     */
+    public boolean includesSection(String name) {
+        return this.all || !SECTIONS.contains(name) || this.sections.containsKey(name);
+    }
+
+    /**
+     * @param section a section included in this selection
+     * @param key a key within the section, such as a language code or site key
+     * @return true if the key should be read
+     */
+    public boolean includesKey(String section, String key) {
+        if (this.all || !SECTIONS.contains(section)) {
+            return true;
+        }
+        Set<String> keys = this.sections.get(section);
+        return keys == null || keys.contains(key);
+    }
+
+}
@@ -0,0 +1,529 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.analyzer.Ids.EntityIds;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The revision of every entity seen by an incremental run together with what it contributed to the counters
+ * of each processor, kept under the data directory so the next run only needs to look at entities that changed.
+ *
+ * The store of the previous run is indexed in memory by entity, holding the revision and the position of the record
+ * in the file, from which the contributions are read when they have to be retracted. Records of the current run are
+ * collected in memory per thread, and written out together with the unchanged records of the previous run at the end.
+ *
+ * A record is the entity key and revision followed by the counters of each processor, all as variable length numbers,
+ * with counter names replaced by their index in the list of names at the start of the file.
+ */
+class EntityStore {
+
+    private static final int VERSION = 1;
+
+    private static final long EMPTY = -1;
+
+    private static final byte NOT_SEEN = 0;
+    private static final byte UNCHANGED = 1;
+    private static final byte REPLACED = 2;
+
+    private static final byte[] ID_MARKER = "\"id\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REVISION_MARKER = "\"lastrevid\":".getBytes(StandardCharsets.UTF_8);
+
+    private final File file;
+    private final List<String> processorNames;
+
+    /**
+     * Counter names by index, only ever appended to so the indexes in the previous store stay valid
+     */
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> nameIndexes = new ConcurrentHashMap<>();
+
+    // Index of the previous store, open addressing by entity key
+    private long[] keys;
+    private long[] revisions;
+    private long[] offsets;
+    private byte[] states;
+    private int mask;
+    private long previousRecords;
+    private FileChannel channel;
+
+    private final List<RecordBuffer> buffers = Collections.synchronizedList(new ArrayList<>());
+    private final ThreadLocal<RecordBuffer> buffer = ThreadLocal.withInitial(() -> {
+        RecordBuffer threadBuffer = new RecordBuffer();
+        this.buffers.add(threadBuffer);
+        return threadBuffer;
+    });
+
+    /**
+     * @param file the store, which may not exist yet
+     * @param processorNames names of the processors whose counters are stored, in order
+     */
+    EntityStore(File file, List<String> processorNames) {
+        this.file = file;
+        this.processorNames = processorNames;
+    }
+
+    /**
+     * Reads the key of the entity on a line of the dump, which starts with its type and id
+     *
+     * @return the key, or -1 if the line has no id that could be read
+     */
+    static long keyOfLine(byte[] data, int start, int end) {
+        int position = LineFilter.indexOf(data, start, end, ID_MARKER);
+        if (position < 0 || position + ID_MARKER.length + 1 >= end) {
+            return -1;
+        }
+        position += ID_MARKER.length;
+        byte type = data[position++];
+        long number = 0;
+        int digits = 0;
+        while (position < end && data[position] >= '0' && data[position] <= '9') {
+            number = number * 10 + (data[position++] - '0');
+            digits++;
+        }
+        if (digits == 0 || position == end || data[position] != '"' || type < 'A' || type > 'Z') {
+            return -1;
+        }
+        return EntityIds.encode((char) type, number);
+    }
+
+    /**
+     * @return the lastrevid of the entity on a line of the dump, or 0 if the line has none
+     */
+    static long revisionOfLine(byte[] data, int start, int end) {
+        int position = LineFilter.indexOf(data, start, end, REVISION_MARKER);
+        if (position < 0) {
+            return 0;
+        }
+        long revision = 0;
+        for (position += REVISION_MARKER.length; position < end && data[position] >= '0' && data[position] <= '9'; position++) {
+            revision = revision * 10 + (data[position] - '0');
+        }
+        return revision;
+    }
+
+    /**
+     * Loads the index of the store written by the previous run
+     *
+     * @return the counters of each processor at the end of the previous run, or null if there is no usable store
+     */
+    List<Map<String, Double>> open() throws IOException {
+        if (!this.file.exists()) {
+            System.out.println("No incremental store found, processing all entities");
+            return null;
+        }
+        List<Map<String, Double>> totals = new ArrayList<>();
+        RecordInput in = new RecordInput(new BufferedInputStream(new FileInputStream(this.file), 1024 * 1024));
+        try {
+            DataInputStream header = new DataInputStream(in);
+            if (header.readInt() != VERSION || !this.readNames(header).equals(this.processorNames)) {
+                System.out.println("Incremental store " + this.file + " was made by other processors, processing all entities");
+                return null;
+            }
+            for (String name : this.readNames(header)) {
+                this.nameIndexes.put(name, this.names.size());
+                this.names.add(name);
+            }
+            for (int i = 0; i < this.processorNames.size(); i++) {
+                Map<String, Double> counters = new HashMap<>();
+                int size = header.readInt();
+                for (int j = 0; j < size; j++) {
+                    counters.put(header.readUTF(), header.readDouble());
+                }
+                totals.add(counters);
+            }
+            this.previousRecords = header.readLong();
+            this.readIndex(in);
+        } finally {
+            in.close();
+        }
+        this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ);
+        System.out.println("Loaded incremental store with " + this.previousRecords + " entities");
+        return totals;
+    }
+
+    private List<String> readNames(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(in.readUTF());
+        }
+        return result;
+    }
+
+    private void readIndex(RecordInput in) throws IOException {
+        int capacity = Integer.highestOneBit((int) Math.max(2, this.previousRecords + this.previousRecords / 2)) * 2;
+        this.keys = new long[capacity];
+        this.revisions = new long[capacity];
+        this.offsets = new long[capacity];
+        this.states = new byte[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(this.keys, EMPTY);
+
+        for (long i = 0; i < this.previousRecords; i++) {
+            long offset = in.getPosition();
+            long key = readVarLong(in);
+            long revision = readVarLong(in);
+            this.readContributions(in, false);
+            int slot = this.slotOf(key);
+            this.keys[slot] = key;
+            this.revisions[slot] = revision;
+            this.offsets[slot] = offset;
+        }
+    }
+
+    private int slotOf(long key) {
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & this.mask;
+        while (this.keys[slot] != EMPTY && this.keys[slot] != key) {
+            slot = (slot + 1) & this.mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @return the slot of the entity in the previous store, or -1 if it was not in there
+     */
+    int find(long key) {
+        if (this.keys == null) {
+            return -1;
+        }
+        int slot = this.slotOf(key);
+        return this.keys[slot] == EMPTY ? -1 : slot;
+    }
+
+    long getRevision(int slot) {
+        return this.revisions[slot];
+    }
+
+    /**
+     * The entity is still there as it was, its record is carried over to the new store
+     */
+    void markUnchanged(int slot) {
+        this.states[slot] = UNCHANGED;
+    }
+
+    /**
+     * The entity changed and has been recorded again, its old contributions have been retracted
+     */
+    void markReplaced(int slot) {
+        this.states[slot] = REPLACED;
+    }
+
+    /**
+     * @return the counters the entity contributed to each processor in the previous run
+     */
+    List<Map<String, Double>> readContributions(int slot) throws IOException {
+        int size = 512;
+        while (true) {
+            ByteBuffer bytes = ByteBuffer.allocate(size);
+            while (bytes.hasRemaining() && this.channel.read(bytes, this.offsets[slot] + bytes.position()) >= 0) {
+                // Keep reading until the buffer is full or the file ends
+            }
+            try {
+                InputStream in = new ByteArrayInputStream(bytes.array(), 0, bytes.position());
+                readVarLong(in);
+                readVarLong(in);
+                return this.readContributions(in, true);
+            } catch (EOFException e) {
+                if (bytes.hasRemaining()) {
+                    throw e;
+                }
+                // The record is longer than what was read
+                size *= 4;
+            }
+        }
+    }
+
+    /**
+     * @return the contributions of all entities of the previous store that were not seen in this run
+     */
+    List<List<Map<String, Double>>> readRemoved() throws IOException {
+        List<List<Map<String, Double>>> removed = new ArrayList<>();
+        if (this.keys == null) {
+            return removed;
+        }
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            if (this.keys[slot] != EMPTY && this.states[slot] == NOT_SEEN) {
+                removed.add(this.readContributions(slot));
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Records an entity that was added or changed in this run, may be called from several threads
+     *
+     * @param contributions the counters of the entity for each processor
+     */
+    void record(long key, long revision, List<Map<String, Double>> contributions) {
+        RecordBuffer out = this.buffer.get();
+        writeVarLong(out, key);
+        writeVarLong(out, revision);
+        for (Map<String, Double> counters : contributions) {
+            int count = 0;
+            for (Double value : counters.values()) {
+                if (value != 0) {
+                    count++;
+                }
+            }
+            writeVarLong(out, count);
+            for (Map.Entry<String, Double> entry : counters.entrySet()) {
+                double value = entry.getValue();
+                if (value == 0) {
+                    continue;
+                }
+                long index = this.nameIndex(entry.getKey());
+                long whole = (long) value;
+                if (whole == value) {
+                    writeVarLong(out, index << 1);
+                    writeVarLong(out, (whole << 1) ^ (whole >> 63));
+                } else {
+                    writeVarLong(out, index << 1 | 1);
+                    writeVarLong(out, Double.doubleToLongBits(value));
+                }
+            }
+        }
+        out.records++;
+    }
+
+    private int nameIndex(String name) {
+        Integer index = this.nameIndexes.get(name);
+        if (index == null) {
+            synchronized (this.names) {
+                index = this.nameIndexes.get(name);
+                if (index == null) {
+                    index = this.names.size();
+                    this.names.add(name);
+                    this.nameIndexes.put(name, index);
+                }
+            }
+        }
+        return index;
+    }
+
+    private String name(int index) {
+        synchronized (this.names) {
+            return this.names.get(index);
+        }
+    }
+
+    private List<Map<String, Double>> readContributions(InputStream in, boolean keep) throws IOException {
+        List<Map<String, Double>> contributions = keep ? new ArrayList<>() : null;
+        for (int i = 0; i < this.processorNames.size(); i++) {
+            Map<String, Double> counters = keep ? new HashMap<>() : null;
+            long count = readVarLong(in);
+            for (long j = 0; j < count; j++) {
+                long index = readVarLong(in);
+                long value = readVarLong(in);
+                if (keep) {
+                    double decoded = (index & 1) == 0 ? (double) ((value >>> 1) ^ -(value & 1)) : Double.longBitsToDouble(value);
+                    counters.put(this.name((int) (index >>> 1)), decoded);
+                }
+            }
+            if (keep) {
+                contributions.add(counters);
+            }
+        }
+        return contributions;
+    }
+
+    /**
+     * Writes the new store, made of the unchanged records of the previous one and everything recorded in this run,
+     * and replaces the previous store with it.
+     *
+     * @param totals the counters of each processor after all entities have been processed
+     */
+    void write(List<Map<String, Double>> totals) throws IOException {
+        long unchanged = 0;
+        long replaced = 0;
+        if (this.keys != null) {
+            for (int slot = 0; slot < this.keys.length; slot++) {
+                unchanged += this.states[slot] == UNCHANGED ? 1 : 0;
+                replaced += this.states[slot] == REPLACED ? 1 : 0;
+            }
+        }
+        long recorded = 0;
+        for (RecordBuffer recordBuffer : this.buffers) {
+            recorded += recordBuffer.records;
+        }
+
+        File temporaryFile = new File(this.file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), 1024 * 1024))) {
+            out.writeInt(VERSION);
+            writeNames(out, this.processorNames);
+            writeNames(out, this.names);
+            for (Map<String, Double> counters : totals) {
+                out.writeInt(counters.size());
+                for (Map.Entry<String, Double> entry : counters.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeDouble(entry.getValue());
+                }
+            }
+            out.writeLong(unchanged + recorded);
+            if (unchanged > 0) {
+                this.copyUnchanged(out);
+            }
+            for (RecordBuffer recordBuffer : this.buffers) {
+                recordBuffer.writeTo(out);
+            }
+        }
+        this.close();
+        Files.move(temporaryFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        System.out.println("Incremental store: " + unchanged + " entities unchanged, " + replaced + " changed, "
+                + (recorded - replaced) + " added, " + (this.previousRecords - unchanged - replaced) + " removed");
+    }
+
+    private static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    private void copyUnchanged(DataOutputStream out) throws IOException {
+        try (RecordInput in = new RecordInput(new BufferedInputStream(new FileInputStream(this.file), 1024 * 1024))) {
+            DataInputStream header = new DataInputStream(in);
+            header.readInt();
+            this.readNames(header);
+            this.readNames(header);
+            for (int i = 0; i < this.processorNames.size(); i++) {
+                int size = header.readInt();
+                for (int j = 0; j < size; j++) {
+                    header.readUTF();
+                    header.readDouble();
+                }
+            }
+            header.readLong();
+
+            for (long i = 0; i < this.previousRecords; i++) {
+                in.startCopy();
+                long key = readVarLong(in);
+                readVarLong(in);
+                this.readContributions(in, false);
+                int slot = this.find(key);
+                if (this.states[slot] == UNCHANGED) {
+                    in.copyTo(out);
+                }
+            }
+        }
+    }
+
+    void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int read = in.read();
+            if (read < 0) {
+                throw new EOFException("Incremental store ends within a record");
+            }
+            value |= (long) (read & 0x7F) << shift;
+            if ((read & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt incremental store");
+    }
+
+    /**
+     * Records of the current run written by a single thread
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+
+        long records;
+
+        RecordBuffer() {
+            super(64 * 1024);
+        }
+    }
+
+    /**
+     * Input that keeps track of its position and can copy the bytes of a record as they are read
+     */
+    private static class RecordInput extends FilterInputStream {
+
+        private long position;
+        private boolean copying;
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        RecordInput(InputStream in) {
+            super(in);
+        }
+
+        long getPosition() {
+            return this.position;
+        }
+
+        void startCopy() {
+            this.copying = true;
+            this.copy.reset();
+        }
+
+        void copyTo(DataOutputStream out) throws IOException {
+            this.copy.writeTo(out);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = this.in.read();
+            if (read >= 0) {
+                this.position++;
+                if (this.copying) {
+                    this.copy.write(read);
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = this.in.read(buffer, offset, length);
+            if (read > 0) {
+                this.position += read;
+                if (this.copying) {
+                    this.copy.write(buffer, offset, read);
+                }
+            }
+            return read;
+        }
+    }
+
+}
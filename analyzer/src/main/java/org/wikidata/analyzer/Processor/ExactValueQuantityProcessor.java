@@ -1,6 +1,8 @@
 package org.wikidata.analyzer.Processor;
 
 import org.json.simple.JSONObject;
+import org.wikidata.analyzer.Processor.CounterRegistry.Counter;
+import org.wikidata.analyzer.Processor.CounterRegistry.PropertyCounters;
 import org.wikidata.wdtk.datamodel.interfaces.*;
 
 import java.io.*;
@@ -11,35 +13,105 @@ import java.util.*;
  *
  * @author Addshore
  */
-public class ExactValueQuantityProcessor extends WikidataAnalyzerProcessor {
+public class ExactValueQuantityProcessor extends WikidataAnalyzerProcessor implements SnakSubscriber {
 
-    private Map<String, Double> counters = new HashMap<>();
+    private CounterRegistry registry;
+    private final SnakTraversal traversal = SnakTraversal.of(this);
+
+    private Counter noBound;
+    private Counter noUnit;
+    private Counter noDecimal;
+    private PropertyCounters values;
+    private PropertyCounters noBoundValues;
+    private PropertyCounters noUnitValues;
+    private PropertyCounters noDecimalValues;
+
+    /**
+     * Counters of the values of each property by the position of their snak, indexed by SnakPosition ordinal
+     */
+    private PropertyCounters[] valuesByPosition = new PropertyCounters[SnakPosition.values().length];
 
     public ExactValueQuantityProcessor() {
         super();
+        this.registry = new CounterRegistry();
+        this.registerCounters();
+    }
+
+    private ExactValueQuantityProcessor(ExactValueQuantityProcessor parent) {
+        super(parent.outputDir);
+        this.registry = parent.registry.createShard();
+        this.registerCounters();
+    }
+
+    private void registerCounters() {
+        this.noBound = this.registry.counter("counters.noBound");
+        this.noUnit = this.registry.counter("counters.noUnit");
+        this.noDecimal = this.registry.counter("counters.noDecimal");
+        this.values = this.registry.propertyCounters("property.");
+        this.noBoundValues = this.registry.propertyCounters("propertyCounters.noBound.");
+        this.noUnitValues = this.registry.propertyCounters("propertyCounters.noUnit.");
+        this.noDecimalValues = this.registry.propertyCounters("propertyCounters.noDecimal.");
+        for (SnakPosition position : SnakPosition.values()) {
+            this.valuesByPosition[position.ordinal()] = this.registry.propertyCounters("type." + position.getLabel() + ".");
+        }
+    }
+
+    @Override
+    public WikidataAnalyzerProcessor createShard() {
+        return new ExactValueQuantityProcessor(this);
+    }
+
+    @Override
+    public void mergeShard(WikidataAnalyzerProcessor shard) {
+        this.registry.addAll(((ExactValueQuantityProcessor) shard).registry);
+    }
+
+    @Override
+    public Map<String, Double> getCounters() {
+        return this.registry.toMap();
     }
 
-    private void increment(String counter) {
-        this.increment(counter, 1);
+    @Override
+    public void resetCounters() {
+        this.registry.clear();
     }
 
-    private void increment(String counter, double quantity) {
-        this.initiateCounterIfNotReady(counter);
-        this.counters.put(counter, this.counters.get(counter) + quantity);
+    @Override
+    public void addCounters(Map<String, Double> counters) {
+        for (Map.Entry<String, Double> entry : counters.entrySet()) {
+            this.registry.add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public boolean canMergeOutput() {
+        return true;
     }
 
-    private void initiateCounterIfNotReady(String counter) {
-        if (!this.counters.containsKey(counter)) {
-            this.counters.put(counter, (double) 0);
+    @Override
+    public void mergeOutput(File shardOutputDir) throws IOException {
+        JSONObject metrics = readJsonObject(new File(shardOutputDir, "exactValueQuantityMetrics.json"));
+        for (Object key : metrics.keySet()) {
+            this.registry.add((String) key, ((Number) metrics.get(key)).doubleValue());
         }
     }
 
+    @Override
+    public Serializable getCheckpointState() {
+        return new HashMap<>(this.registry.toMap());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void resumeFromCheckpoint(Serializable state) {
+        this.setUp();
+        this.registry.clear();
+        this.addCounters((Map<String, Double>) state);
+    }
+
     public boolean tearDown() {
         try {
-            File metricsJsonFile = new File(outputDir.getAbsolutePath() + File.separator + "exactValueQuantityMetrics.json");
-            BufferedWriter metricsJsonWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(metricsJsonFile)));
-            new JSONObject(this.counters).writeJSONString(metricsJsonWriter);
-            metricsJsonWriter.close();
+            writeJsonObject(new File(outputDir.getAbsolutePath() + File.separator + "exactValueQuantityMetrics.json"), this.registry.toMap());
         } catch (IOException e) {
             e.printStackTrace();
             return false;
@@ -48,39 +120,45 @@ public class ExactValueQuantityProcessor extends WikidataAnalyzerProcessor {
     }
 
     @Override
-    public void processItemDocument(ItemDocument item) {
-        for (Iterator<Statement> statements = item.getAllStatements(); statements.hasNext(); ) {
-            Statement statement = statements.next();
-
-            this.processSnak(statement.getClaim().getMainSnak(), "main");
+    public LineFilter getLineFilter() {
+        return LineFilter.ofEntityType("item").and(LineFilter.withValueType("quantity"));
+    }
 
+    @Override
+    public EntitySections getEntitySections() {
+        return EntitySections.none().withClaims();
+    }
 
-            for (Iterator<Snak> qualifiers = statement.getClaim().getAllQualifiers(); qualifiers.hasNext(); ) {
-                this.processSnak(qualifiers.next(), "qualifier");
-            }
+    @Override
+    public SnakSubscription getSnakSubscription() {
+        return SnakSubscription.snaksWithValue(
+                QuantityValue.class,
+                SnakPosition.MAIN,
+                SnakPosition.QUALIFIER,
+                SnakPosition.REFERENCE
+        ).onlyItems();
+    }
 
-            for (Reference reference : statement.getReferences()) {
-                for (Iterator<Snak> referenceSnaks = reference.getAllSnaks(); referenceSnaks.hasNext(); ) {
-                    this.processSnak(referenceSnaks.next(), "reference");
-                }
-            }
-        }
+    @Override
+    public void processItemDocument(ItemDocument item) {
+        this.traversal.traverse(item);
     }
 
-    private void processSnak(Snak snak, String type) {
+    @Override
+    public void processSnak(Snak snak, SnakPosition position, Statement statement) {
         if (snak instanceof ValueSnak) {
             Value value = snak.getValue();
             if (value instanceof QuantityValue) {
                 QuantityValue quantityValue = (QuantityValue) value;
                 String propertyId = snak.getPropertyId().getId();
 
-                this.increment("property." + propertyId);
-                this.increment("type." + type + "." + propertyId);
+                this.registry.increment(this.values, propertyId);
+                this.registry.increment(this.valuesByPosition[position.ordinal()], propertyId);
 
                 // number of values with +/-0 bounds (upper bound == lower bound)
                 if (Objects.equals(quantityValue.getUpperBound(), quantityValue.getLowerBound())) {
-                    this.increment("counters.noBound");
-                    this.increment("propertyCounters.noBound." + propertyId);
+                    this.registry.increment(this.noBound);
+                    this.registry.increment(this.noBoundValues, propertyId);
                 }
 
                 /**
@@ -89,14 +167,14 @@ public class ExactValueQuantityProcessor extends WikidataAnalyzerProcessor {
                  * the toolkit converts "1" to "" in JacksonInnerQuantity::getUnit
                  */
                 if (quantityValue.getUnit().equals("") || quantityValue.getUnit().equals("http://www.wikidata.org/entity/Q199")) {
-                    this.increment("counters.noUnit");
-                    this.increment("propertyCounters.noUnit." + propertyId);
+                    this.registry.increment(this.noUnit);
+                    this.registry.increment(this.noUnitValues, propertyId);
                 }
 
                 // number of values with no decimal point (i.e. whole numbers)
                 if (quantityValue.getNumericValue().scale() <= 0) {
-                    this.increment("counters.noDecimal");
-                    this.increment("propertyCounters.noDecimal." + propertyId);
+                    this.registry.increment(this.noDecimal);
+                    this.registry.increment(this.noDecimalValues, propertyId);
                 }
 
             }
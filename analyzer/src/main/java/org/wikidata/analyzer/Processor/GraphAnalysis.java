@@ -0,0 +1,176 @@
+package org.wikidata.analyzer.Processor;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.wikidata.analyzer.Ids.EntityIds;
+import org.wikidata.analyzer.Ids.IdSet;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Statistics of the relations of MapProcessor, computed on the int arrays of a CsrGraph rather than on objects by node:
+ *
+ * - "nodes": the number of items with any relation
+ * - "components": the number of connected components of all relations together, ignoring their direction, the size
+ *   of the largest, and the number of components by size
+ * - by property: the number of "edges", the number of nodes by "outDegrees" and "inDegrees", and for relations that
+ *   should be symmetric, such as shared border, the number of edges that are "unreciprocated" by an edge back,
+ *   with up to 100 "unreciprocatedExamples" as [item, target] pairs. Only targets with edges of the relation of their
+ *   own can list the edge back, so edges to other targets, such as items without coordinates, are counted as
+ *   "unknownTargets" instead.
+ *
+ * Components are found by union-find, and reciprocity by sorting the edges of a relation as longs of their nodes.
+ */
+class GraphAnalysis {
+
+    private static final int MAX_EXAMPLES = 100;
+
+    private static final IdSet SYMMETRIC_PROPERTIES = new IdSet();
+
+    static {
+        for (String property : new String[]{
+                "P47",// Shared border with
+                "P190",// Twin cities
+                "P197",// Adjacent station
+        }) {
+            SYMMETRIC_PROPERTIES.add(EntityIds.encode(property));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static JSONObject analyze(CsrGraph graph) {
+        int nodeCount = graph.getNodeCount();
+        JSONObject report = new JSONObject();
+        report.put("nodes", nodeCount);
+
+        // Union-find over all relations, the parent of every root is itself
+        int[] parents = new int[nodeCount];
+        int[] sizes = new int[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            parents[node] = node;
+            sizes[node] = 1;
+        }
+
+        JSONObject relations = new JSONObject();
+        for (int relation = 0; relation < graph.getRelationCount(); relation++) {
+            int[] inDegrees = new int[nodeCount];
+            int[] outDegrees = new int[nodeCount];
+            for (int node = 0; node < nodeCount; node++) {
+                int end = graph.getEdgeStart(relation, node + 1);
+                for (int edge = graph.getEdgeStart(relation, node); edge < end; edge++) {
+                    int target = graph.getEdgeTarget(relation, edge);
+                    inDegrees[target]++;
+                    union(parents, sizes, node, target);
+                }
+                outDegrees[node] = end - graph.getEdgeStart(relation, node);
+            }
+
+            JSONObject relationReport = new JSONObject();
+            relationReport.put("edges", graph.getEdgeCount(relation));
+            relationReport.put("outDegrees", histogram(outDegrees));
+            relationReport.put("inDegrees", histogram(inDegrees));
+            if (SYMMETRIC_PROPERTIES.contains(graph.getProperty(relation))) {
+                addReciprocity(graph, relation, outDegrees, relationReport);
+            }
+            relations.put(EntityIds.decode(graph.getProperty(relation)), relationReport);
+        }
+
+        int[] componentSizes = new int[nodeCount];
+        int componentCount = 0;
+        int largest = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (find(parents, node) == node) {
+                componentSizes[componentCount++] = sizes[node];
+                largest = Math.max(largest, sizes[node]);
+            }
+        }
+        componentSizes = Arrays.copyOf(componentSizes, componentCount);
+        JSONObject components = new JSONObject();
+        components.put("count", componentCount);
+        components.put("largest", largest);
+        components.put("sizes", histogram(componentSizes));
+        report.put("components", components);
+        report.put("relations", relations);
+        return report;
+    }
+
+    private static int find(int[] parents, int node) {
+        while (parents[node] != node) {
+            // Path halving, so that later finds are shorter
+            parents[node] = parents[parents[node]];
+            node = parents[node];
+        }
+        return node;
+    }
+
+    private static void union(int[] parents, int[] sizes, int a, int b) {
+        int rootA = find(parents, a);
+        int rootB = find(parents, b);
+        if (rootA == rootB) {
+            return;
+        }
+        // The smaller component joins the larger
+        if (sizes[rootA] < sizes[rootB]) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        parents[rootB] = rootA;
+        sizes[rootA] += sizes[rootB];
+    }
+
+    /**
+     * @return the number of values by value, in ascending order of the values
+     */
+    private static Map<Integer, Long> histogram(int[] values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        Map<Integer, Long> histogram = new TreeMap<>();
+        int start = 0;
+        for (int i = 1; i <= sorted.length; i++) {
+            if (i == sorted.length || sorted[i] != sorted[start]) {
+                histogram.put(sorted[start], (long) (i - start));
+                start = i;
+            }
+        }
+        return histogram;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addReciprocity(CsrGraph graph, int relation, int[] outDegrees, JSONObject relationReport) {
+        long[] edges = new long[(int) graph.getEdgeCount(relation)];
+        int count = 0;
+        for (int node = 0; node < graph.getNodeCount(); node++) {
+            int end = graph.getEdgeStart(relation, node + 1);
+            for (int edge = graph.getEdgeStart(relation, node); edge < end; edge++) {
+                edges[count++] = (long) node << 32 | graph.getEdgeTarget(relation, edge);
+            }
+        }
+        Arrays.sort(edges);
+
+        long unreciprocated = 0;
+        long unknownTargets = 0;
+        JSONArray examples = new JSONArray();
+        for (long edge : edges) {
+            int node = (int) (edge >>> 32);
+            int target = (int) edge;
+            if (outDegrees[target] == 0) {
+                unknownTargets++;
+            } else if (node != target && Arrays.binarySearch(edges, (long) target << 32 | node) < 0) {
+                unreciprocated++;
+                if (examples.size() < MAX_EXAMPLES) {
+                    JSONArray example = new JSONArray();
+                    example.add(EntityIds.decode(graph.getNodeCode(node)));
+                    example.add(EntityIds.decode(graph.getNodeCode(target)));
+                    examples.add(example);
+                }
+            }
+        }
+        relationReport.put("unreciprocated", unreciprocated);
+        relationReport.put("unreciprocatedExamples", examples);
+        relationReport.put("unknownTargets", unknownTargets);
+    }
+
+}
@@ -0,0 +1,235 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.analyzer.Ids.EntityIds;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs counter style processors (see WikidataAnalyzerProcessor.getCounters) incrementally.
+ *
+ * The counters start out at the totals of the previous incremental run. Entities whose revision did not change
+ * since then are skipped, for changed entities the old contribution is retracted and the new one added,
+ * and the contributions of entities that are no longer in the dump are retracted at the end.
+ * When run by the ParallelDumpProcessor, unchanged entities are recognised before they are parsed.
+ *
+ * Every entity that is processed is handed to shards of the processors, whose counters are then what the entity
+ * contributes (see EntityContributions). These are kept per entity in an EntityStore for the next run.
+ */
+public class IncrementalProcessor extends WikidataAnalyzerProcessor {
+
+    private final List<WikidataAnalyzerProcessor> processors;
+    private final EntityStore store;
+
+    /**
+     * What the contributions are added to, the processors themselves or, on a shard, shards of them
+     */
+    private final List<WikidataAnalyzerProcessor> totals;
+
+    /**
+     * Created on the first entity, once the processors are set up
+     */
+    private EntityContributions contributions;
+
+    /**
+     * @param storeFile file to keep the store in between runs
+     * @param processors the processors to run, which must all keep counters only
+     */
+    public IncrementalProcessor(File storeFile, List<WikidataAnalyzerProcessor> processors) {
+        super(storeFile.getParentFile());
+        this.processors = processors;
+        List<String> processorNames = new ArrayList<>();
+        for (WikidataAnalyzerProcessor processor : processors) {
+            processorNames.add(processor.getClass().getName());
+        }
+        this.store = new EntityStore(storeFile, processorNames);
+        this.totals = processors;
+    }
+
+    private IncrementalProcessor(IncrementalProcessor parent) {
+        super(parent.outputDir);
+        this.processors = parent.processors;
+        this.store = parent.store;
+        this.totals = new ArrayList<>();
+        for (WikidataAnalyzerProcessor processor : this.processors) {
+            this.totals.add(processor.createShard());
+        }
+    }
+
+    public void setUp() {
+        for (WikidataAnalyzerProcessor processor : this.processors) {
+            processor.setUp();
+            if (processor.getCounters() == null || processor.createShard() == null) {
+                System.out.println("Error: " + processor.getClass().getSimpleName() + " can not be run incrementally");
+                System.exit(1);
+            }
+        }
+        try {
+            List<Map<String, Double>> previousTotals = this.store.open();
+            if (previousTotals != null) {
+                for (int i = 0; i < this.processors.size(); i++) {
+                    this.processors.get(i).addCounters(previousTotals.get(i));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public void doPreProcessing() {
+        for (WikidataAnalyzerProcessor processor : this.processors) {
+            processor.doPreProcessing();
+        }
+    }
+
+    /**
+     * Retracts the entities that were removed and writes the store, before the processors do their post processing
+     */
+    public void doPostProcessing() {
+        try {
+            for (List<Map<String, Double>> contributions : this.store.readRemoved()) {
+                retract(this.processors, contributions);
+            }
+            List<Map<String, Double>> counters = new ArrayList<>();
+            for (WikidataAnalyzerProcessor processor : this.processors) {
+                counters.add(processor.getCounters());
+            }
+            this.store.write(counters);
+        } catch (IOException e) {
+            System.out.println("Error: Could not write the incremental store, the next run will use the previous one");
+            e.printStackTrace();
+        }
+        for (WikidataAnalyzerProcessor processor : this.processors) {
+            processor.doPostProcessing();
+        }
+    }
+
+    public boolean tearDown() {
+        boolean success = true;
+        for (WikidataAnalyzerProcessor processor : this.processors) {
+            success = processor.tearDown() && success;
+        }
+        try {
+            this.store.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return success;
+    }
+
+    @Override
+    public WikidataAnalyzerProcessor createShard() {
+        return new IncrementalProcessor(this);
+    }
+
+    @Override
+    public void mergeShard(WikidataAnalyzerProcessor shard) {
+        for (int i = 0; i < this.processors.size(); i++) {
+            // Not mergeShard, so counters that are back at zero after retractions are removed
+            this.processors.get(i).addCounters(((IncrementalProcessor) shard).totals.get(i).getCounters());
+        }
+    }
+
+    /**
+     * Rejects unchanged entities, and new ones that none of the processors needs, after recording them in the store
+     */
+    @Override
+    public LineFilter getLineFilter() {
+        List<LineFilter> filters = new ArrayList<>();
+        for (WikidataAnalyzerProcessor processor : this.processors) {
+            filters.add(processor.getLineFilter());
+        }
+        LineFilter needed = LineFilter.anyOf(filters);
+        List<Map<String, Double>> noContributions = Collections.nCopies(this.processors.size(), Collections.emptyMap());
+
+        return new LineFilter() {
+            @Override
+            public boolean matches(byte[] data, int start, int end) {
+                long key = EntityStore.keyOfLine(data, start, end);
+                long revision = EntityStore.revisionOfLine(data, start, end);
+                if (key < 0 || revision == 0) {
+                    return true;
+                }
+                int slot = store.find(key);
+                if (slot >= 0) {
+                    if (store.getRevision(slot) != revision) {
+                        return true;
+                    }
+                    store.markUnchanged(slot);
+                    return false;
+                }
+                if (needed.matches(data, start, end)) {
+                    return true;
+                }
+                store.record(key, revision, noContributions);
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public EntitySections getEntitySections() {
+        EntitySections sections = EntitySections.none();
+        for (WikidataAnalyzerProcessor processor : this.processors) {
+            sections = sections.union(processor.getEntitySections());
+        }
+        return sections;
+    }
+
+    @Override
+    public void processItemDocument(ItemDocument item) {
+        this.processDocument(item);
+    }
+
+    @Override
+    public void processPropertyDocument(PropertyDocument property) {
+        this.processDocument(property);
+    }
+
+    private void processDocument(EntityDocument document) {
+        long key = EntityIds.encode(document.getEntityId().getId());
+        long revision = document.getRevisionId();
+        int slot = this.store.find(key);
+        if (slot >= 0 && revision != 0 && this.store.getRevision(slot) == revision) {
+            this.store.markUnchanged(slot);
+            return;
+        }
+        if (slot >= 0) {
+            try {
+                retract(this.totals, this.store.readContributions(slot));
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot read the incremental store: " + e.getMessage(), e);
+            }
+            this.store.markReplaced(slot);
+        }
+
+        if (this.contributions == null) {
+            this.contributions = new EntityContributions(this.processors);
+        }
+        List<Map<String, Double>> contributions = this.contributions.of(document);
+        for (int i = 0; i < this.totals.size(); i++) {
+            this.totals.get(i).addCounters(contributions.get(i));
+        }
+        this.store.record(key, revision, contributions);
+    }
+
+    private static void retract(List<WikidataAnalyzerProcessor> processors, List<Map<String, Double>> contributions) {
+        for (int i = 0; i < processors.size(); i++) {
+            Map<String, Double> negated = new HashMap<>();
+            for (Map.Entry<String, Double> entry : contributions.get(i).entrySet()) {
+                negated.put(entry.getKey(), -entry.getValue());
+            }
+            processors.get(i).addCounters(negated);
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package org.wikidata.analyzer.Processor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cheap check on the raw bytes of a single line of a JSON dump, used to skip parsing entities a processor has no use for.
+ *
+ * A filter may accept lines that turn out to be irrelevant, but must never reject a line the processor needs.
+ * Markers are matched against the compact JSON of the dumps, so "\"type\":\"time\"" rather than "\"type\": \"time\"".
+ */
+public abstract class LineFilter {
+
+    private static final LineFilter ALL = new LineFilter() {
+        @Override
+        public boolean matches(byte[] data, int start, int end) {
+            return true;
+        }
+    };
+
+    /**
+     * @return true if the entity on the line from start (inclusive) to end (exclusive) may be needed
+     */
+    public abstract boolean matches(byte[] data, int start, int end);
+
+    /**
+     * A filter that accepts every line, used by processors that look at all entities
+     */
+    public static LineFilter all() {
+        return ALL;
+    }
+
+    public boolean isAll() {
+        return this == ALL;
+    }
+
+    /**
+     * A filter that accepts lines containing at least one of the given markers
+     */
+    public static LineFilter containing(String... markers) {
+        byte[][] bytes = new byte[markers.length][];
+        for (int i = 0; i < markers.length; i++) {
+            bytes[i] = markers[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return new Containing(bytes);
+    }
+
+    /**
+     * A filter that accepts lines of the given entity type, such as "item" or "property"
+     */
+    public static LineFilter ofEntityType(String entityType) {
+        return containing("\"type\":\"" + entityType + "\"");
+    }
+
+    /**
+     * A filter that accepts lines containing a snak with a value of the given type, such as "time" or "quantity"
+     */
+    public static LineFilter withValueType(String valueType) {
+        return containing("\"type\":\"" + valueType + "\"");
+    }
+
+    /**
+     * A filter that accepts lines containing a statement, qualifier or reference for the given property
+     */
+    public static LineFilter withProperty(String propertyId) {
+        return containing("\"property\":\"" + propertyId + "\"");
+    }
+
+    /**
+     * @return a filter that accepts lines accepted by both this and the other filter
+     */
+    public LineFilter and(LineFilter other) {
+        if (this.isAll()) {
+            return other;
+        }
+        if (other.isAll()) {
+            return this;
+        }
+        LineFilter first = this;
+        return new LineFilter() {
+            @Override
+            public boolean matches(byte[] data, int start, int end) {
+                return first.matches(data, start, end) && other.matches(data, start, end);
+            }
+        };
+    }
+
+    /**
+     * @return a filter that accepts lines accepted by any of the given filters
+     */
+    public static LineFilter anyOf(List<LineFilter> filters) {
+        for (LineFilter filter : filters) {
+            if (filter.isAll()) {
+                return ALL;
+            }
+        }
+        LineFilter[] copy = filters.toArray(new LineFilter[filters.size()]);
+        return new LineFilter() {
+            @Override
+            public boolean matches(byte[] data, int start, int end) {
+                for (LineFilter filter : copy) {
+                    if (filter.matches(data, start, end)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    public static LineFilter anyOf(LineFilter... filters) {
+        return anyOf(new ArrayList<>(Arrays.asList(filters)));
+    }
+
+    /**
+     * @return the position of the first occurrence of the marker between start and end, or -1
+     */
+    static int indexOf(byte[] data, int start, int end, byte[] marker) {
+        if (marker.length == 0) {
+            return start;
+        }
+        byte first = marker[0];
+        int last = end - marker.length;
+        for (int i = start; i <= last; i++) {
+            if (data[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < marker.length && data[i + j] == marker[j]) {
+                j++;
+            }
+            if (j == marker.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class Containing extends LineFilter {
+
+        private final byte[][] markers;
+
+        Containing(byte[][] markers) {
+            this.markers = markers;
+        }
+
+        @Override
+        public boolean matches(byte[] data, int start, int end) {
+            for (byte[] marker : this.markers) {
+                if (indexOf(data, start, end, marker) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,282 @@
+package org.wikidata.analyzer.Processor;
+
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writes the locations of MapProcessor to a file as they are found, so that they are not kept in memory.
+ *
+ * The formats are "json", a single JSON object of {"x": latitude, "y": longitude, "label": label} by item id as
+ * wdlabel.json has always been, and "ndjson", one such object per line that also holds the "id" of the item.
+ * Both can be compressed with gzip by adding ".gz" to the format. The shards of a MapProcessor all write through
+ * the same LocationWriter, one location at a time, and the file is written through an OutputSink.
+ *
+ * For a checkpoint the output is flushed and its length is kept. On resume anything written after that length is
+ * dropped.
+ */
+class LocationWriter {
+
+    static final String DEFAULT_FORMAT = "json";
+    private static final String[] FORMATS = {"json", "ndjson", "json.gz", "ndjson.gz"};
+
+    private final File file;
+    private final boolean lines;
+    private final Writer writer;
+
+    /**
+     * Number of locations written
+     */
+    private long count;
+
+    private LocationWriter(File file, String format, long count, Writer writer) {
+        this.file = file;
+        this.lines = format.startsWith("ndjson");
+        this.count = count;
+        this.writer = writer;
+    }
+
+    /**
+     * @param format one of json, ndjson, json.gz or ndjson.gz
+     * @throws IllegalArgumentException if the format is not known
+     */
+    static void checkFormat(String format) {
+        if (!Arrays.asList(FORMATS).contains(format)) {
+            throw new IllegalArgumentException(
+                    "Unknown map output format " + format + ", must be one of " + String.join(", ", FORMATS)
+            );
+        }
+    }
+
+    static File getFile(File outputDir, String format) {
+        return new File(outputDir, "wdlabel." + format);
+    }
+
+    /**
+     * Creates the file, replacing any earlier one
+     */
+    static LocationWriter create(File outputDir, String format) throws IOException {
+        File file = getFile(outputDir, format);
+        LocationWriter writer = new LocationWriter(file, format, 0, OutputSink.create(file));
+        if (!writer.lines) {
+            writer.writer.write('{');
+        }
+        return writer;
+    }
+
+    /**
+     * Continues the file as it was when checkpoint was called
+     *
+     * @param state as returned by checkpoint
+     */
+    static LocationWriter resume(File outputDir, String format, long[] state) throws IOException {
+        File file = getFile(outputDir, format);
+        return new LocationWriter(file, format, state[1], OutputSink.resume(file, state[0]));
+    }
+
+    synchronized void write(String itemId, double latitude, double longitude, String label) throws IOException {
+        Writer writer = this.writer;
+        if (this.lines) {
+            writer.write("{\"id\":\"" + itemId + "\",\"x\":");
+        } else {
+            if (this.count > 0) {
+                writer.write(',');
+            }
+            writer.write('"' + itemId + "\":{\"x\":");
+        }
+        writer.write(JSONValue.toJSONString(latitude));
+        writer.write(",\"y\":");
+        writer.write(JSONValue.toJSONString(longitude));
+        writer.write(",\"label\":\"");
+        writer.write(JSONValue.escape(label));
+        writer.write(this.lines ? "\"}\n" : "\"}");
+        this.count++;
+    }
+
+    /**
+     * Flushes everything written so far to the file
+     *
+     * @return the length of the file and the number of locations in it
+     */
+    synchronized long[] checkpoint() throws IOException {
+        this.writer.flush();
+        return new long[]{this.file.length(), this.count};
+    }
+
+    /**
+     * Finishes the file, and closes it
+     */
+    synchronized void close() throws IOException {
+        if (!this.lines) {
+            this.writer.write('}');
+        }
+        this.writer.close();
+    }
+
+    /**
+     * Reads the locations written by another run to its output directory, in whichever format that was
+     */
+    static void read(File outputDir, LocationConsumer consumer) throws IOException {
+        File file = null;
+        for (String format : FORMATS) {
+            if (getFile(outputDir, format).exists()) {
+                file = getFile(outputDir, format);
+            }
+        }
+        if (file == null) {
+            throw new IOException("No map locations found in " + outputDir);
+        }
+        read(file, false, consumer);
+    }
+
+    /**
+     * Reads the locations written to the output directory in the format, once they are finished
+     */
+    static void read(File outputDir, String format, LocationConsumer consumer) throws IOException {
+        read(getFile(outputDir, format), false, consumer);
+    }
+
+    /**
+     * Reads the locations in the file that was resumed, before anything else is written to it
+     */
+    void readBack(LocationConsumer consumer) throws IOException {
+        read(this.file, true, consumer);
+    }
+
+    /**
+     * Reads the locations one at a time, so that they need not fit in memory
+     *
+     * @param unfinished whether the file is still being written, so a JSON object is not closed yet
+     */
+    private static void read(File file, boolean unfinished, LocationConsumer consumer) throws IOException {
+        if (file.length() == 0) {
+            return;
+        }
+        boolean lines = file.getName().startsWith("wdlabel.ndjson");
+        InputStream in = OutputSink.openInput(file);
+        if (unfinished && !lines) {
+            // The object of all locations is only closed when the file is finished
+            in = new SequenceInputStream(in, new ByteArrayInputStream(new byte[]{'}'}));
+        }
+        JSONParser parser = new JSONParser();
+        LocationHandler handler = new LocationHandler(consumer, lines ? 1 : 2);
+        try (BufferedReader reader = OutputSink.read(in)) {
+            if (lines) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    parser.parse(line, handler);
+                }
+            } else {
+                parser.parse(reader, handler);
+            }
+        } catch (ParseException e) {
+            throw new IOException("Could not parse " + file + ": " + e, e);
+        }
+    }
+
+    /**
+     * Receives locations as they are read
+     */
+    interface LocationConsumer {
+        void accept(String itemId, double latitude, double longitude, String label) throws IOException;
+    }
+
+    /**
+     * Hands the locations to a LocationConsumer while the JSON is parsed, instead of building JSON objects of them
+     */
+    private static class LocationHandler implements ContentHandler {
+
+        private final LocationConsumer consumer;
+
+        /**
+         * Depth of the objects of single locations, 2 in a JSON object by item id and 1 on the lines of NDJSON
+         */
+        private final int locationDepth;
+
+        private int depth = 0;
+        private String key;
+        private String itemId;
+        private double latitude;
+        private double longitude;
+        private String label;
+
+        LocationHandler(LocationConsumer consumer, int locationDepth) {
+            this.consumer = consumer;
+            this.locationDepth = locationDepth;
+        }
+
+        @Override
+        public void startJSON() {
+        }
+
+        @Override
+        public void endJSON() {
+        }
+
+        @Override
+        public boolean startObject() {
+            this.depth++;
+            return true;
+        }
+
+        @Override
+        public boolean endObject() throws IOException {
+            if (this.depth == this.locationDepth) {
+                this.consumer.accept(this.itemId, this.latitude, this.longitude, this.label);
+            }
+            this.depth--;
+            return true;
+        }
+
+        @Override
+        public boolean startObjectEntry(String key) {
+            if (this.depth == this.locationDepth - 1) {
+                this.itemId = key;
+            }
+            this.key = key;
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry() {
+            return true;
+        }
+
+        @Override
+        public boolean startArray() {
+            return true;
+        }
+
+        @Override
+        public boolean endArray() {
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            if (this.depth == this.locationDepth) {
+                if (this.key.equals("id")) {
+                    this.itemId = (String) value;
+                } else if (this.key.equals("x")) {
+                    this.latitude = ((Number) value).doubleValue();
+                } else if (this.key.equals("y")) {
+                    this.longitude = ((Number) value).doubleValue();
+                } else if (this.key.equals("label")) {
+                    this.label = (String) value;
+                }
+            }
+            return true;
+        }
+    }
+
+}
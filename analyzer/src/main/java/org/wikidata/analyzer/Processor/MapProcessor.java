@@ -2,75 +2,349 @@ package org.wikidata.analyzer.Processor;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.wikidata.analyzer.Ids.EntityIds;
+import org.wikidata.analyzer.Ids.IdList;
+import org.wikidata.analyzer.Ids.IdMap;
+import org.wikidata.analyzer.Ids.IdSet;
 import org.wikidata.wdtk.datamodel.implementation.PropertyIdValueImpl;
 import org.wikidata.wdtk.datamodel.interfaces.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.LongFunction;
 
 /**
  * MapProcessor for wikidata-analysis
  *
+ * There are millions of items with coordinates, so their locations are written to wdlabel.json as they are found
+ * (see LocationWriter), and their relations are kept as id codes (see EntityIds) in primitive arrays rather than
+ * as JSON objects with String ids.
+ *
  * @author Addshore
  */
 public class MapProcessor extends WikidataAnalyzerProcessor {
 
-    private JSONObject geoDataOut = new JSONObject();
-    private JSONObject graphOut = new JSONObject();
+    /**
+     * Highest zoom level of the map tiles, see setTileZoom
+     */
+    public static final int MAX_TILE_ZOOM = TilePyramid.MAX_ZOOM;
+
+    /**
+     * Format of the locations, see LocationWriter
+     */
+    private String locationFormat = LocationWriter.DEFAULT_FORMAT;
+
+    /**
+     * Writer of the locations, shared by all shards
+     */
+    private LocationWriter locations;
+
+    /**
+     * Maps the locations are counted on, shared by all shards, or null to not render maps
+     */
+    private DensityMaps densityMaps;
+    private DensityMaps.Batch densityBatch;
+
+    /**
+     * Whether to write wdlabel.idx, see SpatialIndex
+     */
+    private boolean spatialIndex = false;
+
+    /**
+     * Whether to write graph_report.json, see GraphAnalysis
+     */
+    private boolean graphAnalysis = false;
+
+    /**
+     * Format of the relations, json or csr (see CsrGraph)
+     */
+    private String graphFormat = "json";
+
+    /**
+     * Relations of the items with coordinates, by property
+     */
+    private IdMap<Relation> graph = new IdMap<>();
 
     private PropertyIdValue coordinateLocation = PropertyIdValueImpl.create("P625", "http://www.wikidata.org/entity/");
 
-    // This list is filled in the constructor
-    private List<String> graphRelations = new ArrayList<>();
+    // This set is filled in the constructor
+    private IdSet graphRelations = new IdSet();
 
     public MapProcessor() {
         this.populateGraphRelations();
     }
 
+    private MapProcessor(MapProcessor parent) {
+        super(parent.outputDir);
+        this.populateGraphRelations();
+        this.locationFormat = parent.locationFormat;
+        this.graphFormat = parent.graphFormat;
+        this.spatialIndex = parent.spatialIndex;
+        this.graphAnalysis = parent.graphAnalysis;
+        this.densityMaps = parent.densityMaps;
+        if (this.densityMaps != null) {
+            this.densityBatch = this.densityMaps.newBatch();
+        }
+        this.locations = parent.locations;
+    }
+
+    /**
+     * @param format one of json (the default), ndjson, json.gz or ndjson.gz, see LocationWriter
+     * @throws IllegalArgumentException if the format is not known
+     */
+    public void setLocationFormat(String format) {
+        LocationWriter.checkFormat(format);
+        this.locationFormat = format;
+    }
+
+    /**
+     * @param format json (the default) to write graph.json, or csr to write graph.csr, see CsrGraph
+     * @throws IllegalArgumentException if the format is not known
+     */
+    public void setGraphFormat(String format) {
+        if (!format.equals("json") && !format.equals("csr")) {
+            throw new IllegalArgumentException("Unknown map graph format " + format + ", must be json or csr");
+        }
+        this.graphFormat = format;
+    }
+
+    /**
+     * Also writes statistics of the relations to graph_report.json, such as their connected components and the
+     * shared borders that are not shared both ways, see GraphAnalysis
+     */
+    public void setGraphAnalysis(boolean graphAnalysis) {
+        this.graphAnalysis = graphAnalysis;
+    }
+
+    /**
+     * Also writes an index of the locations to wdlabel.idx, to find them by bounding box or distance, see SpatialIndex
+     */
+    public void setSpatialIndex(boolean spatialIndex) {
+        this.spatialIndex = spatialIndex;
+    }
+
+    /**
+     * Also renders maps of the locations to geo2png in the output directory, as geo2png.py did
+     *
+     * @param sizes "all", or the names of sizes separated by commas, such as icon,tiny,small, see DensityMaps
+     * @throws IllegalArgumentException if a size is not known
+     */
+    public void setDensityMapSizes(String sizes) {
+        this.densityMaps().addSizes(sizes);
+    }
+
+    /**
+     * Also renders tiles of the locations to tiles/ZOOM/X/Y.png in the output directory, see TilePyramid
+     *
+     * @param maxZoom the highest zoom level to render, from 0 to MAX_TILE_ZOOM
+     * @throws IllegalArgumentException if the zoom is not known
+     */
+    public void setTileZoom(int maxZoom) {
+        this.densityMaps().addTiles(maxZoom);
+    }
+
+    private DensityMaps densityMaps() {
+        if (this.densityMaps == null) {
+            this.densityMaps = new DensityMaps();
+            this.densityBatch = this.densityMaps.newBatch();
+        }
+        return this.densityMaps;
+    }
+
+    public void setUp() {
+        try {
+            this.locations = LocationWriter.create(this.outputDir, this.locationFormat);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    @Override
+    public WikidataAnalyzerProcessor createShard() {
+        return new MapProcessor(this);
+    }
+
+    /**
+     * Adds the relations of other items, shards never have items in common. Their locations are already written.
+     */
+    @Override
+    public void mergeShard(WikidataAnalyzerProcessor shard) {
+        MapProcessor mapShard = (MapProcessor) shard;
+        if (mapShard.densityBatch != null) {
+            mapShard.densityBatch.flush();
+        }
+        for (long property : mapShard.graph.keys()) {
+            this.getRelation(property).addAll(mapShard.graph.get(property));
+        }
+    }
+
+    @Override
+    public boolean canMergeOutput() {
+        return true;
+    }
+
+    @Override
+    public void mergeOutput(File shardOutputDir) throws IOException {
+        LocationWriter.read(shardOutputDir, this::addLocation);
+        File csrFile = new File(shardOutputDir, "graph.csr");
+        if (csrFile.exists()) {
+            this.addAll(CsrGraph.map(csrFile));
+            return;
+        }
+        Relation.readGraphJson(new File(shardOutputDir, "graph.json"), this::getRelation);
+    }
+
+    private void addAll(CsrGraph csrGraph) {
+        for (int i = 0; i < csrGraph.getRelationCount(); i++) {
+            Relation relation = this.getRelation(csrGraph.getProperty(i));
+            for (int node = 0; node < csrGraph.getNodeCount(); node++) {
+                int[] targets = csrGraph.getTargets(i, node);
+                if (targets.length > 0) {
+                    for (int target : targets) {
+                        relation.addTarget(csrGraph.getNodeCode(target));
+                    }
+                    relation.endItem(csrGraph.getNodeCode(node));
+                }
+            }
+        }
+    }
+
+    @Override
+    public LineFilter getLineFilter() {
+        return LineFilter.ofEntityType("item").and(LineFilter.withProperty(this.coordinateLocation.getId()));
+    }
+
+    @Override
+    public EntitySections getEntitySections() {
+        return EntitySections.none().withClaims().withLabels("en");
+    }
+
+    /**
+     * @return how far the locations were written, and the relations
+     */
+    @Override
+    public Serializable getCheckpointState() throws IOException {
+        return new Serializable[]{this.locations.checkpoint(), this.graph};
+    }
+
+    /**
+     * Drops the locations written after the checkpoint and continues writing at its end
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void resumeFromCheckpoint(Serializable state) throws IOException {
+        this.locations = LocationWriter.resume(this.outputDir, this.locationFormat, (long[]) ((Serializable[]) state)[0]);
+        if (this.densityMaps != null) {
+            // The maps are not part of the checkpoint, as they can be counted again from the locations
+            this.locations.readBack((itemId, latitude, longitude, label) -> this.densityBatch.add(latitude, longitude));
+        }
+        this.graph = (IdMap<Relation>) ((Serializable[]) state)[1];
+    }
+
     public boolean tearDown() {
         boolean success = true;
 
-        System.out.println("Writing map wdlabel.json");
-        File mapLabelFile = new File(outputDir.getAbsolutePath() + File.separator + "wdlabel.json");
+        System.out.println("Finishing map wdlabel." + this.locationFormat);
         try {
-            BufferedWriter mapLabelWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mapLabelFile)));
-            this.geoDataOut.writeJSONString(mapLabelWriter);
-            mapLabelWriter.close();
+            this.locations.close();
         } catch (IOException e) {
             e.printStackTrace();
             success = false;
         }
 
-        System.out.println("Writing map graph.json");
-        File mapGraphFile = new File(outputDir.getAbsolutePath() + File.separator + "graph.json");
+        if (this.spatialIndex && success) {
+            System.out.println("Writing map wdlabel.idx");
+            try {
+                SpatialIndex.write(new File(outputDir, "wdlabel.idx"), outputDir, this.locationFormat);
+            } catch (IOException e) {
+                e.printStackTrace();
+                success = false;
+            }
+        }
+
+        if (this.densityMaps != null) {
+            this.densityBatch.flush();
+            long[] counts = this.densityMaps.getCounts();
+            System.out.println("Rendering maps of " + counts[0] + " entities, leaving out " + counts[1] + " bad coordinates");
+            try {
+                this.densityMaps.render(outputDir);
+            } catch (IOException e) {
+                e.printStackTrace();
+                success = false;
+            }
+        }
+
+        System.out.println("Writing map graph." + this.graphFormat);
         try {
-            BufferedWriter mapGraphWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mapGraphFile)));
-            this.graphOut.writeJSONString(mapGraphWriter);
-            mapGraphWriter.close();
+            if (this.graphFormat.equals("csr")) {
+                CsrGraph.write(new File(outputDir, "graph.csr"), this.graph);
+            } else {
+                this.writeGraphJson(new File(outputDir, "graph.json"));
+            }
         } catch (IOException e) {
             e.printStackTrace();
             success = false;
         }
 
+        if (this.graphAnalysis) {
+            System.out.println("Writing map graph_report.json");
+            try {
+                writeJsonObject(new File(outputDir, "graph_report.json"), GraphAnalysis.analyze(CsrGraph.of(this.graph)));
+            } catch (IOException e) {
+                e.printStackTrace();
+                success = false;
+            }
+        }
+
         return success;
     }
 
+    private void writeGraphJson(File file) throws IOException {
+        try (Writer mapGraphWriter = newWriter(file)) {
+            mapGraphWriter.write('{');
+            long[] properties = this.graph.keys();
+            for (int i = 0; i < properties.length; i++) {
+                if (i > 0) {
+                    mapGraphWriter.write(',');
+                }
+                mapGraphWriter.write('"' + EntityIds.decode(properties[i]) + "\":");
+                this.graph.get(properties[i]).writeJSONString(mapGraphWriter);
+            }
+            mapGraphWriter.write('}');
+        }
+    }
+
     private void populateGraphRelations() {
-        // Fill the list of graphRelations
+        // Fill the set of graphRelations
         // The previous script actually generated graph data for ALL properties
-        this.graphRelations.add("P17");// Country
-        this.graphRelations.add("P36");// Capital
-        this.graphRelations.add("P47");// Shared border with
-        this.graphRelations.add("P138");// Named after
-        this.graphRelations.add("P150");// Subdivision
-        this.graphRelations.add("P190");// Twin cities
-        this.graphRelations.add("P197");// Adjacent station
-        this.graphRelations.add("P403");// Mouth of watercourse
+        for (String property : new String[]{
+                "P17",// Country
+                "P36",// Capital
+                "P47",// Shared border with
+                "P138",// Named after
+                "P150",// Subdivision
+                "P190",// Twin cities
+                "P197",// Adjacent station
+                "P403",// Mouth of watercourse
+        }) {
+            this.graphRelations.add(EntityIds.encode(property));
+        }
+    }
+
+    private Relation getRelation(long property) {
+        Relation relation = this.graph.get(property);
+        if (relation == null) {
+            relation = new Relation();
+            this.graph.put(property, relation);
+        }
+        return relation;
     }
 
     @Override
     public void processItemDocument(ItemDocument item) {
         boolean itemHasCoordinateValue = false;
+        long itemCode = EntityIds.encode(item.getItemId().getId());
 
         for (Iterator<Statement> statements = item.getAllStatements(); statements.hasNext(); ) {
             Statement statement = statements.next();
@@ -79,17 +353,13 @@ public class MapProcessor extends WikidataAnalyzerProcessor {
                 if (snak instanceof ValueSnak) {
                     itemHasCoordinateValue = true;
                     GlobeCoordinatesValue value = (GlobeCoordinatesValue) ((ValueSnak) snak).getValue();
-                    JSONObject geoData = new JSONObject();
-                    geoData.put("x", value.getLatitude());
-                    geoData.put("y", value.getLongitude());
                     MonolingualTextValue label = item.getLabels().get("en");
-                    if (label == null) {
-                        // TODO fallback of label
-                        geoData.put("label", "-");
-                    } else {
-                        geoData.put("label", label.getText());
+                    // TODO fallback of label
+                    try {
+                        this.addLocation(item.getItemId().getId(), value.getLatitude(), value.getLongitude(), label == null ? "-" : label.getText());
+                    } catch (IOException e) {
+                        System.out.println("Failed to write the location of " + item.getItemId().getId());
                     }
-                    this.geoDataOut.put(item.getItemId().getId(), geoData);
                 }
                 break;
             }
@@ -97,28 +367,145 @@ public class MapProcessor extends WikidataAnalyzerProcessor {
 
         if (itemHasCoordinateValue) {
             for (StatementGroup statementGroup : item.getStatementGroups()) {
-                String statementGroupPropertyString = statementGroup.getProperty().getId();
-                if (this.graphRelations.contains(statementGroupPropertyString)) {
-                    // TODO rather than doing the below if in this loop, it could be done once in the constructor
-                    if (!this.graphOut.containsKey(statementGroupPropertyString)) {
-                        this.graphOut.put(statementGroupPropertyString, new JSONObject());
-                    }
-                    JSONArray graphData = new JSONArray();
+                long property = EntityIds.encode(statementGroup.getProperty().getId());
+                if (this.graphRelations.contains(property)) {
+                    Relation relation = this.getRelation(property);
                     for (Statement statement : statementGroup.getStatements()) {
                         Snak snak = statement.getClaim().getMainSnak();
                         if (snak instanceof ValueSnak) {
                             ItemIdValue value = (ItemIdValue) ((ValueSnak) snak).getValue();
-                            graphData.add(value.getId());
+                            relation.addTarget(EntityIds.encode(value.getId()));
                         }
                     }
-                    ((JSONObject) this.graphOut.get(statementGroupPropertyString)).put(item.getItemId().getId(), graphData);
+                    relation.endItem(itemCode);
                 }
             }
         }
     }
 
+    private void addLocation(String itemId, double latitude, double longitude, String label) throws IOException {
+        this.locations.write(itemId, latitude, longitude, label);
+        if (this.densityBatch != null) {
+            this.densityBatch.add(latitude, longitude);
+        }
+    }
+
     @Override
     public void processPropertyDocument(PropertyDocument property) {
     }
 
-}
\ No newline at end of file
+    /**
+     * The items a relation links each item to, with the targets of all items in a single list
+     */
+    static class Relation implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IdList items = new IdList();
+
+        /**
+         * By item, the index in targets after its last target
+         */
+        private final IdList ends = new IdList();
+        private final IdList targets = new IdList();
+
+        void addTarget(long target) {
+            this.targets.add(target);
+        }
+
+        /**
+         * Assigns the targets added since the previous item to the given item
+         */
+        void endItem(long item) {
+            this.items.add(item);
+            this.ends.add(this.targets.size());
+        }
+
+        void addAll(Relation relation) {
+            for (int i = 0; i < relation.size(); i++) {
+                for (int target = relation.getStart(i); target < relation.getEnd(i); target++) {
+                    this.addTarget(relation.getTarget(target));
+                }
+                this.endItem(relation.getItem(i));
+            }
+        }
+
+        /**
+         * @return the number of items
+         */
+        int size() {
+            return this.items.size();
+        }
+
+        long getItem(int index) {
+            return this.items.get(index);
+        }
+
+        /**
+         * @return the index of the first target of the item with the given index
+         */
+        int getStart(int index) {
+            return index == 0 ? 0 : (int) this.ends.get(index - 1);
+        }
+
+        /**
+         * @return the index after the last target of the item with the given index
+         */
+        int getEnd(int index) {
+            return (int) this.ends.get(index);
+        }
+
+        long getTarget(int index) {
+            return this.targets.get(index);
+        }
+
+        /**
+         * Adds the relations in graph.json as written by writeJSONString.
+         * Items without any target are left out, as they are in graph.csr, so shards merge the same in both formats.
+         *
+         * @param relations gives the relation of a property, adding it if needed
+         */
+        static void readGraphJson(File file, LongFunction<Relation> relations) throws IOException {
+            JSONObject graph = readJsonObject(file);
+            for (Object property : graph.keySet()) {
+                Relation relation = relations.apply(EntityIds.encode((String) property));
+                JSONObject relationData = (JSONObject) graph.get(property);
+                for (Object item : relationData.keySet()) {
+                    JSONArray targets = (JSONArray) relationData.get(item);
+                    if (targets.isEmpty()) {
+                        continue;
+                    }
+                    for (Object target : targets) {
+                        relation.addTarget(EntityIds.encode((String) target));
+                    }
+                    relation.endItem(EntityIds.encode((String) item));
+                }
+            }
+        }
+
+        /**
+         * Writes the relation as a JSON object of arrays of target item ids by item id
+         */
+        void writeJSONString(Writer writer) throws IOException {
+            writer.write('{');
+            int start = 0;
+            for (int i = 0; i < this.items.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write('"' + EntityIds.decode(this.items.get(i)) + "\":[");
+                int end = (int) this.ends.get(i);
+                for (int target = start; target < end; target++) {
+                    if (target > start) {
+                        writer.write(',');
+                    }
+                    writer.write('"' + EntityIds.decode(this.targets.get(target)) + '"');
+                }
+                writer.write(']');
+                start = end;
+            }
+            writer.write('}');
+        }
+    }
+
+}
@@ -1,9 +1,12 @@
 package org.wikidata.analyzer.Processor;
 
 import com.google.common.collect.Iterators;
-import org.json.simple.JSONObject;
-import org.wikidata.analyzer.Fetcher.RefPropFetcher;
-import org.wikidata.analyzer.Fetcher.WikimediasFetcher;
+import org.wikidata.analyzer.Fetcher.ReferenceData;
+import org.wikidata.analyzer.Ids.IdMap;
+import org.wikidata.analyzer.Ids.IdSet;
+import org.wikidata.analyzer.Processor.CounterRegistry.Counter;
+import org.wikidata.analyzer.Processor.CounterRegistry.EntityCounters;
+import org.wikidata.analyzer.Processor.CounterRegistry.PropertyCounters;
 import org.wikidata.wdtk.datamodel.interfaces.*;
 
 import java.io.*;
@@ -12,136 +15,264 @@ import java.util.*;
 /**
  * @author Addshore
  */
-public class MetricProcessor extends WikidataAnalyzerProcessor {
+public class MetricProcessor extends WikidataAnalyzerProcessor implements SnakSubscriber {
 
+    /**
+     * Prefix of the counters of snaks by property, which only count properties intended for use in references
+     */
+    private static final String REFERENCE_PROPERTY_PREFIX = "references.snaks.prop.";
+
+    /**
+     * Prefix of the counters of references to each Wikimedia project, named by the database name of the project
+     */
+    private static final String WIKIMEDIA_PREFIX = "references.snaks.wm.";
+
+    private CounterRegistry registry = new CounterRegistry();
+    private final SnakTraversal traversal = SnakTraversal.of(this);
+
+    /**
+     * The counters as they are written, including the averages worked out in doPostProcessing
+     */
     private Map<String, Double> counters = new HashMap<>();
 
-    private Map<String, String> wikimedias = new HashMap<>();
+    private Counter itemCount;
+    private Counter itemStatements;
+    private Counter propertyCount;
+    private Counter propertyStatements;
+    private Counter qualifiers;
+    private Counter references;
+    private Counter unreferencedStatements;
+    private Counter referencedStatements;
+    private Counter referenceSnaks;
+    private Counter valueReferenceSnaks;
+    private Counter someValueReferenceSnaks;
+    private Counter noValueReferenceSnaks;
+    private Counter wikimediaReferenceSnaks;
+    private PropertyCounters referenceSnaksByProperty;
+
+    /**
+     * Counters of references to each Wikimedia project, by the item of the project, or null before setUp
+     */
+    private EntityCounters wikimediaCounters;
 
-    private List<String> referenceProperties = new ArrayList<>();
+    /**
+     * The reference data the counters of setUp are registered for, which is fetched while the dump is fetched,
+     * or null until it is declared for the output directory
+     */
+    private ReferenceData<IdSet> referenceProperties;
+    private ReferenceData<IdMap<String>> wikimedias;
+
+    /**
+     * Whether the reference data is fetched, rather than given
+     */
+    private final boolean fetchesReferenceData;
 
     public MetricProcessor() {
         super();
-        this.populateWikimedias();
-        this.populateReferenceProperties();
+        this.fetchesReferenceData = true;
+    }
+
+    /**
+     * @param wikimedias map of Wikimedia project item IDs to database names
+     * @param referenceProperties IDs of properties intended for use in references
+     */
+    MetricProcessor(Map<String, String> wikimedias, List<String> referenceProperties) {
+        super();
+        this.referenceProperties = ReferenceData.of(IdSet.of(referenceProperties));
+        this.wikimedias = ReferenceData.of(IdMap.of(wikimedias));
+        this.fetchesReferenceData = false;
+    }
+
+    private MetricProcessor(MetricProcessor parent) {
+        super(parent.outputDir);
+        this.fetchesReferenceData = false;
+        this.registry = parent.registry.createShard();
+        this.registerCounters();
+        this.wikimediaCounters = parent.wikimediaCounters;
+    }
+
+    /**
+     * Declares the reference data, which is cached in the output directory, so that it is fetched from here on
+     */
+    @Override
+    public void setOutputDir(File outputDir) {
+        super.setOutputDir(outputDir);
+        if (this.fetchesReferenceData) {
+            this.referenceProperties = ReferenceData.referenceProperties(outputDir);
+            this.wikimedias = ReferenceData.wikimediaDatabaseNames(outputDir);
+        }
+    }
+
+    /**
+     * Registers the counters, waiting for the reference data that some of them are registered for
+     */
+    @Override
+    public void setUp() {
+        if (this.wikimediaCounters != null) {
+            return;
+        }
+        if (this.referenceProperties == null) {
+            this.setOutputDir(this.outputDir);
+        }
+        this.registry.propertyCounters(REFERENCE_PROPERTY_PREFIX, this.referenceProperties.get());
+        this.registerCounters();
+        this.wikimediaCounters = this.registry.entityCounters(WIKIMEDIA_PREFIX, this.wikimedias.get());
+    }
+
+    private void registerCounters() {
+        this.itemCount = this.registry.counter("item.count");
+        this.itemStatements = this.registry.counter("item.statements.total");
+        this.propertyCount = this.registry.counter("property.count");
+        this.propertyStatements = this.registry.counter("property.statements.total");
+        this.qualifiers = this.registry.counter("qualifiers");
+        this.references = this.registry.counter("references");
+        this.unreferencedStatements = this.registry.counter("statements.unreferenced");
+        this.referencedStatements = this.registry.counter("statements.referenced");
+        this.referenceSnaks = this.registry.counter("references.snaks");
+        this.valueReferenceSnaks = this.registry.counter("references.snaks.type.value");
+        this.someValueReferenceSnaks = this.registry.counter("references.snaks.type.somevalue");
+        this.noValueReferenceSnaks = this.registry.counter("references.snaks.type.novalue");
+        this.wikimediaReferenceSnaks = this.registry.counter("references.snaks.wm");
+        this.referenceSnaksByProperty = this.registry.propertyCounters(REFERENCE_PROPERTY_PREFIX);
     }
 
     public void overrideCounters(Map<String, Double> counters) {
         this.counters = counters;
     }
 
-    public void doPostProcessing() {
-        // Quickly work out the average statements per item & property
-        this.initiateCounterIfNotReady("item.statements.avg");
-        this.initiateCounterIfNotReady("property.statements.avg");
-        this.counters.put("item.statements.avg", this.counters.get("item.statements.total") / this.counters.get("item.count"));
-        this.counters.put("property.statements.avg", this.counters.get("property.statements.total") / this.counters.get("property.count"));
+    @Override
+    public WikidataAnalyzerProcessor createShard() {
+        return new MetricProcessor(this);
     }
 
-    public boolean tearDown() {
-        // And then do the real tearDown
-        try {
-            File metricsJsonFile = new File(outputDir.getAbsolutePath() + File.separator + "metrics.json");
-            BufferedWriter metricsJsonWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(metricsJsonFile)));
-            new JSONObject(this.counters).writeJSONString(metricsJsonWriter);
-            metricsJsonWriter.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
+    @Override
+    public void mergeShard(WikidataAnalyzerProcessor shard) {
+        this.registry.addAll(((MetricProcessor) shard).registry);
+    }
+
+    @Override
+    public Map<String, Double> getCounters() {
+        return this.registry.toMap();
+    }
+
+    @Override
+    public void resetCounters() {
+        this.registry.clear();
+    }
+
+    @Override
+    public void addCounters(Map<String, Double> counters) {
+        for (Map.Entry<String, Double> entry : counters.entrySet()) {
+            this.registry.add(entry.getKey(), entry.getValue());
         }
-        return true;
     }
 
-    private void populateWikimedias() {
-        WikimediasFetcher fetcher = new WikimediasFetcher(outputDir);
-        List<HashMap<String, String>> mediawikis = fetcher.getMediawikis();
+    @Override
+    public boolean canMergeOutput() {
+        return true;
+    }
 
-        for (HashMap<String, String> entry : mediawikis) {
-            this.wikimedias.put(entry.get(WikimediasFetcher.ENTITYID_KEY), entry.get(WikimediasFetcher.DBNAME_KEY));
+    @Override
+    public void mergeOutput(File shardOutputDir) throws IOException {
+        Map<?, ?> metrics = readJsonObject(new File(shardOutputDir, "metrics.json"));
+        for (Object key : metrics.keySet()) {
+            // Averages are worked out again in doPostProcessing
+            if (!key.equals("item.statements.avg") && !key.equals("property.statements.avg")) {
+                this.registry.add((String) key, ((Number) metrics.get(key)).doubleValue());
+            }
         }
     }
 
-    private void populateReferenceProperties() {
-        RefPropFetcher fetcher = new RefPropFetcher(outputDir);
-        this.referenceProperties = fetcher.getReferenceProperties();
+    @Override
+    public Serializable getCheckpointState() {
+        return new HashMap<>(this.registry.toMap());
     }
 
-    private void increment(String counter) {
-        this.increment(counter, 1);
+    @Override
+    @SuppressWarnings("unchecked")
+    public void resumeFromCheckpoint(Serializable state) {
+        this.setUp();
+        this.registry.clear();
+        this.addCounters((Map<String, Double>) state);
     }
 
-    private void increment(String counter, double quantity) {
-        this.initiateCounterIfNotReady(counter);
-        this.counters.put(counter, this.counters.get(counter) + quantity);
+    public void doPostProcessing() {
+        this.counters.clear();
+        this.counters.putAll(this.registry.toMap());
+        // Quickly work out the average statements per item & property
+        this.counters.put("item.statements.avg", (double) this.registry.get(this.itemStatements) / this.registry.get(this.itemCount));
+        this.counters.put("property.statements.avg", (double) this.registry.get(this.propertyStatements) / this.registry.get(this.propertyCount));
     }
 
-    private void initiateCounterIfNotReady(String counter) {
-        if (!this.counters.containsKey(counter)) {
-            this.counters.put(counter, (double) 0);
+    public boolean tearDown() {
+        // And then do the real tearDown
+        try {
+            writeJsonObject(new File(outputDir.getAbsolutePath() + File.separator + "metrics.json"), this.counters);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
         }
+        return true;
+    }
+
+    @Override
+    public EntitySections getEntitySections() {
+        return EntitySections.none().withClaims();
+    }
+
+    @Override
+    public SnakSubscription getSnakSubscription() {
+        return SnakSubscription.allSnaks(SnakPosition.REFERENCE).withStatements().onlyItems();
     }
 
     public void processItemDocument(ItemDocument document) {
-        if (document != null) {
-            this.increment("item.count");
-            this.increment("item.statements.total", Iterators.size( document.getAllStatements() ));
-            this.processStatementDocument(document);
-        }
+        this.traversal.traverse(document);
     }
 
     public void processPropertyDocument(PropertyDocument document) {
-        if (document != null) {
-            this.increment("property.count");
-            this.increment("property.statements.total", Iterators.size( document.getAllStatements() ));
-        }
+        this.traversal.traverse(document);
     }
 
-    private void processStatementDocument(StatementDocument document) {
-        for (Iterator<Statement> statementIterator = document.getAllStatements(); statementIterator.hasNext(); ) {
-            Statement statement = statementIterator.next();
-            processStatement(statement);
+    @Override
+    public void startDocument(StatementDocument document) {
+        if (document instanceof ItemDocument) {
+            this.registry.increment(this.itemCount);
+            this.registry.increment(this.itemStatements, Iterators.size( document.getAllStatements() ));
+        } else if (document instanceof PropertyDocument) {
+            this.registry.increment(this.propertyCount);
+            this.registry.increment(this.propertyStatements, Iterators.size( document.getAllStatements() ));
         }
     }
 
-    private void processStatement(Statement statement) {
-        this.increment("qualifiers", Iterators.size(statement.getClaim().getAllQualifiers()));
-        this.increment("references", statement.getReferences().size());
+    @Override
+    public void processStatement(Statement statement) {
+        this.registry.increment(this.qualifiers, Iterators.size(statement.getClaim().getAllQualifiers()));
+        this.registry.increment(this.references, statement.getReferences().size());
 
         if( statement.getReferences().size() == 0 ) {
-            this.increment("statements.unreferenced");
+            this.registry.increment(this.unreferencedStatements);
         } else {
-            this.increment("statements.referenced");
-        }
-
-        for (Reference reference : statement.getReferences()) {
-            processReference(reference);
+            this.registry.increment(this.referencedStatements);
         }
     }
 
-    private void processReference(Reference reference) {
-        this.increment("references.snaks", Iterators.size(reference.getAllSnaks()));
-
-        for( Iterator<Snak> snaks = reference.getAllSnaks(); snaks.hasNext(); ) {
-            Snak snak = snaks.next();
-            processReferenceSnak(snak);
-        }
+    @Override
+    public void processSnak(Snak snak, SnakPosition position, Statement statement) {
+        this.registry.increment(this.referenceSnaks);
+        this.processReferenceSnak(snak);
     }
 
     private void processReferenceSnak(Snak snak) {
-        String propertyId = snak.getPropertyId().getId();
-
-        //Only count the counts of non-"external id" property snaks intended for references
-        if( this.referenceProperties.contains( propertyId ) ) {
-            this.increment("references.snaks.prop." + propertyId);
-        }
+        //Only counts the non-"external id" properties intended for references, see the constructors
+        this.registry.increment(this.referenceSnaksByProperty, snak.getPropertyId().getId());
 
         if (snak instanceof ValueSnak) {
-            this.increment("references.snaks.type.value");
+            this.registry.increment(this.valueReferenceSnaks);
             this.processReferenceValueSnak((ValueSnak)snak);
         } else if (snak instanceof SomeValueSnak) {
-            this.increment("references.snaks.type.somevalue");
+            this.registry.increment(this.someValueReferenceSnaks);
         } else if (snak instanceof NoValueSnak) {
-            this.increment("references.snaks.type.novalue");
+            this.registry.increment(this.noValueReferenceSnaks);
         }
     }
 
@@ -152,9 +283,8 @@ public class MetricProcessor extends WikidataAnalyzerProcessor {
         if( propertyId.equals( "P143" ) || propertyId.equals("P248") ) {
             //Note: must always be an EntityIdValue for the properties above
             EntityIdValue entityIdValue = (EntityIdValue) snak.getValue();
-            if( this.wikimedias.containsKey( entityIdValue.getId() ) ) {
-                this.increment("references.snaks.wm");
-                this.increment("references.snaks.wm." + this.wikimedias.get( entityIdValue.getId() ));
+            if( this.registry.increment(this.wikimediaCounters, entityIdValue.getId()) ) {
+                this.registry.increment(this.wikimediaReferenceSnaks);
             }
         }
     }
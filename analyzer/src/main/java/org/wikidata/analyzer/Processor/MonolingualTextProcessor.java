@@ -13,14 +13,20 @@ import java.util.*;
  *
  * @author Addshore
  */
-public class MonolingualTextProcessor extends WikidataAnalyzerProcessor {
+public class MonolingualTextProcessor extends WikidataAnalyzerProcessor implements SnakSubscriber {
 
     private Map<String, Long> counters;
+    private final SnakTraversal traversal = SnakTraversal.of(this);
 
     public MonolingualTextProcessor() {
         super();
     }
 
+    private MonolingualTextProcessor(File outputDir) {
+        super(outputDir);
+        this.counters = new HashMap<>();
+    }
+
     public void overrideCounters(Map<String, Long> counters) {
         this.counters = counters;
     }
@@ -29,6 +35,74 @@ public class MonolingualTextProcessor extends WikidataAnalyzerProcessor {
         this.counters = new HashMap<>();
     }
 
+    @Override
+    public WikidataAnalyzerProcessor createShard() {
+        return new MonolingualTextProcessor(this.outputDir);
+    }
+
+    @Override
+    public void mergeShard(WikidataAnalyzerProcessor shard) {
+        for (Map.Entry<String, Long> entry : ((MonolingualTextProcessor) shard).counters.entrySet()) {
+            this.initiateCounterIfNotReady(entry.getKey());
+            this.counters.put(entry.getKey(), this.counters.get(entry.getKey()) + entry.getValue());
+        }
+    }
+
+    @Override
+    public Map<String, Double> getCounters() {
+        if (this.counters == null) {
+            return null;
+        }
+        Map<String, Double> result = new HashMap<>();
+        for (Map.Entry<String, Long> entry : this.counters.entrySet()) {
+            result.put(entry.getKey(), (double) entry.getValue());
+        }
+        return result;
+    }
+
+    @Override
+    public void resetCounters() {
+        this.counters.clear();
+    }
+
+    @Override
+    public void addCounters(Map<String, Double> counters) {
+        for (Map.Entry<String, Double> entry : counters.entrySet()) {
+            this.initiateCounterIfNotReady(entry.getKey());
+            long value = this.counters.get(entry.getKey()) + Math.round(entry.getValue());
+            if (value == 0) {
+                this.counters.remove(entry.getKey());
+            } else {
+                this.counters.put(entry.getKey(), value);
+            }
+        }
+    }
+
+    @Override
+    public boolean canMergeOutput() {
+        return true;
+    }
+
+    @Override
+    public void mergeOutput(File shardOutputDir) throws IOException {
+        JSONObject languages = readJsonObject(new File(shardOutputDir, "monotext.json"));
+        for (Object key : languages.keySet()) {
+            this.increment((String) key, ((Number) languages.get(key)).longValue());
+        }
+    }
+
+    @Override
+    public Serializable getCheckpointState() {
+        return new HashMap<>(this.counters);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void resumeFromCheckpoint(Serializable state) {
+        this.setUp();
+        this.counters = (Map<String, Long>) state;
+    }
+
     public boolean tearDown() {
         try {
             File jsonFile = new File(this.outputDir.getAbsolutePath() + File.separator + "monotext.json");
@@ -46,9 +120,9 @@ public class MonolingualTextProcessor extends WikidataAnalyzerProcessor {
         this.increment(counter, 1);
     }
 
-    private void increment(String counter, int quantity) {
+    private void increment(String counter, long quantity) {
         this.initiateCounterIfNotReady(counter);
-        this.counters.put(counter, this.counters.get(counter) + (long) quantity);
+        this.counters.put(counter, this.counters.get(counter) + quantity);
     }
 
     private void initiateCounterIfNotReady(String counter) {
@@ -58,34 +132,37 @@ public class MonolingualTextProcessor extends WikidataAnalyzerProcessor {
     }
 
     @Override
-    public void processItemDocument(ItemDocument item) {
-        for (Iterator<Statement> statements = item.getAllStatements(); statements.hasNext(); ) {
-            this.processStatement( statements.next() );
-        }
+    public LineFilter getLineFilter() {
+        return LineFilter.withValueType("monolingualtext");
     }
 
     @Override
-    public void processPropertyDocument(PropertyDocument property) {
-        for (Iterator<Statement> statements = property.getAllStatements(); statements.hasNext(); ) {
-            this.processStatement( statements.next() );
-        }
+    public EntitySections getEntitySections() {
+        return EntitySections.none().withClaims();
     }
 
-    private void processStatement( Statement statement ) {
-        this.processSnak(statement.getClaim().getMainSnak());
-        for (Iterator<Snak> qualifierSnaks = statement.getClaim().getAllQualifiers(); qualifierSnaks.hasNext(); ) {
-            Snak qualifierSnak = qualifierSnaks.next();
-            this.processSnak(qualifierSnak);
-        }
-        for (Reference reference : statement.getReferences()) {
-            for (Iterator<Snak> referenceSnaks = reference.getAllSnaks(); referenceSnaks.hasNext(); ) {
-                Snak referenceSnak = referenceSnaks.next();
-                this.processSnak(referenceSnak);
-            }
-        }
+    @Override
+    public SnakSubscription getSnakSubscription() {
+        return SnakSubscription.snaksWithValue(
+                MonolingualTextValue.class,
+                SnakPosition.MAIN,
+                SnakPosition.QUALIFIER,
+                SnakPosition.REFERENCE
+        );
     }
 
-    private void processSnak( Snak snak ) {
+    @Override
+    public void processItemDocument(ItemDocument item) {
+        this.traversal.traverse(item);
+    }
+
+    @Override
+    public void processPropertyDocument(PropertyDocument property) {
+        this.traversal.traverse(property);
+    }
+
+    @Override
+    public void processSnak( Snak snak, SnakPosition position, Statement statement ) {
         if (snak instanceof ValueSnak) {
             Value value = ((ValueSnak) snak).getValue();
             if (value instanceof MonolingualTextValue) {
@@ -0,0 +1,139 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.analyzer.Pipeline.WriteBehindOutputStream;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Opens the output files of processors that write lists as they go, such as BadDateProcessor and MapProcessor.
+ * What is written is compressed and written to the file on a thread of its own (see WriteBehindOutputStream) rather
+ * than on the thread processing entities. Files with names ending in .gz are compressed with gzip.
+ *
+ * Flushing waits until everything written so far is in the file, and ends the current gzip member, so the length of
+ * the file is then that of a complete file to resume from at a checkpoint. Later output goes to a new gzip member,
+ * which gzip readers read as if the whole file was written at once. Every member costs a header and the compression
+ * starting over, so writers should only flush for checkpoints.
+ */
+class OutputSink {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Creates the file, replacing any earlier one
+     */
+    static Writer create(File file) throws IOException {
+        return open(file, false);
+    }
+
+    /**
+     * Drops whatever was written to the file after it had the length, and continues writing at its end
+     *
+     * @param length the length of the file after flushing, at a checkpoint
+     */
+    static Writer resume(File file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            if (channel.size() < length) {
+                throw new IOException(file + " is shorter than at the checkpoint");
+            }
+            channel.truncate(length);
+        }
+        return open(file, true);
+    }
+
+    /**
+     * Reads a file written by a sink, or any other UTF-8 file
+     */
+    static BufferedReader read(File file) throws IOException {
+        return read(openInput(file));
+    }
+
+    static BufferedReader read(InputStream in) {
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * @return the bytes of the file, decompressed if its name ends in .gz
+     */
+    static InputStream openInput(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    private static Writer open(File file, boolean append) throws IOException {
+        FileOutputStream fileOut = new FileOutputStream(file, append);
+        OutputStream out = file.getName().endsWith(".gz") ? new GzipMembersOutputStream(fileOut) : fileOut;
+        return new BufferedWriter(
+                new OutputStreamWriter(new WriteBehindOutputStream(out, "Writing " + file.getName()), StandardCharsets.UTF_8),
+                BUFFER_SIZE
+        );
+    }
+
+    /**
+     * Compresses into gzip members, each of which is finished by flushing
+     */
+    private static class GzipMembersOutputStream extends OutputStream {
+
+        private final FileOutputStream out;
+        private GZIPOutputStream member;
+
+        GzipMembersOutputStream(FileOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.member().write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            this.member().write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (this.member != null) {
+                // Finishing a member leaves the file open underneath
+                this.member.finish();
+                this.member = null;
+            }
+            this.out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.out.getChannel().size() == 0) {
+                // An empty file is no valid gzip file, but an empty member is
+                this.member();
+            }
+            this.flush();
+            this.out.close();
+        }
+
+        private GZIPOutputStream member() throws IOException {
+            if (this.member == null) {
+                this.member = new GZIPOutputStream(this.out, BUFFER_SIZE);
+            }
+            return this.member;
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package org.wikidata.analyzer.Processor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes counts of items by pixel as 8 bit RGB PNG images, in which every item makes its pixel brighter by a colour,
+ * as geo2png.py did. Rows are compressed one at a time, so no image is kept in memory besides the counts.
+ */
+class PngWriter {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * @param counts number of items on every pixel, row by row, up to 255
+     * @param colour how much brighter the red, green and blue of a pixel get for every item
+     */
+    static void write(File file, int width, int height, byte[] counts, int[] colour) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)) {
+            out.write(PNG_SIGNATURE);
+            ChunkOutputStream header = new ChunkOutputStream(out, "IHDR");
+            DataOutputStream headerData = new DataOutputStream(header);
+            headerData.writeInt(width);
+            headerData.writeInt(height);
+            // Bit depth 8, colour type RGB, default compression, default filters, not interlaced
+            headerData.write(new byte[]{8, 2, 0, 0, 0});
+            header.close();
+
+            ChunkOutputStream data = new ChunkOutputStream(out, "IDAT");
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(data)) {
+                // Every row starts with its filter type, which is none
+                byte[] row = new byte[1 + 3 * width];
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int count = counts[y * width + x] & 0xFF;
+                        row[1 + 3 * x] = (byte) Math.min(count * colour[0], 255);
+                        row[2 + 3 * x] = (byte) Math.min(count * colour[1], 255);
+                        row[3 + 3 * x] = (byte) Math.min(count * colour[2], 255);
+                    }
+                    deflater.write(row);
+                }
+            }
+
+            new ChunkOutputStream(out, "IEND").close();
+        }
+    }
+
+    /**
+     * Writes what is written to it as PNG chunks of the given type, of up to 64KB each
+     */
+    private static class ChunkOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private final byte[] type;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int length = 0;
+        private boolean written = false;
+
+        ChunkOutputStream(OutputStream out, String type) {
+            this.out = out;
+            this.type = type.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (this.length == this.buffer.length) {
+                this.writeChunk();
+            }
+            this.buffer[this.length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (this.length == this.buffer.length) {
+                    this.writeChunk();
+                }
+                int part = Math.min(length, this.buffer.length - this.length);
+                System.arraycopy(bytes, offset, this.buffer, this.length, part);
+                this.length += part;
+                offset += part;
+                length -= part;
+            }
+        }
+
+        /**
+         * Writes the last chunk, without closing the stream underneath
+         */
+        @Override
+        public void close() throws IOException {
+            if (this.length > 0 || !this.written) {
+                this.writeChunk();
+            }
+        }
+
+        private void writeChunk() throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(this.type);
+            crc.update(this.buffer, 0, this.length);
+            DataOutputStream data = new DataOutputStream(this.out);
+            data.writeInt(this.length);
+            data.write(this.type);
+            data.write(this.buffer, 0, this.length);
+            data.writeInt((int) crc.getValue());
+            this.length = 0;
+            this.written = true;
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessorBroker;
+
+/**
+ * Broker handing entities to several processors.
+ *
+ * Processors that are SnakSubscribers share a single SnakTraversal, so the statements of each
+ * entity are walked once no matter how many of them are registered.
+ */
+public class ProcessorBroker extends EntityDocumentProcessorBroker {
+
+    private final SnakTraversal traversal = new SnakTraversal();
+    private boolean traversalRegistered = false;
+
+    @Override
+    public void registerEntityDocumentProcessor(EntityDocumentProcessor processor) {
+        if (processor instanceof SnakSubscriber) {
+            if (!this.traversalRegistered) {
+                super.registerEntityDocumentProcessor(this.traversal);
+                this.traversalRegistered = true;
+            }
+            this.traversal.addSubscriber((SnakSubscriber) processor);
+        } else {
+            super.registerEntityDocumentProcessor(processor);
+        }
+    }
+
+}
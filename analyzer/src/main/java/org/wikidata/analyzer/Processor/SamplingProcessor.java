@@ -0,0 +1,376 @@
+package org.wikidata.analyzer.Processor;
+
+import org.json.simple.JSONObject;
+import org.wikidata.analyzer.Ids.EntityIds;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Runs counter style processors (see WikidataAnalyzerProcessor.getCounters) over a sample of the entities,
+ * and scales their counters up to estimates for the whole dump.
+ *
+ * Entities are sampled by a hash of their id, so the same entities are chosen on every run and every host.
+ * With a time budget the sample is halved whenever the run would not finish in time. For this every sampled entity
+ * gets a level, and halving the sample drops the entities of the lowest level that is still kept.
+ *
+ * Every sampled entity is handed to shards of the processors (see EntityContributions), so that besides the sums of
+ * the contributions of the entities also the sums of their squares are known. These give the error bounds of the estimates,
+ * which are written to sample.json in the output directory, together with the rate that was sampled at.
+ */
+public class SamplingProcessor extends WikidataAnalyzerProcessor {
+
+    /**
+     * Number of levels, so the sample can be halved this many times less one
+     */
+    static final int LEVELS = 16;
+
+    /**
+     * Number of standard errors on both sides of the estimate that make a 95% confidence interval
+     */
+    private static final double Z_95 = 1.96;
+
+    private final List<WikidataAnalyzerProcessor> processors;
+    private final Sample sample;
+
+    /**
+     * By level, the sums of the contributions of the entities and of their squares, for each processor
+     */
+    private final List<List<Map<String, Double>>> sums = new ArrayList<>();
+    private final List<List<Map<String, Double>>> squares = new ArrayList<>();
+
+    /**
+     * Created on the first sampled entity, once the processors are set up
+     */
+    private EntityContributions contributions;
+
+    /**
+     * @param processors the processors to run, which must all keep counters only
+     * @param rate part of the entities to sample, at most 1
+     * @param timeBudget time in milliseconds the run should take at most, or 0 to always sample at the given rate
+     */
+    public SamplingProcessor(File outputDir, List<WikidataAnalyzerProcessor> processors, double rate, long timeBudget) {
+        super(outputDir);
+        this.processors = processors;
+        this.sample = new Sample(rate, timeBudget);
+        this.initLevels();
+    }
+
+    private SamplingProcessor(SamplingProcessor parent) {
+        super(parent.outputDir);
+        this.processors = parent.processors;
+        this.sample = parent.sample;
+        this.initLevels();
+    }
+
+    private void initLevels() {
+        for (int level = 0; level < LEVELS; level++) {
+            List<Map<String, Double>> levelSums = new ArrayList<>();
+            List<Map<String, Double>> levelSquares = new ArrayList<>();
+            for (int i = 0; i < this.processors.size(); i++) {
+                levelSums.add(new HashMap<>());
+                levelSquares.add(new HashMap<>());
+            }
+            this.sums.add(levelSums);
+            this.squares.add(levelSquares);
+        }
+    }
+
+    /**
+     * @param progress supplies the part of the dump that has been read, from 0 to 1, which the time budget needs
+     */
+    public void setProgress(DoubleSupplier progress) {
+        this.sample.progress = progress;
+    }
+
+    /**
+     * @return the part of the entities that is sampled, after any halving for the time budget
+     */
+    public double getRate() {
+        return this.sample.getRate();
+    }
+
+    public void setUp() {
+        for (WikidataAnalyzerProcessor processor : this.processors) {
+            processor.setUp();
+            if (processor.getCounters() == null || processor.createShard() == null) {
+                System.out.println("Error: " + processor.getClass().getSimpleName() + " can not be run on a sample");
+                System.exit(1);
+            }
+        }
+    }
+
+    public void doPreProcessing() {
+        for (WikidataAnalyzerProcessor processor : this.processors) {
+            processor.doPreProcessing();
+        }
+        this.sample.start();
+    }
+
+    /**
+     * Scales the counters up to estimates and writes their error bounds, before the processors do their post processing
+     */
+    public void doPostProcessing() {
+        int lowestLevel = this.sample.lowestLevel;
+        double rate = this.sample.getRate();
+        long entities = 0;
+        for (int level = lowestLevel; level < LEVELS; level++) {
+            entities += this.sample.entities.get(level);
+        }
+
+        Map<String, Object> errors = new HashMap<>();
+        for (int i = 0; i < this.processors.size(); i++) {
+            Map<String, Double> sum = new HashMap<>();
+            Map<String, Double> square = new HashMap<>();
+            for (int level = lowestLevel; level < LEVELS; level++) {
+                add(sum, this.sums.get(level).get(i), 1);
+                add(square, this.squares.get(level).get(i), 1);
+            }
+            Map<String, Double> estimates = new HashMap<>();
+            add(estimates, sum, 1 / rate);
+            Map<String, Double> bounds = new HashMap<>();
+            for (Map.Entry<String, Double> entry : square.entrySet()) {
+                bounds.put(entry.getKey(), Z_95 * Math.sqrt((1 - rate) * entry.getValue()) / rate);
+            }
+            this.processors.get(i).addCounters(estimates);
+            errors.put(this.processors.get(i).getClass().getSimpleName(), new JSONObject(bounds));
+        }
+
+        Map<String, Object> marker = new HashMap<>();
+        marker.put("sampled", true);
+        marker.put("rate", rate);
+        marker.put("entities", entities);
+        marker.put("errors", new JSONObject(errors));
+        try {
+            writeJsonObject(new File(this.outputDir, "sample.json"), marker);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Sampled " + entities + " entities at a rate of " + rate);
+
+        for (WikidataAnalyzerProcessor processor : this.processors) {
+            processor.doPostProcessing();
+        }
+    }
+
+    public boolean tearDown() {
+        boolean success = true;
+        for (WikidataAnalyzerProcessor processor : this.processors) {
+            success = processor.tearDown() && success;
+        }
+        return success;
+    }
+
+    @Override
+    public WikidataAnalyzerProcessor createShard() {
+        return new SamplingProcessor(this);
+    }
+
+    @Override
+    public void mergeShard(WikidataAnalyzerProcessor shard) {
+        for (int level = 0; level < LEVELS; level++) {
+            for (int i = 0; i < this.processors.size(); i++) {
+                add(this.sums.get(level).get(i), ((SamplingProcessor) shard).sums.get(level).get(i), 1);
+                add(this.squares.get(level).get(i), ((SamplingProcessor) shard).squares.get(level).get(i), 1);
+            }
+        }
+    }
+
+    /**
+     * Rejects the entities that are not in the sample, and those in it that none of the processors needs
+     */
+    @Override
+    public LineFilter getLineFilter() {
+        List<LineFilter> filters = new ArrayList<>();
+        for (WikidataAnalyzerProcessor processor : this.processors) {
+            filters.add(processor.getLineFilter());
+        }
+        LineFilter needed = LineFilter.anyOf(filters);
+
+        return new LineFilter() {
+            @Override
+            public boolean matches(byte[] data, int start, int end) {
+                sample.checkBudget();
+                long key = EntityStore.keyOfLine(data, start, end);
+                if (key < 0) {
+                    return true;
+                }
+                int level = sample.levelOf(key);
+                if (level < sample.lowestLevel) {
+                    return false;
+                }
+                if (needed.matches(data, start, end)) {
+                    return true;
+                }
+                sample.entities.incrementAndGet(level);
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public EntitySections getEntitySections() {
+        EntitySections sections = EntitySections.none();
+        for (WikidataAnalyzerProcessor processor : this.processors) {
+            sections = sections.union(processor.getEntitySections());
+        }
+        return sections;
+    }
+
+    @Override
+    public void processItemDocument(ItemDocument item) {
+        this.processDocument(item);
+    }
+
+    @Override
+    public void processPropertyDocument(PropertyDocument property) {
+        this.processDocument(property);
+    }
+
+    private void processDocument(EntityDocument document) {
+        this.sample.checkBudget();
+        int level = this.sample.levelOf(EntityIds.encode(document.getEntityId().getId()));
+        if (level < this.sample.lowestLevel) {
+            return;
+        }
+        this.sample.entities.incrementAndGet(level);
+
+        if (this.contributions == null) {
+            this.contributions = new EntityContributions(this.processors);
+        }
+        List<Map<String, Double>> contributions = this.contributions.of(document);
+        for (int i = 0; i < this.processors.size(); i++) {
+            Map<String, Double> levelSquares = this.squares.get(level).get(i);
+            for (Map.Entry<String, Double> entry : contributions.get(i).entrySet()) {
+                levelSquares.merge(entry.getKey(), entry.getValue() * entry.getValue(), Double::sum);
+            }
+            add(this.sums.get(level).get(i), contributions.get(i), 1);
+        }
+    }
+
+    private static void add(Map<String, Double> counters, Map<String, Double> values, double factor) {
+        for (Map.Entry<String, Double> entry : values.entrySet()) {
+            counters.merge(entry.getKey(), entry.getValue() * factor, Double::sum);
+        }
+    }
+
+    /**
+     * Which entities are sampled, shared by all shards
+     */
+    private static class Sample {
+
+        private static final long CHECK_INTERVAL = 1000L * 1000 * 1000;
+
+        /**
+         * Part of the dump to read before the speed is known well enough to decide on halving the sample
+         */
+        private static final double MIN_PROGRESS = 0.01;
+
+        /**
+         * Largest hash (of 63 bits) of a sampled entity, before any halving
+         */
+        private final long threshold;
+        private final long timeBudget;
+        private volatile DoubleSupplier progress;
+
+        /**
+         * Level of the entities that are dropped when the sample is halved next
+         */
+        private volatile int lowestLevel = 0;
+
+        /**
+         * Number of sampled entities by level
+         */
+        private final AtomicLongArray entities = new AtomicLongArray(LEVELS);
+
+        private long startTime;
+        private volatile long lastCheck;
+        private long halvingTime;
+        private double halvingProgress;
+
+        Sample(double rate, long timeBudget) {
+            if (!(rate > 0 && rate <= 1)) {
+                throw new IllegalArgumentException("Sample rate must be more than 0 and at most 1");
+            }
+            this.threshold = rate == 1 ? Long.MAX_VALUE : (long) (rate * Long.MAX_VALUE);
+            this.timeBudget = timeBudget * 1000 * 1000;
+        }
+
+        void start() {
+            this.startTime = System.nanoTime();
+            this.lastCheck = this.startTime;
+            this.halvingTime = this.startTime;
+        }
+
+        /**
+         * @return the level of the entity with the given EntityStore key, or -1 if it is not sampled at all
+         */
+        int levelOf(long key) {
+            long hash = mix(key) >>> 1;
+            if (hash > this.threshold) {
+                return -1;
+            }
+            int level = 0;
+            long levelThreshold = this.threshold >>> 1;
+            while (level < LEVELS - 1 && hash <= levelThreshold) {
+                level++;
+                levelThreshold >>>= 1;
+            }
+            return level;
+        }
+
+        double getRate() {
+            return ((this.threshold >>> this.lowestLevel) + 1.0) / (Long.MAX_VALUE + 1.0);
+        }
+
+        /**
+         * Halves the sample if, at the speed since it was last halved, the dump would not be done within the budget
+         */
+        void checkBudget() {
+            if (this.timeBudget == 0 || this.progress == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - this.lastCheck < CHECK_INTERVAL) {
+                return;
+            }
+            synchronized (this) {
+                if (now - this.lastCheck < CHECK_INTERVAL) {
+                    return;
+                }
+                this.lastCheck = now;
+                double done = this.progress.getAsDouble();
+                if (done < this.halvingProgress + MIN_PROGRESS || this.lowestLevel == LEVELS - 1) {
+                    return;
+                }
+                double remaining = (1 - done) * (now - this.halvingTime) / (done - this.halvingProgress);
+                if (now - this.startTime + remaining > this.timeBudget) {
+                    this.lowestLevel++;
+                    this.halvingTime = now;
+                    this.halvingProgress = done;
+                    System.out.println("Halving the sample to a rate of " + this.getRate() + " to stay within the time budget");
+                }
+            }
+        }
+
+        /**
+         * Spreads the sequential keys over all 64 bits, independently of the hash DumpShard uses
+         */
+        private static long mix(long key) {
+            key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+            key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+            return key ^ (key >>> 31);
+        }
+
+    }
+
+}
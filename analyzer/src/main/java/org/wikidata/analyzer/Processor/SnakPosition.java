@@ -0,0 +1,25 @@
+package org.wikidata.analyzer.Processor;
+
+/**
+ * Where in a statement a snak was found.
+ */
+public enum SnakPosition {
+
+    MAIN("main"),
+    QUALIFIER("qualifier"),
+    REFERENCE("reference");
+
+    private final String label;
+
+    SnakPosition(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return the lowercase name used for this position in processor output
+     */
+    public String getLabel() {
+        return this.label;
+    }
+
+}
@@ -0,0 +1,45 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.wdtk.datamodel.interfaces.Snak;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+import org.wikidata.wdtk.datamodel.interfaces.StatementDocument;
+
+/**
+ * To be implemented by processors that look at individual snaks.
+ *
+ * Rather than walking the statements of every entity themselves, subscribers are called by a
+ * SnakTraversal, which walks each entity once for all subscribers that are registered with it.
+ */
+public interface SnakSubscriber {
+
+    /**
+     * @return which snaks this subscriber should be called for
+     */
+    SnakSubscription getSnakSubscription();
+
+    /**
+     * Called once for every entity, before any of its statements or snaks.
+     *
+     * @param document the entity
+     */
+    default void startDocument(StatementDocument document) {
+    }
+
+    /**
+     * Called for every statement before its snaks, if the subscription includes statements.
+     *
+     * @param statement the statement
+     */
+    default void processStatement(Statement statement) {
+    }
+
+    /**
+     * Called for every snak matching the subscription.
+     *
+     * @param snak the snak
+     * @param position where in the statement the snak was found
+     * @param statement the statement the snak belongs to
+     */
+    void processSnak(Snak snak, SnakPosition position, Statement statement);
+
+}
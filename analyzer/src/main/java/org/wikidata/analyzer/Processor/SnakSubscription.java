@@ -0,0 +1,88 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.wdtk.datamodel.interfaces.Value;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Describes which parts of an entity's statements a SnakSubscriber wants to be called for.
+ */
+public final class SnakSubscription {
+
+    private final Set<SnakPosition> positions;
+    private final Class<? extends Value> valueType;
+    private final boolean statements;
+    private final boolean onlyItems;
+
+    private SnakSubscription(Set<SnakPosition> positions, Class<? extends Value> valueType, boolean statements, boolean onlyItems) {
+        this.positions = positions;
+        this.valueType = valueType;
+        this.statements = statements;
+        this.onlyItems = onlyItems;
+    }
+
+    /**
+     * Subscribes to value snaks holding a value of the given type, in the given positions.
+     *
+     * @param valueType for example TimeValue.class
+     * @param positions positions in statements to look at
+     * @return the subscription
+     */
+    public static SnakSubscription snaksWithValue(Class<? extends Value> valueType, SnakPosition... positions) {
+        return new SnakSubscription(toSet(positions), valueType, false, false);
+    }
+
+    /**
+     * Subscribes to snaks of any type (including no value and some value snaks) in the given positions.
+     *
+     * @param positions positions in statements to look at
+     * @return the subscription
+     */
+    public static SnakSubscription allSnaks(SnakPosition... positions) {
+        return new SnakSubscription(toSet(positions), null, false, false);
+    }
+
+    private static Set<SnakPosition> toSet(SnakPosition... positions) {
+        if (positions.length == 0) {
+            return Collections.unmodifiableSet(EnumSet.noneOf(SnakPosition.class));
+        }
+        return Collections.unmodifiableSet(EnumSet.copyOf(Arrays.asList(positions)));
+    }
+
+    /**
+     * @return a copy of this subscription that is also called for every statement
+     */
+    public SnakSubscription withStatements() {
+        return new SnakSubscription(this.positions, this.valueType, true, this.onlyItems);
+    }
+
+    /**
+     * @return a copy of this subscription that ignores the statements of properties
+     */
+    public SnakSubscription onlyItems() {
+        return new SnakSubscription(this.positions, this.valueType, this.statements, true);
+    }
+
+    public boolean includes(SnakPosition position) {
+        return this.positions.contains(position);
+    }
+
+    /**
+     * @return the type of value snaks to include, or null for all snaks
+     */
+    public Class<? extends Value> getValueType() {
+        return this.valueType;
+    }
+
+    public boolean includesStatements() {
+        return this.statements;
+    }
+
+    public boolean isOnlyItems() {
+        return this.onlyItems;
+    }
+
+}
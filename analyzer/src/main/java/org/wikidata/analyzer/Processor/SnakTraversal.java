@@ -0,0 +1,176 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.wdtk.datamodel.interfaces.Claim;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+import org.wikidata.wdtk.datamodel.interfaces.Reference;
+import org.wikidata.wdtk.datamodel.interfaces.Snak;
+import org.wikidata.wdtk.datamodel.interfaces.SnakGroup;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+import org.wikidata.wdtk.datamodel.interfaces.StatementDocument;
+import org.wikidata.wdtk.datamodel.interfaces.StatementGroup;
+import org.wikidata.wdtk.datamodel.interfaces.Value;
+import org.wikidata.wdtk.datamodel.interfaces.ValueSnak;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Walks the statements of each entity once and calls every registered SnakSubscriber
+ * for the statements and snaks it subscribed to.
+ *
+ * Parts of a statement that no subscriber is interested in (for example qualifiers) are not walked at all.
+ */
+public class SnakTraversal implements EntityDocumentProcessor {
+
+    private final List<SnakSubscriber> subscribers = new ArrayList<>();
+
+    private Dispatch itemDispatch = new Dispatch(new ArrayList<>(), false);
+    private Dispatch propertyDispatch = new Dispatch(new ArrayList<>(), true);
+
+    /**
+     * Creates a traversal for a single subscriber, which processors that are run on their own keep
+     * to walk each of their entities with, rather than building the lookup tables for every entity.
+     *
+     * @param subscriber the subscriber to call
+     */
+    public static SnakTraversal of(SnakSubscriber subscriber) {
+        SnakTraversal traversal = new SnakTraversal();
+        traversal.addSubscriber(subscriber);
+        return traversal;
+    }
+
+    public void addSubscriber(SnakSubscriber subscriber) {
+        this.subscribers.add(subscriber);
+        this.itemDispatch = new Dispatch(this.subscribers, false);
+        this.propertyDispatch = new Dispatch(this.subscribers, true);
+    }
+
+    @Override
+    public void processItemDocument(ItemDocument item) {
+        this.traverse(item);
+    }
+
+    @Override
+    public void processPropertyDocument(PropertyDocument property) {
+        this.traverse(property);
+    }
+
+    /**
+     * Walks a single document for the registered subscribers.
+     *
+     * @param document the entity to walk
+     */
+    public void traverse(StatementDocument document) {
+        for (SnakSubscriber subscriber : this.subscribers) {
+            subscriber.startDocument(document);
+        }
+        Dispatch dispatch = document instanceof PropertyDocument ? this.propertyDispatch : this.itemDispatch;
+        if (dispatch.isEmpty()) {
+            return;
+        }
+
+        List<StatementGroup> statementGroups = document.getStatementGroups();
+        for (int g = 0; g < statementGroups.size(); g++) {
+            List<Statement> statements = statementGroups.get(g).getStatements();
+            for (int s = 0; s < statements.size(); s++) {
+                dispatch.processStatement(statements.get(s));
+            }
+        }
+    }
+
+    /**
+     * Lookup tables of which subscribers to call where, for one type of entity
+     */
+    private static class Dispatch {
+
+        private final SnakSubscriber[] statementSubscribers;
+        private final SnakSubscriber[][] snakSubscribers = new SnakSubscriber[SnakPosition.values().length][];
+        private final Class<?>[][] valueTypes = new Class<?>[SnakPosition.values().length][];
+
+        Dispatch(List<SnakSubscriber> subscribers, boolean forProperties) {
+            List<SnakSubscriber> relevant = new ArrayList<>();
+            for (SnakSubscriber subscriber : subscribers) {
+                if (!forProperties || !subscriber.getSnakSubscription().isOnlyItems()) {
+                    relevant.add(subscriber);
+                }
+            }
+
+            List<SnakSubscriber> statementList = new ArrayList<>();
+            for (SnakSubscriber subscriber : relevant) {
+                if (subscriber.getSnakSubscription().includesStatements()) {
+                    statementList.add(subscriber);
+                }
+            }
+            this.statementSubscribers = statementList.toArray(new SnakSubscriber[0]);
+
+            for (SnakPosition position : SnakPosition.values()) {
+                List<SnakSubscriber> positionList = new ArrayList<>();
+                List<Class<?>> typeList = new ArrayList<>();
+                for (SnakSubscriber subscriber : relevant) {
+                    SnakSubscription subscription = subscriber.getSnakSubscription();
+                    if (subscription.includes(position)) {
+                        positionList.add(subscriber);
+                        typeList.add(subscription.getValueType());
+                    }
+                }
+                this.snakSubscribers[position.ordinal()] = positionList.toArray(new SnakSubscriber[0]);
+                this.valueTypes[position.ordinal()] = typeList.toArray(new Class<?>[0]);
+            }
+        }
+
+        boolean isEmpty() {
+            if (this.statementSubscribers.length > 0) {
+                return false;
+            }
+            for (SnakSubscriber[] positionSubscribers : this.snakSubscribers) {
+                if (positionSubscribers.length > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void processStatement(Statement statement) {
+            for (SnakSubscriber subscriber : this.statementSubscribers) {
+                subscriber.processStatement(statement);
+            }
+
+            Claim claim = statement.getClaim();
+            if (this.snakSubscribers[SnakPosition.MAIN.ordinal()].length > 0) {
+                this.processSnak(claim.getMainSnak(), SnakPosition.MAIN, statement);
+            }
+            if (this.snakSubscribers[SnakPosition.QUALIFIER.ordinal()].length > 0) {
+                this.processSnakGroups(claim.getQualifiers(), SnakPosition.QUALIFIER, statement);
+            }
+            if (this.snakSubscribers[SnakPosition.REFERENCE.ordinal()].length > 0) {
+                List<? extends Reference> references = statement.getReferences();
+                for (int r = 0; r < references.size(); r++) {
+                    this.processSnakGroups(references.get(r).getSnakGroups(), SnakPosition.REFERENCE, statement);
+                }
+            }
+        }
+
+        private void processSnakGroups(List<SnakGroup> snakGroups, SnakPosition position, Statement statement) {
+            for (int g = 0; g < snakGroups.size(); g++) {
+                List<Snak> snaks = snakGroups.get(g).getSnaks();
+                for (int s = 0; s < snaks.size(); s++) {
+                    this.processSnak(snaks.get(s), position, statement);
+                }
+            }
+        }
+
+        private void processSnak(Snak snak, SnakPosition position, Statement statement) {
+            Value value = snak instanceof ValueSnak ? ((ValueSnak) snak).getValue() : null;
+            SnakSubscriber[] subscribers = this.snakSubscribers[position.ordinal()];
+            Class<?>[] types = this.valueTypes[position.ordinal()];
+            for (int i = 0; i < subscribers.length; i++) {
+                if (types[i] == null || types[i].isInstance(value)) {
+                    subscribers[i].processSnak(snak, position, statement);
+                }
+            }
+        }
+    }
+
+}
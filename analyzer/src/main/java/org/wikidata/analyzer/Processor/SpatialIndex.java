@@ -0,0 +1,376 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.analyzer.Ids.EntityIds;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * The locations of MapProcessor as a static R-tree in a binary file, wdlabel.idx, which can be memory mapped to find
+ * the items in a bounding box or nearest to a point without reading wdlabel.json.
+ *
+ * The items are sorted along a Hilbert curve, so that items near each other on earth are mostly near each other in
+ * the file, and every 16 items get a bounding box, every 16 of those boxes a box around them, and so on up to a
+ * single box around all items. All numbers are big endian, and every section starts at a multiple of 8 bytes:
+ *
+ * - header: the magic number 0x57445349 ("WDSI"), the version (1), the number of items N and the number of children
+ *   of every box (16), as 4 byte ints
+ * - N items, each as: the entity id code of the item (see EntityIds) as an 8 byte long, and its latitude and
+ *   longitude as 8 byte doubles
+ * - the boxes of every level of the tree, from those around items up to the single box at the top, each as its
+ *   smallest latitude, smallest longitude, largest latitude and largest longitude as 8 byte doubles.
+ *   The number of boxes of a level is that of the level below divided by 16, rounded up.
+ *
+ * Items with coordinates that are not on earth are left out. Files are mapped at once, so they can be up to 2GB,
+ * which is about 70 million items.
+ */
+public class SpatialIndex {
+
+    static final int MAGIC = 0x57445349;
+    static final int VERSION = 1;
+    static final int NODE_SIZE = 16;
+    private static final int HEADER_SIZE = 16;
+    private static final int ITEM_SIZE = 24;
+    private static final int BOX_SIZE = 32;
+    private static final double EARTH_RADIUS = 6371.0088;
+
+    private final ByteBuffer buffer;
+    private final int size;
+
+    /**
+     * Positions of the levels of boxes in the file, from the lowest
+     */
+    private final int[] levels;
+    private final int[] levelSizes;
+
+    private SpatialIndex(ByteBuffer buffer, File file) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(12) != NODE_SIZE) {
+            throw new IOException(file + " is not a version " + VERSION + " spatial index");
+        }
+        this.size = buffer.getInt(8);
+        this.levelSizes = levelSizes(this.size);
+        this.levels = new int[this.levelSizes.length];
+        int position = HEADER_SIZE + ITEM_SIZE * this.size;
+        for (int level = 0; level < this.levels.length; level++) {
+            this.levels[level] = position;
+            position += BOX_SIZE * this.levelSizes[level];
+        }
+    }
+
+    /**
+     * @return the number of boxes of every level, from the lowest, for the number of items
+     */
+    private static int[] levelSizes(int size) {
+        int[] sizes = new int[0];
+        int count = size;
+        while (count > 1 || (count == 1 && sizes.length == 0)) {
+            count = (count + NODE_SIZE - 1) / NODE_SIZE;
+            sizes = Arrays.copyOf(sizes, sizes.length + 1);
+            sizes[sizes.length - 1] = count;
+        }
+        return sizes;
+    }
+
+    /**
+     * Maps the file into memory
+     */
+    public static SpatialIndex map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new SpatialIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file);
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the entity id code of the item
+     */
+    public long getCode(int item) {
+        return this.buffer.getLong(HEADER_SIZE + ITEM_SIZE * item);
+    }
+
+    public double getLatitude(int item) {
+        return this.buffer.getDouble(HEADER_SIZE + ITEM_SIZE * item + 8);
+    }
+
+    public double getLongitude(int item) {
+        return this.buffer.getDouble(HEADER_SIZE + ITEM_SIZE * item + 16);
+    }
+
+    /**
+     * @return the items in the box, including its edges, in the order of the file.
+     *   Boxes across the antimeridian have to be searched as two boxes.
+     */
+    public int[] search(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        if (this.levels.length == 0) {
+            return new int[0];
+        }
+        int[] items = new int[16];
+        int found = 0;
+        // Boxes still to look into, as level << 32 | box
+        long[] stack = new long[16];
+        int depth = 0;
+        stack[depth++] = (long) (this.levels.length - 1) << 32;
+        while (depth > 0) {
+            long node = stack[--depth];
+            int level = (int) (node >>> 32);
+            int box = (int) node;
+            int position = this.levels[level] + BOX_SIZE * box;
+            if (this.buffer.getDouble(position) > maxLatitude || this.buffer.getDouble(position + 8) > maxLongitude
+                    || this.buffer.getDouble(position + 16) < minLatitude || this.buffer.getDouble(position + 24) < minLongitude) {
+                continue;
+            }
+            int end = Math.min((box + 1) * NODE_SIZE, level == 0 ? this.size : this.levelSizes[level - 1]);
+            for (int child = box * NODE_SIZE; child < end; child++) {
+                if (level > 0) {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = (long) (level - 1) << 32 | child;
+                    continue;
+                }
+                double latitude = this.getLatitude(child);
+                double longitude = this.getLongitude(child);
+                if (latitude >= minLatitude && latitude <= maxLatitude && longitude >= minLongitude && longitude <= maxLongitude) {
+                    if (found == items.length) {
+                        items = Arrays.copyOf(items, found * 2);
+                    }
+                    items[found++] = child;
+                }
+            }
+        }
+        int[] result = Arrays.copyOf(items, found);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * @return up to count items nearest to the point over the surface of the earth, the nearest first
+     */
+    public int[] nearest(double latitude, double longitude, int count) {
+        int[] items = new int[Math.max(0, Math.min(count, this.size))];
+        int found = 0;
+        if (this.levels.length == 0) {
+            return items;
+        }
+        // Items and boxes to look into, by their (smallest) distance to the point
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>();
+        int top = this.levels.length - 1;
+        candidates.add(new Candidate(top, 0, this.boxDistance(top, 0, latitude, longitude)));
+        while (found < items.length && !candidates.isEmpty()) {
+            Candidate candidate = candidates.poll();
+            if (candidate.level < 0) {
+                items[found++] = candidate.index;
+                continue;
+            }
+            int level = candidate.level;
+            int end = Math.min((candidate.index + 1) * NODE_SIZE, level == 0 ? this.size : this.levelSizes[level - 1]);
+            for (int child = candidate.index * NODE_SIZE; child < end; child++) {
+                if (level == 0) {
+                    candidates.add(new Candidate(-1, child,
+                            distance(latitude, longitude, this.getLatitude(child), this.getLongitude(child))));
+                } else {
+                    candidates.add(new Candidate(level - 1, child, this.boxDistance(level - 1, child, latitude, longitude)));
+                }
+            }
+        }
+        return Arrays.copyOf(items, found);
+    }
+
+    /**
+     * @return the distance in km between two points, by the haversine formula
+     */
+    public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double latitudeSin = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+        double longitudeSin = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double h = latitudeSin * latitudeSin
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * longitudeSin * longitudeSin;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * @return the smallest distance in km between the point and any point in the box
+     */
+    private double boxDistance(int level, int box, double latitude, double longitude) {
+        int position = this.levels[level] + BOX_SIZE * box;
+        double minLatitude = this.buffer.getDouble(position);
+        double minLongitude = this.buffer.getDouble(position + 8);
+        double maxLatitude = this.buffer.getDouble(position + 16);
+        double maxLongitude = this.buffer.getDouble(position + 24);
+        if (longitude >= minLongitude && longitude <= maxLongitude) {
+            // Straight north or south, unless the point is in the box
+            double nearest = Math.max(minLatitude, Math.min(latitude, maxLatitude));
+            return distance(latitude, longitude, nearest, longitude);
+        }
+        // Along the nearest edge, going around the antimeridian if that is nearer
+        double toMin = ((minLongitude - longitude) % 360 + 360) % 360;
+        double toMax = ((longitude - maxLongitude) % 360 + 360) % 360;
+        double edge = toMin < toMax ? minLongitude : maxLongitude;
+        double result = Math.min(
+                distance(latitude, longitude, minLatitude, edge),
+                distance(latitude, longitude, maxLatitude, edge)
+        );
+        double longitudeCos = Math.cos(Math.toRadians(Math.min(toMin, toMax)));
+        if (longitudeCos > 0) {
+            // The point of the meridian of the edge nearest to the point, if it is between the corners
+            double nearest = Math.toDegrees(Math.atan(Math.tan(Math.toRadians(latitude)) / longitudeCos));
+            if (nearest > minLatitude && nearest < maxLatitude) {
+                result = Math.min(result, distance(latitude, longitude, nearest, edge));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes an index of the locations MapProcessor wrote to the output directory in the given format
+     */
+    static void write(File file, File outputDir, String locationFormat) throws IOException {
+        Builder builder = new Builder();
+        LocationWriter.read(
+                outputDir,
+                locationFormat,
+                (itemId, latitude, longitude, label) -> builder.add(EntityIds.encode(itemId), latitude, longitude)
+        );
+        builder.write(file);
+    }
+
+    private static class Candidate implements Comparable<Candidate> {
+
+        /**
+         * Level of the box, or -1 for an item
+         */
+        private final int level;
+        private final int index;
+        private final double distance;
+
+        Candidate(int level, int index, double distance) {
+            this.level = level;
+            this.index = index;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Double.compare(this.distance, other.distance);
+        }
+    }
+
+    /**
+     * Collects items to write an index of
+     */
+    static class Builder {
+
+        private long[] codes = new long[1024];
+        private double[] latitudes = new double[1024];
+        private double[] longitudes = new double[1024];
+        private int size = 0;
+
+        /**
+         * Adds an item, unless its coordinates are not on earth
+         */
+        void add(long code, double latitude, double longitude) {
+            if (!(longitude >= -180 && longitude <= 180 && latitude >= -90 && latitude <= 90)) {
+                return;
+            }
+            if (this.size == this.codes.length) {
+                this.codes = Arrays.copyOf(this.codes, this.size * 2);
+                this.latitudes = Arrays.copyOf(this.latitudes, this.size * 2);
+                this.longitudes = Arrays.copyOf(this.longitudes, this.size * 2);
+            }
+            this.codes[this.size] = code;
+            this.latitudes[this.size] = latitude;
+            this.longitudes[this.size] = longitude;
+            this.size++;
+        }
+
+        void write(File file) throws IOException {
+            // Sort by the position on the Hilbert curve, keeping the item in the lower bits
+            long[] order = new long[this.size];
+            for (int i = 0; i < this.size; i++) {
+                long x = (long) ((this.longitudes[i] + 180) / 360 * 32767);
+                long y = (long) ((this.latitudes[i] + 90) / 180 * 32767);
+                order[i] = hilbert(x, y) << 32 | i;
+            }
+            Arrays.sort(order);
+
+            int[] levelSizes = levelSizes(this.size);
+            double[][] boxes = new double[levelSizes.length][];
+            for (int level = 0; level < levelSizes.length; level++) {
+                boxes[level] = new double[4 * levelSizes[level]];
+                double[] below = level == 0 ? null : boxes[level - 1];
+                for (int box = 0; box < levelSizes[level]; box++) {
+                    double[] bounds = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+                    int end = Math.min((box + 1) * NODE_SIZE, level == 0 ? this.size : levelSizes[level - 1]);
+                    for (int child = box * NODE_SIZE; child < end; child++) {
+                        if (level == 0) {
+                            int item = (int) order[child];
+                            bounds[0] = Math.min(bounds[0], this.latitudes[item]);
+                            bounds[1] = Math.min(bounds[1], this.longitudes[item]);
+                            bounds[2] = Math.max(bounds[2], this.latitudes[item]);
+                            bounds[3] = Math.max(bounds[3], this.longitudes[item]);
+                        } else {
+                            bounds[0] = Math.min(bounds[0], below[4 * child]);
+                            bounds[1] = Math.min(bounds[1], below[4 * child + 1]);
+                            bounds[2] = Math.max(bounds[2], below[4 * child + 2]);
+                            bounds[3] = Math.max(bounds[3], below[4 * child + 3]);
+                        }
+                    }
+                    System.arraycopy(bounds, 0, boxes[level], 4 * box, 4);
+                }
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(this.size);
+                out.writeInt(NODE_SIZE);
+                for (long entry : order) {
+                    int item = (int) entry;
+                    out.writeLong(this.codes[item]);
+                    out.writeDouble(this.latitudes[item]);
+                    out.writeDouble(this.longitudes[item]);
+                }
+                for (double[] level : boxes) {
+                    for (double bound : level) {
+                        out.writeDouble(bound);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the position of the point on a Hilbert curve through 2^15 by 2^15 points
+         */
+        private static long hilbert(long x, long y) {
+            long position = 0;
+            for (long half = 1 << 14; half > 0; half >>= 1) {
+                long right = (x & half) > 0 ? 1 : 0;
+                long up = (y & half) > 0 ? 1 : 0;
+                position += half * half * ((3 * right) ^ up);
+                // Rotate the quadrant so that the curve continues where it left off
+                if (up == 0) {
+                    if (right == 1) {
+                        x = half - 1 - x;
+                        y = half - 1 - y;
+                    }
+                    long swap = x;
+                    x = y;
+                    y = swap;
+                }
+            }
+            return position;
+        }
+    }
+
+}
@@ -0,0 +1,282 @@
+package org.wikidata.analyzer.Processor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Maps of where the items with coordinates are as 256 pixel tiles in Web Mercator, written as ZOOM/X/Y.png up to a
+ * zoom level, as map viewers such as Leaflet load them. Tiles without any item are not written, and neither are items
+ * further north or south than 85.05 degrees, which Web Mercator leaves out.
+ *
+ * Every location is kept as a single key, its pixel at the highest zoom with the bits of x and y interleaved, so that
+ * once sorted the locations of every tile at every zoom come one after another. Keys are sorted in runs of a million,
+ * which are written to temporary files when there are more, and merged when rendering. Rendering then walks the keys
+ * once, counting a single tile per zoom level at a time and handing the finished ones to threads that write them.
+ */
+class TilePyramid {
+
+    static final int MAX_ZOOM = 22;
+    private static final int TILE_SIZE = 256;
+    private static final double MAX_LATITUDE = 85.0511287798;
+    private static final int RUN_SIZE = 1 << 20;
+
+    private final int maxZoom;
+
+    /**
+     * By zoom level: how much brighter the red, green and blue of a pixel get for every item
+     */
+    private final int[][] colours;
+
+    private final long[] run;
+    private int length = 0;
+    private final List<File> runFiles = new ArrayList<>();
+
+    /**
+     * Failure to write a run, which is reported when rendering
+     */
+    private IOException failure;
+
+    /**
+     * @param colours the colour of every zoom level from 0 to maxZoom
+     * @throws IllegalArgumentException if the zoom is not from 0 to MAX_ZOOM
+     */
+    TilePyramid(int maxZoom, int[][] colours) {
+        this(maxZoom, colours, RUN_SIZE);
+    }
+
+    TilePyramid(int maxZoom, int[][] colours, int runSize) {
+        if (maxZoom < 0 || maxZoom > MAX_ZOOM) {
+            throw new IllegalArgumentException("Unknown map tile zoom " + maxZoom + ", must be from 0 to " + MAX_ZOOM);
+        }
+        this.maxZoom = maxZoom;
+        this.colours = colours;
+        this.run = new long[runSize];
+    }
+
+    /**
+     * Adds a location, which must have been checked to be on earth
+     */
+    void add(double latitude, double longitude) {
+        if (latitude > MAX_LATITUDE || latitude < -MAX_LATITUDE) {
+            return;
+        }
+        long size = 1L << (this.maxZoom + 8);
+        double sin = Math.sin(Math.toRadians(latitude));
+        long x = (long) ((longitude + 180.0) / 360.0 * size);
+        long y = (long) ((0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI)) * size);
+        if (this.length == this.run.length) {
+            this.writeRun();
+        }
+        this.run[this.length++] = spread(Math.max(0, Math.min(x, size - 1)))
+                | spread(Math.max(0, Math.min(y, size - 1))) << 1;
+    }
+
+    private void writeRun() {
+        Arrays.sort(this.run, 0, this.length);
+        try {
+            File file = File.createTempFile("tiles", ".run");
+            file.deleteOnExit();
+            this.runFiles.add(file);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+                for (int i = 0; i < this.length; i++) {
+                    out.writeLong(this.run[i]);
+                }
+            }
+        } catch (IOException e) {
+            if (this.failure == null) {
+                this.failure = e;
+            }
+        }
+        this.length = 0;
+    }
+
+    /**
+     * Writes the tiles to the directory, and removes the temporary files
+     */
+    void render(File directory) throws IOException {
+        if (!this.runFiles.isEmpty()) {
+            this.writeRun();
+        }
+        if (this.failure != null) {
+            throw new IOException("Failed to sort map tiles", this.failure);
+        }
+        Arrays.sort(this.run, 0, this.length);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // Tiles waiting to be written, so that no more than a few are in memory at a time
+        Semaphore waiting = new Semaphore(2 * threads);
+        AtomicReference<IOException> writeFailure = new AtomicReference<>();
+        try (Keys keys = this.runFiles.isEmpty() ? new Keys(this.run, this.length) : new Keys(this.runFiles)) {
+            long[] tiles = new long[this.maxZoom + 1];
+            byte[][] counts = new byte[this.maxZoom + 1][];
+            while (keys.hasNext() && writeFailure.get() == null) {
+                long key = keys.next();
+                for (int zoom = 0; zoom <= this.maxZoom; zoom++) {
+                    long pixel = key >>> 2 * (this.maxZoom - zoom);
+                    long tile = pixel >>> 16;
+                    if (counts[zoom] == null || tiles[zoom] != tile) {
+                        if (counts[zoom] != null) {
+                            this.submit(executor, waiting, writeFailure, directory, zoom, tiles[zoom], counts[zoom]);
+                        }
+                        tiles[zoom] = tile;
+                        counts[zoom] = new byte[TILE_SIZE * TILE_SIZE];
+                    }
+                    int index = (compact(pixel >>> 1) & 0xFF) * TILE_SIZE + (compact(pixel) & 0xFF);
+                    if (counts[zoom][index] != (byte) 255) {
+                        counts[zoom][index]++;
+                    }
+                }
+            }
+            for (int zoom = 0; zoom <= this.maxZoom; zoom++) {
+                if (counts[zoom] != null) {
+                    this.submit(executor, waiting, writeFailure, directory, zoom, tiles[zoom], counts[zoom]);
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering map tiles", e);
+        } finally {
+            executor.shutdownNow();
+            for (File file : this.runFiles) {
+                Files.deleteIfExists(file.toPath());
+            }
+            this.runFiles.clear();
+            this.length = 0;
+        }
+        if (writeFailure.get() != null) {
+            throw writeFailure.get();
+        }
+    }
+
+    private void submit(
+            ExecutorService executor, Semaphore waiting, AtomicReference<IOException> writeFailure,
+            File directory, int zoom, long tile, byte[] counts
+    ) throws InterruptedException {
+        waiting.acquire();
+        executor.execute(() -> {
+            try {
+                File tileDirectory = new File(directory, zoom + "/" + compact(tile));
+                Files.createDirectories(tileDirectory.toPath());
+                File file = new File(tileDirectory, compact(tile >>> 1) + ".png");
+                PngWriter.write(file, TILE_SIZE, TILE_SIZE, counts, this.colours[zoom]);
+            } catch (IOException e) {
+                writeFailure.compareAndSet(null, e);
+            } finally {
+                waiting.release();
+            }
+        });
+    }
+
+    /**
+     * @return the bits of the value at every other bit, starting with the lowest
+     */
+    private static long spread(long value) {
+        value &= 0xFFFFFFFFL;
+        value = (value | value << 16) & 0x0000FFFF0000FFFFL;
+        value = (value | value << 8) & 0x00FF00FF00FF00FFL;
+        value = (value | value << 4) & 0x0F0F0F0F0F0F0F0FL;
+        value = (value | value << 2) & 0x3333333333333333L;
+        value = (value | value << 1) & 0x5555555555555555L;
+        return value;
+    }
+
+    /**
+     * @return every other bit of the value, starting with the lowest, the opposite of spread
+     */
+    private static int compact(long value) {
+        value &= 0x5555555555555555L;
+        value = (value | value >>> 1) & 0x3333333333333333L;
+        value = (value | value >>> 2) & 0x0F0F0F0F0F0F0F0FL;
+        value = (value | value >>> 4) & 0x00FF00FF00FF00FFL;
+        value = (value | value >>> 8) & 0x0000FFFF0000FFFFL;
+        value = (value | value >>> 16) & 0x00000000FFFFFFFFL;
+        return (int) value;
+    }
+
+    /**
+     * The keys in order, from the sorted run in memory or merged from the sorted runs in files
+     */
+    private static class Keys implements AutoCloseable {
+
+        private final long[] run;
+        private final int length;
+        private int position = 0;
+
+        private final List<DataInputStream> inputs = new ArrayList<>();
+        private final long[] heads;
+
+        /**
+         * Inputs with keys left, by their next key
+         */
+        private final PriorityQueue<Integer> next;
+
+        Keys(long[] run, int length) {
+            this.run = run;
+            this.length = length;
+            this.heads = null;
+            this.next = null;
+        }
+
+        Keys(List<File> files) throws IOException {
+            this.run = null;
+            this.length = 0;
+            this.heads = new long[files.size()];
+            this.next = new PriorityQueue<>(files.size(), (a, b) -> Long.compare(this.heads[a], this.heads[b]));
+            for (File file : files) {
+                this.inputs.add(new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024)));
+                this.advance(this.inputs.size() - 1);
+            }
+        }
+
+        boolean hasNext() {
+            return this.next == null ? this.position < this.length : !this.next.isEmpty();
+        }
+
+        long next() throws IOException {
+            if (this.next == null) {
+                return this.run[this.position++];
+            }
+            int input = this.next.poll();
+            long key = this.heads[input];
+            this.advance(input);
+            return key;
+        }
+
+        private void advance(int input) throws IOException {
+            try {
+                this.heads[input] = this.inputs.get(input).readLong();
+                this.next.add(input);
+            } catch (EOFException e) {
+                // All keys of the input are read
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (DataInputStream input : this.inputs) {
+                input.close();
+            }
+        }
+    }
+
+}
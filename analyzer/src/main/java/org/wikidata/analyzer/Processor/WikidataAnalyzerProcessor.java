@@ -1,10 +1,22 @@
 package org.wikidata.analyzer.Processor;
 
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
 import java.nio.file.Files;
+import java.util.Map;
 
 /**
  * @author Addshore
@@ -24,10 +36,28 @@ public abstract class WikidataAnalyzerProcessor implements EntityDocumentProcess
         }
     }
 
+    /**
+     * Used when creating shards, which share the output directory of the original processor.
+     *
+     * @param outputDir directory that output will be written to
+     */
+    protected WikidataAnalyzerProcessor( File outputDir ) {
+        this.outputDir = outputDir;
+    }
+
     public void setOutputDir( File outputDir ) {
         this.outputDir = outputDir;
     }
 
+    /**
+     * Compresses the lists written while the dump is processed with gzip, see OutputSink.
+     * Processors that write no such lists ignore this.
+     *
+     * @param compress whether to compress
+     */
+    public void setCompressLists( boolean compress ) {
+    }
+
     /**
      * Sets up the Processor.
      * Should open files ready for writing etc.
@@ -57,4 +87,137 @@ public abstract class WikidataAnalyzerProcessor implements EntityDocumentProcess
 
     }
 
+    /**
+     * Captures everything this Processor has collected so far, so that processing can later be resumed from this point.
+     * Called between entities, after all shards have been merged. Output written so far should be flushed.
+     * The state is serialized before processing continues, so it need not be a copy.
+     *
+     * @return the state, or null if the Processor keeps none
+     * @throws IOException if output could not be flushed
+     */
+    public Serializable getCheckpointState() throws IOException {
+        return null;
+    }
+
+    /**
+     * Sets the Processor up to continue from a checkpoint, this is called instead of setUp and doPreProcessing.
+     *
+     * @param state the state returned by getCheckpointState when the checkpoint was made
+     * @throws IOException if earlier output could not be restored
+     */
+    public void resumeFromCheckpoint( Serializable state ) throws IOException {
+        this.setUp();
+        this.doPreProcessing();
+    }
+
+    /**
+     * Describes which lines of a JSON dump this Processor may need, so that other lines are not parsed at all.
+     * Only used when the dump is processed by the ParallelDumpProcessor.
+     *
+     * @return a filter that accepts at least every line this Processor needs
+     */
+    public LineFilter getLineFilter() {
+        return LineFilter.all();
+    }
+
+    /**
+     * Describes which sections of an entity this Processor reads, so that the others need not be parsed.
+     * Only used when the dump is processed by the ParallelDumpProcessor.
+     *
+     * @return the sections this Processor reads, other sections may be empty
+     */
+    public EntitySections getEntitySections() {
+        return EntitySections.all();
+    }
+
+    /**
+     * Creates an empty shard of this Processor that can process entities on another thread.
+     * A shard shares the configuration of this Processor but collects its own state without
+     * any locking. All shards are merged back using mergeShard before doPostProcessing is called.
+     * Only processItemDocument and processPropertyDocument are called on shards, never setUp, tearDown
+     * or the pre and post processing.
+     *
+     * @return the new shard, or null if this Processor can only process entities on a single thread
+     */
+    public WikidataAnalyzerProcessor createShard() {
+        return null;
+    }
+
+    /**
+     * Adds the state collected by a shard created with createShard to this Processor.
+     *
+     * @param shard a shard created by this Processor
+     */
+    public void mergeShard( WikidataAnalyzerProcessor shard ) {
+        throw new UnsupportedOperationException(this.getClass().getSimpleName() + " can not be sharded");
+    }
+
+    /**
+     * Processors that only sum up counters over all entities can be run by an IncrementalProcessor,
+     * which needs them to support createShard as well.
+     *
+     * @return the counters collected so far, before doPostProcessing, or null if this Processor does more than counting
+     */
+    public Map<String, Double> getCounters() {
+        return null;
+    }
+
+    /**
+     * Adds to the counters of this Processor, negative values retract what an entity contributed earlier.
+     * Counters that end up at zero are removed.
+     *
+     * @param counters as returned by getCounters of a shard of this Processor
+     */
+    public void addCounters( Map<String, Double> counters ) {
+        throw new UnsupportedOperationException(this.getClass().getSimpleName() + " does not keep counters");
+    }
+
+    /**
+     * Sets the counters of a shard back to zero, so that the shard can be used again for the next entity.
+     *
+     * @see #getCounters()
+     */
+    public void resetCounters() {
+        throw new UnsupportedOperationException(this.getClass().getSimpleName() + " does not keep counters");
+    }
+
+    /**
+     * Processors that support mergeOutput, so that the outputs of runs over shards of the dump can be merged.
+     *
+     * @return whether this Processor can merge outputs
+     */
+    public boolean canMergeOutput() {
+        return false;
+    }
+
+    /**
+     * Adds the output written by a run over another shard of the dump, as if this Processor had processed
+     * the entities of that shard itself. Called after setUp and doPreProcessing, instead of processing entities.
+     * Only called if canMergeOutput is true.
+     *
+     * @param shardOutputDir the output directory of the run over the shard
+     * @throws IOException if the output could not be read
+     */
+    public void mergeOutput( File shardOutputDir ) throws IOException {
+        throw new UnsupportedOperationException(this.getClass().getSimpleName() + " can not merge outputs");
+    }
+
+    protected static JSONObject readJsonObject( File file ) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            return (JSONObject) new JSONParser().parse(reader);
+        } catch (ParseException e) {
+            throw new IOException("Could not parse " + file + ": " + e, e);
+        }
+    }
+
+    protected static void writeJsonObject( File file, Map<?, ?> values ) throws IOException {
+        try (Writer writer = newWriter(file)) {
+            new JSONObject(values).writeJSONString(writer);
+        }
+    }
+
+    protected static Writer newWriter( File file ) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file)));
+    }
+
 }
@@ -3,7 +3,15 @@ package org.wikidata.analyzer;
 import org.apache.commons.cli.*;
 import org.wikidata.analyzer.Fetcher.DumpDateFetcher;
 import org.wikidata.analyzer.Fetcher.DumpFetcher;
+import org.wikidata.analyzer.Fetcher.LocalJsonDumpFile;
+import org.wikidata.analyzer.Pipeline.Checkpoint;
+import org.wikidata.analyzer.Pipeline.ParallelDumpProcessor;
+import org.wikidata.analyzer.Processor.DumpShard;
+import org.wikidata.analyzer.Processor.IncrementalProcessor;
+import org.wikidata.analyzer.Processor.MapProcessor;
 import org.wikidata.analyzer.Processor.NoisyProcessor;
+import org.wikidata.analyzer.Processor.ProcessorBroker;
+import org.wikidata.analyzer.Processor.SamplingProcessor;
 import org.wikidata.analyzer.Processor.WikidataAnalyzerProcessor;
 import org.wikidata.wdtk.dumpfiles.DumpProcessingController;
 import org.wikidata.wdtk.dumpfiles.MwDumpFile;
@@ -27,6 +35,91 @@ public class WikidataAnalyzer {
      */
     private List<WikidataAnalyzerProcessor> processorObjects = new ArrayList<>();
 
+    /**
+     * Number of threads to parse the dump with, 1 uses the single threaded WDTK controller
+     */
+    private int threads = 1;
+
+    /**
+     * Whether to continue from the checkpoint of an earlier run
+     */
+    private boolean resume = false;
+
+    /**
+     * Whether to only reprocess entities that changed since the previous incremental run
+     */
+    private boolean incremental = false;
+
+    /**
+     * The part of the dump to process, or null for all of it
+     */
+    private DumpShard shard = null;
+
+    /**
+     * Part of the entities to process, counters are scaled up to estimates for the whole dump when less than 1
+     */
+    private double sampleRate = 1;
+
+    /**
+     * Time in milliseconds a sampled run should take at most, or 0 for no limit
+     */
+    private long timeBudget = 0;
+
+    /**
+     * Whether to process a dump that has to be downloaded while it is downloading
+     */
+    private boolean streamDownload = false;
+
+    /**
+     * URLs to download the dump from, with {date} for its date, or null for the default mirrors
+     */
+    private List<String> mirrors = null;
+
+    /**
+     * Format the MapProcessor writes its locations in, or null for its default
+     */
+    private String mapOutputFormat = null;
+
+    /**
+     * Whether processors compress the lists they write while processing the dump with gzip
+     */
+    private boolean compressLists = false;
+
+    /**
+     * Format the MapProcessor writes its relations in, or null for its default
+     */
+    private String mapGraphFormat = null;
+
+    /**
+     * Sizes of the maps the MapProcessor renders, or null to not render any
+     */
+    private String mapPngSizes = null;
+
+    /**
+     * Highest zoom level of the map tiles the MapProcessor renders, or null to not render any
+     */
+    private Integer mapTileZoom = null;
+
+    /**
+     * Whether the MapProcessor also writes an index of its locations
+     */
+    private boolean mapIndex = false;
+
+    /**
+     * Whether the MapProcessor also writes statistics of its relations
+     */
+    private boolean mapAnalysis = false;
+
+    /**
+     * Whether to merge the outputs of runs over shards of the dump instead of processing a dump
+     */
+    private boolean merge = false;
+
+    /**
+     * Time between checkpoints when processing the dump with the ParallelDumpProcessor
+     */
+    private static final long CHECKPOINT_INTERVAL = 10 * 60 * 1000;
+
     /**
      * Main entry point.
      * Instantiates and runs the analyzer
@@ -39,6 +132,11 @@ public class WikidataAnalyzer {
     }
 
     public void init( String[] args ) throws IOException {
+        if (args.length > 0 && args[0].equals("merge")) {
+            this.merge = true;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
         Options options = new Options();
 
         options.addOption("h", "help", false, "Print help for the command");
@@ -46,6 +144,21 @@ public class WikidataAnalyzer {
         options.addOption("l", "latest", false, "Target the latest dump according to dumps.wikimedia.org");
         options.addOption("s", "store", true, "Target storage directory (REQUIRED)");
         options.addOption("p", "processors", true, "Processors to run (REQUIRED)");
+        options.addOption("t", "threads", true, "Number of threads to parse the dump with (default 1)");
+        options.addOption("r", "resume", false, "Continue an interrupted run from its last checkpoint (checkpoints are written when using --threads)");
+        options.addOption("i", "incremental", false, "Only process entities changed since the previous incremental run (counting processors only)");
+        options.addOption(null, "shard", true, "Only process shard i of N of the dump, given as i/N, see the merge command");
+        options.addOption(null, "sample-rate", true, "Only process this part of the entities, such as 0.01, and estimate the counts of the whole dump (counting processors only)");
+        options.addOption(null, "time-budget", true, "Minutes the run may take, the sample is made smaller if needed to stay within them (counting processors only)");
+        options.addOption(null, "mirrors", true, "Comma separated URLs to download the dump from, with {date} for the date of the dump, the fastest is used (default dumps.wikimedia.org and archive.org)");
+        options.addOption(null, "stream-download", false, "Process a dump that has to be downloaded while it is downloading, rather than after");
+        options.addOption(null, "compress-lists", false, "Compress the lists processors write while processing the dump, such as those of the BadDate processor, with gzip");
+        options.addOption(null, "map-output", true, "Format of the locations written by the Map processor: json (default), ndjson, json.gz or ndjson.gz");
+        options.addOption(null, "map-graph", true, "Format of the relations written by the Map processor: json (default) or csr");
+        options.addOption(null, "map-png", true, "Sizes of the maps of the locations the Map processor renders: all, or some of icon,tiny,small,normal,big,huge,enormous,gigantic");
+        options.addOption(null, "map-tiles", true, "Highest zoom level of the map tiles of the locations the Map processor renders, from 0 to " + MapProcessor.MAX_TILE_ZOOM);
+        options.addOption(null, "map-index", false, "Also write an index of the locations found by the Map processor to wdlabel.idx, see SpatialIndex");
+        options.addOption(null, "map-analysis", false, "Also write statistics of the relations found by the Map processor to graph_report.json, see GraphAnalysis");
 
         try {
             CommandLineParser parser = new DefaultParser();
@@ -72,14 +185,91 @@ public class WikidataAnalyzer {
             }
             String dataDir = cmd.getOptionValue("store");
             String[] processors = cmd.getOptionValues("processors");
+            if (cmd.hasOption("threads")) {
+                try {
+                    this.threads = Integer.parseInt(cmd.getOptionValue("threads"));
+                } catch (NumberFormatException e) {
+                    this.printHelpAndExit(options, "Threads must be a number");
+                }
+                if (this.threads < 1) {
+                    this.printHelpAndExit(options, "Threads must be at least 1");
+                }
+            }
+            this.resume = cmd.hasOption("resume");
+            this.incremental = cmd.hasOption("incremental");
+            if (this.resume && this.incremental) {
+                this.printHelpAndExit(options, "Incremental runs can not be resumed");
+            }
+            if (cmd.hasOption("shard")) {
+                try {
+                    this.shard = DumpShard.parse(cmd.getOptionValue("shard"));
+                } catch (IllegalArgumentException e) {
+                    this.printHelpAndExit(options, e.getMessage());
+                }
+            }
 
-            this.run( targetDate, new File( dataDir ), processors );
+            if (cmd.hasOption("sample-rate")) {
+                try {
+                    this.sampleRate = Double.parseDouble(cmd.getOptionValue("sample-rate"));
+                } catch (NumberFormatException e) {
+                    this.printHelpAndExit(options, "Sample rate must be a number");
+                }
+                if (!(this.sampleRate > 0 && this.sampleRate <= 1)) {
+                    this.printHelpAndExit(options, "Sample rate must be more than 0 and at most 1");
+                }
+            }
+            if (cmd.hasOption("time-budget")) {
+                try {
+                    this.timeBudget = Long.parseLong(cmd.getOptionValue("time-budget")) * 60 * 1000;
+                } catch (NumberFormatException e) {
+                    this.printHelpAndExit(options, "Time budget must be a number of minutes");
+                }
+                if (this.timeBudget <= 0) {
+                    this.printHelpAndExit(options, "Time budget must be at least 1 minute");
+                }
+            }
+            this.mapOutputFormat = cmd.getOptionValue("map-output");
+            this.compressLists = cmd.hasOption("compress-lists");
+            this.streamDownload = cmd.hasOption("stream-download");
+            if (cmd.hasOption("mirrors")) {
+                this.mirrors = Arrays.asList(cmd.getOptionValue("mirrors").split(","));
+            }
+            this.mapGraphFormat = cmd.getOptionValue("map-graph");
+            this.mapPngSizes = cmd.getOptionValue("map-png");
+            this.mapIndex = cmd.hasOption("map-index");
+            this.mapAnalysis = cmd.hasOption("map-analysis");
+            if (cmd.hasOption("map-tiles")) {
+                try {
+                    this.mapTileZoom = Integer.parseInt(cmd.getOptionValue("map-tiles"));
+                } catch (NumberFormatException e) {
+                    this.printHelpAndExit(options, "Map tile zoom must be a number");
+                }
+                if (this.mapTileZoom < 0 || this.mapTileZoom > MapProcessor.MAX_TILE_ZOOM) {
+                    this.printHelpAndExit(options, "Map tile zoom must be from 0 to " + MapProcessor.MAX_TILE_ZOOM);
+                }
+            }
+            if (this.isSampled() && (this.resume || this.incremental)) {
+                this.printHelpAndExit(options, "Sampled runs can not be resumed or incremental");
+            }
+
+            if (this.merge) {
+                if (cmd.getArgs().length == 0) {
+                    this.printHelpAndExit(options, "Missing output directories of the shards to merge");
+                }
+                this.runMerge( targetDate, new File( dataDir ), processors, cmd.getArgs() );
+            } else {
+                this.run( targetDate, new File( dataDir ), processors );
+            }
 
         } catch (ParseException e) {
             this.printHelpAndExit( options, e.getMessage() );
         }
     }
 
+    private boolean isSampled() {
+        return this.sampleRate < 1 || this.timeBudget > 0;
+    }
+
     private void printHelpAndExit( Options options ) {
         this.printHelpAndExit( options, "" );
     }
@@ -87,7 +277,7 @@ public class WikidataAnalyzer {
     private void printHelpAndExit( Options options, String reason ) {
         this.printHeader();
         HelpFormatter formatter = new HelpFormatter();
-        formatter.printHelp("toolkit-analyzer", options);
+        formatter.printHelp("toolkit-analyzer [merge] [options] [shard output directories to merge]", options);
         if( !reason.equals("") ) {
             System.out.println( "\n" + reason );
         }
@@ -113,10 +303,65 @@ public class WikidataAnalyzer {
 
     public void run( String targetDate, File dataDir, String[] processors ) throws IOException {
         this.printHeader();
+        File outputDir = this.getOutputDir( targetDate, dataDir );
+
+        long startTime = System.currentTimeMillis();
+
+        try {
+            this.scan(outputDir.getName(), dataDir, outputDir, processors);
+            System.out.println("All Done!");
+        } catch (IOException e) {
+            System.out.println("Something went wrong!");
+            e.printStackTrace();
+        }
+
+        long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
+        System.out.println("Execution time: " + elapsedSeconds / 60 + ":" + elapsedSeconds % 60);
+    }
+
+    /**
+     * Merges the outputs of runs over all shards of a dump into the output directory, as if the dump was processed at once
+     */
+    public void runMerge( String targetDate, File dataDir, String[] processors, String[] shardOutputDirs ) throws IOException {
+        this.printHeader();
+        File outputDir = this.getOutputDir( targetDate, dataDir );
+
+        List<WikidataAnalyzerProcessor> processorInstances = this.createProcessors( outputDir, processors );
+        for (WikidataAnalyzerProcessor processor : processorInstances) {
+            if (!processor.canMergeOutput()) {
+                System.out.println("Error: " + processor.getClass().getSimpleName() + " can not merge the outputs of shards");
+                System.exit(1);
+            }
+        }
+        for (WikidataAnalyzerProcessor processor : processorInstances) {
+            processor.setUp();
+            processor.doPreProcessing();
+            for (String shardOutputDir : shardOutputDirs) {
+                System.out.println("Merging " + processor.getClass().getSimpleName() + " output of " + shardOutputDir);
+                processor.mergeOutput( new File( shardOutputDir ) );
+            }
+            processor.doPostProcessing();
+            processor.tearDown();
+        }
+        System.out.println("All Done!");
+    }
+
+    /**
+     * Checks the date and the data directory
+     *
+     * @return the output directory for the date, which is created if needed
+     */
+    private File getOutputDir( String targetDate, File dataDir ) throws IOException {
+        // Check the data directory, which holds the dump catalog
+        if (!dataDir.exists()) {
+            System.out.println("Error: Data directory specified does not exist.");
+            System.exit(1);
+        }
+        System.out.println("Using data directory: " + dataDir.getAbsolutePath());
 
         // Check the date
         if (targetDate.equals("latest")) {
-            DumpDateFetcher dateFetcher = new DumpDateFetcher();
+            DumpDateFetcher dateFetcher = new DumpDateFetcher(dataDir);
             targetDate = dateFetcher.getLatestOnlineDumpDate();
             System.out.println("Targeting latest dump: " + targetDate);
         } else if (targetDate.matches("[0-9]+")) {
@@ -126,36 +371,15 @@ public class WikidataAnalyzer {
             System.exit(1);
         }
 
-        // Check the data directory
-        if (!dataDir.exists()) {
-            System.out.println("Error: Data directory specified does not exist.");
-            System.exit(1);
-        }
-        System.out.println("Using data directory: " + dataDir.getAbsolutePath());
-
         // And create the output directory if it doesn't already exist
         File outputDir = new File(dataDir.getAbsolutePath() + File.separator + targetDate);
         if (!outputDir.exists()) {
             Files.createDirectory( outputDir.toPath() );
         }
-
-        long startTime = System.currentTimeMillis();
-
-        try {
-            this.scan(targetDate, dataDir, outputDir, processors);
-            System.out.println("All Done!");
-        } catch (IOException e) {
-            System.out.println("Something went wrong!");
-            e.printStackTrace();
-        }
-
-        long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
-        System.out.println("Execution time: " + elapsedSeconds / 60 + ":" + elapsedSeconds % 60);
+        return outputDir;
     }
 
-    public void scan( String targetDate, File dataDir, File outputDir, String[] processors ) throws IOException {
-        this.printMemoryWarning();
-
+    private List<WikidataAnalyzerProcessor> createProcessors( File outputDir, String[] processors ) {
         // Get the list of processorClasses
         for (String value : processors) {
             try {
@@ -167,38 +391,123 @@ public class WikidataAnalyzer {
             System.out.println(value + "Processor enabled");
         }
 
-        // Set up controller
-        DumpProcessingController controller = new DumpProcessingController("wikidatawiki");
-        controller.setOfflineMode(false);
-
-        // Set all the processors up and add them to the controller
+        List<WikidataAnalyzerProcessor> processorInstances = new ArrayList<>();
         for (Class<?> classObject : this.processorClasses) {
             try {
                 WikidataAnalyzerProcessor processor = (WikidataAnalyzerProcessor) classObject.newInstance();
                 processor.setOutputDir( outputDir );
-                processor.setUp();
-                processor.doPreProcessing();
-                controller.registerEntityDocumentProcessor(
-                        processor,
-                        null,
-                        true
-                );
-                this.processorObjects.add( processor );
+                if (this.compressLists) {
+                    processor.setCompressLists( true );
+                }
+                if (processor instanceof MapProcessor && this.mapOutputFormat != null) {
+                    ((MapProcessor) processor).setLocationFormat( this.mapOutputFormat );
+                }
+                if (processor instanceof MapProcessor && this.mapGraphFormat != null) {
+                    ((MapProcessor) processor).setGraphFormat( this.mapGraphFormat );
+                }
+                if (processor instanceof MapProcessor && this.mapPngSizes != null) {
+                    ((MapProcessor) processor).setDensityMapSizes( this.mapPngSizes );
+                }
+                if (processor instanceof MapProcessor && this.mapIndex) {
+                    ((MapProcessor) processor).setSpatialIndex( true );
+                }
+                if (processor instanceof MapProcessor && this.mapAnalysis) {
+                    ((MapProcessor) processor).setGraphAnalysis( true );
+                }
+                if (processor instanceof MapProcessor && this.mapTileZoom != null) {
+                    ((MapProcessor) processor).setTileZoom( this.mapTileZoom );
+                }
+                processorInstances.add( processor );
             } catch (InstantiationException | IllegalAccessException e) {
                 e.printStackTrace();
                 System.exit(1);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
+                System.exit(1);
             }
         }
+        return processorInstances;
+    }
 
-        // Always add the noisy processor....
-        controller.registerEntityDocumentProcessor(new NoisyProcessor(), null, true);
+    public void scan( String targetDate, File dataDir, File outputDir, String[] processors ) throws IOException {
+        this.printMemoryWarning();
+
+        List<WikidataAnalyzerProcessor> processorInstances = this.createProcessors( outputDir, processors );
+
+        // Look for the checkpoint to resume from
+        File checkpointFile = new File(outputDir, "checkpoint.bin");
+        Checkpoint checkpoint = null;
+        if (this.resume) {
+            if (!checkpointFile.exists()) {
+                System.out.println("Error: No checkpoint to resume from found in " + outputDir.getAbsolutePath());
+                System.exit(1);
+            }
+            checkpoint = Checkpoint.read(checkpointFile);
+            Set<String> processorNames = new HashSet<>();
+            for (Class<?> classObject : this.processorClasses) {
+                processorNames.add(classObject.getName());
+            }
+            if (!processorNames.equals(checkpoint.getStates().keySet())) {
+                System.out.println("Error: The checkpoint was made with other processors: " + checkpoint.getStates().keySet());
+                System.exit(1);
+            }
+            System.out.println("Resuming from checkpoint at " + checkpoint.getOffset() / 1024 / 1024 + "MB of the dump");
+        }
+
+        if (this.incremental) {
+            // The store is kept per set of processors, as it holds the contributions of each of them
+            String storeName = "incremental-" + String.join("-", processors);
+            if (this.shard != null) {
+                storeName += "-shard" + this.shard.getIndex() + "of" + this.shard.getCount();
+            }
+            File storeFile = new File(dataDir, storeName + ".bin");
+            this.processorObjects.add( new IncrementalProcessor(storeFile, processorInstances) );
+        } else if (this.isSampled()) {
+            this.processorObjects.add( new SamplingProcessor(outputDir, processorInstances, this.sampleRate, this.timeBudget) );
+        } else {
+            this.processorObjects.addAll( processorInstances );
+        }
 
-        // Fetch and process dump
-        DumpFetcher fetcher = new DumpFetcher(dataDir);
+        // Fetch dump
+        DumpFetcher fetcher = new DumpFetcher(dataDir, this.threads);
+        fetcher.setStreaming(this.streamDownload);
+        if (this.mirrors != null) {
+            fetcher.setMirrors(this.mirrors);
+        }
         System.out.println("Fetching dump");
         MwDumpFile dump = fetcher.getDump(targetDate);
-        System.out.println("Processing dump");
-        controller.processDump(dump);
+        if (this.timeBudget > 0) {
+            if (dump instanceof LocalJsonDumpFile) {
+                ((SamplingProcessor) this.processorObjects.get(0)).setProgress(((LocalJsonDumpFile) dump)::getProgress);
+            } else {
+                System.out.println("WARNING: The time budget is ignored, the progress through this dump can not be followed");
+            }
+        }
+
+        // Set all the processors up, which waits for the reference data they fetch while the dump is fetched
+        for (WikidataAnalyzerProcessor processor : this.processorObjects) {
+            if (checkpoint != null) {
+                processor.resumeFromCheckpoint(checkpoint.getStates().get(processor.getClass().getName()));
+            } else {
+                processor.setUp();
+                processor.doPreProcessing();
+            }
+        }
+
+        // Process dump
+        if (this.shard != null) {
+            System.out.println("Only processing shard " + this.shard + " of the dump");
+        }
+        if (this.threads > 1 || checkpoint != null) {
+            System.out.println("Processing dump using " + this.threads + " threads");
+            // Incremental runs keep their state in the incremental store, which is only written at the end,
+            // and sampled runs are meant to be short
+            boolean checkpoints = !this.incremental && !this.isSampled();
+            this.processDumpInParallel(dump, checkpoints ? checkpointFile : null, checkpoint);
+        } else {
+            System.out.println("Processing dump");
+            this.processDumpWithController(dump);
+        }
         System.out.println("Processed!");
         System.out.println("Memory Usage (MB): " + Runtime.getRuntime().totalMemory() / 1024 / 1024);
 
@@ -208,6 +517,49 @@ public class WikidataAnalyzer {
             processor.tearDown();
         }
 
+        // The run is complete, so there is nothing to resume anymore
+        Files.deleteIfExists(checkpointFile.toPath());
+
+    }
+
+    private void processDumpWithController( MwDumpFile dump ) {
+        DumpProcessingController controller = new DumpProcessingController("wikidatawiki");
+        controller.setOfflineMode(false);
+
+        // Processors share a broker so that statements are only walked once per entity
+        ProcessorBroker broker = new ProcessorBroker();
+        for (WikidataAnalyzerProcessor processor : this.processorObjects) {
+            broker.registerEntityDocumentProcessor(processor);
+        }
+        if (this.shard != null) {
+            controller.registerEntityDocumentProcessor(this.shard.filter(broker), null, true);
+        } else {
+            controller.registerEntityDocumentProcessor(broker, null, true);
+        }
+        // Always add the noisy processor....
+        controller.registerEntityDocumentProcessor(new NoisyProcessor(), null, true);
+
+        controller.processDump(dump);
+    }
+
+    private void processDumpInParallel( MwDumpFile dump, File checkpointFile, Checkpoint checkpoint ) throws IOException {
+        ParallelDumpProcessor parallelProcessor = new ParallelDumpProcessor(this.threads);
+        if (checkpointFile != null) {
+            parallelProcessor.enableCheckpoints(checkpointFile, CHECKPOINT_INTERVAL);
+        }
+        if (checkpoint != null) {
+            parallelProcessor.resumeFrom(checkpoint);
+        }
+        if (this.shard != null) {
+            parallelProcessor.restrictTo(this.shard.getLineFilter());
+        }
+
+        // No noisy processor here, the pipeline reports progress itself without having to parse every entity
+        for (WikidataAnalyzerProcessor processor : this.processorObjects) {
+            parallelProcessor.registerProcessor(processor);
+        }
+
+        parallelProcessor.processDump(dump);
     }
 
 }
@@ -0,0 +1,93 @@
+package org.wikidata.analyzer.Fetcher;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class DumpCatalogTest {
+
+    private File dataDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        this.dataDirectory = Files.createTempDirectory("WikidataAnalyzer-catalog").toFile();
+    }
+
+    @Test
+    public void testGetLocalDump_fromSavedCatalog() throws Exception {
+        File gzip = this.dump("20161031.json.gz", "gzip");
+        File bzip2 = this.dump("20161031-all.json.bz2", "bzip2");
+        DumpCatalog catalog = DumpCatalog.load(this.dataDirectory);
+        catalog.addLocalDump("20161031", gzip);
+        catalog.addLocalDump("20161031", bzip2);
+        catalog.save();
+
+        DumpCatalog loaded = DumpCatalog.load(this.dataDirectory);
+        assertEquals(gzip.getAbsoluteFile(), loaded.getLocalDump("20161031", Arrays.asList(".json.gz", ".json.bz2")));
+        assertEquals(bzip2.getAbsoluteFile(), loaded.getLocalDump("20161031", Arrays.asList(".json.bz2", ".json.gz")));
+        assertNull(loaded.getLocalDump("20161107", Arrays.asList(".json.gz", ".json.bz2")));
+        assertFalse(loaded.hasChanges());
+    }
+
+    @Test
+    public void testGetLocalDump_dropsChangedFiles() throws Exception {
+        File dump = this.dump("20161031.json.gz", "gzip");
+        DumpCatalog catalog = DumpCatalog.load(this.dataDirectory);
+        catalog.addLocalDump("20161031", dump);
+
+        Files.write(dump.toPath(), "other".getBytes());
+        assertTrue(dump.setLastModified(dump.lastModified() - 10000));
+
+        assertNull(catalog.getLocalDump("20161031", Collections.singletonList(".json.gz")));
+    }
+
+    @Test
+    public void testGetLocalDump_keepsTouchedFiles() throws Exception {
+        File dump = this.dump("20161031.json.gz", "gzip");
+        DumpCatalog catalog = DumpCatalog.load(this.dataDirectory);
+        catalog.addLocalDump("20161031", dump);
+        catalog.save();
+
+        // Like a copy, the same content with another modification time
+        assertTrue(dump.setLastModified(dump.lastModified() - 10000));
+
+        DumpCatalog loaded = DumpCatalog.load(this.dataDirectory);
+        assertEquals(dump.getAbsoluteFile(), loaded.getLocalDump("20161031", Collections.singletonList(".json.gz")));
+        // The new modification time is to be saved, so the file is not fingerprinted again
+        assertTrue(loaded.hasChanges());
+        loaded.save();
+        assertFalse(loaded.hasChanges());
+
+        DumpCatalog reloaded = DumpCatalog.load(this.dataDirectory);
+        assertEquals(dump.getAbsoluteFile(), reloaded.getLocalDump("20161031", Collections.singletonList(".json.gz")));
+        assertFalse(reloaded.hasChanges());
+    }
+
+    @Test
+    public void testListing_savedWithHeaders() throws Exception {
+        DumpCatalog catalog = DumpCatalog.load(this.dataDirectory);
+        assertTrue(catalog.getOnlineDates().isEmpty());
+        assertEquals(0, catalog.getListingFetched());
+
+        catalog.setListing(Arrays.asList("20161024", "20161031"), "\"abc\"", "Mon, 31 Oct 2016 12:00:00 GMT");
+        catalog.save();
+
+        DumpCatalog loaded = DumpCatalog.load(this.dataDirectory);
+        assertEquals(Arrays.asList("20161024", "20161031"), loaded.getOnlineDates());
+        assertEquals("\"abc\"", loaded.getListingEtag());
+        assertEquals("Mon, 31 Oct 2016 12:00:00 GMT", loaded.getListingLastModified());
+        assertTrue(loaded.getListingFetched() > 0);
+    }
+
+    private File dump(String name, String content) throws Exception {
+        File file = new File(this.dataDirectory, name);
+        Files.write(file.toPath(), content.getBytes());
+        return file;
+    }
+
+}
@@ -0,0 +1,95 @@
+package org.wikidata.analyzer.Fetcher;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class DumpDateFetcherTest {
+
+    private static final String LISTING = "<html><body><pre>"
+            + "<a href=\"../\">../</a>\n"
+            + "<a href=\"20161024.json.gz\">20161024.json.gz</a>\n"
+            + "<a href=\"20161031.json.gz\">20161031.json.gz</a>\n"
+            + "<a href=\"20161031.json.gz.md5\">20161031.json.gz.md5</a>\n"
+            + "<a href=\"20161031-all.json.bz2\">20161031-all.json.bz2</a>\n"
+            + "</pre></body></html>";
+
+    /**
+     * The If-None-Match headers of the requests, "" for none
+     */
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    private HttpServer server;
+    private File dataDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/other/wikidata/", exchange -> {
+            String etag = exchange.getRequestHeaders().getFirst("If-None-Match");
+            this.requests.add(etag == null ? "" : etag);
+            if ("\"v1\"".equals(etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = LISTING.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        this.server.start();
+        this.dataDirectory = Files.createTempDirectory("WikidataAnalyzer-data").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testGetLatestOnlineDumpDate_usesRecentListingOfCatalog() throws Exception {
+        assertEquals("20161031", this.fetcher(60000).getLatestOnlineDumpDate());
+        assertEquals("20161031", this.fetcher(60000).getLatestOnlineDumpDate());
+
+        assertEquals(1, this.requests.size());
+    }
+
+    @Test
+    public void testGetLatestOnlineDumpDate_asksWhetherOldListingChanged() throws Exception {
+        assertEquals("20161031", this.fetcher(0).getLatestOnlineDumpDate());
+        assertEquals("20161031", this.fetcher(0).getLatestOnlineDumpDate());
+
+        assertEquals(2, this.requests.size());
+        assertEquals("", this.requests.get(0));
+        assertEquals("\"v1\"", this.requests.get(1));
+    }
+
+    @Test
+    public void testGetLatestOnlineDumpDate_usesCatalogWhenOffline() throws Exception {
+        assertEquals("20161031", this.fetcher(0).getLatestOnlineDumpDate());
+        DumpDateFetcher offline = this.fetcher(0);
+        this.server.stop(0);
+
+        assertEquals("20161031", offline.getLatestOnlineDumpDate());
+    }
+
+    private DumpDateFetcher fetcher(long listingMaxAge) {
+        String url = "http://127.0.0.1:" + this.server.getAddress().getPort() + "/other/wikidata/";
+        return new DumpDateFetcher(this.dataDirectory, url, listingMaxAge);
+    }
+
+}
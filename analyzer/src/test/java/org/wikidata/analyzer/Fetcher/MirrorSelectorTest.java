@@ -0,0 +1,88 @@
+package org.wikidata.analyzer.Fetcher;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+public class MirrorSelectorTest {
+
+    private HttpServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/fast", exchange -> this.serve(exchange, 64 * 1024, 0));
+        this.server.createContext("/slow", exchange -> this.serve(exchange, 64 * 1024, 5));
+        this.server.createContext("/other", exchange -> this.serve(exchange, 1000, 0));
+        this.server.createContext("/missing", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testRank_fastestFirstWithoutMissingOrOtherFiles() throws Exception {
+        List<MirrorSelector.Mirror> mirrors = new MirrorSelector(5000).rank(Arrays.asList(
+                this.url("/slow"), this.url("/missing"), this.url("/fast")
+        ));
+
+        assertEquals(2, mirrors.size());
+        assertEquals(this.url("/fast"), mirrors.get(0).getUrl());
+        assertEquals(this.url("/slow"), mirrors.get(1).getUrl());
+        assertEquals(64 * 1024, mirrors.get(0).getLength());
+        assertTrue(mirrors.get(0).getThroughput() > mirrors.get(1).getThroughput());
+    }
+
+    @Test
+    public void testRank_leavesOutFilesOfAnotherLength() throws Exception {
+        List<MirrorSelector.Mirror> mirrors = new MirrorSelector(5000).rank(Arrays.asList(
+                this.url("/slow"), this.url("/other")
+        ));
+
+        // The other file comes in faster, being smaller
+        assertEquals(1, mirrors.size());
+        assertEquals(this.url("/other"), mirrors.get(0).getUrl());
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Serves the start of a file of the length, waiting the delay between kilobytes
+     */
+    private void serve(HttpExchange exchange, int length, long delay) throws IOException {
+        String[] bounds = exchange.getRequestHeaders().getFirst("Range").substring("bytes=".length()).split("-");
+        int last = Math.min(length - 1, Integer.parseInt(bounds[1]));
+        exchange.getResponseHeaders().add("Content-Range", "bytes 0-" + last + "/" + length);
+        exchange.sendResponseHeaders(206, last + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int offset = 0; offset <= last; offset += 1024) {
+                out.write(new byte[Math.min(1024, last + 1 - offset)]);
+                out.flush();
+                Thread.sleep(delay);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+}
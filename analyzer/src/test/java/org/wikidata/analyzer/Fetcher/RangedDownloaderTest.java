@@ -0,0 +1,258 @@
+package org.wikidata.analyzer.Fetcher;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RangedDownloaderTest {
+
+    private static final int LENGTH = 100 * 1024 + 13;
+
+    private final byte[] data = new byte[LENGTH];
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+
+    /**
+     * Range requests starting here fail while more than 0
+     */
+    private final AtomicInteger failures = new AtomicInteger();
+    private long failingStart = -1;
+    private boolean breakConnection;
+    private boolean supportRanges = true;
+
+    /**
+     * Range requests starting here wait for this before answering
+     */
+    private final CountDownLatch held = new CountDownLatch(1);
+    private long heldStart = -1;
+
+    private HttpServer server;
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(42).nextBytes(this.data);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/dump.json.gz", this::serve);
+        this.server.createContext("/slow.json.gz", this::serveSlowly);
+        this.server.createContext("/redirect", exchange -> {
+            exchange.getResponseHeaders().add("Location", "/dump.json.gz");
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        });
+        // Segments are requested at the same time, and may be held
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+        this.target = new File(Files.createTempDirectory("WikidataAnalyzer-download").toFile(), "dump.json.gz");
+    }
+
+    @After
+    public void tearDown() {
+        this.held.countDown();
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testDownload_fetchesSegmentsAndRenames() throws Exception {
+        new RangedDownloader(4, 1000, 1).download(this.url("/redirect"), this.target);
+
+        assertArrayEquals(this.data, Files.readAllBytes(this.target.toPath()));
+        assertFalse(new File(this.target.getPath() + ".part").exists());
+        assertFalse(new File(this.target.getPath() + ".part.progress").exists());
+        // The probe and a request for every segment
+        assertEquals(5, this.ranges.size());
+        assertTrue(this.ranges.contains("bytes=" + (LENGTH * 3 / 4) + "-" + (LENGTH - 1)));
+    }
+
+    @Test
+    public void testDownload_retriesBrokenSegment() throws Exception {
+        this.failingStart = LENGTH / 4;
+        this.breakConnection = true;
+        this.failures.set(1);
+
+        new RangedDownloader(4, 1000, 1).download(this.url("/dump.json.gz"), this.target);
+
+        assertArrayEquals(this.data, Files.readAllBytes(this.target.toPath()));
+        // The retry continues after the half that came through
+        int first = LENGTH / 4;
+        int last = LENGTH / 2 - 1;
+        assertTrue(this.ranges.contains("bytes=" + (first + (last - first + 1) / 2) + "-" + last));
+    }
+
+    @Test
+    public void testDownload_resumesAfterFailure() throws Exception {
+        this.failingStart = LENGTH / 2;
+        this.failures.set(100);
+        RangedDownloader downloader = new RangedDownloader(4, 1000, 1);
+        try {
+            downloader.download(this.url("/dump.json.gz"), this.target);
+            fail("Expected the download to fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertFalse(this.target.exists());
+        assertTrue(new File(this.target.getPath() + ".part.progress").exists());
+
+        this.failures.set(0);
+        this.ranges.clear();
+        downloader.download(this.url("/dump.json.gz"), this.target);
+
+        assertArrayEquals(this.data, Files.readAllBytes(this.target.toPath()));
+        // Only the probe and the segment that failed
+        assertEquals(2, this.ranges.size());
+        assertEquals("bytes=" + (LENGTH / 2) + "-" + (LENGTH * 3 / 4 - 1), this.ranges.get(1));
+    }
+
+    @Test
+    public void testDownload_withoutRangeSupport() throws Exception {
+        this.supportRanges = false;
+
+        new RangedDownloader(4, 1000, 1).download(this.url("/dump.json.gz"), this.target);
+
+        assertArrayEquals(this.data, Files.readAllBytes(this.target.toPath()));
+    }
+
+    @Test
+    public void testStart_streamsWhileDownloading() throws Exception {
+        this.heldStart = LENGTH * 3 / 4;
+
+        RangedDownloader.Download download = new RangedDownloader(4, 1000, 1).start(Collections.singletonList(this.url("/dump.json.gz")), this.target);
+        byte[] read = new byte[LENGTH];
+        try (InputStream in = download.openStream()) {
+            // Everything before the held segment can be read while the download goes on
+            int offset = 0;
+            while (offset < LENGTH * 3 / 4) {
+                offset += in.read(read, offset, LENGTH * 3 / 4 - offset);
+            }
+            assertFalse(download.isFinished());
+            assertFalse(this.target.exists());
+
+            this.held.countDown();
+            int count;
+            while ((count = in.read(read, offset, LENGTH - offset)) > 0) {
+                offset += count;
+            }
+            assertEquals(LENGTH, offset);
+            assertEquals(-1, in.read());
+        }
+
+        assertArrayEquals(this.data, read);
+        download.await();
+        assertArrayEquals(this.data, Files.readAllBytes(this.target.toPath()));
+    }
+
+    @Test
+    public void testStart_streamsWithoutRangeSupport() throws Exception {
+        this.supportRanges = false;
+
+        RangedDownloader.Download download = new RangedDownloader(4, 1000, 1).start(Collections.singletonList(this.url("/dump.json.gz")), this.target);
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (InputStream in = download.openStream()) {
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                read.write(buffer, 0, count);
+            }
+        }
+
+        assertArrayEquals(this.data, read.toByteArray());
+        assertTrue(this.target.exists());
+    }
+
+    @Test
+    public void testDownload_switchesMirrorWhenThroughputCollapses() throws Exception {
+        RangedDownloader downloader = new RangedDownloader(1, 1000, 1);
+        downloader.setThroughputWindow(50);
+
+        downloader.download(Arrays.asList(this.url("/slow.json.gz"), this.url("/dump.json.gz")), this.target);
+
+        assertArrayEquals(this.data, Files.readAllBytes(this.target.toPath()));
+        // The other mirror was asked for the rest only
+        assertEquals(1, this.ranges.size());
+        assertFalse(this.ranges.get(0).startsWith("bytes=0-"));
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Serves half of every range at once, and the rest a kilobyte at a time
+     */
+    private void serveSlowly(HttpExchange exchange) throws IOException {
+        String[] bounds = exchange.getRequestHeaders().getFirst("Range").substring("bytes=".length()).split("-");
+        int first = Integer.parseInt(bounds[0]);
+        int last = Integer.parseInt(bounds[1]);
+        exchange.getResponseHeaders().add("Content-Range", "bytes " + first + "-" + last + "/" + LENGTH);
+        exchange.sendResponseHeaders(206, last - first + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            int half = first + (last - first + 1) / 2;
+            out.write(this.data, first, half - first);
+            out.flush();
+            for (int offset = half; offset <= last; offset += 1024) {
+                Thread.sleep(20);
+                out.write(this.data, offset, Math.min(1024, last + 1 - offset));
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (range == null || !this.supportRanges) {
+                exchange.sendResponseHeaders(200, LENGTH);
+                out.write(this.data);
+                return;
+            }
+            this.ranges.add(range);
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int first = Integer.parseInt(bounds[0]);
+            int last = Integer.parseInt(bounds[1]);
+            if (first == this.heldStart) {
+                try {
+                    this.held.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (first == this.failingStart && this.failures.getAndDecrement() > 0) {
+                if (!this.breakConnection) {
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+                // Promise the whole range, but send only part of it
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + first + "-" + last + "/" + LENGTH);
+                exchange.sendResponseHeaders(206, last - first + 1);
+                out.write(this.data, first, (last - first + 1) / 2);
+                out.flush();
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + first + "-" + last + "/" + LENGTH);
+            exchange.sendResponseHeaders(206, last - first + 1);
+            out.write(this.data, first, last - first + 1);
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.wikidata.analyzer.Fetcher;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReferenceDataTest {
+
+    @Test
+    public void testDeclare_fetchesAtTheSameTimeAndOnce() throws Exception {
+        File dataDirectory = Files.createTempDirectory("WikidataAnalyzer-data").toFile();
+        CountDownLatch started = new CountDownLatch(2);
+        AtomicInteger fetches = new AtomicInteger();
+
+        // Each fetch only finishes once both started, which they can only do at the same time
+        ReferenceData<String> first = ReferenceData.declare("first", dataDirectory, () -> {
+            fetches.incrementAndGet();
+            started.countDown();
+            await(started);
+            return "a";
+        });
+        ReferenceData<String> second = ReferenceData.declare("second", dataDirectory, () -> {
+            started.countDown();
+            await(started);
+            return "b";
+        });
+        ReferenceData<String> again = ReferenceData.declare("first", dataDirectory, () -> {
+            fetches.incrementAndGet();
+            return "c";
+        });
+
+        assertEquals("a", first.get());
+        assertEquals("b", second.get());
+        assertSame(first, again);
+        assertEquals("a", again.get());
+        assertEquals(1, fetches.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGet_throwsFailureOfFetch() throws Exception {
+        File dataDirectory = Files.createTempDirectory("WikidataAnalyzer-data").toFile();
+        ReferenceData.declare("failing", dataDirectory, () -> {
+            throw new IllegalArgumentException("No answer");
+        }).get();
+    }
+
+    @Test
+    public void testDeclare_fetchesAgainAfterFailure() throws Exception {
+        File dataDirectory = Files.createTempDirectory("WikidataAnalyzer-data").toFile();
+        ReferenceData<String> failed = ReferenceData.declare("flaky", dataDirectory, () -> {
+            throw new IllegalArgumentException("No answer");
+        });
+        try {
+            failed.get();
+            fail("Fetching should have failed");
+        } catch (IllegalStateException e) {
+            assertEquals("No answer", e.getCause().getMessage());
+        }
+
+        ReferenceData<String> again = ReferenceData.declare("flaky", dataDirectory, () -> "a");
+        assertNotSame(failed, again);
+        assertEquals("a", again.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+package org.wikidata.analyzer.Ids;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class EntityIdsTest {
+
+    @Test
+    public void testEncode_roundTrips() {
+        for (String entityId : new String[]{"Q1", "Q42", "P31", "P6375", "Q123456789012"}) {
+            assertEquals(entityId, EntityIds.decode(EntityIds.encode(entityId)));
+        }
+        assertEquals('P', EntityIds.getType(EntityIds.encode("P31")));
+        assertEquals(31, EntityIds.getNumber(EntityIds.encode("P31")));
+        assertFalse(EntityIds.encode("Q31") == EntityIds.encode("P31"));
+    }
+
+    @Test
+    public void testEncode_ordersByNumber() {
+        assertTrue(EntityIds.encode("Q9") < EntityIds.encode("Q10"));
+        assertTrue(EntityIds.encode("Q10") < EntityIds.encode("Q100"));
+    }
+
+    @Test
+    public void testEncode_rejectsInvalidIds() {
+        for (String entityId : new String[]{"", "Q", "42", "q42", "Q4x2", "L1-F1"}) {
+            try {
+                EntityIds.encode(entityId);
+                fail("Encoded " + entityId);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+}
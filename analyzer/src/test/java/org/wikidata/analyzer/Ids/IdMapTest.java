@@ -0,0 +1,66 @@
+package org.wikidata.analyzer.Ids;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class IdMapTest {
+
+    @Test
+    public void testPut_growsAndKeepsValues() {
+        IdMap<String> map = new IdMap<>();
+        for (int number = 1; number <= 10000; number++) {
+            map.put(EntityIds.encode('Q', number), "value" + number);
+        }
+        map.put(EntityIds.encode("Q5"), "five");
+
+        assertEquals(10000, map.size());
+        assertEquals("five", map.get("Q5"));
+        assertEquals("value9999", map.get(EntityIds.encode("Q9999")));
+        assertNull(map.get("P5"));
+        assertNull(map.get("not an id"));
+        assertEquals(10000, map.keys().length);
+    }
+
+    @Test
+    public void testIdSet() {
+        IdSet set = IdSet.of(Arrays.asList("P31", "P279", "P31"));
+
+        assertEquals(2, set.size());
+        assertTrue(set.contains("P31"));
+        assertTrue(set.contains(EntityIds.encode("P279")));
+        assertFalse(set.contains("Q31"));
+        assertFalse(set.add(EntityIds.encode("P279")));
+        assertArrayEquals(new long[]{EntityIds.encode("P31"), EntityIds.encode("P279")}, set.toArray());
+    }
+
+    @Test
+    public void testIdIndex() {
+        IdIndex index = new IdIndex(new long[]{EntityIds.encode("Q328"), EntityIds.encode("Q48183"), EntityIds.encode("P31")});
+
+        assertEquals(3, index.size());
+        assertEquals(0, index.indexOf("Q328"));
+        assertEquals(1, index.indexOf(EntityIds.encode("Q48183")));
+        assertEquals(2, index.indexOf("P31"));
+        assertEquals(-1, index.indexOf("Q31"));
+        assertEquals(-1, index.indexOf("not an id"));
+        assertEquals(EntityIds.encode("Q48183"), index.getCode(1));
+    }
+
+    @Test
+    public void testIdList() {
+        IdList list = new IdList();
+        for (long code = 1; code <= 100; code++) {
+            list.add(code);
+        }
+        IdList other = new IdList();
+        other.add(1000);
+        list.addAll(other);
+
+        assertEquals(101, list.size());
+        assertEquals(50, list.get(49));
+        assertEquals(1000, list.get(100));
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.wikidata.analyzer.Pipeline;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reports how fast dump files are decompressed, both single threaded as WDTK does it and using DumpStreams.
+ *
+ * Usage: java -cp toolkit-analyzer.jar org.wikidata.analyzer.Pipeline.DecompressionBenchmark THREADS FILE...
+ */
+public class DecompressionBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: DecompressionBenchmark <threads> <dump file>...");
+            System.exit(1);
+        }
+        int threads = Integer.parseInt(args[0]);
+
+        for (int i = 1; i < args.length; i++) {
+            File file = new File(args[i]);
+            System.out.println(file.getName() + " (" + file.length() / 1024 / 1024 + "MB compressed)");
+            try (InputStream stream = openSingleThreaded(file)) {
+                report("single threaded", file, stream);
+            }
+            try (InputStream stream = DumpStreams.open(file, threads)) {
+                report("DumpStreams, " + threads + " threads", file, stream);
+            }
+        }
+    }
+
+    private static InputStream openSingleThreaded(File file) throws IOException {
+        InputStream fileStream = new BufferedInputStream(new FileInputStream(file));
+        if (file.getName().endsWith(".bz2")) {
+            return new BZip2CompressorInputStream(fileStream, true);
+        }
+        if (file.getName().endsWith(".gz")) {
+            return new GZIPInputStream(fileStream);
+        }
+        return fileStream;
+    }
+
+    private static void report(String codec, File file, InputStream stream) throws IOException {
+        long start = System.nanoTime();
+        byte[] buffer = new byte[1024 * 1024];
+        long uncompressed = 0;
+        int count;
+        while ((count = stream.read(buffer)) != -1) {
+            uncompressed += count;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(
+                "  %-30s %8.1f MB/s compressed, %8.1f MB/s uncompressed (%.1fs)",
+                codec,
+                file.length() / seconds / 1024 / 1024,
+                uncompressed / seconds / 1024 / 1024,
+                seconds
+        ));
+    }
+
+}
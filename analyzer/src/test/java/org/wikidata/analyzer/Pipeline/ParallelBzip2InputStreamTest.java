@@ -0,0 +1,95 @@
+package org.wikidata.analyzer.Pipeline;
+
+import static org.junit.Assert.*;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class ParallelBzip2InputStreamTest {
+
+    /**
+     * Somewhat compressible data, so that it spans several 100k blocks
+     */
+    private static byte[] data(int lines, long seed) {
+        Random random = new Random(seed);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            builder.append("{\"type\":\"item\",\"id\":\"Q").append(i).append("\",\"value\":")
+                    .append(random.nextLong()).append(random.nextGaussian()).append("}\n");
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Smallest block size, to get many blocks
+        try (BZip2CompressorOutputStream bzip2 = new BZip2CompressorOutputStream(out, 1)) {
+            bzip2.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[10000];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testDecompressesAllBlocksInOrder() throws IOException {
+        byte[] data = data(30000, 1);
+
+        byte[] result = readAll(new ParallelBzip2InputStream(new ByteArrayInputStream(compress(data)), 4));
+
+        assertArrayEquals(data, result);
+    }
+
+    @Test
+    public void testDecompressesConcatenatedStreams() throws IOException {
+        byte[] first = data(20000, 2);
+        byte[] second = data(100, 3);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        compressed.write(compress(first));
+        compressed.write(compress(second));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(first);
+        expected.write(second);
+
+        byte[] result = readAll(new ParallelBzip2InputStream(new ByteArrayInputStream(compressed.toByteArray()), 3));
+
+        assertArrayEquals(expected.toByteArray(), result);
+    }
+
+    @Test
+    public void testEmptyStream() throws IOException {
+        byte[] result = readAll(new ParallelBzip2InputStream(new ByteArrayInputStream(compress(new byte[0])), 2));
+
+        assertEquals(0, result.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotBzip2() throws IOException {
+        readAll(new ParallelBzip2InputStream(new ByteArrayInputStream("[\n]\n".getBytes(StandardCharsets.UTF_8)), 2));
+    }
+
+    @Test
+    public void testReadAhead() throws IOException {
+        byte[] data = data(50000, 4);
+
+        byte[] result = readAll(new ReadAheadInputStream(new ByteArrayInputStream(data), "test-read-ahead"));
+
+        assertArrayEquals(data, result);
+    }
+
+}
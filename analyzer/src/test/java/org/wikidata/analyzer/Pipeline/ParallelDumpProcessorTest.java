@@ -0,0 +1,265 @@
+package org.wikidata.analyzer.Pipeline;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.wikidata.analyzer.Processor.LineFilter;
+import org.wikidata.analyzer.Processor.WikidataAnalyzerProcessor;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParallelDumpProcessorTest {
+
+    private static String itemLine(int id) {
+        return "{\"type\":\"item\",\"id\":\"Q" + id + "\","
+                + "\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"Item " + id + "\"}},"
+                + "\"descriptions\":{},\"aliases\":{},"
+                + "\"claims\":{\"P31\":[{\"mainsnak\":{\"snaktype\":\"value\",\"property\":\"P31\","
+                + "\"datavalue\":{\"value\":{\"entity-type\":\"item\",\"numeric-id\":5},\"type\":\"wikibase-entityid\"},"
+                + "\"datatype\":\"wikibase-item\"},\"type\":\"statement\",\"id\":\"Q" + id + "$1\",\"rank\":\"normal\"}]},"
+                + "\"sitelinks\":{}}";
+    }
+
+    private static String propertyLine(int id) {
+        return "{\"type\":\"property\",\"datatype\":\"string\",\"id\":\"P" + id + "\","
+                + "\"labels\":{},\"descriptions\":{},\"aliases\":{},\"claims\":{}}";
+    }
+
+    private static byte[] dump(List<String> lines) {
+        StringBuilder builder = new StringBuilder("[\n");
+        for (int i = 0; i < lines.size(); i++) {
+            builder.append(lines.get(i));
+            builder.append(i == lines.size() - 1 ? "\n" : ",\n");
+        }
+        builder.append("]\n");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class RecordingProcessor implements EntityDocumentProcessor {
+
+        List<String> ids = new ArrayList<>();
+
+        @Override
+        public void processItemDocument(ItemDocument item) {
+            this.ids.add(item.getItemId().getId());
+        }
+
+        @Override
+        public void processPropertyDocument(PropertyDocument property) {
+            this.ids.add(property.getPropertyId().getId());
+        }
+    }
+
+    @Test
+    public void testProcessStream_keepsDumpOrder() throws IOException {
+        List<String> lines = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= 500; i++) {
+            if (i % 50 == 0) {
+                lines.add(propertyLine(i));
+                expected.add("P" + i);
+            } else {
+                lines.add(itemLine(i));
+                expected.add("Q" + i);
+            }
+        }
+
+        RecordingProcessor recorder = new RecordingProcessor();
+        // Tiny chunks so that the dump is spread over many workers and lines are longer than a chunk
+        ParallelDumpProcessor processor = new ParallelDumpProcessor(4, 256);
+        processor.registerEntityDocumentProcessor(recorder);
+        processor.processStream(new ByteArrayInputStream(dump(lines)));
+
+        assertEquals(expected, recorder.ids);
+    }
+
+    private static class CountingProcessor extends WikidataAnalyzerProcessor {
+
+        long items;
+        long properties;
+        int shards;
+
+        @Override
+        public void processItemDocument(ItemDocument item) {
+            this.items++;
+        }
+
+        @Override
+        public void processPropertyDocument(PropertyDocument property) {
+            this.properties++;
+        }
+
+        @Override
+        public WikidataAnalyzerProcessor createShard() {
+            this.shards++;
+            return new CountingProcessor();
+        }
+
+        @Override
+        public void mergeShard(WikidataAnalyzerProcessor shard) {
+            this.items += ((CountingProcessor) shard).items;
+            this.properties += ((CountingProcessor) shard).properties;
+        }
+
+        @Override
+        public Serializable getCheckpointState() {
+            return new long[]{this.items, this.properties};
+        }
+
+        @Override
+        public void resumeFromCheckpoint(Serializable state) {
+            this.items = ((long[]) state)[0];
+            this.properties = ((long[]) state)[1];
+        }
+    }
+
+    /**
+     * Fails on the given item, as if the run was killed there
+     */
+    private static class FailingProcessor extends CountingProcessor {
+
+        private final String failOn;
+
+        FailingProcessor(String failOn) {
+            this.failOn = failOn;
+        }
+
+        @Override
+        public void processItemDocument(ItemDocument item) {
+            if (item.getItemId().getId().equals(this.failOn)) {
+                throw new IllegalStateException("Killed");
+            }
+            super.processItemDocument(item);
+        }
+
+        @Override
+        public WikidataAnalyzerProcessor createShard() {
+            return new FailingProcessor(this.failOn);
+        }
+    }
+
+    @Test
+    public void testProcessStream_mergesShards() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= 300; i++) {
+            lines.add(i % 3 == 0 ? propertyLine(i) : itemLine(i));
+        }
+
+        CountingProcessor counter = new CountingProcessor();
+        ParallelDumpProcessor processor = new ParallelDumpProcessor(3, 512);
+        processor.registerProcessor(counter);
+        processor.processStream(new ByteArrayInputStream(dump(lines)));
+
+        assertEquals(3, counter.shards);
+        assertEquals(200, counter.items);
+        assertEquals(100, counter.properties);
+    }
+
+    @Test
+    public void testProcessStream_onlyParsesFilteredLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(itemLine(1));
+        lines.add(propertyLine(2));
+        // Broken, but never parsed as no processor is interested in it
+        lines.add("{\"type\":\"item\",\"id\":\"Q3\",\"claims\":");
+        lines.add(propertyLine(4));
+
+        CountingProcessor counter = new CountingProcessor() {
+            @Override
+            public LineFilter getLineFilter() {
+                return LineFilter.ofEntityType("property");
+            }
+        };
+        ParallelDumpProcessor processor = new ParallelDumpProcessor(2, 64);
+        processor.registerProcessor(counter);
+        processor.processStream(new ByteArrayInputStream(dump(lines)));
+        assertEquals(0, counter.items);
+        assertEquals(2, counter.properties);
+    }
+
+    @Test
+    public void testProcessStream_skipsBrokenLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(itemLine(1));
+        lines.add("{\"type\":\"item\",\"id\":\"Q2\",\"claims\":");
+        lines.add(itemLine(3));
+
+        RecordingProcessor recorder = new RecordingProcessor();
+        ParallelDumpProcessor processor = new ParallelDumpProcessor(2, 64);
+        processor.registerEntityDocumentProcessor(recorder);
+        processor.processStream(new ByteArrayInputStream(dump(lines)));
+
+        List<String> expected = new ArrayList<>();
+        expected.add("Q1");
+        expected.add("Q3");
+        assertEquals(expected, recorder.ids);
+    }
+
+    @Test
+    public void testProcessStream_processorFailureIsReported() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            lines.add(itemLine(i));
+        }
+
+        ParallelDumpProcessor processor = new ParallelDumpProcessor(2, 128);
+        processor.registerEntityDocumentProcessor(new RecordingProcessor() {
+            @Override
+            public void processItemDocument(ItemDocument item) {
+                throw new IllegalStateException("Broken processor");
+            }
+        });
+
+        try {
+            processor.processStream(new ByteArrayInputStream(dump(lines)));
+            fail("Expected the processor failure to be reported");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testResumeFrom_continuesAfterCheckpoint() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= 300; i++) {
+            lines.add(i % 3 == 0 ? propertyLine(i) : itemLine(i));
+        }
+        File checkpointFile = File.createTempFile("WikidataAnalyzer-checkpoint", ".bin");
+        checkpointFile.deleteOnExit();
+
+        // A checkpoint after every chunk, then the run dies two thirds into the dump
+        ParallelDumpProcessor failingRun = new ParallelDumpProcessor(3, 512);
+        failingRun.registerProcessor(new FailingProcessor("Q200"));
+        failingRun.enableCheckpoints(checkpointFile, 0);
+        try {
+            failingRun.processStream(new ByteArrayInputStream(dump(lines)));
+            fail("Expected the run to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+        assertTrue(checkpoint.getOffset() > 0);
+        CountingProcessor counter = new CountingProcessor();
+        counter.resumeFromCheckpoint(checkpoint.getStates().get(FailingProcessor.class.getName()));
+        long itemsAtCheckpoint = counter.items;
+        assertTrue(itemsAtCheckpoint < 200);
+
+        ParallelDumpProcessor resumedRun = new ParallelDumpProcessor(3, 512);
+        resumedRun.registerProcessor(counter);
+        resumedRun.resumeFrom(checkpoint);
+        resumedRun.processStream(new ByteArrayInputStream(dump(lines)));
+
+        assertEquals(200, counter.items);
+        assertEquals(100, counter.properties);
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.wikidata.analyzer.Pipeline;
+
+import static org.junit.Assert.*;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.junit.Test;
+import org.wikidata.analyzer.Processor.EntitySections;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.json.jackson.JacksonTermedStatementDocument;
+
+import java.io.IOException;
+
+public class SectionSkippingParserTest {
+
+    private static final String ITEM = "{\"type\":\"item\",\"id\":\"Q64\","
+            + "\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"Berlin\"},\"de\":{\"language\":\"de\",\"value\":\"Berlin\"}},"
+            + "\"descriptions\":{\"en\":{\"language\":\"en\",\"value\":\"capital of Germany\"}},"
+            + "\"aliases\":{\"en\":[{\"language\":\"en\",\"value\":\"Berlin, Germany\"}]},"
+            + "\"claims\":{\"P17\":[{\"mainsnak\":{\"snaktype\":\"value\",\"property\":\"P17\","
+            + "\"datavalue\":{\"value\":{\"entity-type\":\"item\",\"numeric-id\":183},\"type\":\"wikibase-entityid\"},"
+            + "\"datatype\":\"wikibase-item\"},\"type\":\"statement\","
+            + "\"qualifiers\":{\"P580\":[{\"snaktype\":\"somevalue\",\"property\":\"P580\"}]},\"qualifiers-order\":[\"P580\"],"
+            + "\"id\":\"Q64$1\",\"rank\":\"normal\"}]},"
+            + "\"sitelinks\":{\"enwiki\":{\"site\":\"enwiki\",\"title\":\"Berlin\",\"badges\":[]}},"
+            + "\"lastrevid\":123}";
+
+    private final ObjectReader reader = new ObjectMapper()
+            .reader(JacksonTermedStatementDocument.class)
+            .with(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
+
+    private ItemDocument read(String json, EntitySections sections) throws IOException {
+        JacksonTermedStatementDocument document = this.reader.readValue(
+                new SectionSkippingParser(this.reader.getFactory().createParser(json), sections)
+        );
+        document.setSiteIri(Datamodel.SITE_WIKIDATA);
+        return (ItemDocument) document;
+    }
+
+    @Test
+    public void testSkipsUnselectedSections() throws IOException {
+        ItemDocument item = this.read(ITEM, EntitySections.none().withClaims().withLabels("en"));
+
+        assertEquals("Q64", item.getItemId().getId());
+        assertEquals(1, item.getLabels().size());
+        assertEquals("Berlin", item.getLabels().get("en").getText());
+        assertTrue(item.getDescriptions().isEmpty());
+        assertTrue(item.getAliases().isEmpty());
+        assertTrue(item.getSiteLinks().isEmpty());
+        assertEquals(1, item.getStatementGroups().size());
+        // Keys below the top level sections, such as qualifier properties, are left alone
+        assertEquals(1, item.getStatementGroups().get(0).getStatements().get(0).getClaim().getQualifiers().size());
+        assertEquals(123, item.getRevisionId());
+    }
+
+    @Test
+    public void testAllSectionsMatchesPlainParsing() throws IOException {
+        JacksonTermedStatementDocument plain = this.reader.readValue(ITEM);
+        plain.setSiteIri(Datamodel.SITE_WIKIDATA);
+
+        assertEquals(plain, this.read(ITEM, EntitySections.all()));
+        assertEquals(plain, this.read(ITEM, EntitySections.none().withClaims().withLabels().withDescriptions()
+                .withAliases().withSitelinks()));
+    }
+
+    @Test
+    public void testSkipsEmptyArraySections() throws IOException {
+        String json = "{\"type\":\"item\",\"id\":\"Q1\",\"labels\":[],\"descriptions\":[],\"aliases\":[],\"claims\":[],\"sitelinks\":[]}";
+
+        ItemDocument item = this.read(json, EntitySections.none().withLabels("en"));
+
+        assertEquals("Q1", item.getItemId().getId());
+        assertTrue(item.getLabels().isEmpty());
+        assertTrue(item.getStatementGroups().isEmpty());
+    }
+
+    @Test
+    public void testUnion() {
+        EntitySections sections = EntitySections.none().withLabels("en").union(EntitySections.none().withLabels("de").withClaims());
+
+        assertTrue(sections.includesSection(EntitySections.CLAIMS));
+        assertTrue(sections.includesSection("id"));
+        assertFalse(sections.includesSection(EntitySections.SITELINKS));
+        assertTrue(sections.includesKey(EntitySections.LABELS, "en"));
+        assertTrue(sections.includesKey(EntitySections.LABELS, "de"));
+        assertFalse(sections.includesKey(EntitySections.LABELS, "fr"));
+        assertTrue(sections.union(EntitySections.none().withLabels()).includesKey(EntitySections.LABELS, "fr"));
+        assertTrue(sections.union(EntitySections.all()).isAll());
+    }
+
+}
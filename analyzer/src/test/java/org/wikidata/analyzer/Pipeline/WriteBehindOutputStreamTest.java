@@ -0,0 +1,121 @@
+package org.wikidata.analyzer.Pipeline;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+public class WriteBehindOutputStreamTest {
+
+    @Test
+    public void testWrite_writesEverythingInOrder() throws Exception {
+        // More than all buffers together, so that they go round
+        byte[] data = new byte[9 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        WriteBehindOutputStream writeBehind = new WriteBehindOutputStream(out, "test");
+        writeBehind.write(data, 0, 1000);
+        writeBehind.flush();
+        assertEquals(1000, out.size());
+        for (int offset = 1000; offset < data.length; offset += 4096) {
+            writeBehind.write(data, offset, Math.min(4096, data.length - offset));
+        }
+        writeBehind.write(7);
+        writeBehind.close();
+
+        byte[] written = out.toByteArray();
+        assertEquals(data.length + 1, written.length);
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(data[i], written[i]);
+        }
+        assertEquals(7, written[data.length]);
+    }
+
+    @Test
+    public void testFlush_throwsFailureOfWriterThread() throws Exception {
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Disk full");
+            }
+        };
+        WriteBehindOutputStream writeBehind = new WriteBehindOutputStream(failing, "test");
+        writeBehind.write(new byte[100]);
+        try {
+            writeBehind.flush();
+            fail("Expected the failure to write");
+        } catch (IOException e) {
+            assertEquals("Disk full", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testClose_closesStreamAfterFailure() throws Exception {
+        FailingOutputStream failing = new FailingOutputStream(true, false);
+        WriteBehindOutputStream writeBehind = new WriteBehindOutputStream(failing, "test");
+        writeBehind.write(new byte[100]);
+        try {
+            writeBehind.flush();
+            fail("Expected the failure to write");
+        } catch (IOException e) {
+            assertEquals("Disk full", e.getMessage());
+        }
+        writeBehind.write(new byte[100]);
+        try {
+            writeBehind.close();
+            fail("Expected the failure to write");
+        } catch (IOException e) {
+            assertEquals("Disk full", e.getMessage());
+        }
+        assertEquals(1, failing.closes);
+    }
+
+    @Test(timeout = 10000)
+    public void testClose_throwsFailureToClose() throws Exception {
+        FailingOutputStream failing = new FailingOutputStream(false, true);
+        WriteBehindOutputStream writeBehind = new WriteBehindOutputStream(failing, "test");
+        writeBehind.write(new byte[100]);
+        try {
+            writeBehind.close();
+            fail("Expected the failure to close");
+        } catch (IOException e) {
+            assertEquals("Could not close", e.getMessage());
+        }
+        assertEquals(1, failing.closes);
+        assertEquals(100, failing.written);
+    }
+
+    private static class FailingOutputStream extends OutputStream {
+
+        private final boolean failWrites;
+        private final boolean failClose;
+        int written;
+        int closes;
+
+        FailingOutputStream(boolean failWrites, boolean failClose) {
+            this.failWrites = failWrites;
+            this.failClose = failClose;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (this.failWrites) {
+                throw new IOException("Disk full");
+            }
+            this.written++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.closes++;
+            if (this.failClose) {
+                throw new IOException("Could not close");
+            }
+        }
+    }
+
+}
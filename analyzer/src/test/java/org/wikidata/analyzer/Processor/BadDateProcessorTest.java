@@ -12,6 +12,10 @@ import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
 import org.wikidata.wdtk.datamodel.interfaces.TimeValue;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 /**
  * @author Addshore
@@ -122,4 +126,100 @@ public class BadDateProcessorTest extends TestCase {
         EasyMock.verify(writer2);
     }
 
-}
\ No newline at end of file
+    private static ItemDocument julianItem(String statementId) {
+        ItemIdValue id = ItemIdValueImpl.create("Q42", "foo");
+        return ItemDocumentBuilder.forItemId(id)
+                .withStatement(
+                        StatementBuilder.forSubjectAndProperty(id, PropertyIdValueImpl.create("P1", "bar"))
+                                .withId(statementId)
+                                .withValue(Datamodel.makeTimeValue(2015, (byte) 1, (byte) 1, TimeValue.CM_JULIAN_PRO))
+                                .build()
+                )
+                .build();
+    }
+
+    public void testResumeFromCheckpoint_dropsOutputAfterCheckpoint() throws Exception {
+        BadDateProcessor proc = new BadDateProcessor();
+        proc.setUp();
+        proc.doPreProcessing();
+        proc.processItemDocument(julianItem("beforeCheckpoint"));
+        Serializable state = proc.getCheckpointState();
+        // Written after the checkpoint, then the run dies
+        proc.processItemDocument(julianItem("lost"));
+        proc.tearDown();
+
+        BadDateProcessor resumed = new BadDateProcessor();
+        resumed.setOutputDir(proc.outputDir);
+        resumed.resumeFromCheckpoint(state);
+        resumed.processItemDocument(julianItem("afterCheckpoint"));
+        resumed.tearDown();
+
+        File list1 = new File(proc.outputDir, "date_list1.txt");
+        String content = new String(Files.readAllBytes(list1.toPath()), "UTF-8");
+        assertEquals(
+                "Dates marked as Julian that are more precise than year\n----\nbeforeCheckpoint\nafterCheckpoint\n",
+                content
+        );
+    }
+
+    public void testResumeFromCheckpoint_compressedLists() throws Exception {
+        BadDateProcessor proc = new BadDateProcessor();
+        proc.setCompressLists(true);
+        proc.setUp();
+        proc.doPreProcessing();
+        proc.processItemDocument(julianItem("beforeCheckpoint"));
+        Serializable state = proc.getCheckpointState();
+        proc.processItemDocument(julianItem("lost"));
+        proc.getCheckpointState();
+
+        BadDateProcessor resumed = new BadDateProcessor();
+        resumed.setOutputDir(proc.outputDir);
+        resumed.setCompressLists(true);
+        resumed.resumeFromCheckpoint(state);
+        resumed.processItemDocument(julianItem("afterCheckpoint"));
+        resumed.tearDown();
+
+        // The resumed part is a gzip member of its own
+        File list1 = new File(proc.outputDir, "date_list1.txt.gz");
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new FileInputStream(list1))) {
+            byte[] buffer = new byte[1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                content.write(buffer, 0, count);
+            }
+        }
+        assertEquals(
+                "Dates marked as Julian that are more precise than year\n----\nbeforeCheckpoint\nafterCheckpoint\n",
+                content.toString("UTF-8")
+        );
+    }
+
+    public void testMergeOutput_appendsListsWithoutHeaders() throws Exception {
+        List<File> shardOutputDirs = new ArrayList<>();
+        for (String statementId : new String[]{"fromShard1", "fromShard2"}) {
+            BadDateProcessor shard = new BadDateProcessor();
+            shard.setUp();
+            shard.doPreProcessing();
+            shard.processItemDocument(julianItem(statementId));
+            shard.tearDown();
+            shardOutputDirs.add(shard.outputDir);
+        }
+
+        BadDateProcessor merged = new BadDateProcessor();
+        merged.setUp();
+        merged.doPreProcessing();
+        for (File shardOutputDir : shardOutputDirs) {
+            merged.mergeOutput(shardOutputDir);
+        }
+        merged.tearDown();
+
+        File list1 = new File(merged.outputDir, "date_list1.txt");
+        String content = new String(Files.readAllBytes(list1.toPath()), "UTF-8");
+        assertEquals(
+                "Dates marked as Julian that are more precise than year\n----\nfromShard1\nfromShard2\n",
+                content
+        );
+    }
+
+}
@@ -0,0 +1,99 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.analyzer.Processor.CounterRegistry.Counter;
+import org.wikidata.analyzer.Processor.CounterRegistry.PropertyCounters;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reports how fast counters are incremented and how much that allocates, both with string keys in a HashMap
+ * as the processors used to count and using a CounterRegistry.
+ *
+ * Usage: java -cp toolkit-analyzer.jar org.wikidata.analyzer.Processor.CounterBenchmark [INCREMENTS]
+ */
+public class CounterBenchmark {
+
+    private static final int PROPERTIES = 5000;
+
+    public static void main(String[] args) {
+        int increments = args.length > 0 ? Integer.parseInt(args[0]) : 20000000;
+        String[] propertyIds = propertyIds();
+
+        // Twice, so the second round is measured after the JIT compiled everything
+        for (int round = 0; round < 2; round++) {
+            Map<String, Double> counters = new HashMap<>();
+            long start = System.nanoTime();
+            long allocated = allocatedBytes();
+            for (int i = 0; i < increments; i++) {
+                incrementByKey(counters, "counters.noUnit");
+                incrementByKey(counters, "propertyCounters.noUnit." + propertyIds[i % PROPERTIES]);
+            }
+            report("HashMap with string keys", increments, start, allocated);
+
+            CounterRegistry registry = new CounterRegistry();
+            start = System.nanoTime();
+            allocated = allocatedBytes();
+            incrementRegistry(registry, propertyIds, increments);
+            report("CounterRegistry", increments, start, allocated);
+        }
+    }
+
+    /**
+     * @return ids P1 to PPROPERTIES, created up front as the parser does before counting
+     */
+    static String[] propertyIds() {
+        String[] propertyIds = new String[PROPERTIES];
+        for (int i = 0; i < PROPERTIES; i++) {
+            propertyIds[i] = "P" + (i + 1);
+        }
+        return propertyIds;
+    }
+
+    /**
+     * Increments a counter and the counter of a property as ExactValueQuantityProcessor does for every value
+     */
+    static void incrementRegistry(CounterRegistry registry, String[] propertyIds, int increments) {
+        Counter counter = registry.counter("counters.noUnit");
+        PropertyCounters propertyCounters = registry.propertyCounters("propertyCounters.noUnit.");
+        for (int i = 0; i < increments; i++) {
+            registry.increment(counter);
+            registry.increment(propertyCounters, propertyIds[i % propertyIds.length]);
+        }
+    }
+
+    private static void incrementByKey(Map<String, Double> counters, String counter) {
+        if (!counters.containsKey(counter)) {
+            counters.put(counter, (double) 0);
+        }
+        counters.put(counter, counters.get(counter) + 1);
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, or -1 if the JVM can not tell
+     */
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspotThreads = (com.sun.management.ThreadMXBean) threads;
+            if (hotspotThreads.isThreadAllocatedMemorySupported() && hotspotThreads.isThreadAllocatedMemoryEnabled()) {
+                return hotspotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static void report(String counters, int increments, long start, long allocated) {
+        double nanos = (double) (System.nanoTime() - start) / increments;
+        long bytes = allocatedBytes() - allocated;
+        System.out.println(String.format(
+                "  %-30s %8.1f ns per value, %8.1f bytes allocated per value",
+                counters,
+                nanos,
+                allocated < 0 ? Double.NaN : (double) bytes / increments
+        ));
+    }
+
+}
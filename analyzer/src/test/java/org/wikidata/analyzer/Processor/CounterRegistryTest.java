@@ -0,0 +1,156 @@
+package org.wikidata.analyzer.Processor;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+import org.wikidata.analyzer.Ids.IdMap;
+import org.wikidata.analyzer.Ids.IdSet;
+import org.wikidata.analyzer.Processor.CounterRegistry.Counter;
+import org.wikidata.analyzer.Processor.CounterRegistry.EntityCounters;
+import org.wikidata.analyzer.Processor.CounterRegistry.PropertyCounters;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CounterRegistryTest {
+
+    @Test
+    public void testToMap_namesCountersAsBefore() {
+        CounterRegistry registry = new CounterRegistry();
+        Counter counter = registry.counter("counters.noUnit");
+        PropertyCounters propertyCounters = registry.propertyCounters("propertyCounters.noUnit.");
+        registry.counter("counters.noBound");
+
+        registry.increment(counter);
+        registry.increment(counter, 2);
+        registry.increment(propertyCounters, "P31");
+        registry.increment(propertyCounters, "P1082");
+        registry.increment(propertyCounters, "P1082");
+        // Not a plain property id, so counted by name
+        registry.increment(propertyCounters, "P031");
+
+        Map<String, Double> expected = new HashMap<>();
+        expected.put("counters.noUnit", 3.0);
+        expected.put("propertyCounters.noUnit.P31", 1.0);
+        expected.put("propertyCounters.noUnit.P1082", 2.0);
+        expected.put("propertyCounters.noUnit.P031", 1.0);
+        assertEquals(expected, registry.toMap());
+    }
+
+    @Test
+    public void testAddAll_mergesShards() {
+        CounterRegistry registry = new CounterRegistry();
+        Counter counter = registry.counter("item.count");
+        PropertyCounters propertyCounters = registry.propertyCounters("property.");
+        CounterRegistry first = registry.createShard();
+        CounterRegistry second = registry.createShard();
+
+        first.increment(counter);
+        first.increment(propertyCounters, "P5");
+        second.increment(counter);
+        second.increment(propertyCounters, "P5000");
+        second.add("references.snaks.wm.enwiki", 4);
+        second.add("property.P5", 2);
+        registry.addAll(first);
+        registry.addAll(second);
+
+        Map<String, Double> expected = new HashMap<>();
+        expected.put("item.count", 2.0);
+        expected.put("property.P5", 3.0);
+        expected.put("property.P5000", 1.0);
+        expected.put("references.snaks.wm.enwiki", 4.0);
+        assertEquals(expected, registry.toMap());
+
+        // Counters that are back at zero are left out
+        registry.add("property.P5000", -1);
+        assertFalse(registry.toMap().containsKey("property.P5000"));
+    }
+
+    @Test
+    public void testIncrement_doesNotAllocate() {
+        assumeTrue(CounterBenchmark.allocatedBytes() >= 0);
+        String[] propertyIds = CounterBenchmark.propertyIds();
+        CounterRegistry registry = new CounterRegistry();
+        // The arrays are grown on the first round, after which counting allocates nothing
+        CounterBenchmark.incrementRegistry(registry, propertyIds, 100000);
+
+        // Measuring allocates as well, so what an empty measurement allocates is left out
+        long calibration = CounterBenchmark.allocatedBytes();
+        calibration = CounterBenchmark.allocatedBytes() - calibration;
+
+        int increments = 1000000;
+        long allocated = CounterBenchmark.allocatedBytes();
+        CounterBenchmark.incrementRegistry(registry, propertyIds, increments);
+        allocated = CounterBenchmark.allocatedBytes() - allocated - calibration;
+        // Nothing per increment, leaving room for the two handles and the odd allocation of the JVM itself
+        assertTrue(allocated + " bytes allocated", (double) allocated / increments < 0.01);
+    }
+
+    @Test
+    public void testIncrement_onlyCountsFilteredProperties() {
+        CounterRegistry registry = new CounterRegistry();
+        registry.propertyCounters("references.snaks.prop.", IdSet.of(Arrays.asList("P248", "P854")));
+        // Handles got later on, as by shards, keep the filter
+        PropertyCounters propertyCounters = registry.propertyCounters("references.snaks.prop.");
+        CounterRegistry shard = registry.createShard();
+
+        shard.increment(propertyCounters, "P248");
+        shard.increment(propertyCounters, "P31");
+        shard.increment(propertyCounters, "P031");
+        registry.addAll(shard);
+
+        Map<String, Double> expected = new HashMap<>();
+        expected.put("references.snaks.prop.P248", 1.0);
+        assertEquals(expected, registry.toMap());
+    }
+
+    @Test
+    public void testIncrement_entityCounters() {
+        Map<String, String> databaseNames = new HashMap<>();
+        databaseNames.put("Q328", "enwiki");
+        databaseNames.put("Q48183", "dewiki");
+        CounterRegistry registry = new CounterRegistry();
+        EntityCounters entityCounters = registry.entityCounters("references.snaks.wm.", IdMap.of(databaseNames));
+
+        assertTrue(registry.increment(entityCounters, "Q328"));
+        assertTrue(registry.increment(entityCounters, "Q328"));
+        assertFalse(registry.increment(entityCounters, "Q5"));
+        assertFalse(registry.increment(entityCounters, "not an id"));
+
+        Map<String, Double> expected = new HashMap<>();
+        expected.put("references.snaks.wm.enwiki", 2.0);
+        assertEquals(expected, registry.toMap());
+
+        // Counters per entity that are back at zero are left out
+        registry.add("references.snaks.wm.enwiki", -2);
+        assertEquals(new HashMap<>(), registry.toMap());
+    }
+
+    @Test
+    public void testToMap_keepsNamedCountersThatWereCounted() {
+        CounterRegistry registry = new CounterRegistry();
+        Counter qualifiers = registry.counter("qualifiers");
+        registry.counter("references");
+        CounterRegistry shard = registry.createShard();
+
+        shard.increment(qualifiers, 0);
+        registry.addAll(shard);
+
+        Map<String, Double> expected = new HashMap<>();
+        expected.put("qualifiers", 0.0);
+        assertEquals(expected, registry.toMap());
+
+        registry.clear();
+        assertEquals(new HashMap<>(), registry.toMap());
+    }
+
+    @Test
+    public void testPropertyNumber() {
+        assertEquals(31, CounterRegistry.propertyNumber("P31"));
+        assertEquals(-1, CounterRegistry.propertyNumber("Q31"));
+        assertEquals(-1, CounterRegistry.propertyNumber("P"));
+        assertEquals(-1, CounterRegistry.propertyNumber("P3x"));
+    }
+
+}
@@ -0,0 +1,52 @@
+package org.wikidata.analyzer.Processor;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class DumpShardTest {
+
+    @Test
+    public void testEveryEntityIsInOneShard() {
+        for (int count : new int[]{2, 3, 4, 8}) {
+            assertEveryEntityIsInOneShard(count);
+        }
+    }
+
+    private static void assertEveryEntityIsInOneShard(int count) {
+        DumpShard[] shards = new DumpShard[count];
+        for (int s = 0; s < count; s++) {
+            shards[s] = new DumpShard(s + 1, count);
+        }
+        int[] sizes = new int[shards.length];
+        for (int i = 1; i <= 1000 * count; i++) {
+            String id = (i % 10 == 0 ? "P" : "Q") + i;
+            byte[] line = ("{\"type\":\"item\",\"id\":\"" + id + "\",\"claims\":{}}").getBytes(StandardCharsets.UTF_8);
+            int found = 0;
+            for (int s = 0; s < shards.length; s++) {
+                boolean contains = shards[s].contains(id);
+                assertEquals(id, contains, shards[s].getLineFilter().matches(line, 0, line.length));
+                if (contains) {
+                    found++;
+                    sizes[s]++;
+                }
+            }
+            assertEquals(id, 1, found);
+        }
+        for (int size : sizes) {
+            assertTrue("Shards of " + count + " should be about equally large", size > 800);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParse_outOfRange() {
+        DumpShard.parse("4/3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParse_notANumber() {
+        DumpShard.parse("a/3");
+    }
+
+}
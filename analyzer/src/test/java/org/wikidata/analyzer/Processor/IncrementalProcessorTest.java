@@ -0,0 +1,158 @@
+package org.wikidata.analyzer.Processor;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.wikidata.analyzer.Ids.EntityIds;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.helpers.ItemDocumentBuilder;
+import org.wikidata.wdtk.datamodel.helpers.StatementBuilder;
+import org.wikidata.wdtk.datamodel.implementation.ItemIdValueImpl;
+import org.wikidata.wdtk.datamodel.implementation.PropertyIdValueImpl;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class IncrementalProcessorTest {
+
+    private static ItemDocument item(String id, long revision, String... languages) {
+        ItemIdValue itemId = ItemIdValueImpl.create(id, Datamodel.SITE_WIKIDATA);
+        ItemDocumentBuilder builder = ItemDocumentBuilder.forItemId(itemId).withRevisionId(revision);
+        for (String language : languages) {
+            builder.withStatement(
+                    StatementBuilder.forSubjectAndProperty(itemId, PropertyIdValueImpl.create("P1", Datamodel.SITE_WIKIDATA))
+                            .withValue(Datamodel.makeMonolingualTextValue("text", language))
+                            .build()
+            );
+        }
+        return builder.build();
+    }
+
+    /**
+     * Runs a MonolingualTextProcessor over the items incrementally, the way WikidataAnalyzer does
+     */
+    private static class Run {
+
+        final MonolingualTextProcessor counter = new MonolingualTextProcessor() {
+            @Override
+            public WikidataAnalyzerProcessor createShard() {
+                shards++;
+                // Counts the entities it is reset for
+                return new MonolingualTextProcessor() {
+                    {
+                        this.overrideCounters(new HashMap<>());
+                    }
+
+                    @Override
+                    public void resetCounters() {
+                        processed++;
+                        super.resetCounters();
+                    }
+                };
+            }
+        };
+        final IncrementalProcessor processor;
+        int shards;
+        int processed;
+
+        Run(File storeFile) {
+            List<WikidataAnalyzerProcessor> processors = new ArrayList<>();
+            processors.add(this.counter);
+            this.processor = new IncrementalProcessor(storeFile, processors);
+            this.processor.setUp();
+            this.processor.doPreProcessing();
+            this.shards = 0;
+            this.processed = 0;
+        }
+
+        Map<String, Double> finish() {
+            this.processor.doPostProcessing();
+            Map<String, Double> counters = this.counter.getCounters();
+            this.processor.tearDown();
+            return counters;
+        }
+    }
+
+    private static Map<String, Double> counters(Object... namesAndValues) {
+        Map<String, Double> counters = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            counters.put((String) namesAndValues[i], ((Number) namesAndValues[i + 1]).doubleValue());
+        }
+        return counters;
+    }
+
+    @Test
+    public void testProcessItemDocument_onlyChangesAreProcessed() throws IOException {
+        File storeFile = new File(Files.createTempDirectory("WikidataAnalyzer-incremental").toFile(), "store.bin");
+
+        Run first = new Run(storeFile);
+        first.processor.processItemDocument(item("Q1", 10, "en", "de"));
+        first.processor.processItemDocument(item("Q2", 20, "en"));
+        first.processor.processItemDocument(item("Q3", 30, "fr"));
+        assertEquals(counters("en", 2, "de", 1, "fr", 1), first.finish());
+
+        // Q1 changed, Q2 is unchanged, Q3 was removed and Q4 is new
+        Run second = new Run(storeFile);
+        second.processor.processItemDocument(item("Q1", 11, "de"));
+        second.processor.processItemDocument(item("Q2", 20, "en"));
+        second.processor.processItemDocument(item("Q4", 40, "pt", "pt"));
+        assertEquals(counters("en", 1, "de", 1, "pt", 2), second.finish());
+        // Only the two entities that changed were processed, by a single shard that is reused
+        assertEquals(2, second.processed);
+        assertEquals(1, second.shards);
+
+        // And once more, to check the store written by an incremental run
+        Run third = new Run(storeFile);
+        third.processor.processItemDocument(item("Q1", 11, "de"));
+        third.processor.processItemDocument(item("Q4", 41));
+        assertEquals(counters("de", 1), third.finish());
+        assertEquals(1, third.processed);
+    }
+
+    @Test
+    public void testGetLineFilter_rejectsUnchangedEntities() throws IOException {
+        File storeFile = new File(Files.createTempDirectory("WikidataAnalyzer-incremental").toFile(), "store.bin");
+        Run first = new Run(storeFile);
+        first.processor.processItemDocument(item("Q1", 10, "en"));
+        first.processor.processItemDocument(item("Q2", 20));
+        first.finish();
+
+        Run second = new Run(storeFile);
+        LineFilter filter = second.processor.getLineFilter();
+        for (String line : Arrays.asList(
+                "{\"type\":\"item\",\"id\":\"Q1\",\"claims\":{},\"lastrevid\":10}",
+                "{\"type\":\"item\",\"id\":\"Q5\",\"claims\":{},\"lastrevid\":50}"
+        )) {
+            byte[] data = line.getBytes(StandardCharsets.UTF_8);
+            assertFalse(line, filter.matches(data, 0, data.length));
+        }
+        for (String line : Arrays.asList(
+                "{\"type\":\"item\",\"id\":\"Q2\",\"claims\":{},\"lastrevid\":21}",
+                "{\"type\":\"item\",\"id\":\"Q6\",\"claims\":{\"type\":\"monolingualtext\"},\"lastrevid\":60}",
+                "{\"type\":\"item\",\"id\":\"Q7\",\"claims\":{}}"
+        )) {
+            byte[] data = line.getBytes(StandardCharsets.UTF_8);
+            assertTrue(line, filter.matches(data, 0, data.length));
+        }
+        second.processor.processItemDocument(item("Q2", 21, "de"));
+        // Q1 was seen by the filter, so it is not retracted as removed
+        assertEquals(counters("en", 1, "de", 1), second.finish());
+    }
+
+    @Test
+    public void testKeyOfLine() {
+        byte[] data = "{\"type\":\"property\",\"id\":\"P123\",\"claims\":{}}".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(EntityIds.encode("P123"), EntityStore.keyOfLine(data, 0, data.length));
+        assertFalse(EntityIds.encode("Q123") == EntityStore.keyOfLine(data, 0, data.length));
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.wikidata.analyzer.Processor;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.helpers.ItemDocumentBuilder;
+import org.wikidata.wdtk.datamodel.helpers.PropertyDocumentBuilder;
+import org.wikidata.wdtk.datamodel.helpers.StatementBuilder;
+import org.wikidata.wdtk.datamodel.interfaces.DatatypeIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.TimeValue;
+import org.wikidata.wdtk.datamodel.interfaces.Value;
+import org.wikidata.wdtk.datamodel.json.jackson.JsonSerializer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+public class LineFilterTest {
+
+    private static byte[] itemWith(String propertyId, Value value) {
+        ItemIdValue id = Datamodel.makeWikidataItemIdValue("Q1");
+        return JsonSerializer.getJsonString(ItemDocumentBuilder.forItemId(id)
+                .withStatement(StatementBuilder.forSubjectAndProperty(id, Datamodel.makeWikidataPropertyIdValue(propertyId))
+                        .withValue(value)
+                        .build())
+                .build()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] propertyWith(String propertyId, Value value) {
+        PropertyIdValue id = Datamodel.makeWikidataPropertyIdValue("P1");
+        return JsonSerializer.getJsonString(PropertyDocumentBuilder.forPropertyIdAndDatatype(id, DatatypeIdValue.DT_TIME)
+                .withStatement(StatementBuilder.forSubjectAndProperty(id, Datamodel.makeWikidataPropertyIdValue(propertyId))
+                        .withValue(value)
+                        .build())
+                .build()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean matches(LineFilter filter, byte[] line) {
+        return filter.matches(line, 0, line.length);
+    }
+
+    @Test
+    public void testMarkersMatchSerializedEntities() {
+        byte[] time = itemWith("P569", Datamodel.makeTimeValue(1952, (byte) 3, (byte) 11, TimeValue.CM_GREGORIAN_PRO));
+        byte[] coordinates = itemWith("P625", Datamodel.makeGlobeCoordinatesValue(52.5, 13.4, 0.1, Datamodel.makeWikidataItemIdValue("Q2").getIri()));
+        byte[] quantity = itemWith("P1082", Datamodel.makeQuantityValue(BigDecimal.TEN, BigDecimal.TEN, BigDecimal.TEN));
+        byte[] propertyTime = propertyWith("P2", Datamodel.makeTimeValue(2000, (byte) 1, (byte) 1, TimeValue.CM_GREGORIAN_PRO));
+
+        assertTrue(matches(LineFilter.withValueType("time"), time));
+        assertFalse(matches(LineFilter.withValueType("time"), quantity));
+        assertTrue(matches(LineFilter.withValueType("quantity"), quantity));
+        assertTrue(matches(LineFilter.withProperty("P625"), coordinates));
+        assertFalse(matches(LineFilter.withProperty("P625"), time));
+
+        assertTrue(matches(LineFilter.ofEntityType("item"), time));
+        assertFalse(matches(LineFilter.ofEntityType("item"), propertyTime));
+        assertTrue(matches(LineFilter.ofEntityType("property"), propertyTime));
+        // The "time" datatype of the property itself is not a time value
+        assertFalse(matches(LineFilter.withValueType("time"), propertyWith("P2", Datamodel.makeStringValue("x"))));
+    }
+
+    @Test
+    public void testCombinedFilters() {
+        byte[] line = "abc def".getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(matches(LineFilter.containing("xyz", "def"), line));
+        assertFalse(matches(LineFilter.containing("xyz"), line));
+        assertTrue(matches(LineFilter.containing("abc").and(LineFilter.containing("def")), line));
+        assertFalse(matches(LineFilter.containing("abc").and(LineFilter.containing("xyz")), line));
+        assertTrue(matches(LineFilter.anyOf(LineFilter.containing("xyz"), LineFilter.containing("abc")), line));
+        assertFalse(matches(LineFilter.anyOf(new ArrayList<>()), line));
+        assertTrue(LineFilter.anyOf(LineFilter.containing("xyz"), LineFilter.all()).isAll());
+        // Only the given range of the line is looked at
+        assertFalse(LineFilter.containing("def").matches(line, 0, 6));
+    }
+
+}
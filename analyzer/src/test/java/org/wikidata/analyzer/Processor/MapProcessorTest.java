@@ -0,0 +1,305 @@
+package org.wikidata.analyzer.Processor;
+
+import static org.junit.Assert.*;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+import org.wikidata.analyzer.Ids.EntityIds;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.helpers.ItemDocumentBuilder;
+import org.wikidata.wdtk.datamodel.helpers.StatementBuilder;
+import org.wikidata.wdtk.datamodel.interfaces.GlobeCoordinatesValue;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+public class MapProcessorTest {
+
+    private static ItemDocument item(String id, String label, double latitude, String... countries) {
+        return related(id, label, latitude, "P17", countries);
+    }
+
+    private static ItemDocument related(String id, String label, double latitude, String property, String... targets) {
+        ItemIdValue itemId = Datamodel.makeWikidataItemIdValue(id);
+        ItemDocumentBuilder builder = ItemDocumentBuilder.forItemId(itemId);
+        if (label != null) {
+            builder.withLabel(label, "en");
+        }
+        builder.withStatement(
+                StatementBuilder.forSubjectAndProperty(itemId, Datamodel.makeWikidataPropertyIdValue("P625"))
+                        .withValue(Datamodel.makeGlobeCoordinatesValue(latitude, 13.4, GlobeCoordinatesValue.PREC_DEGREE, GlobeCoordinatesValue.GLOBE_EARTH))
+                        .build()
+        );
+        for (String target : targets) {
+            builder.withStatement(
+                    StatementBuilder.forSubjectAndProperty(itemId, Datamodel.makeWikidataPropertyIdValue(property))
+                            .withValue(Datamodel.makeWikidataItemIdValue(target))
+                            .build()
+            );
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return an item whose country is not known, so that it has the relation without any target
+     */
+    private static ItemDocument unknownCountry(String id, double latitude) {
+        ItemIdValue itemId = Datamodel.makeWikidataItemIdValue(id);
+        return ItemDocumentBuilder.forItemId(itemId)
+                .withStatement(
+                        StatementBuilder.forSubjectAndProperty(itemId, Datamodel.makeWikidataPropertyIdValue("P625"))
+                                .withValue(Datamodel.makeGlobeCoordinatesValue(latitude, 13.4, GlobeCoordinatesValue.PREC_DEGREE, GlobeCoordinatesValue.GLOBE_EARTH))
+                                .build()
+                )
+                .withStatement(
+                        StatementBuilder.forSubjectAndProperty(itemId, Datamodel.makeWikidataPropertyIdValue("P17"))
+                                .withSomeValue()
+                                .build()
+                )
+                .build();
+    }
+
+    private static MapProcessor run(MapProcessor processor, ItemDocument... items) {
+        processor.setUp();
+        processor.doPreProcessing();
+        for (ItemDocument item : items) {
+            processor.processItemDocument(item);
+        }
+        processor.doPostProcessing();
+        assertTrue(processor.tearDown());
+        return processor;
+    }
+
+    private static JSONObject readGzippedJsonObject(File file) throws Exception {
+        try (Reader reader = new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8)) {
+            return (JSONObject) new JSONParser().parse(reader);
+        }
+    }
+
+    /**
+     * @return a copy of the state, as a checkpoint is written before processing continues
+     */
+    private static Serializable copy(Serializable state) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(state);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (Serializable) in.readObject();
+        }
+    }
+
+    @Test
+    public void testTearDown_writesLocationsAndGraph() throws Exception {
+        MapProcessor processor = run(
+                new MapProcessor(),
+                item("Q64", "Berlin \"city\"", 52.5, "Q183"),
+                item("Q1741", null, 48.2, "Q40", "Q183"),
+                // No coordinates, so not on the map
+                ItemDocumentBuilder.forItemId(Datamodel.makeWikidataItemIdValue("Q5")).build()
+        );
+
+        JSONObject locations = WikidataAnalyzerProcessor.readJsonObject(new File(processor.outputDir, "wdlabel.json"));
+        assertEquals(2, locations.size());
+        JSONObject berlin = (JSONObject) locations.get("Q64");
+        assertEquals(52.5, (Double) berlin.get("x"), 0);
+        assertEquals(13.4, (Double) berlin.get("y"), 0);
+        assertEquals("Berlin \"city\"", berlin.get("label"));
+        assertEquals("-", ((JSONObject) locations.get("Q1741")).get("label"));
+
+        JSONObject graph = WikidataAnalyzerProcessor.readJsonObject(new File(processor.outputDir, "graph.json"));
+        JSONObject countries = (JSONObject) graph.get("P17");
+        assertEquals(Arrays.asList("Q183"), countries.get("Q64"));
+        assertEquals(Arrays.asList("Q40", "Q183"), countries.get("Q1741"));
+    }
+
+    @Test
+    public void testTearDown_writesNdjson() throws Exception {
+        MapProcessor processor = new MapProcessor();
+        processor.setLocationFormat("ndjson");
+        run(processor, item("Q64", "Berlin", 52.5), item("Q1741", "Vienna", 48.2));
+
+        List<String> lines = Files.readAllLines(new File(processor.outputDir, "wdlabel.ndjson").toPath());
+        assertEquals(2, lines.size());
+        JSONObject berlin = (JSONObject) new JSONParser().parse(lines.get(0));
+        assertEquals("Q64", berlin.get("id"));
+        assertEquals(52.5, (Double) berlin.get("x"), 0);
+        assertEquals("Berlin", berlin.get("label"));
+    }
+
+    @Test
+    public void testTearDown_writesCsrGraph() throws Exception {
+        MapProcessor processor = new MapProcessor();
+        processor.setGraphFormat("csr");
+        run(
+                processor,
+                item("Q64", "Berlin", 52.5, "Q183"),
+                item("Q1741", "Vienna", 48.2, "Q40", "Q183"),
+                item("Q90", "Paris", 48.9)
+        );
+
+        CsrGraph graph = CsrGraph.map(new File(processor.outputDir, "graph.csr"));
+        // Paris has no relations
+        assertEquals(4, graph.getNodeCount());
+        assertEquals(EntityIds.encode("Q40"), graph.getNodeCode(0));
+        assertEquals(-1, graph.getNode(EntityIds.encode("Q90")));
+        assertEquals(1, graph.getRelationCount());
+        assertEquals(EntityIds.encode("P17"), graph.getProperty(0));
+        int[] targets = graph.getTargets(0, graph.getNode(EntityIds.encode("Q1741")));
+        assertEquals(2, targets.length);
+        assertEquals(EntityIds.encode("Q40"), graph.getNodeCode(targets[0]));
+        assertEquals(EntityIds.encode("Q183"), graph.getNodeCode(targets[1]));
+        assertEquals(0, graph.getTargets(0, graph.getNode(EntityIds.encode("Q183"))).length);
+    }
+
+    @Test
+    public void testTearDown_writesGraphAnalysis() throws Exception {
+        MapProcessor processor = new MapProcessor();
+        processor.setGraphAnalysis(true);
+        run(
+                processor,
+                // Belgium has no coordinates, so it can not list Germany
+                related("Q183", "Germany", 51.0, "P47", "Q40", "Q39", "Q31"),
+                related("Q40", "Austria", 47.6, "P47", "Q183"),
+                // Switzerland does not list Germany
+                related("Q39", "Switzerland", 46.8, "P47", "Q40"),
+                item("Q64", "Berlin", 52.5, "Q183"),
+                item("Q90", "Paris", 48.9, "Q142")
+        );
+
+        JSONObject report = WikidataAnalyzerProcessor.readJsonObject(new File(processor.outputDir, "graph_report.json"));
+        assertEquals(7L, report.get("nodes"));
+        JSONObject components = (JSONObject) report.get("components");
+        assertEquals(2L, components.get("count"));
+        assertEquals(5L, components.get("largest"));
+
+        JSONObject borders = (JSONObject) ((JSONObject) report.get("relations")).get("P47");
+        assertEquals(5L, borders.get("edges"));
+        assertEquals(3L, ((JSONObject) borders.get("inDegrees")).get("1"));
+        assertEquals(1L, ((JSONObject) borders.get("inDegrees")).get("2"));
+        assertEquals(2L, borders.get("unreciprocated"));
+        assertEquals(
+                Arrays.asList(Arrays.asList("Q39", "Q40"), Arrays.asList("Q183", "Q39")),
+                borders.get("unreciprocatedExamples")
+        );
+        assertEquals(1L, borders.get("unknownTargets"));
+        assertFalse(((JSONObject) ((JSONObject) report.get("relations")).get("P17")).containsKey("unreciprocated"));
+    }
+
+    @Test
+    public void testTearDown_writesSpatialIndex() throws Exception {
+        MapProcessor processor = new MapProcessor();
+        processor.setLocationFormat("ndjson.gz");
+        processor.setSpatialIndex(true);
+        run(processor, item("Q64", "Berlin", 52.5), item("Q1741", "Vienna", 48.2), item("Q90", "Paris", 48.9));
+
+        SpatialIndex index = SpatialIndex.map(new File(processor.outputDir, "wdlabel.idx"));
+        assertEquals(3, index.size());
+        // All items are at longitude 13.4
+        int[] found = index.search(48.5, 13.0, 53.0, 14.0);
+        assertEquals(2, found.length);
+        assertEquals(EntityIds.encode("Q1741"), index.getCode(index.nearest(48.0, 16.0, 1)[0]));
+    }
+
+    @Test
+    public void testTearDown_rendersDensityMaps() throws Exception {
+        MapProcessor processor = new MapProcessor();
+        processor.setDensityMapSizes("icon,tiny");
+        processor.setUp();
+        processor.doPreProcessing();
+        processor.processItemDocument(item("Q64", "Berlin", 52.5));
+        MapProcessor shard = (MapProcessor) processor.createShard();
+        shard.processItemDocument(item("Q1741", "Vienna", 52.5));
+        processor.mergeShard(shard);
+        processor.doPostProcessing();
+        assertTrue(processor.tearDown());
+
+        BufferedImage icon = ImageIO.read(new File(processor.outputDir, "geo2png/map_icon.png"));
+        assertEquals(80, icon.getWidth());
+        assertEquals(80, icon.getHeight());
+        // Both items are on the same pixel, which is counted as geo2png.py did
+        assertEquals(new Color(160, 10, 2), new Color(icon.getRGB(42, 16)));
+        assertEquals(new Color(0, 0, 0), new Color(icon.getRGB(0, 0)));
+        BufferedImage tiny = ImageIO.read(new File(processor.outputDir, "geo2png/map_tiny.png"));
+        assertEquals(500, tiny.getWidth());
+        assertEquals(new Color(200, 20, 4), new Color(tiny.getRGB(267, 51)));
+        assertFalse(new File(processor.outputDir, "geo2png/map_small.png").exists());
+    }
+
+    @Test
+    public void testResumeFromCheckpoint_dropsLocationsWrittenAfterIt() throws Exception {
+        MapProcessor processor = new MapProcessor();
+        processor.setLocationFormat("json.gz");
+        processor.setUp();
+        processor.doPreProcessing();
+        processor.processItemDocument(item("Q64", "Berlin", 52.5, "Q183"));
+        Serializable state = copy(processor.getCheckpointState());
+        // Written after the checkpoint by a run that was then interrupted
+        processor.processItemDocument(item("Q1741", "Vienna", 48.2, "Q40"));
+        processor.getCheckpointState();
+
+        MapProcessor resumed = new MapProcessor();
+        resumed.setOutputDir(processor.outputDir);
+        resumed.setLocationFormat("json.gz");
+        resumed.resumeFromCheckpoint(state);
+        resumed.processItemDocument(item("Q90", "Paris", 48.9, "Q142"));
+        resumed.doPostProcessing();
+        assertTrue(resumed.tearDown());
+
+        JSONObject locations = readGzippedJsonObject(new File(processor.outputDir, "wdlabel.json.gz"));
+        assertEquals(2, locations.size());
+        assertEquals("Berlin", ((JSONObject) locations.get("Q64")).get("label"));
+        assertEquals("Paris", ((JSONObject) locations.get("Q90")).get("label"));
+        JSONObject countries = (JSONObject) WikidataAnalyzerProcessor.readJsonObject(new File(processor.outputDir, "graph.json")).get("P17");
+        assertEquals(2, countries.size());
+        assertFalse(countries.containsKey("Q1741"));
+    }
+
+    @Test
+    public void testMergeOutput_addsItemsOfShards() throws Exception {
+        MapProcessor first = run(new MapProcessor(), item("Q64", "Berlin", 52.5, "Q183"), unknownCountry("Q2", 50.0));
+        MapProcessor second = new MapProcessor();
+        second.setLocationFormat("ndjson.gz");
+        second.setGraphFormat("csr");
+        run(second, item("Q1741", "Vienna", 48.2, "Q40"), unknownCountry("Q3", 50.0));
+
+        MapProcessor merged = new MapProcessor();
+        merged.setUp();
+        merged.doPreProcessing();
+        merged.mergeOutput(first.outputDir);
+        merged.mergeOutput(second.outputDir);
+        // Shards write their locations straight away, so only their relations are merged
+        MapProcessor shard = (MapProcessor) merged.createShard();
+        shard.processItemDocument(item("Q90", "Paris", 48.9, "Q142"));
+        merged.mergeShard(shard);
+        merged.doPostProcessing();
+        assertTrue(merged.tearDown());
+
+        JSONObject locations = WikidataAnalyzerProcessor.readJsonObject(new File(merged.outputDir, "wdlabel.json"));
+        assertEquals(5, locations.size());
+        assertEquals("Vienna", ((JSONObject) locations.get("Q1741")).get("label"));
+        assertEquals("Paris", ((JSONObject) locations.get("Q90")).get("label"));
+        JSONObject countries = (JSONObject) WikidataAnalyzerProcessor.readJsonObject(new File(merged.outputDir, "graph.json")).get("P17");
+        // Items without a known country are left out the same for both formats of the shards
+        assertEquals(3, countries.size());
+        assertEquals(Arrays.asList("Q40"), countries.get("Q1741"));
+    }
+
+}
@@ -86,6 +86,7 @@ public class MetricProcessorTest {
 
 
 
+        processor.setUp();
         processor.doPreProcessing();
         processor.processItemDocument( itemDoc );
         processor.processPropertyDocument( propDocOne );
@@ -0,0 +1,97 @@
+package org.wikidata.analyzer.Processor;
+
+import org.wikidata.analyzer.Ids.IdMap;
+import org.wikidata.analyzer.Ids.IdSet;
+import org.wikidata.analyzer.Processor.CounterRegistry.EntityCounters;
+import org.wikidata.analyzer.Processor.CounterRegistry.PropertyCounters;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports how fast MetricProcessor looks up reference snaks, both with a list of reference properties and
+ * a map of Wikimedia projects by their item id as it used to, and with the bitset and dense index it uses now.
+ *
+ * Every snak checks its property against the reference properties, and the value of the snak against the projects.
+ *
+ * Usage: java -cp toolkit-analyzer.jar org.wikidata.analyzer.Processor.ReferenceLookupBenchmark [SNAKS]
+ */
+public class ReferenceLookupBenchmark {
+
+    private static final int PROPERTIES = 5000;
+    private static final int ITEMS = 4000;
+
+    /**
+     * Every this many properties is intended for references, which gives some hundreds as on Wikidata
+     */
+    private static final int REFERENCE_PROPERTY_STEP = 8;
+
+    /**
+     * Every this many items is a Wikimedia project
+     */
+    private static final int WIKIMEDIA_STEP = 4;
+
+    public static void main(String[] args) {
+        int snaks = args.length > 0 ? Integer.parseInt(args[0]) : 20000000;
+        String[] propertyIds = new String[PROPERTIES];
+        List<String> referenceProperties = new ArrayList<>();
+        for (int i = 0; i < PROPERTIES; i++) {
+            propertyIds[i] = "P" + (i + 1);
+            if (i % REFERENCE_PROPERTY_STEP == 0) {
+                referenceProperties.add(propertyIds[i]);
+            }
+        }
+        String[] itemIds = new String[ITEMS];
+        Map<String, String> wikimedias = new HashMap<>();
+        for (int i = 0; i < ITEMS; i++) {
+            itemIds[i] = "Q" + (i * 37 + 1000);
+            if (i % WIKIMEDIA_STEP == 0) {
+                wikimedias.put(itemIds[i], "wiki" + i);
+            }
+        }
+
+        // Twice, so the second round is measured after the JIT compiled everything
+        for (int round = 0; round < 2; round++) {
+            Map<String, Double> counters = new HashMap<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < snaks; i++) {
+                String propertyId = propertyIds[i % PROPERTIES];
+                if (referenceProperties.contains(propertyId)) {
+                    incrementByKey(counters, "references.snaks.prop." + propertyId);
+                }
+                String itemId = itemIds[i % ITEMS];
+                if (wikimedias.containsKey(itemId)) {
+                    incrementByKey(counters, "references.snaks.wm." + wikimedias.get(itemId));
+                }
+            }
+            report("List and HashMap", snaks, System.nanoTime() - start, counters.size());
+
+            CounterRegistry registry = new CounterRegistry();
+            PropertyCounters propertyCounters = registry.propertyCounters(
+                    "references.snaks.prop.",
+                    IdSet.of(referenceProperties)
+            );
+            EntityCounters wikimediaCounters = registry.entityCounters("references.snaks.wm.", IdMap.of(wikimedias));
+            start = System.nanoTime();
+            for (int i = 0; i < snaks; i++) {
+                registry.increment(propertyCounters, propertyIds[i % PROPERTIES]);
+                registry.increment(wikimediaCounters, itemIds[i % ITEMS]);
+            }
+            report("BitSet and IdIndex", snaks, System.nanoTime() - start, registry.toMap().size());
+        }
+    }
+
+    private static void incrementByKey(Map<String, Double> counters, String counter) {
+        if (!counters.containsKey(counter)) {
+            counters.put(counter, (double) 0);
+        }
+        counters.put(counter, counters.get(counter) + 1);
+    }
+
+    private static void report(String lookups, int snaks, long nanos, int counters) {
+        System.out.println(String.format("  %-30s %8.1f ns per snak, %d counters", lookups, (double) nanos / snaks, counters));
+    }
+
+}
@@ -0,0 +1,129 @@
+package org.wikidata.analyzer.Processor;
+
+import static org.junit.Assert.*;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.helpers.ItemDocumentBuilder;
+import org.wikidata.wdtk.datamodel.helpers.StatementBuilder;
+import org.wikidata.wdtk.datamodel.implementation.ItemIdValueImpl;
+import org.wikidata.wdtk.datamodel.implementation.PropertyIdValueImpl;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class SamplingProcessorTest {
+
+    private static final int ITEMS = 4000;
+
+    private static ItemDocument item(int number, String language) {
+        ItemIdValue itemId = ItemIdValueImpl.create("Q" + number, Datamodel.SITE_WIKIDATA);
+        return ItemDocumentBuilder.forItemId(itemId)
+                .withStatement(
+                        StatementBuilder.forSubjectAndProperty(itemId, PropertyIdValueImpl.create("P1", Datamodel.SITE_WIKIDATA))
+                                .withValue(Datamodel.makeMonolingualTextValue("text", language))
+                                .build()
+                )
+                .build();
+    }
+
+    /**
+     * Runs a MonolingualTextProcessor over ITEMS items, every tenth of which is in German and the rest in English
+     */
+    private static class Run {
+
+        final MonolingualTextProcessor counter = new MonolingualTextProcessor();
+        final SamplingProcessor processor;
+        final File outputDir;
+
+        Run(double rate) throws IOException {
+            this.outputDir = Files.createTempDirectory("WikidataAnalyzer-sample").toFile();
+            List<WikidataAnalyzerProcessor> processors = new ArrayList<>();
+            processors.add(this.counter);
+            this.processor = new SamplingProcessor(this.outputDir, processors, rate, 0);
+            this.processor.setUp();
+            this.processor.doPreProcessing();
+
+            // Process on two shards, as the ParallelDumpProcessor would
+            WikidataAnalyzerProcessor[] shards = {this.processor.createShard(), this.processor.createShard()};
+            for (int number = 1; number <= ITEMS; number++) {
+                shards[number % 2].processItemDocument(item(number, number % 10 == 0 ? "de" : "en"));
+            }
+            for (WikidataAnalyzerProcessor shard : shards) {
+                this.processor.mergeShard(shard);
+            }
+        }
+
+        Map<String, Double> finish() {
+            this.processor.doPostProcessing();
+            Map<String, Double> counters = this.counter.getCounters();
+            this.processor.tearDown();
+            return counters;
+        }
+
+        JSONObject readMarker() throws IOException {
+            return WikidataAnalyzerProcessor.readJsonObject(new File(this.outputDir, "sample.json"));
+        }
+    }
+
+    @Test
+    public void testDoPostProcessing_fullSampleIsExact() throws IOException {
+        Run run = new Run(1);
+        Map<String, Double> counters = run.finish();
+
+        assertEquals(3600, counters.get("en"), 0);
+        assertEquals(400, counters.get("de"), 0);
+        JSONObject marker = run.readMarker();
+        assertEquals(true, marker.get("sampled"));
+        assertEquals(1.0, (Double) marker.get("rate"), 0);
+        assertEquals((long) ITEMS, marker.get("entities"));
+        JSONObject errors = (JSONObject) ((JSONObject) marker.get("errors")).get("MonolingualTextProcessor");
+        assertEquals(0.0, (Double) errors.get("en"), 0);
+    }
+
+    @Test
+    public void testDoPostProcessing_estimatesAreWithinTheirBounds() throws IOException {
+        Run run = new Run(0.25);
+        Map<String, Double> counters = run.finish();
+
+        JSONObject marker = run.readMarker();
+        assertEquals(0.25, (Double) marker.get("rate"), 0.0001);
+        long entities = (Long) marker.get("entities");
+        assertTrue(entities > 800 && entities < 1200);
+        JSONObject errors = (JSONObject) ((JSONObject) marker.get("errors")).get("MonolingualTextProcessor");
+        for (String language : new String[]{"en", "de"}) {
+            double bound = (Double) errors.get(language);
+            assertTrue(bound > 0);
+            assertEquals(language.equals("en") ? 3600 : 400, counters.get(language), bound);
+        }
+
+        // The same entities are sampled every time
+        assertEquals(counters, new Run(0.25).finish());
+    }
+
+    @Test
+    public void testGetLineFilter_rejectsEntitiesOutsideTheSample() throws IOException {
+        Run run = new Run(0.1);
+        LineFilter filter = run.processor.getLineFilter();
+        int matched = 0;
+        for (int number = 1; number <= ITEMS; number++) {
+            byte[] data = ("{\"type\":\"item\",\"id\":\"Q" + number + "\",\"claims\":{\"type\":\"monolingualtext\"}}")
+                    .getBytes(StandardCharsets.UTF_8);
+            if (filter.matches(data, 0, data.length)) {
+                matched++;
+            }
+        }
+        run.finish();
+
+        // Exactly the entities that were sampled when processing them
+        assertEquals(run.readMarker().get("entities"), (long) matched);
+    }
+
+}
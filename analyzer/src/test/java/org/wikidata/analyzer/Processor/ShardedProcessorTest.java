@@ -0,0 +1,248 @@
+package org.wikidata.analyzer.Processor;
+
+import static org.junit.Assert.*;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.helpers.ItemDocumentBuilder;
+import org.wikidata.wdtk.datamodel.helpers.PropertyDocumentBuilder;
+import org.wikidata.wdtk.datamodel.helpers.ReferenceBuilder;
+import org.wikidata.wdtk.datamodel.helpers.StatementBuilder;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.Value;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Checks that processing entities on several shards and merging them, or the outputs of runs over
+ * shards of the dump, gives exactly the same output as processing them on a single processor.
+ */
+public class ShardedProcessorTest {
+
+    private static final String[] LANGUAGES = {"en", "de", "fr", "pt", "ja"};
+    private static final String[] UNITS = {"", "http://www.wikidata.org/entity/Q199", "http://www.wikidata.org/entity/Q11573"};
+
+    private static PropertyIdValue property(int id) {
+        return Datamodel.makeWikidataPropertyIdValue("P" + id);
+    }
+
+    private static Value randomValue(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return Datamodel.makeMonolingualTextValue("text", LANGUAGES[random.nextInt(LANGUAGES.length)]);
+            case 1:
+                BigDecimal amount = new BigDecimal(random.nextInt(1000)).movePointLeft(random.nextInt(3));
+                BigDecimal bound = random.nextBoolean() ? BigDecimal.ZERO : BigDecimal.ONE;
+                return Datamodel.makeQuantityValue(amount, amount.subtract(bound), amount.add(bound), UNITS[random.nextInt(UNITS.length)]);
+            case 2:
+                return Datamodel.makeWikidataItemIdValue("Q" + (1 + random.nextInt(20)));
+            default:
+                return Datamodel.makeStringValue("string");
+        }
+    }
+
+    private static StatementBuilder randomStatement(Random random, EntityIdValue subject) {
+        StatementBuilder builder = StatementBuilder.forSubjectAndProperty(subject, property(1 + random.nextInt(10)))
+                .withValue(randomValue(random));
+        for (int q = random.nextInt(3); q > 0; q--) {
+            builder.withQualifier(Datamodel.makeValueSnak(property(1 + random.nextInt(10)), randomValue(random)));
+        }
+        for (int r = random.nextInt(3); r > 0; r--) {
+            ReferenceBuilder reference = ReferenceBuilder.newInstance();
+            switch (random.nextInt(4)) {
+                case 0:
+                    reference.withPropertyValue(property(143), Datamodel.makeWikidataItemIdValue("Q" + (1 + random.nextInt(4))));
+                    break;
+                case 1:
+                    reference.withPropertyValue(property(248), Datamodel.makeWikidataItemIdValue(random.nextBoolean() ? "Q328" : "Q1"));
+                    break;
+                case 2:
+                    reference.withSomeValue(property(854));
+                    break;
+                default:
+                    reference.withNoValue(property(1 + random.nextInt(10)));
+            }
+            reference.withPropertyValue(property(1 + random.nextInt(10)), randomValue(random));
+            builder.withReference(reference.build());
+        }
+        return builder;
+    }
+
+    private static List<EntityDocument> documents() {
+        Random random = new Random(42);
+        List<EntityDocument> documents = new ArrayList<>();
+        for (int i = 1; i <= 200; i++) {
+            if (i % 20 == 0) {
+                PropertyIdValue id = property(1000 + i);
+                PropertyDocumentBuilder builder = PropertyDocumentBuilder.forPropertyIdAndDatatype(id, "string");
+                for (int s = random.nextInt(3); s > 0; s--) {
+                    builder.withStatement(randomStatement(random, id).build());
+                }
+                documents.add(builder.build());
+            } else {
+                ItemIdValue id = Datamodel.makeWikidataItemIdValue("Q" + (100 + i));
+                ItemDocumentBuilder builder = ItemDocumentBuilder.forItemId(id);
+                for (int s = random.nextInt(6); s > 0; s--) {
+                    builder.withStatement(randomStatement(random, id).build());
+                }
+                documents.add(builder.build());
+            }
+        }
+        return documents;
+    }
+
+    private static void process(WikidataAnalyzerProcessor processor, EntityDocument document) {
+        if (document instanceof ItemDocument) {
+            processor.processItemDocument((ItemDocument) document);
+        } else {
+            processor.processPropertyDocument((PropertyDocument) document);
+        }
+    }
+
+    private static JSONObject readJson(File file) throws Exception {
+        return WikidataAnalyzerProcessor.readJsonObject(file);
+    }
+
+    private static JSONObject runSerial(WikidataAnalyzerProcessor processor, String outputFile) throws Exception {
+        processor.setUp();
+        processor.doPreProcessing();
+        for (EntityDocument document : documents()) {
+            process(processor, document);
+        }
+        processor.doPostProcessing();
+        assertTrue(processor.tearDown());
+        return readJson(new File(processor.outputDir, outputFile));
+    }
+
+    private static JSONObject runSharded(WikidataAnalyzerProcessor processor, String outputFile, int shardCount) throws Exception {
+        processor.setUp();
+        processor.doPreProcessing();
+        List<WikidataAnalyzerProcessor> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(processor.createShard());
+        }
+        List<EntityDocument> documents = documents();
+        for (int i = 0; i < documents.size(); i++) {
+            process(shards.get(i % shardCount), documents.get(i));
+        }
+        for (WikidataAnalyzerProcessor shard : shards) {
+            processor.mergeShard(shard);
+        }
+        processor.doPostProcessing();
+        assertTrue(processor.tearDown());
+        return readJson(new File(processor.outputDir, outputFile));
+    }
+
+    private static JSONObject runMerged(Supplier<WikidataAnalyzerProcessor> processors, String outputFile, int shardCount) throws Exception {
+        List<File> shardOutputDirs = new ArrayList<>();
+        for (int i = 1; i <= shardCount; i++) {
+            DumpShard shard = new DumpShard(i, shardCount);
+            WikidataAnalyzerProcessor processor = processors.get();
+            processor.setUp();
+            processor.doPreProcessing();
+            for (EntityDocument document : documents()) {
+                if (shard.contains(document.getEntityId().getId())) {
+                    process(processor, document);
+                }
+            }
+            processor.doPostProcessing();
+            assertTrue(processor.tearDown());
+            shardOutputDirs.add(processor.outputDir);
+        }
+
+        WikidataAnalyzerProcessor merged = processors.get();
+        assertTrue(merged.canMergeOutput());
+        merged.setUp();
+        merged.doPreProcessing();
+        for (File shardOutputDir : shardOutputDirs) {
+            merged.mergeOutput(shardOutputDir);
+        }
+        merged.doPostProcessing();
+        assertTrue(merged.tearDown());
+        return readJson(new File(merged.outputDir, outputFile));
+    }
+
+    private static MetricProcessor newMetricProcessor() {
+        Map<String, String> wikimedias = new HashMap<>();
+        wikimedias.put("Q328", "enwiki");
+        wikimedias.put("Q2", "dewiki");
+        List<String> referenceProperties = new ArrayList<>(Arrays.asList("P143", "P248", "P854", "P3"));
+        return new MetricProcessor(wikimedias, referenceProperties);
+    }
+
+    @Test
+    public void testMetricProcessor() throws Exception {
+        JSONObject serial = runSerial(newMetricProcessor(), "metrics.json");
+        JSONObject sharded = runSharded(newMetricProcessor(), "metrics.json", 3);
+
+        assertFalse(serial.isEmpty());
+        assertEquals(serial, sharded);
+    }
+
+    @Test
+    public void testExactValueQuantityProcessor() throws Exception {
+        JSONObject serial = runSerial(new ExactValueQuantityProcessor(), "exactValueQuantityMetrics.json");
+        JSONObject sharded = runSharded(new ExactValueQuantityProcessor(), "exactValueQuantityMetrics.json", 3);
+
+        assertFalse(serial.isEmpty());
+        assertEquals(serial, sharded);
+    }
+
+    @Test
+    public void testMonolingualTextProcessor() throws Exception {
+        JSONObject serial = runSerial(new MonolingualTextProcessor(), "monotext.json");
+        JSONObject sharded = runSharded(new MonolingualTextProcessor(), "monotext.json", 3);
+
+        assertFalse(serial.isEmpty());
+        assertEquals(serial, sharded);
+    }
+
+    @Test
+    public void testMergeOutput_metricProcessor() throws Exception {
+        JSONObject serial = runSerial(newMetricProcessor(), "metrics.json");
+        JSONObject merged = runMerged(ShardedProcessorTest::newMetricProcessor, "metrics.json", 3);
+
+        assertEquals(serial, merged);
+    }
+
+    @Test
+    public void testMergeOutput_exactValueQuantityProcessor() throws Exception {
+        JSONObject serial = runSerial(new ExactValueQuantityProcessor(), "exactValueQuantityMetrics.json");
+        JSONObject merged = runMerged(ExactValueQuantityProcessor::new, "exactValueQuantityMetrics.json", 3);
+
+        assertEquals(serial, merged);
+    }
+
+    @Test
+    public void testMergeOutput_monolingualTextProcessor() throws Exception {
+        JSONObject serial = runSerial(new MonolingualTextProcessor(), "monotext.json");
+        JSONObject merged = runMerged(MonolingualTextProcessor::new, "monotext.json", 3);
+
+        assertEquals(serial, merged);
+    }
+
+    @Test
+    public void testNotShardable() {
+        assertNull(new BadDateProcessor().createShard());
+    }
+
+    @Test
+    public void testCanMergeOutput() {
+        assertTrue(new BadDateProcessor().canMergeOutput());
+        assertFalse(new NoisyProcessor().canMergeOutput());
+    }
+
+}
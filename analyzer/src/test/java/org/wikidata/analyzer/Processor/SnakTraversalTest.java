@@ -0,0 +1,175 @@
+package org.wikidata.analyzer.Processor;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.helpers.ItemDocumentBuilder;
+import org.wikidata.wdtk.datamodel.helpers.PropertyDocumentBuilder;
+import org.wikidata.wdtk.datamodel.helpers.ReferenceBuilder;
+import org.wikidata.wdtk.datamodel.helpers.StatementBuilder;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.Snak;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+import org.wikidata.wdtk.datamodel.interfaces.StatementDocument;
+import org.wikidata.wdtk.datamodel.interfaces.StringValue;
+import org.wikidata.wdtk.datamodel.interfaces.TimeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SnakTraversalTest {
+
+    private static class RecordingSubscriber implements SnakSubscriber, EntityDocumentProcessor {
+
+        private final SnakSubscription subscription;
+        private final SnakTraversal traversal;
+        List<String> calls = new ArrayList<>();
+
+        RecordingSubscriber(SnakSubscription subscription) {
+            this.subscription = subscription;
+            this.traversal = SnakTraversal.of(this);
+        }
+
+        @Override
+        public SnakSubscription getSnakSubscription() {
+            return this.subscription;
+        }
+
+        @Override
+        public void processItemDocument(ItemDocument item) {
+            this.traversal.traverse(item);
+        }
+
+        @Override
+        public void processPropertyDocument(PropertyDocument property) {
+            this.traversal.traverse(property);
+        }
+
+        @Override
+        public void startDocument(StatementDocument document) {
+            this.calls.add("document " + document.getEntityId().getId());
+        }
+
+        @Override
+        public void processStatement(Statement statement) {
+            this.calls.add("statement " + statement.getStatementId());
+        }
+
+        @Override
+        public void processSnak(Snak snak, SnakPosition position, Statement statement) {
+            this.calls.add(position.getLabel() + " " + snak.getPropertyId().getId() + " " + statement.getStatementId());
+        }
+    }
+
+    private static PropertyIdValue property(String id) {
+        return Datamodel.makeWikidataPropertyIdValue(id);
+    }
+
+    private static ItemDocument item() {
+        ItemIdValue id = Datamodel.makeWikidataItemIdValue("Q42");
+        return ItemDocumentBuilder.forItemId(id)
+                .withStatement(
+                        StatementBuilder.forSubjectAndProperty(id, property("P569"))
+                                .withId("s1")
+                                .withValue(Datamodel.makeTimeValue(1952, (byte) 3, (byte) 11, TimeValue.CM_GREGORIAN_PRO))
+                                .withQualifier(Datamodel.makeValueSnak(property("P1"), Datamodel.makeStringValue("a")))
+                                .withReference(ReferenceBuilder.newInstance()
+                                        .withPropertyValue(property("P813"), Datamodel.makeTimeValue(2015, (byte) 1, (byte) 1, TimeValue.CM_GREGORIAN_PRO))
+                                        .withSomeValue(property("P2"))
+                                        .build())
+                                .build()
+                )
+                .withStatement(
+                        StatementBuilder.forSubjectAndProperty(id, property("P1"))
+                                .withId("s2")
+                                .withValue(Datamodel.makeStringValue("b"))
+                                .build()
+                )
+                .build();
+    }
+
+    private static PropertyDocument property() {
+        PropertyIdValue id = property("P7");
+        return PropertyDocumentBuilder.forPropertyIdAndDatatype(id, "string")
+                .withStatement(
+                        StatementBuilder.forSubjectAndProperty(id, property("P1"))
+                                .withId("s3")
+                                .withValue(Datamodel.makeStringValue("c"))
+                                .build()
+                )
+                .build();
+    }
+
+    @Test
+    public void testSharedTraversal() {
+        RecordingSubscriber times = new RecordingSubscriber(SnakSubscription.snaksWithValue(
+                TimeValue.class,
+                SnakPosition.MAIN,
+                SnakPosition.QUALIFIER,
+                SnakPosition.REFERENCE
+        ));
+        RecordingSubscriber references = new RecordingSubscriber(SnakSubscription.allSnaks(SnakPosition.REFERENCE).withStatements());
+        RecordingSubscriber strings = new RecordingSubscriber(SnakSubscription.snaksWithValue(
+                StringValue.class,
+                SnakPosition.MAIN,
+                SnakPosition.QUALIFIER
+        ).onlyItems());
+
+        SnakTraversal traversal = new SnakTraversal();
+        traversal.addSubscriber(times);
+        traversal.addSubscriber(references);
+        traversal.addSubscriber(strings);
+        traversal.processItemDocument(item());
+        traversal.processPropertyDocument(property());
+
+        assertEquals(Arrays.asList(
+                "document Q42",
+                "main P569 s1",
+                "reference P813 s1",
+                "document P7"
+        ), times.calls);
+        assertEquals(Arrays.asList(
+                "document Q42",
+                "statement s2",
+                "statement s1",
+                "reference P813 s1",
+                "reference P2 s1",
+                "document P7",
+                "statement s3"
+        ), references.calls);
+        assertEquals(Arrays.asList(
+                "document Q42",
+                "main P1 s2",
+                "qualifier P1 s1",
+                "document P7"
+        ), strings.calls);
+    }
+
+    @Test
+    public void testBrokerSharesTraversal() {
+        RecordingSubscriber first = new RecordingSubscriber(SnakSubscription.allSnaks(SnakPosition.MAIN));
+        RecordingSubscriber second = new RecordingSubscriber(SnakSubscription.allSnaks(SnakPosition.QUALIFIER));
+
+        List<String> plainCalls = new ArrayList<>();
+        ProcessorBroker broker = new ProcessorBroker();
+        broker.registerEntityDocumentProcessor(first);
+        broker.registerEntityDocumentProcessor(new NoisyProcessor() {
+            @Override
+            public void processItemDocument(ItemDocument item) {
+                plainCalls.add(item.getItemId().getId());
+            }
+        });
+        broker.registerEntityDocumentProcessor(second);
+        broker.processItemDocument(item());
+
+        assertEquals(Arrays.asList("document Q42", "main P1 s2", "main P569 s1"), first.calls);
+        assertEquals(Arrays.asList("document Q42", "qualifier P1 s1"), second.calls);
+        assertEquals(Arrays.asList("Q42"), plainCalls);
+    }
+
+}
@@ -0,0 +1,97 @@
+package org.wikidata.analyzer.Processor;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class SpatialIndexTest {
+
+    private static SpatialIndex index(double[][] points) throws Exception {
+        SpatialIndex.Builder builder = new SpatialIndex.Builder();
+        for (int i = 0; i < points.length; i++) {
+            builder.add(i << 7 | 'Q', points[i][0], points[i][1]);
+        }
+        // Not on earth, so left out
+        builder.add(1000000 << 7 | 'Q', 91, 0);
+        File file = File.createTempFile("wdlabel", ".idx");
+        file.deleteOnExit();
+        builder.write(file);
+        return SpatialIndex.map(file);
+    }
+
+    private static double[][] randomPoints(int count) {
+        Random random = new Random(42);
+        double[][] points = new double[count][];
+        for (int i = 0; i < count; i++) {
+            points[i] = new double[]{random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180};
+        }
+        return points;
+    }
+
+    private static long[] codes(SpatialIndex index, int[] items) {
+        long[] codes = new long[items.length];
+        for (int i = 0; i < items.length; i++) {
+            codes[i] = index.getCode(items[i]);
+        }
+        return codes;
+    }
+
+    @Test
+    public void testSearch_findsItemsInBox() throws Exception {
+        double[][] points = randomPoints(5000);
+        SpatialIndex index = index(points);
+        assertEquals(5000, index.size());
+
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < points.length; i++) {
+            if (points[i][0] >= 40 && points[i][0] <= 60 && points[i][1] >= -10 && points[i][1] <= 30) {
+                expected.add((long) (i << 7 | 'Q'));
+            }
+        }
+        long[] found = codes(index, index.search(40, -10, 60, 30));
+        Arrays.sort(found);
+        assertEquals(expected.size(), found.length);
+        for (int i = 0; i < found.length; i++) {
+            assertEquals((long) expected.get(i), found[i]);
+        }
+        assertEquals(0, index.search(10, 10, 10, 10).length);
+    }
+
+    @Test
+    public void testNearest_findsNearestItemsFirst() throws Exception {
+        double[][] points = randomPoints(5000);
+        SpatialIndex index = index(points);
+
+        // Near the antimeridian, where the nearest items are on both sides of it
+        double latitude = 65.0;
+        double longitude = 179.5;
+        Integer[] order = new Integer[points.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(
+                i -> SpatialIndex.distance(latitude, longitude, points[i][0], points[i][1])
+        ));
+
+        int[] nearest = index.nearest(latitude, longitude, 20);
+        assertEquals(20, nearest.length);
+        for (int i = 0; i < nearest.length; i++) {
+            assertEquals((long) (order[i] << 7 | 'Q'), index.getCode(nearest[i]));
+        }
+    }
+
+    @Test
+    public void testNearest_emptyIndex() throws Exception {
+        SpatialIndex index = index(new double[0][]);
+        assertEquals(0, index.size());
+        assertEquals(0, index.nearest(0, 0, 5).length);
+        assertEquals(0, index.search(-90, -180, 90, 180).length);
+    }
+
+}
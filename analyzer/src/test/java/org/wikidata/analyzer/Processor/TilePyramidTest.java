@@ -0,0 +1,58 @@
+package org.wikidata.analyzer.Processor;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+
+public class TilePyramidTest {
+
+    private static final int[][] COLOURS = {{100, 10, 2}, {100, 25, 8}, {150, 40, 10}};
+
+    private static File render(int runSize) throws Exception {
+        TilePyramid tiles = new TilePyramid(2, COLOURS, runSize);
+        // Berlin twice, Sydney, and the north pole which Web Mercator leaves out
+        tiles.add(52.5, 13.4);
+        tiles.add(-33.9, 151.2);
+        tiles.add(52.5, 13.4);
+        tiles.add(89.0, 0.0);
+        File directory = Files.createTempDirectory("tiles").toFile();
+        tiles.render(directory);
+        return directory;
+    }
+
+    @Test
+    public void testRender_writesTilesWithItems() throws Exception {
+        File directory = render(1024);
+
+        BufferedImage world = ImageIO.read(new File(directory, "0/0/0.png"));
+        assertEquals(256, world.getWidth());
+        assertEquals(256, world.getHeight());
+        assertEquals(new Color(200, 20, 4), new Color(world.getRGB(137, 83)));
+        assertEquals(new Color(0, 0, 0), new Color(world.getRGB(0, 0)));
+
+        assertTrue(new File(directory, "2/2/1.png").exists());
+        assertTrue(new File(directory, "2/3/2.png").exists());
+        // Empty tiles are not written
+        assertEquals(2, new File(directory, "2").list().length);
+        assertEquals(1, new File(directory, "2/2").list().length);
+    }
+
+    @Test
+    public void testRender_mergesSortedRuns() throws Exception {
+        File inMemory = render(1024);
+        File merged = render(2);
+
+        for (String tile : new String[]{"0/0/0.png", "1/1/0.png", "1/1/1.png", "2/2/1.png", "2/3/2.png"}) {
+            assertArrayEquals(
+                    Files.readAllBytes(new File(inMemory, tile).toPath()),
+                    Files.readAllBytes(new File(merged, tile).toPath())
+            );
+        }
+    }
+
+}